@@ -0,0 +1,72 @@
+package ch.bbw.m320.stocktrading.benchmark;
+
+import ch.bbw.m320.stocktrading.model.Money;
+import ch.bbw.m320.stocktrading.model.Stock;
+import ch.bbw.m320.stocktrading.service.BacktestResult;
+import ch.bbw.m320.stocktrading.service.Backtester;
+import ch.bbw.m320.stocktrading.service.MarketTape;
+import ch.bbw.m320.stocktrading.service.MovingAverageCrossStrategy;
+import ch.bbw.m320.stocktrading.service.TradingStrategy;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Measures a parameter sweep of the {@link Backtester}: one moving-average strategy per
+ * parameter set, replayed in parallel over the same tape (target: 50M ticks/sec aggregate).
+ * Ticks per second are runs x {@value #STOCKS} x {@value #TICKS_PER_STOCK} divided by the time per operation.
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BacktesterBenchmark {
+    private static final int STOCKS = 100;
+    private static final int TICKS_PER_STOCK = 20_000;
+
+    @Param({"1", "16"})
+    int runs;
+
+    private MarketTape tape;
+    private Backtester backtester;
+    private List<Supplier<TradingStrategy>> strategies;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(42);
+        LocalDateTime start = LocalDateTime.of(2024, 1, 1, 9, 0);
+        Map<String, List<Stock.PricePoint>> histories = new HashMap<>();
+        for (int s = 0; s < STOCKS; s++) {
+            List<Stock.PricePoint> history = new ArrayList<>(TICKS_PER_STOCK);
+            long price = 100_000_000L;
+            for (int i = 0; i < TICKS_PER_STOCK; i++) {
+                price = Math.max(1_000_000L, price + random.nextLong(-250_000, 250_001));
+                history.add(new Stock.PricePoint(Money.ofMicros(price), start.plusNanos(i * 1_000_000L + s)));
+            }
+            histories.put("BT" + s, history);
+        }
+        tape = MarketTape.of(histories);
+
+        backtester = new Backtester();
+        backtester.setKeepTransactions(false);
+        strategies = new ArrayList<>();
+        for (int i = 0; i < runs; i++) {
+            int fastWindow = 2 + i % 8;
+            int slowWindow = 20 + 10 * (i / 8);
+            strategies.add(() -> new MovingAverageCrossStrategy(fastWindow, slowWindow, 10));
+        }
+    }
+
+    @Benchmark
+    public List<BacktestResult> sweep() {
+        return backtester.runAll(tape, strategies, Money.of("100000"));
+    }
+}
@@ -0,0 +1,36 @@
+package ch.bbw.m320.stocktrading.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of benchmarks.jar.
+ * Runs the selected benchmarks with the GC profiler, so every result reports the allocation
+ * rate (gc.alloc.rate.norm = bytes per operation) next to throughput and average time.
+ * All standard JMH command line options still work, e.g. {@code -p userCount=1000}.
+ *
+ * The repositories write to ./data, so run the jar from a scratch directory
+ * (e.g. target/) to keep benchmark data away from the application data.
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result("jmh-result.json")
+                .build();
+
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,61 @@
+package ch.bbw.m320.stocktrading.benchmark;
+
+import ch.bbw.m320.stocktrading.model.Candle;
+import ch.bbw.m320.stocktrading.model.CandleEngine;
+import ch.bbw.m320.stocktrading.model.CandleInterval;
+import ch.bbw.m320.stocktrading.model.SymbolRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how fast the {@link CandleEngine} folds a tick into all of its intervals,
+ * and how long a query of the latest bars takes once the rings are full.
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CandleEngineBenchmark {
+    private static final long TICK_NANOS = 1_000_000L; // 1000 ticks per second
+
+    @Param({"1", "1000"})
+    int symbolCount;
+
+    private CandleEngine engine;
+    private int[] symbolIds;
+    private long sequence;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        engine = new CandleEngine();
+        symbolIds = new int[symbolCount];
+        for (int i = 0; i < symbolCount; i++) {
+            symbolIds[i] = SymbolRegistry.getInstance().idOf("CNDL" + i);
+        }
+        // Fill every ring, so ticks overwrite old bars as in a long-running market
+        for (long t = 0; t < CandleEngine.DEFAULT_CAPACITY * 2L * 1000; t += 1000) {
+            for (int symbolId : symbolIds) {
+                engine.onTick(symbolId, t * TICK_NANOS, 100_000_000L + (t & 1023), t);
+            }
+        }
+        sequence = CandleEngine.DEFAULT_CAPACITY * 2L * 1000;
+    }
+
+    @Benchmark
+    public void onTick() {
+        long next = sequence++;
+        engine.onTick(symbolIds[(int) (next % symbolCount)], next * TICK_NANOS, 100_000_000L + (next & 1023), next);
+    }
+
+    @Benchmark
+    public List<Candle> latestMinuteBars() {
+        return engine.getLatestCandles("CNDL0", CandleInterval.MINUTE, 100);
+    }
+}
@@ -0,0 +1,68 @@
+package ch.bbw.m320.stocktrading.benchmark;
+
+import ch.bbw.m320.stocktrading.model.IndicatorEngine;
+import ch.bbw.m320.stocktrading.model.IndicatorType;
+import ch.bbw.m320.stocktrading.model.SymbolRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.OptionalDouble;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of a tick in the {@link IndicatorEngine} with SMA, EMA, RSI and
+ * both Bollinger bands tracked on every symbol, and the cost of reading an indicator.
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IndicatorEngineBenchmark {
+    private static final IndicatorType[] TYPES = {
+            IndicatorType.SMA, IndicatorType.EMA, IndicatorType.RSI,
+            IndicatorType.BOLLINGER_UPPER, IndicatorType.BOLLINGER_LOWER
+    };
+
+    @Param({"100", "5000"})
+    int symbolCount;
+
+    @Param({"20", "200"})
+    int window;
+
+    private IndicatorEngine engine;
+    private int[] symbolIds;
+    private long sequence;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        engine = new IndicatorEngine();
+        symbolIds = new int[symbolCount];
+        for (int i = 0; i < symbolCount; i++) {
+            symbolIds[i] = SymbolRegistry.getInstance().idOf("IND" + i);
+            for (IndicatorType type : TYPES) {
+                engine.getIndicator("IND" + i, type, window);
+            }
+        }
+        // Fill every window, so each tick also removes a price
+        for (int tick = 0; tick <= window; tick++) {
+            for (int symbolId : symbolIds) {
+                engine.onTick(symbolId, tick, 100_000_000L + (tick & 1023), tick);
+            }
+        }
+    }
+
+    @Benchmark
+    public void onTick() {
+        long next = sequence++;
+        engine.onTick(symbolIds[(int) (next % symbolCount)], next, 100_000_000L + (next * 7919 & 0xFFFFF), next);
+    }
+
+    @Benchmark
+    public OptionalDouble getIndicator() {
+        return engine.getIndicator("IND0", IndicatorType.RSI, window);
+    }
+}
@@ -0,0 +1,89 @@
+package ch.bbw.m320.stocktrading.benchmark;
+
+import ch.bbw.m320.stocktrading.model.MarketSimulator;
+import ch.bbw.m320.stocktrading.model.Money;
+import ch.bbw.m320.stocktrading.model.PriceHistory;
+import ch.bbw.m320.stocktrading.model.Stock;
+import ch.bbw.m320.stocktrading.model.TickBus;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures one simulation step of {@link MarketSimulator} for large stock universes,
+ * with plain GBM and with jumps.
+ *
+ * Like in the market, every price change is published on a {@link TickBus} with a DROP
+ * subscriber attached. The step runs in a pool of {@code threads} workers, so comparing the
+ * thread counts shows how well the chunks scale, with ticks published one by one or in a
+ * batch per chunk ({@code batched}). Use {@code -p} to pick a subset of the parameters.
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Benchmark)
+public class MarketSimulatorBenchmark {
+    @Param({"10000", "1000000"})
+    int symbolCount;
+
+    @Param({"false", "true"})
+    boolean jumps;
+
+    @Param({"1", "2", "4", "8"})
+    int threads;
+
+    @Param({"false", "true"})
+    boolean batched;
+
+    private MarketSimulator simulator;
+    private TickBus tickBus;
+    private ForkJoinPool pool;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        tickBus = new TickBus();
+        tickBus.subscribe("bench", (symbolId, epochNanos, priceMicros, version) -> { },
+                TickBus.SlowConsumerPolicy.DROP);
+        Stock.PriceListener publisher = (stock, snapshot) -> tickBus.publish(stock.getSymbolId(),
+                PriceHistory.toEpochNanos(snapshot.getTimestamp()), snapshot.getPrice().getMicros(),
+                snapshot.getVersion());
+
+        List<Stock> stocks = new ArrayList<>(symbolCount);
+        for (int i = 0; i < symbolCount; i++) {
+            Stock stock = new Stock("SYM" + i, "Simulated " + i, Money.of("100.00"));
+            stock.addPriceListener(publisher);
+            stocks.add(stock);
+        }
+        simulator = new MarketSimulator(stocks, 42);
+        if (jumps) {
+            simulator.setJumps(5, -0.05, 0.1);
+        }
+        if (batched) {
+            simulator.setTickBus(tickBus);
+        }
+        pool = new ForkJoinPool(threads);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        simulator.shutdown();
+        pool.shutdown();
+        tickBus.close();
+    }
+
+    /**
+     * One step; its parallel stream runs in the pool of the benchmark's thread count.
+     */
+    @Benchmark
+    public void step() {
+        pool.submit(simulator::step).join();
+    }
+}
@@ -0,0 +1,90 @@
+package ch.bbw.m320.stocktrading.benchmark;
+
+import ch.bbw.m320.stocktrading.exception.InsufficientBalanceException;
+import ch.bbw.m320.stocktrading.exception.InsufficientStockException;
+import ch.bbw.m320.stocktrading.exception.StockNotFoundException;
+import ch.bbw.m320.stocktrading.model.Money;
+import ch.bbw.m320.stocktrading.model.StockMarket;
+import ch.bbw.m320.stocktrading.model.Transaction;
+import ch.bbw.m320.stocktrading.model.User;
+import ch.bbw.m320.stocktrading.service.LimitOrder;
+import ch.bbw.m320.stocktrading.service.MatchingEngine;
+import ch.bbw.m320.stocktrading.service.TradingService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link MatchingEngine#submitLimitOrder}, both for orders that rest in the book
+ * and for orders that cross it, so {@code OrderBook.match} and the settlement run on every call.
+ * SampleTime reports the latency percentiles (the book lock shows up in the tail with {@code -t N}),
+ * Throughput the orders per microsecond.
+ *
+ * Fills are not saved (no repository), so the numbers cover matching and settlement only.
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+@BenchmarkMode({Mode.SampleTime, Mode.Throughput})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class MatchingEngineBenchmark {
+    private static final String SYMBOL = "AAPL";
+    private static final Money UNLIMITED_BALANCE = Money.of("1000000000000");
+    private static final int INITIAL_SHARES = Integer.MAX_VALUE / 2;
+    private static final Money CROSSING_PRICE = Money.of("150");
+    private static final Money RESTING_PRICE = Money.of("0.01"); // far below every ask
+
+    private MatchingEngine matchingEngine;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        StockMarket.getInstance();
+        matchingEngine = new MatchingEngine(new TradingService());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        StockMarket.getInstance().shutdown();
+    }
+
+    /**
+     * A user per benchmark thread with enough money and shares for any number of orders.
+     * Recreated before every iteration so its transaction history does not fill the heap.
+     */
+    @State(Scope.Thread)
+    public static class Trader {
+        User user;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            user = new User("bench-" + Thread.currentThread().getName(), UNLIMITED_BALANCE);
+            user.getPortfolio().addStock(SYMBOL, INITIAL_SHARES);
+        }
+    }
+
+    /**
+     * Rests a buy order below the market and cancels it again: insert and removal, no fill.
+     */
+    @Benchmark
+    public boolean restAndCancel(Trader trader)
+            throws StockNotFoundException, InsufficientBalanceException, InsufficientStockException {
+        LimitOrder order = matchingEngine.submitLimitOrder(trader.user, SYMBOL,
+                Transaction.TransactionType.BUY, 1, RESTING_PRICE);
+        return matchingEngine.cancelOrder(order);
+    }
+
+    /**
+     * Rests a sell order and crosses it with a buy order at the same price: one fill per call,
+     * matched against whichever sell order is first in the queue.
+     */
+    @Benchmark
+    public LimitOrder crossSpread(Trader trader)
+            throws StockNotFoundException, InsufficientBalanceException, InsufficientStockException {
+        matchingEngine.submitLimitOrder(trader.user, SYMBOL, Transaction.TransactionType.SELL, 1, CROSSING_PRICE);
+        return matchingEngine.submitLimitOrder(trader.user, SYMBOL, Transaction.TransactionType.BUY, 1, CROSSING_PRICE);
+    }
+}
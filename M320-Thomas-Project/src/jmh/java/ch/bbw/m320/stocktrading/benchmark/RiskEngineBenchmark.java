@@ -0,0 +1,79 @@
+package ch.bbw.m320.stocktrading.benchmark;
+
+import ch.bbw.m320.stocktrading.model.*;
+import ch.bbw.m320.stocktrading.service.RiskEngine;
+import ch.bbw.m320.stocktrading.service.RiskReport;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures an end-of-day batch of the {@link RiskEngine}: scenario generation for
+ * {@value #STOCKS} correlated stocks plus 1-day and 10-day VaR and expected shortfall
+ * for {@value #USERS} portfolios, on the common fork/join pool.
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RiskEngineBenchmark {
+    private static final int STOCKS = 10;
+    private static final int DAYS = 250;
+    private static final int USERS = 100;
+
+    @Param({"100000", "1000000"})
+    int scenarios;
+
+    private RiskEngine riskEngine;
+    private List<User> users;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(42);
+        StockMarket stockMarket = StockMarket.getInstance();
+        LocalDateTime start = LocalDateTime.of(2024, 1, 1, 16, 0);
+        double[] market = new double[DAYS + 1];
+        for (int day = 1; day <= DAYS; day++) {
+            market[day] = random.nextGaussian() * 0.01;
+        }
+        for (int s = 0; s < STOCKS; s++) {
+            // One market factor plus noise, so the stocks are correlated
+            List<Stock.PricePoint> history = new ArrayList<>(DAYS + 1);
+            long price = 100_000_000L;
+            for (int day = 0; day <= DAYS; day++) {
+                if (day > 0) {
+                    double logReturn = market[day] + random.nextGaussian() * 0.015;
+                    price = Math.max(1_000_000L, Math.round(price * Math.exp(logReturn)));
+                }
+                history.add(new Stock.PricePoint(Money.ofMicros(price), start.plusDays(day)));
+            }
+            stockMarket.addStock(new Stock("RISK" + s, "Risk " + s, Money.ofMicros(price), history));
+        }
+
+        users = new ArrayList<>(USERS);
+        for (int u = 0; u < USERS; u++) {
+            Portfolio portfolio = new Portfolio();
+            for (int s = 0; s < STOCKS; s++) {
+                if (random.nextInt(3) > 0) {
+                    portfolio.addStock("RISK" + s, 1 + random.nextInt(100));
+                }
+            }
+            users.add(new User("R" + u, "risk" + u, Money.ZERO, portfolio, null));
+        }
+
+        riskEngine = new RiskEngine();
+        riskEngine.setScenarioCount(scenarios);
+    }
+
+    @Benchmark
+    public RiskReport endOfDay() {
+        return riskEngine.assess(users);
+    }
+}
@@ -0,0 +1,62 @@
+package ch.bbw.m320.stocktrading.benchmark;
+
+import ch.bbw.m320.stocktrading.model.Money;
+import ch.bbw.m320.stocktrading.model.Portfolio;
+import ch.bbw.m320.stocktrading.model.Stock;
+import ch.bbw.m320.stocktrading.model.StockMarket;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks stock lookups, portfolio valuation and the price simulation of {@link StockMarket}.
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class StockMarketBenchmark {
+    private StockMarket stockMarket;
+    private Portfolio portfolio;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        stockMarket = StockMarket.getInstance();
+
+        // A portfolio holding every listed stock
+        portfolio = new Portfolio();
+        int quantity = 1;
+        for (Stock stock : stockMarket.getAllStocks()) {
+            portfolio.addStock(stock.getSymbol(), quantity++);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        stockMarket.shutdown();
+    }
+
+    @Benchmark
+    public Stock getStock() {
+        return stockMarket.getStock("AAPL");
+    }
+
+    @Benchmark
+    public Money calculateTotalValue() {
+        return portfolio.calculateTotalValue(stockMarket);
+    }
+
+    /**
+     * Includes enqueueing the changed stocks for the write-behind queue;
+     * the disk writes themselves happen on the flusher thread.
+     */
+    @Benchmark
+    public void simulatePriceChanges() {
+        stockMarket.simulatePriceChanges();
+    }
+}
@@ -0,0 +1,54 @@
+package ch.bbw.m320.stocktrading.benchmark;
+
+import ch.bbw.m320.stocktrading.model.Money;
+import ch.bbw.m320.stocktrading.model.Stock;
+import ch.bbw.m320.stocktrading.repository.StockSnapshotStore;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures writing a crash-safe stock snapshot (including fsync and rename) and reading
+ * the newest one back with its checksums, at different market sizes.
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class StockSnapshotBenchmark {
+    @Param({"1000", "100000"})
+    int stockCount;
+
+    private StockSnapshotStore store;
+    private List<Stock> stocks;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        store = new StockSnapshotStore(Files.createTempDirectory("snapshot-bench"));
+        stocks = new ArrayList<>(stockCount);
+        for (int i = 0; i < stockCount; i++) {
+            stocks.add(new Stock("SYM" + i, "Company " + i, Money.ofMicros(100_000_000L + i)));
+        }
+        store.write(stocks);
+    }
+
+    @Benchmark
+    public void write() throws IOException {
+        store.write(stocks);
+    }
+
+    @Benchmark
+    public List<StockSnapshotStore.Entry> readNewest() throws IOException {
+        return store.readNewest();
+    }
+}
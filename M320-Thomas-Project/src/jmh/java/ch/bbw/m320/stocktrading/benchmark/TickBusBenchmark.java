@@ -0,0 +1,68 @@
+package ch.bbw.m320.stocktrading.benchmark;
+
+import ch.bbw.m320.stocktrading.model.SymbolRegistry;
+import ch.bbw.m320.stocktrading.model.TickBus;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures publish throughput of the {@link TickBus} (target: 10M ticks/sec)
+ * with subscribers of each slow-consumer policy attached, from one publisher
+ * and from four publishers racing for slots.
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TickBusBenchmark {
+    @Param({"BLOCK", "DROP"})
+    TickBus.SlowConsumerPolicy policy;
+
+    @Param({"1", "4"})
+    int subscriberCount;
+
+    private TickBus tickBus;
+    private int symbolId;
+    private long sequence;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        tickBus = new TickBus();
+        symbolId = SymbolRegistry.getInstance().idOf("AAPL");
+        for (int i = 0; i < subscriberCount; i++) {
+            tickBus.subscribe("bench-" + i, (id, epochNanos, priceMicros, version) -> { }, policy);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        tickBus.close();
+    }
+
+    /**
+     * Sequence of one publishing thread.
+     */
+    @State(Scope.Thread)
+    public static class Publisher {
+        long sequence;
+    }
+
+    @Benchmark
+    public void publish() {
+        long next = sequence++;
+        tickBus.publish(symbolId, next, 175_500_000L + (next & 1023), next);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void publishConcurrently(Publisher publisher) {
+        long next = publisher.sequence++;
+        tickBus.publish(symbolId, next, 175_500_000L + (next & 1023), next);
+    }
+}
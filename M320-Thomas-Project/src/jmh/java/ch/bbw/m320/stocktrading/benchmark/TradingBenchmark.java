@@ -0,0 +1,74 @@
+package ch.bbw.m320.stocktrading.benchmark;
+
+import ch.bbw.m320.stocktrading.exception.InsufficientBalanceException;
+import ch.bbw.m320.stocktrading.exception.InsufficientStockException;
+import ch.bbw.m320.stocktrading.exception.StockNotFoundException;
+import ch.bbw.m320.stocktrading.model.BuyTransaction;
+import ch.bbw.m320.stocktrading.model.Money;
+import ch.bbw.m320.stocktrading.model.SellTransaction;
+import ch.bbw.m320.stocktrading.model.StockMarket;
+import ch.bbw.m320.stocktrading.model.User;
+import ch.bbw.m320.stocktrading.service.TradingService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the hot paths of {@link TradingService}.
+ * Each benchmark thread trades with its own user, so running with {@code -t N}
+ * measures the striped locks under contention-free parallel load.
+ *
+ * The user is recreated before every iteration so its transaction history
+ * (which grows by one entry per trade) does not fill the heap.
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class TradingBenchmark {
+    private static final String SYMBOL = "AAPL";
+    private static final Money UNLIMITED_BALANCE = Money.of("1000000000000");
+    private static final int INITIAL_SHARES = Integer.MAX_VALUE / 2;
+
+    private TradingService tradingService;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        StockMarket.getInstance();
+        tradingService = new TradingService();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        StockMarket.getInstance().shutdown();
+    }
+
+    /**
+     * A user per benchmark thread with enough money and shares for any number of trades.
+     */
+    @State(Scope.Thread)
+    public static class Trader {
+        User user;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            user = new User("bench-" + Thread.currentThread().getName(), UNLIMITED_BALANCE);
+            user.getPortfolio().addStock(SYMBOL, INITIAL_SHARES);
+        }
+    }
+
+    @Benchmark
+    public BuyTransaction buyStock(Trader trader) throws StockNotFoundException, InsufficientBalanceException {
+        return tradingService.buyStock(trader.user, SYMBOL, 1);
+    }
+
+    @Benchmark
+    public SellTransaction sellStock(Trader trader) throws StockNotFoundException, InsufficientStockException {
+        return tradingService.sellStock(trader.user, SYMBOL, 1);
+    }
+}
@@ -0,0 +1,103 @@
+package ch.bbw.m320.stocktrading.benchmark;
+
+import ch.bbw.m320.stocktrading.model.BuyTransaction;
+import ch.bbw.m320.stocktrading.model.Money;
+import ch.bbw.m320.stocktrading.model.SellTransaction;
+import ch.bbw.m320.stocktrading.model.Transaction;
+import ch.bbw.m320.stocktrading.repository.TransactionCodec;
+import ch.bbw.m320.stocktrading.repository.TransactionTypeAdapter;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares writing and reading a segment of transactions in the binary format of
+ * {@link TransactionCodec} with the JSON lines written by older versions.
+ * The segment sizes in bytes are printed at setup.
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TransactionCodecBenchmark {
+    private static final String[] SYMBOLS = {"AAPL", "MSFT", "GOOGL", "AMZN", "TSLA"};
+    private static final int SEGMENT_SIZE = 4096;
+
+    private TransactionCodec codec;
+    private TransactionTypeAdapter adapter;
+    private List<Transaction> transactions;
+    private byte[] binarySegment;
+    private byte[] jsonSegment;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Path directory = Files.createTempDirectory("codec-bench");
+        codec = new TransactionCodec(directory.resolve("symbols.txt"));
+        adapter = new TransactionTypeAdapter();
+
+        transactions = new ArrayList<>();
+        for (int i = 0; i < SEGMENT_SIZE; i++) {
+            String symbol = SYMBOLS[i % SYMBOLS.length];
+            Money price = Money.ofMicros(100_000_000L + i * 10_000L);
+            transactions.add(i % 2 == 0
+                    ? new BuyTransaction(symbol, i % 100 + 1, price)
+                    : new SellTransaction(symbol, i % 100 + 1, price));
+        }
+
+        binarySegment = writeBinary();
+        jsonSegment = writeJson();
+        System.out.printf("%nSegment of %d transactions: binary %d bytes, JSON %d bytes%n",
+                SEGMENT_SIZE, binarySegment.length, jsonSegment.length);
+    }
+
+    @Benchmark
+    public byte[] writeBinary() throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(SEGMENT_SIZE * 40);
+        DataOutputStream out = new DataOutputStream(buffer);
+        TransactionCodec.writeHeader(out);
+        for (Transaction transaction : transactions) {
+            codec.encode(transaction, out);
+        }
+        return buffer.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] writeJson() {
+        StringBuilder out = new StringBuilder(SEGMENT_SIZE * 160);
+        for (Transaction transaction : transactions) {
+            out.append(adapter.toJson(transaction)).append('\n');
+        }
+        return out.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public List<Transaction> readBinary() throws IOException {
+        List<Transaction> records = new ArrayList<>(SEGMENT_SIZE);
+        codec.decodeAll(binarySegment, records);
+        return records;
+    }
+
+    @Benchmark
+    public List<Transaction> readJson() throws IOException {
+        List<Transaction> records = new ArrayList<>(SEGMENT_SIZE);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new ByteArrayInputStream(jsonSegment), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                records.add(adapter.fromJson(line));
+            }
+        }
+        return records;
+    }
+}
@@ -0,0 +1,107 @@
+package ch.bbw.m320.stocktrading.benchmark;
+
+import ch.bbw.m320.stocktrading.model.Money;
+import ch.bbw.m320.stocktrading.model.User;
+import ch.bbw.m320.stocktrading.repository.UserRepository;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks saving and loading users with {@link UserRepository} at different data sizes.
+ * Every user holds one stock, like a user after the first trade. Transaction histories are
+ * kept in the transaction store and are not part of loading users.
+ *
+ * save: one balance change of an existing user (the journal write happens on the
+ * write-behind thread). load: opening the repository with lazy loading, i.e. reading the
+ * user index. loadAll: opening it with every user loaded, i.e. reading users.json.
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms8g", "-Xmx8g"})
+public class UserRepositoryBenchmark {
+    private static final Path DATA_DIR = Paths.get("data");
+    private static final Money ONE_DOLLAR = Money.of("1.00");
+
+    /**
+     * Writes a users.json snapshot with the requested number of users.
+     */
+    @State(Scope.Benchmark)
+    public static class UserData {
+        @Param({"1000", "100000", "1000000"})
+        int userCount;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            Files.deleteIfExists(DATA_DIR.resolve("users.json"));
+            Files.deleteIfExists(DATA_DIR.resolve("users.journal"));
+
+            UserRepository repository = new UserRepository();
+            for (int i = 0; i < userCount; i++) {
+                User user = new User(usernameOf(i), Money.of("10000.00"));
+                user.getPortfolio().addStock("AAPL", 10);
+                repository.save(user);
+            }
+            repository.shutdown(); // folds the journal into users.json
+        }
+    }
+
+    /**
+     * A repository opened on the snapshot, with its users ready to be changed and saved.
+     */
+    @State(Scope.Benchmark)
+    public static class OpenRepository {
+        UserRepository repository;
+        User[] users;
+        int next;
+
+        @Setup(Level.Trial)
+        public void setUp(UserData data) {
+            repository = new UserRepository();
+            users = new User[data.userCount];
+            for (int i = 0; i < users.length; i++) {
+                users[i] = repository.findByUsername(usernameOf(i)).orElseThrow();
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            repository.shutdown();
+        }
+    }
+
+    @Benchmark
+    public void save(OpenRepository state) {
+        User user = state.users[state.next];
+        state.next = (state.next + 1) % state.users.length;
+
+        user.deposit(ONE_DOLLAR);
+        state.repository.save(user);
+    }
+
+    /**
+     * Opens the snapshot without journal mode, so no background threads are started.
+     */
+    @Benchmark
+    public UserRepository load(UserData data) {
+        return new UserRepository(false);
+    }
+
+    @Benchmark
+    public UserRepository loadAll(UserData data) {
+        return new UserRepository(false, UserRepository.LOAD_ALL);
+    }
+
+    private static String usernameOf(int index) {
+        return "user-" + index;
+    }
+}
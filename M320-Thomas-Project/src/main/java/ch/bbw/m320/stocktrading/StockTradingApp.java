@@ -1,7 +1,20 @@
 package ch.bbw.m320.stocktrading;
 
+import ch.bbw.m320.stocktrading.model.StockMarket;
+import ch.bbw.m320.stocktrading.repository.UserRepository;
+import ch.bbw.m320.stocktrading.service.RiskEngine;
+import ch.bbw.m320.stocktrading.service.RiskReport;
 import ch.bbw.m320.stocktrading.ui.ConsoleUI;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Main entry point for the Stock Trading Simulator application.
  * M320 Project - Kompetenznachweis
@@ -17,15 +30,68 @@ import ch.bbw.m320.stocktrading.ui.ConsoleUI;
  * @version 1.0
  */
 public class StockTradingApp {
+    private static final String END_OF_DAY_RISK = "--end-of-day-risk";
+    private static final Path RISK_REPORT_DIRECTORY = Path.of("data");
 
     /**
      * Main method to start the application.
      *
-     * @param args Command line arguments (not used)
+     * @param args Command line arguments: none for the console UI, or
+     *             {@code --end-of-day-risk [return interval, e.g. PT1M]} for the risk batch
      */
     public static void main(String[] args) {
+        if (args.length > 0 && END_OF_DAY_RISK.equals(args[0])) {
+            runEndOfDayRisk(args.length > 1 ? args[1] : null);
+            return;
+        }
         // Create and start the console UI
         ConsoleUI ui = new ConsoleUI();
         ui.start();
     }
+
+    /**
+     * Runs the end-of-day risk batch over all users and writes the report as CSV.
+     * Progress is printed every second while the batch runs.
+     *
+     * @param returnInterval The return interval as ISO-8601 duration, or null for daily returns
+     */
+    private static void runEndOfDayRisk(String returnInterval) {
+        Duration interval = RiskEngine.DEFAULT_RETURN_INTERVAL;
+        if (returnInterval != null) {
+            try {
+                interval = Duration.parse(returnInterval);
+            } catch (DateTimeParseException e) {
+                interval = Duration.ZERO;
+            }
+            if (interval.isNegative() || interval.isZero()) {
+                System.err.println("Invalid return interval: " + returnInterval + " (expected e.g. PT1M)");
+                return;
+            }
+        }
+        RiskEngine riskEngine = new RiskEngine();
+        riskEngine.setReturnInterval(interval);
+
+        UserRepository userRepository = new UserRepository();
+        ScheduledExecutorService monitor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "risk-progress");
+            thread.setDaemon(true);
+            return thread;
+        });
+        monitor.scheduleAtFixedRate(() -> System.out.println(riskEngine.getProgress()), 1, 1, TimeUnit.SECONDS);
+        try {
+            RiskReport report = riskEngine.runEndOfDay(userRepository);
+            Path file = RISK_REPORT_DIRECTORY.resolve("risk-" + LocalDate.now() + ".csv");
+            report.writeCsv(file);
+            System.out.println(report);
+            System.out.println("Report written to " + file);
+        } catch (IllegalStateException e) {
+            System.err.println("Risk batch failed: " + e.getMessage());
+        } catch (IOException e) {
+            System.err.println("Error writing risk report: " + e.getMessage());
+        } finally {
+            monitor.shutdownNow();
+            userRepository.shutdown();
+            StockMarket.getInstance().shutdown();
+        }
+    }
 }
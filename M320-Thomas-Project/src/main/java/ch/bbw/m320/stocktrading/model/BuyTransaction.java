@@ -1,6 +1,6 @@
 package ch.bbw.m320.stocktrading.model;
 
-import java.math.BigDecimal;
+import java.time.LocalDateTime;
 
 /**
  * Represents a stock purchase transaction.
@@ -18,16 +18,30 @@ public class BuyTransaction extends Transaction {
      * @param quantity The number of shares to buy
      * @param pricePerShare The price per share at purchase time
      */
-    public BuyTransaction(String stockSymbol, int quantity, BigDecimal pricePerShare) {
+    public BuyTransaction(String stockSymbol, int quantity, Money pricePerShare) {
         super(stockSymbol, quantity, pricePerShare, TransactionType.BUY);
     }
 
+    /**
+     * Restores a persisted buy transaction.
+     *
+     * @param transactionId The original transaction ID
+     * @param stockSymbol The symbol of the stock being purchased
+     * @param quantity The number of shares
+     * @param pricePerShare The price per share at transaction time
+     * @param timestamp The original transaction time
+     */
+    public BuyTransaction(String transactionId, String stockSymbol, int quantity, Money pricePerShare,
+                          LocalDateTime timestamp) {
+        super(transactionId, stockSymbol, quantity, pricePerShare, timestamp, TransactionType.BUY);
+    }
+
     /**
      * Returns the balance impact (negative for purchases).
      * Demonstrates polymorphism - overrides abstract method from parent.
      */
     @Override
-    public BigDecimal getBalanceImpact() {
+    public Money getBalanceImpact() {
         return getTotalValue().negate(); // Negative because buying costs money
     }
 
@@ -38,6 +52,6 @@ public class BuyTransaction extends Transaction {
     @Override
     public String getTransactionDetails() {
         return String.format("Bought %d shares of %s at $%.2f per share (Total: $%.2f)",
-                getQuantity(), getStockSymbol(), getPricePerShare(), getTotalValue());
+                getQuantity(), getStockSymbol(), getPricePerShare().toBigDecimal(), getTotalValue().toBigDecimal());
     }
 }
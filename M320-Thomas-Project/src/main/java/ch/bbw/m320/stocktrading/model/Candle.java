@@ -0,0 +1,81 @@
+package ch.bbw.m320.stocktrading.model;
+
+import java.time.LocalDateTime;
+
+/**
+ * One OHLCV bar: open, high, low and close price of a period and the traded volume.
+ * Immutable; created by the {@link CandleEngine} when bars are queried.
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+public final class Candle {
+    private final CandleInterval interval;
+    private final long startEpochNanos;
+    private final long open;
+    private final long high;
+    private final long low;
+    private final long close;
+    private final long volume;
+
+    /**
+     * Creates a bar.
+     *
+     * @param interval The bar length
+     * @param startEpochNanos The start of the bar in nanoseconds since the epoch (UTC)
+     * @param open The first price, in micro-units
+     * @param high The highest price, in micro-units
+     * @param low The lowest price, in micro-units
+     * @param close The last price, in micro-units
+     * @param volume The number of shares traded
+     */
+    public Candle(CandleInterval interval, long startEpochNanos, long open, long high, long low, long close,
+                  long volume) {
+        this.interval = interval;
+        this.startEpochNanos = startEpochNanos;
+        this.open = open;
+        this.high = high;
+        this.low = low;
+        this.close = close;
+        this.volume = volume;
+    }
+
+    public CandleInterval getInterval() {
+        return interval;
+    }
+
+    public long getStartEpochNanos() {
+        return startEpochNanos;
+    }
+
+    public LocalDateTime getStart() {
+        return PriceHistory.toLocalDateTime(startEpochNanos);
+    }
+
+    public Money getOpen() {
+        return Money.ofMicros(open);
+    }
+
+    public Money getHigh() {
+        return Money.ofMicros(high);
+    }
+
+    public Money getLow() {
+        return Money.ofMicros(low);
+    }
+
+    public Money getClose() {
+        return Money.ofMicros(close);
+    }
+
+    public long getVolume() {
+        return volume;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %s O %.2f H %.2f L %.2f C %.2f V %d", interval.getLabel(), getStart(),
+                getOpen().toBigDecimal(), getHigh().toBigDecimal(), getLow().toBigDecimal(),
+                getClose().toBigDecimal(), volume);
+    }
+}
@@ -0,0 +1,404 @@
+package ch.bbw.m320.stocktrading.model;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Rolls price ticks and executed trades into OHLCV bars of every {@link CandleInterval}.
+ * DESIGN PATTERN: Observer Pattern
+ * Reason: the engine subscribes to the market's {@link TickBus}, so building bars never
+ * slows down the thread that changes a price.
+ *
+ * Every tick updates the current bar of each interval in O(1). Bars are kept per symbol
+ * and interval in parallel primitive arrays (start, open, high, low, close, volume) that
+ * grow on demand up to a capacity and then overwrite the oldest bar. A chart over any
+ * range therefore reads at most a few thousand bars instead of every tick in it.
+ *
+ * Volume comes from executed transactions ({@link #recordTrade(Transaction)}); a trade
+ * also counts as a price at its execution price. Ticks only move the prices.
+ * Ticks and trades arrive on different threads, so one that is older than the newest
+ * event of its symbol is counted in the newest bar, just as {@link PriceHistory} keeps
+ * its timestamps ascending.
+ *
+ * Thread safety: the bars of a symbol are guarded by their own lock;
+ * the symbol index is copy-on-write, so lookups do not lock.
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+public class CandleEngine implements TickBus.TickListener {
+    public static final int DEFAULT_CAPACITY = 4096; // bars per symbol and interval
+    public static final int DEFAULT_MAX_CHART_BARS = 1000;
+
+    private static final CandleInterval[] INTERVALS = CandleInterval.values();
+    private static final int INITIAL_ARRAY_SIZE = 16;
+
+    private final int capacity;
+    private volatile SymbolCandles[] candles = new SymbolCandles[0]; // symbol ID -> bars, copy-on-write
+    private TickBus.Subscription subscription;
+
+    /**
+     * Creates an engine that keeps {@value #DEFAULT_CAPACITY} bars per symbol and interval.
+     */
+    public CandleEngine() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates an engine.
+     *
+     * @param capacity The number of bars kept per symbol and interval
+     */
+    public CandleEngine(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * Subscribes to the ticks of a bus. The subscription drops the oldest ticks if the engine
+     * falls a full ring behind, so a slow engine never holds up price updates.
+     * Dropped ticks are counted in {@link #getDroppedCount()}.
+     *
+     * @param tickBus The bus of the market
+     */
+    public synchronized void subscribe(TickBus tickBus) {
+        if (tickBus == null) {
+            throw new IllegalArgumentException("Tick bus cannot be null");
+        }
+        if (subscription != null) {
+            subscription.cancel();
+        }
+        subscription = tickBus.subscribe("candles", this, TickBus.SlowConsumerPolicy.DROP);
+    }
+
+    /**
+     * Stops receiving ticks.
+     */
+    public synchronized void close() {
+        if (subscription != null) {
+            subscription.cancel();
+            subscription = null;
+        }
+    }
+
+    /**
+     * Gets the number of published ticks the engine has not processed yet.
+     *
+     * @return The lag in ticks, 0 if not subscribed
+     */
+    public synchronized long getLag() {
+        return subscription != null ? subscription.getLag() : 0;
+    }
+
+    /**
+     * Gets the number of ticks the engine missed because it fell a full ring behind.
+     *
+     * @return The dropped tick count, 0 if not subscribed
+     */
+    public synchronized long getDroppedCount() {
+        return subscription != null ? subscription.getDroppedCount() : 0;
+    }
+
+    @Override
+    public void onTick(int symbolId, long epochNanos, long priceMicros, long version) {
+        candlesFor(symbolId).add(epochNanos, priceMicros, 0);
+    }
+
+    /**
+     * Adds the volume of an executed trade.
+     *
+     * @param transaction The transaction; for a trade between two users, record only one side
+     */
+    public void recordTrade(Transaction transaction) {
+        if (transaction == null) {
+            throw new IllegalArgumentException("Transaction cannot be null");
+        }
+        LocalDateTime timestamp = transaction.getTimestamp() != null ? transaction.getTimestamp() : LocalDateTime.now(ZoneOffset.UTC);
+        candlesFor(transaction.getSymbolId()).add(PriceHistory.toEpochNanos(timestamp),
+                transaction.getPricePerShare().getMicros(), transaction.getQuantity());
+    }
+
+    /**
+     * Builds the bars of a stock from the ticks already in its price history,
+     * e.g. after the history was loaded. Call it before the stock's ticks are published.
+     *
+     * @param stock The stock
+     */
+    public void backfill(Stock stock) {
+        if (stock == null) {
+            throw new IllegalArgumentException("Stock cannot be null");
+        }
+        PriceHistory.View history = stock.getPriceHistoryStore().view();
+        SymbolCandles symbolCandles = candlesFor(stock.getSymbolId());
+        synchronized (symbolCandles) {
+            for (int i = 0; i < history.size(); i++) {
+                symbolCandles.add(history.getEpochNanos(i), history.getScaledPrice(i), 0);
+            }
+        }
+    }
+
+    /**
+     * Gets the bars of a symbol that start in a time range.
+     *
+     * @param symbol The stock symbol
+     * @param interval The bar length
+     * @param from Start of the range in UTC (inclusive)
+     * @param to End of the range in UTC (exclusive)
+     * @return The bars, oldest first; empty if the symbol has none
+     */
+    public List<Candle> getCandles(String symbol, CandleInterval interval, LocalDateTime from, LocalDateTime to) {
+        return getCandles(SymbolRegistry.getInstance().find(symbol), interval,
+                PriceHistory.toEpochNanos(from), PriceHistory.toEpochNanos(to));
+    }
+
+    /**
+     * Gets the bars of a symbol that start in a time range.
+     *
+     * @param symbolId The symbol ID
+     * @param interval The bar length
+     * @param fromEpochNanos Start of the range (inclusive)
+     * @param toEpochNanos End of the range (exclusive)
+     * @return The bars, oldest first; empty if the symbol has none
+     */
+    public List<Candle> getCandles(int symbolId, CandleInterval interval, long fromEpochNanos, long toEpochNanos) {
+        if (interval == null) {
+            throw new IllegalArgumentException("Interval cannot be null");
+        }
+        SymbolCandles symbolCandles = find(symbolId);
+        if (symbolCandles == null) {
+            return Collections.emptyList();
+        }
+        synchronized (symbolCandles) {
+            Series series = symbolCandles.series[interval.ordinal()];
+            return series.toCandles(series.lowerBound(fromEpochNanos), series.lowerBound(toEpochNanos));
+        }
+    }
+
+    /**
+     * Gets the newest bars of a symbol.
+     *
+     * @param symbol The stock symbol
+     * @param interval The bar length
+     * @param count The maximum number of bars
+     * @return The bars, oldest first; empty if the symbol has none
+     */
+    public List<Candle> getLatestCandles(String symbol, CandleInterval interval, int count) {
+        if (interval == null || count < 0) {
+            throw new IllegalArgumentException("Interval cannot be null and count cannot be negative");
+        }
+        SymbolCandles symbolCandles = find(SymbolRegistry.getInstance().find(symbol));
+        if (symbolCandles == null) {
+            return Collections.emptyList();
+        }
+        synchronized (symbolCandles) {
+            Series series = symbolCandles.series[interval.ordinal()];
+            return series.toCandles(Math.max(0, series.size - count), series.size);
+        }
+    }
+
+    /**
+     * Gets the bars for a chart of a time range in the finest interval that needs at most
+     * the given number of bars and still holds the start of the range.
+     * If no interval fits, the newest day bars of the range are returned.
+     *
+     * @param symbol The stock symbol
+     * @param from Start of the range in UTC (inclusive)
+     * @param to End of the range in UTC (exclusive)
+     * @param maxBars The maximum number of bars
+     * @return The bars, oldest first; empty if the symbol has none
+     */
+    public List<Candle> getChart(String symbol, LocalDateTime from, LocalDateTime to, int maxBars) {
+        if (from == null || to == null || maxBars <= 0) {
+            throw new IllegalArgumentException("Range cannot be null and maxBars must be positive");
+        }
+        SymbolCandles symbolCandles = find(SymbolRegistry.getInstance().find(symbol));
+        if (symbolCandles == null) {
+            return Collections.emptyList();
+        }
+        long fromEpochNanos = PriceHistory.toEpochNanos(from);
+        long toEpochNanos = PriceHistory.toEpochNanos(to);
+
+        synchronized (symbolCandles) {
+            for (Series series : symbolCandles.series) {
+                int start = series.lowerBound(fromEpochNanos);
+                int end = series.lowerBound(toEpochNanos);
+                if (end - start <= maxBars && series.holdsBarsFrom(fromEpochNanos)) {
+                    return series.toCandles(start, end);
+                }
+            }
+            Series days = symbolCandles.series[CandleInterval.DAY.ordinal()];
+            int end = days.lowerBound(toEpochNanos);
+            return days.toCandles(Math.max(days.lowerBound(fromEpochNanos), end - maxBars), end);
+        }
+    }
+
+    private SymbolCandles find(int symbolId) {
+        SymbolCandles[] current = candles;
+        return symbolId >= 0 && symbolId < current.length ? current[symbolId] : null;
+    }
+
+    private SymbolCandles candlesFor(int symbolId) {
+        SymbolCandles symbolCandles = find(symbolId);
+        if (symbolCandles != null) {
+            return symbolCandles;
+        }
+        if (symbolId < 0) {
+            throw new IllegalArgumentException("Invalid symbol ID: " + symbolId);
+        }
+        synchronized (this) {
+            SymbolCandles[] current = candles;
+            if (symbolId < current.length && current[symbolId] != null) {
+                return current[symbolId];
+            }
+            SymbolCandles[] updated = symbolId < current.length
+                    ? current.clone()
+                    : Arrays.copyOf(current, Math.max(symbolId + 1, current.length * 2));
+            updated[symbolId] = new SymbolCandles(capacity);
+            candles = updated;
+            return updated[symbolId];
+        }
+    }
+
+    /**
+     * The bars of one symbol in every interval.
+     */
+    private static final class SymbolCandles {
+        private final Series[] series = new Series[INTERVALS.length];
+        private long lastEpochNanos = Long.MIN_VALUE;
+
+        SymbolCandles(int capacity) {
+            for (CandleInterval interval : INTERVALS) {
+                series[interval.ordinal()] = new Series(interval, capacity);
+            }
+        }
+
+        synchronized void add(long epochNanos, long priceMicros, long volume) {
+            lastEpochNanos = Math.max(epochNanos, lastEpochNanos);
+            for (Series bars : series) {
+                bars.add(lastEpochNanos, priceMicros, volume);
+            }
+        }
+    }
+
+    /**
+     * Ring buffer of the bars of one symbol and interval, oldest first.
+     */
+    private static final class Series {
+        private final CandleInterval interval;
+        private final int capacity;
+        private long[] starts;
+        private long[] opens;
+        private long[] highs;
+        private long[] lows;
+        private long[] closes;
+        private long[] volumes;
+        private int head; // physical index of the oldest bar
+        private int size;
+        private boolean overwritten; // older bars were dropped
+
+        Series(CandleInterval interval, int capacity) {
+            this.interval = interval;
+            this.capacity = capacity;
+            allocate(Math.min(INITIAL_ARRAY_SIZE, capacity));
+        }
+
+        void add(long epochNanos, long priceMicros, long volume) {
+            long start = interval.startOf(epochNanos);
+            if (size > 0) {
+                int last = physicalIndex(size - 1);
+                if (starts[last] == start) {
+                    highs[last] = Math.max(highs[last], priceMicros);
+                    lows[last] = Math.min(lows[last], priceMicros);
+                    closes[last] = priceMicros;
+                    volumes[last] += volume;
+                    return;
+                }
+            }
+
+            int index;
+            if (size < starts.length) {
+                index = physicalIndex(size++);
+            } else if (starts.length < capacity) {
+                grow();
+                index = size++;
+            } else {
+                index = head; // overwrite the oldest bar
+                head = (head + 1) % starts.length;
+                overwritten = true;
+            }
+            starts[index] = start;
+            opens[index] = priceMicros;
+            highs[index] = priceMicros;
+            lows[index] = priceMicros;
+            closes[index] = priceMicros;
+            volumes[index] = volume;
+        }
+
+        /**
+         * Finds the first bar that starts at or after the given time.
+         */
+        int lowerBound(long epochNanos) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (starts[physicalIndex(middle)] < epochNanos) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * Checks whether no bar at or after the given time was dropped.
+         */
+        boolean holdsBarsFrom(long epochNanos) {
+            return !overwritten || (size > 0 && starts[head] <= interval.startOf(epochNanos));
+        }
+
+        List<Candle> toCandles(int start, int end) {
+            List<Candle> result = new ArrayList<>(Math.max(0, end - start));
+            for (int i = start; i < end; i++) {
+                int index = physicalIndex(i);
+                result.add(new Candle(interval, starts[index], opens[index], highs[index], lows[index],
+                        closes[index], volumes[index]));
+            }
+            return result;
+        }
+
+        private int physicalIndex(int index) {
+            return (head + index) % starts.length;
+        }
+
+        private void grow() {
+            int newLength = (int) Math.min((long) starts.length * 2, capacity);
+            long[][] old = {starts, opens, highs, lows, closes, volumes};
+            int oldHead = head;
+            allocate(newLength);
+            long[][] copies = {starts, opens, highs, lows, closes, volumes};
+            for (int column = 0; column < old.length; column++) {
+                int firstPart = old[column].length - oldHead;
+                System.arraycopy(old[column], oldHead, copies[column], 0, firstPart);
+                System.arraycopy(old[column], 0, copies[column], firstPart, oldHead);
+            }
+            head = 0;
+        }
+
+        private void allocate(int length) {
+            starts = new long[length];
+            opens = new long[length];
+            highs = new long[length];
+            lows = new long[length];
+            closes = new long[length];
+            volumes = new long[length];
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package ch.bbw.m320.stocktrading.model;
+
+import java.time.Duration;
+
+/**
+ * Bar lengths of the {@link CandleEngine}, finest first.
+ * Bars are aligned to the epoch in UTC, so a day bar runs from midnight to midnight UTC.
+ * Ticks and trades are stamped with the UTC clock, so bar starts are UTC times as well.
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+public enum CandleInterval {
+    SECOND("1s", Duration.ofSeconds(1)),
+    MINUTE("1m", Duration.ofMinutes(1)),
+    FIVE_MINUTES("5m", Duration.ofMinutes(5)),
+    HOUR("1h", Duration.ofHours(1)),
+    DAY("1d", Duration.ofDays(1));
+
+    private final String label;
+    private final long nanos;
+
+    CandleInterval(String label, Duration length) {
+        this.label = label;
+        this.nanos = length.toNanos();
+    }
+
+    /**
+     * Finds an interval by its label, e.g. "5m".
+     *
+     * @param label The label
+     * @return The interval
+     * @throws IllegalArgumentException if no interval has this label
+     */
+    public static CandleInterval ofLabel(String label) {
+        for (CandleInterval interval : values()) {
+            if (interval.label.equalsIgnoreCase(label)) {
+                return interval;
+            }
+        }
+        throw new IllegalArgumentException("Unknown candle interval: " + label);
+    }
+
+    /**
+     * Gets the start of the bar a point in time falls into.
+     *
+     * @param epochNanos Nanoseconds since the epoch (UTC)
+     * @return The start of the bar in nanoseconds since the epoch
+     */
+    public long startOf(long epochNanos) {
+        return epochNanos - Math.floorMod(epochNanos, nanos);
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+}
@@ -0,0 +1,227 @@
+package ch.bbw.m320.stocktrading.model;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from symbol ID to share quantity, used by {@link Portfolio}.
+ * Keys, quantities and the price each holding is valued at are kept in parallel arrays,
+ * so a holding costs a few array slots instead of a map entry with boxed key and value.
+ * Collisions are resolved by linear probing; removal shifts the following entries back,
+ * so no tombstones are left behind.
+ *
+ * Not thread-safe: the portfolio synchronizes access.
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+final class Holdings {
+    private static final int FREE = -1; // valid symbol IDs are never negative
+    private static final int NOT_HELD = Integer.MIN_VALUE; // find() result for negative IDs, has no insertion slot
+    private static final int INITIAL_CAPACITY = 8;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private int[] symbolIds;
+    private int[] quantities;
+    private Stock.PriceSnapshot[] valuedPrices;
+    private int size;
+    private int mask;
+    private int resizeThreshold;
+
+    Holdings() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Gets the quantity of a symbol.
+     *
+     * @return The quantity, or 0 if not held
+     */
+    int get(int symbolId) {
+        int slot = find(symbolId);
+        return slot >= 0 ? quantities[slot] : 0;
+    }
+
+    boolean contains(int symbolId) {
+        return find(symbolId) >= 0;
+    }
+
+    /**
+     * Adds shares to a holding, creating it if needed.
+     *
+     * @return The quantity before the change
+     */
+    int increment(int symbolId, int quantity) {
+        if (symbolId < 0) {
+            throw new IllegalArgumentException("Unknown symbol ID: " + symbolId);
+        }
+        int slot = find(symbolId);
+        if (slot >= 0) {
+            int previous = quantities[slot];
+            quantities[slot] = Math.addExact(previous, quantity);
+            return previous;
+        }
+
+        if (size >= resizeThreshold) {
+            allocate(symbolIds.length * 2);
+            slot = freeSlot(symbolId);
+        } else {
+            slot = -slot - 1;
+        }
+        symbolIds[slot] = symbolId;
+        quantities[slot] = quantity;
+        size++;
+        return 0;
+    }
+
+    /**
+     * Removes shares from a holding; the holding is removed when it reaches 0.
+     * Nothing is changed if fewer shares are held than requested.
+     *
+     * @return The quantity before the change
+     */
+    int decrement(int symbolId, int quantity) {
+        int slot = find(symbolId);
+        if (slot < 0) {
+            return 0;
+        }
+
+        int previous = quantities[slot];
+        if (previous < quantity) {
+            return previous;
+        }
+        if (previous == quantity) {
+            removeAt(slot);
+        } else {
+            quantities[slot] = previous - quantity;
+        }
+        return previous;
+    }
+
+    Stock.PriceSnapshot getValuedPrice(int symbolId) {
+        int slot = find(symbolId);
+        return slot >= 0 ? valuedPrices[slot] : null;
+    }
+
+    /**
+     * Sets the price a held symbol is valued at. Ignored if the symbol is not held.
+     */
+    void setValuedPrice(int symbolId, Stock.PriceSnapshot snapshot) {
+        int slot = find(symbolId);
+        if (slot >= 0) {
+            valuedPrices[slot] = snapshot;
+        }
+    }
+
+    /**
+     * Calls the consumer for every holding, in table order.
+     * The consumer may change valued prices but must not add or remove holdings.
+     */
+    void forEach(HoldingConsumer consumer) {
+        for (int slot = 0; slot < symbolIds.length; slot++) {
+            if (symbolIds[slot] != FREE) {
+                consumer.accept(symbolIds[slot], quantities[slot]);
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Finds the slot of a symbol.
+     * A negative ID, e.g. {@link SymbolRegistry#UNKNOWN}, is never held; it must not be
+     * probed because it equals the marker of a free slot.
+     *
+     * @return The slot, or -(insertion slot) - 1 if the symbol is not held,
+     *         or {@link #NOT_HELD} for a negative ID
+     */
+    private int find(int symbolId) {
+        if (symbolId < 0) {
+            return NOT_HELD;
+        }
+        int slot = hash(symbolId) & mask;
+        while (true) {
+            int key = symbolIds[slot];
+            if (key == symbolId) {
+                return slot;
+            }
+            if (key == FREE) {
+                return -slot - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private int freeSlot(int symbolId) {
+        int slot = hash(symbolId) & mask;
+        while (symbolIds[slot] != FREE) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Removes the entry in a slot and shifts back the entries of its probe chain.
+     */
+    private void removeAt(int slot) {
+        int gap = slot;
+        int next = (gap + 1) & mask;
+        while (symbolIds[next] != FREE) {
+            int home = hash(symbolIds[next]) & mask;
+            // Move the entry into the gap unless its home lies cyclically in (gap, next]
+            boolean homeBetween = gap <= next ? (home > gap && home <= next) : (home > gap || home <= next);
+            if (!homeBetween) {
+                symbolIds[gap] = symbolIds[next];
+                quantities[gap] = quantities[next];
+                valuedPrices[gap] = valuedPrices[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        symbolIds[gap] = FREE;
+        quantities[gap] = 0;
+        valuedPrices[gap] = null;
+        size--;
+    }
+
+    private void allocate(int capacity) {
+        int[] oldSymbolIds = symbolIds;
+        int[] oldQuantities = quantities;
+        Stock.PriceSnapshot[] oldValuedPrices = valuedPrices;
+
+        symbolIds = new int[capacity];
+        Arrays.fill(symbolIds, FREE);
+        quantities = new int[capacity];
+        valuedPrices = new Stock.PriceSnapshot[capacity];
+        mask = capacity - 1;
+        resizeThreshold = (int) (capacity * LOAD_FACTOR);
+
+        if (oldSymbolIds != null) {
+            for (int i = 0; i < oldSymbolIds.length; i++) {
+                if (oldSymbolIds[i] != FREE) {
+                    int slot = freeSlot(oldSymbolIds[i]);
+                    symbolIds[slot] = oldSymbolIds[i];
+                    quantities[slot] = oldQuantities[i];
+                    valuedPrices[slot] = oldValuedPrices[i];
+                }
+            }
+        }
+    }
+
+    /**
+     * Spreads dense IDs over the table (Fibonacci hashing).
+     */
+    private static int hash(int symbolId) {
+        int h = symbolId * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Receives one holding.
+     */
+    @FunctionalInterface
+    interface HoldingConsumer {
+        void accept(int symbolId, int quantity);
+    }
+}
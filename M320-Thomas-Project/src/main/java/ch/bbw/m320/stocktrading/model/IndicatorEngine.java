@@ -0,0 +1,637 @@
+package ch.bbw.m320.stocktrading.model;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.OptionalDouble;
+
+/**
+ * Keeps technical indicators ({@link IndicatorType}) of every symbol up to date while prices change.
+ * DESIGN PATTERN: Observer Pattern
+ * Reason: the engine subscribes to the market's {@link TickBus}, so the indicators are
+ * updated without slowing down the thread that changes a price.
+ *
+ * An indicator is tracked from the first time it is requested. It starts from the recent
+ * prices the engine keeps for its symbol, and from then on every tick updates it in O(1):
+ * moving averages keep a running sum and subtract the price that leaves the window,
+ * EMA and RSI are recursive. A query only reads the current value and never scans the
+ * price history.
+ *
+ * Memory is fixed per symbol: the last {@code maxWindow} prices and trades in ring buffers
+ * shared by all indicators of the symbol, plus a few numbers per indicator.
+ * VWAP is computed over executed trades ({@link #recordTrade(Transaction)}); all other
+ * indicators over price ticks.
+ *
+ * Thread safety: the indicators of a symbol are guarded by their own lock;
+ * the symbol index is copy-on-write, so lookups do not lock.
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+public class IndicatorEngine implements TickBus.TickListener {
+    public static final int DEFAULT_MAX_WINDOW = 1000;
+
+    private static final int INITIAL_ARRAY_SIZE = 16;
+    private static final double MICROS_PER_UNIT = 1_000_000.0;
+    private static final double BOLLINGER_WIDTH = 2.0; // standard deviations
+
+    private final int maxWindow;
+    private volatile SymbolIndicators[] indicators = new SymbolIndicators[0]; // symbol ID -> indicators, copy-on-write
+    private TickBus.Subscription subscription;
+
+    /**
+     * Creates an engine for windows of up to {@value #DEFAULT_MAX_WINDOW} ticks.
+     */
+    public IndicatorEngine() {
+        this(DEFAULT_MAX_WINDOW);
+    }
+
+    /**
+     * Creates an engine.
+     *
+     * @param maxWindow The largest window an indicator can have
+     */
+    public IndicatorEngine(int maxWindow) {
+        if (maxWindow <= 0) {
+            throw new IllegalArgumentException("Maximum window must be positive");
+        }
+        this.maxWindow = maxWindow;
+    }
+
+    /**
+     * Subscribes to the ticks of a bus. The subscription drops the oldest ticks if the engine
+     * falls a full ring behind, so a slow engine never holds up price updates.
+     * Dropped ticks are counted in {@link #getDroppedCount()}.
+     *
+     * @param tickBus The bus of the market
+     */
+    public synchronized void subscribe(TickBus tickBus) {
+        if (tickBus == null) {
+            throw new IllegalArgumentException("Tick bus cannot be null");
+        }
+        if (subscription != null) {
+            subscription.cancel();
+        }
+        subscription = tickBus.subscribe("indicators", this, TickBus.SlowConsumerPolicy.DROP);
+    }
+
+    /**
+     * Stops receiving ticks.
+     */
+    public synchronized void close() {
+        if (subscription != null) {
+            subscription.cancel();
+            subscription = null;
+        }
+    }
+
+    /**
+     * Gets the number of published ticks the engine has not processed yet.
+     *
+     * @return The lag in ticks, 0 if not subscribed
+     */
+    public synchronized long getLag() {
+        return subscription != null ? subscription.getLag() : 0;
+    }
+
+    /**
+     * Gets the number of ticks the engine missed because it fell a full ring behind.
+     *
+     * @return The dropped tick count, 0 if not subscribed
+     */
+    public synchronized long getDroppedCount() {
+        return subscription != null ? subscription.getDroppedCount() : 0;
+    }
+
+    @Override
+    public void onTick(int symbolId, long epochNanos, long priceMicros, long version) {
+        indicatorsFor(symbolId).addPrice(priceMicros);
+    }
+
+    /**
+     * Adds an executed trade to the VWAP of its symbol.
+     *
+     * @param transaction The transaction; for a trade between two users, record only one side
+     */
+    public void recordTrade(Transaction transaction) {
+        if (transaction == null) {
+            throw new IllegalArgumentException("Transaction cannot be null");
+        }
+        indicatorsFor(transaction.getSymbolId())
+                .addTrade(transaction.getPricePerShare().getMicros(), transaction.getQuantity());
+    }
+
+    /**
+     * Takes over the most recent prices of a stock's price history, e.g. after the history
+     * was loaded. Call it before the stock's ticks are published.
+     *
+     * @param stock The stock
+     */
+    public void backfill(Stock stock) {
+        if (stock == null) {
+            throw new IllegalArgumentException("Stock cannot be null");
+        }
+        PriceHistory.View history = stock.getPriceHistoryStore().view();
+        SymbolIndicators symbolIndicators = indicatorsFor(stock.getSymbolId());
+        synchronized (symbolIndicators) {
+            for (int i = Math.max(0, history.size() - maxWindow - 1); i < history.size(); i++) {
+                symbolIndicators.addPrice(history.getScaledPrice(i));
+            }
+        }
+    }
+
+    /**
+     * Gets the current value of an indicator. The first request for an indicator starts
+     * tracking it; later requests and ticks update it in constant time.
+     *
+     * @param symbol The stock symbol
+     * @param type The indicator
+     * @param window The number of ticks (for VWAP: trades) the indicator covers
+     * @return The value (a price, for RSI 0 to 100), or empty if there are not enough ticks yet
+     */
+    public OptionalDouble getIndicator(String symbol, IndicatorType type, int window) {
+        validate(type, window);
+        int symbolId = SymbolRegistry.getInstance().find(symbol);
+        if (symbolId == SymbolRegistry.UNKNOWN) {
+            return OptionalDouble.empty();
+        }
+        return indicatorsFor(symbolId).getValue(type, window);
+    }
+
+    /**
+     * Stops tracking an indicator.
+     *
+     * @param symbol The stock symbol
+     * @param type The indicator
+     * @param window The window of the indicator
+     * @return true if the indicator was tracked
+     */
+    public boolean removeIndicator(String symbol, IndicatorType type, int window) {
+        validate(type, window);
+        SymbolIndicators symbolIndicators = find(SymbolRegistry.getInstance().find(symbol));
+        return symbolIndicators != null && symbolIndicators.remove(type, window);
+    }
+
+    /**
+     * Gets the number of indicators tracked over all symbols.
+     *
+     * @return The number of indicators
+     */
+    public int getIndicatorCount() {
+        int count = 0;
+        for (SymbolIndicators symbolIndicators : indicators) {
+            if (symbolIndicators != null) {
+                count += symbolIndicators.count();
+            }
+        }
+        return count;
+    }
+
+    public int getMaxWindow() {
+        return maxWindow;
+    }
+
+    private void validate(IndicatorType type, int window) {
+        if (type == null) {
+            throw new IllegalArgumentException("Indicator type cannot be null");
+        }
+        if (window <= 0 || window > maxWindow) {
+            throw new IllegalArgumentException("Window must be between 1 and " + maxWindow);
+        }
+    }
+
+    private SymbolIndicators find(int symbolId) {
+        SymbolIndicators[] current = indicators;
+        return symbolId >= 0 && symbolId < current.length ? current[symbolId] : null;
+    }
+
+    private SymbolIndicators indicatorsFor(int symbolId) {
+        SymbolIndicators symbolIndicators = find(symbolId);
+        if (symbolIndicators != null) {
+            return symbolIndicators;
+        }
+        if (symbolId < 0) {
+            throw new IllegalArgumentException("Invalid symbol ID: " + symbolId);
+        }
+        synchronized (this) {
+            SymbolIndicators[] current = indicators;
+            if (symbolId < current.length && current[symbolId] != null) {
+                return current[symbolId];
+            }
+            SymbolIndicators[] updated = symbolId < current.length
+                    ? current.clone()
+                    : Arrays.copyOf(current, Math.max(symbolId + 1, current.length * 2));
+            updated[symbolId] = new SymbolIndicators(maxWindow);
+            indicators = updated;
+            return updated[symbolId];
+        }
+    }
+
+    /**
+     * The recent prices and trades of one symbol and the indicators computed from them.
+     */
+    private static final class SymbolIndicators {
+        private final LongRing prices;
+        private final LongRing tradePrices;
+        private final LongRing tradeQuantities;
+        private final Map<Long, Indicator> byKey = new HashMap<>();
+        private Indicator[] priceIndicators = new Indicator[0];
+        private Indicator[] tradeIndicators = new Indicator[0];
+
+        SymbolIndicators(int maxWindow) {
+            // One more than the window, so the price leaving a full window is still there
+            prices = new LongRing(maxWindow + 1);
+            tradePrices = new LongRing(maxWindow + 1);
+            tradeQuantities = new LongRing(maxWindow + 1);
+        }
+
+        synchronized void addPrice(long priceMicros) {
+            prices.add(priceMicros);
+            for (Indicator indicator : priceIndicators) {
+                indicator.update(this);
+            }
+        }
+
+        synchronized void addTrade(long priceMicros, long quantity) {
+            tradePrices.add(priceMicros);
+            tradeQuantities.add(quantity);
+            for (Indicator indicator : tradeIndicators) {
+                indicator.update(this);
+            }
+        }
+
+        synchronized OptionalDouble getValue(IndicatorType type, int window) {
+            Indicator indicator = byKey.get(key(type, window));
+            if (indicator == null) {
+                indicator = create(type, window);
+                indicator.seed(this);
+                byKey.put(key(type, window), indicator);
+                if (type == IndicatorType.VWAP) {
+                    tradeIndicators = append(tradeIndicators, indicator);
+                } else {
+                    priceIndicators = append(priceIndicators, indicator);
+                }
+            }
+            return indicator.isReady() ? OptionalDouble.of(indicator.value()) : OptionalDouble.empty();
+        }
+
+        synchronized boolean remove(IndicatorType type, int window) {
+            Indicator indicator = byKey.remove(key(type, window));
+            if (indicator == null) {
+                return false;
+            }
+            if (type == IndicatorType.VWAP) {
+                tradeIndicators = without(tradeIndicators, indicator);
+            } else {
+                priceIndicators = without(priceIndicators, indicator);
+            }
+            return true;
+        }
+
+        synchronized int count() {
+            return byKey.size();
+        }
+
+        private static long key(IndicatorType type, int window) {
+            return ((long) type.ordinal() << 32) | window;
+        }
+
+        private static Indicator create(IndicatorType type, int window) {
+            return switch (type) {
+                case SMA -> new MovingAverage(window);
+                case EMA -> new ExponentialAverage(window);
+                case RSI -> new RelativeStrength(window);
+                case BOLLINGER_UPPER -> new BollingerBand(window, BOLLINGER_WIDTH);
+                case BOLLINGER_LOWER -> new BollingerBand(window, -BOLLINGER_WIDTH);
+                case VWAP -> new VolumeWeightedAverage(window);
+            };
+        }
+
+        private static Indicator[] append(Indicator[] array, Indicator indicator) {
+            Indicator[] result = Arrays.copyOf(array, array.length + 1);
+            result[array.length] = indicator;
+            return result;
+        }
+
+        private static Indicator[] without(Indicator[] array, Indicator indicator) {
+            return Arrays.stream(array).filter(element -> element != indicator).toArray(Indicator[]::new);
+        }
+    }
+
+    /**
+     * State of one indicator. {@link #seed} runs once with the prices already kept,
+     * {@link #update} after every new price (or trade), which is already in the ring.
+     */
+    private abstract static class Indicator {
+        protected final int window;
+
+        Indicator(int window) {
+            this.window = window;
+        }
+
+        abstract void seed(SymbolIndicators symbol);
+
+        abstract void update(SymbolIndicators symbol);
+
+        abstract boolean isReady();
+
+        abstract double value();
+    }
+
+    /**
+     * SMA: an exact running sum of the last prices in micro-units.
+     */
+    private static class MovingAverage extends Indicator {
+        protected long sum;
+        protected int count;
+
+        MovingAverage(int window) {
+            super(window);
+        }
+
+        @Override
+        void seed(SymbolIndicators symbol) {
+            count = Math.min(window, symbol.prices.size());
+            for (int age = 0; age < count; age++) {
+                sum += symbol.prices.fromNewest(age);
+            }
+        }
+
+        @Override
+        void update(SymbolIndicators symbol) {
+            sum += symbol.prices.fromNewest(0);
+            if (count < window) {
+                count++;
+            } else {
+                sum -= symbol.prices.fromNewest(window);
+            }
+        }
+
+        @Override
+        boolean isReady() {
+            return count == window;
+        }
+
+        @Override
+        double value() {
+            return sum / (double) count / MICROS_PER_UNIT;
+        }
+    }
+
+    /**
+     * Bollinger band: the SMA plus a running sum of squared deviations from a reference price.
+     * Measuring from a price close to the mean keeps the doubles precise; the reference and
+     * the sum are refreshed from the ring once per window, which keeps updates O(1) amortized.
+     */
+    private static final class BollingerBand extends MovingAverage {
+        private final double width;
+        private long reference;
+        private double sumOfSquares;
+        private int updatesSinceRefresh;
+
+        BollingerBand(int window, double width) {
+            super(window);
+            this.width = width;
+        }
+
+        @Override
+        void seed(SymbolIndicators symbol) {
+            super.seed(symbol);
+            refresh(symbol);
+        }
+
+        @Override
+        void update(SymbolIndicators symbol) {
+            boolean full = count == window;
+            super.update(symbol);
+            if (++updatesSinceRefresh >= window) {
+                refresh(symbol);
+                return;
+            }
+            double added = symbol.prices.fromNewest(0) - reference;
+            sumOfSquares += added * added;
+            if (full) {
+                double removed = symbol.prices.fromNewest(window) - reference;
+                sumOfSquares -= removed * removed;
+            }
+        }
+
+        private void refresh(SymbolIndicators symbol) {
+            reference = count > 0 ? sum / count : 0;
+            sumOfSquares = 0;
+            for (int age = 0; age < count; age++) {
+                double deviation = symbol.prices.fromNewest(age) - reference;
+                sumOfSquares += deviation * deviation;
+            }
+            updatesSinceRefresh = 0;
+        }
+
+        @Override
+        double value() {
+            double meanOffset = sum / (double) count - reference;
+            double variance = Math.max(0, sumOfSquares / count - meanOffset * meanOffset);
+            return (sum / (double) count + width * Math.sqrt(variance)) / MICROS_PER_UNIT;
+        }
+    }
+
+    /**
+     * EMA: starts as the average of the first prices and then smooths recursively.
+     */
+    private static final class ExponentialAverage extends Indicator {
+        private final double alpha;
+        private double average;
+        private long count;
+
+        ExponentialAverage(int window) {
+            super(window);
+            this.alpha = 2.0 / (window + 1);
+        }
+
+        @Override
+        void seed(SymbolIndicators symbol) {
+            for (int i = 0; i < symbol.prices.size(); i++) {
+                add(symbol.prices.get(i));
+            }
+        }
+
+        @Override
+        void update(SymbolIndicators symbol) {
+            add(symbol.prices.fromNewest(0));
+        }
+
+        private void add(long priceMicros) {
+            count++;
+            if (count <= window) {
+                average += (priceMicros - average) / count;
+            } else {
+                average += alpha * (priceMicros - average);
+            }
+        }
+
+        @Override
+        boolean isReady() {
+            return count >= window;
+        }
+
+        @Override
+        double value() {
+            return average / MICROS_PER_UNIT;
+        }
+    }
+
+    /**
+     * RSI: Wilder's average gain and loss over the price changes.
+     */
+    private static final class RelativeStrength extends Indicator {
+        private long previousPrice;
+        private long changes = -1; // the first price has no change
+        private double averageGain;
+        private double averageLoss;
+
+        RelativeStrength(int window) {
+            super(window);
+        }
+
+        @Override
+        void seed(SymbolIndicators symbol) {
+            for (int i = 0; i < symbol.prices.size(); i++) {
+                add(symbol.prices.get(i));
+            }
+        }
+
+        @Override
+        void update(SymbolIndicators symbol) {
+            add(symbol.prices.fromNewest(0));
+        }
+
+        private void add(long priceMicros) {
+            if (++changes > 0) {
+                long change = priceMicros - previousPrice;
+                double gain = Math.max(change, 0);
+                double loss = Math.max(-change, 0);
+                if (changes <= window) {
+                    averageGain += (gain - averageGain) / changes;
+                    averageLoss += (loss - averageLoss) / changes;
+                } else {
+                    averageGain = (averageGain * (window - 1) + gain) / window;
+                    averageLoss = (averageLoss * (window - 1) + loss) / window;
+                }
+            }
+            previousPrice = priceMicros;
+        }
+
+        @Override
+        boolean isReady() {
+            return changes >= window;
+        }
+
+        @Override
+        double value() {
+            if (averageLoss == 0) {
+                return averageGain == 0 ? 50 : 100;
+            }
+            return 100 - 100 / (1 + averageGain / averageLoss);
+        }
+    }
+
+    /**
+     * VWAP: running sums of price times quantity and of quantity over the last trades.
+     * Available from the first trade; the sums are refreshed from the ring once per window.
+     */
+    private static final class VolumeWeightedAverage extends Indicator {
+        private double value;
+        private long quantity;
+        private int count;
+        private int updatesSinceRefresh;
+
+        VolumeWeightedAverage(int window) {
+            super(window);
+        }
+
+        @Override
+        void seed(SymbolIndicators symbol) {
+            count = Math.min(window, symbol.tradePrices.size());
+            refresh(symbol);
+        }
+
+        @Override
+        void update(SymbolIndicators symbol) {
+            if (count < window) {
+                count++;
+            } else {
+                value -= (double) symbol.tradePrices.fromNewest(window) * symbol.tradeQuantities.fromNewest(window);
+                quantity -= symbol.tradeQuantities.fromNewest(window);
+            }
+            value += (double) symbol.tradePrices.fromNewest(0) * symbol.tradeQuantities.fromNewest(0);
+            quantity += symbol.tradeQuantities.fromNewest(0);
+            if (++updatesSinceRefresh >= window) {
+                refresh(symbol);
+            }
+        }
+
+        private void refresh(SymbolIndicators symbol) {
+            value = 0;
+            quantity = 0;
+            for (int age = 0; age < count; age++) {
+                value += (double) symbol.tradePrices.fromNewest(age) * symbol.tradeQuantities.fromNewest(age);
+                quantity += symbol.tradeQuantities.fromNewest(age);
+            }
+            updatesSinceRefresh = 0;
+        }
+
+        @Override
+        boolean isReady() {
+            return quantity > 0;
+        }
+
+        @Override
+        double value() {
+            return value / quantity / MICROS_PER_UNIT;
+        }
+    }
+
+    /**
+     * Ring buffer of the most recent values, oldest first. It starts small and
+     * grows on demand up to its capacity, then overwrites the oldest value.
+     */
+    private static final class LongRing {
+        private final int capacity;
+        private long[] values;
+        private int head; // physical index of the oldest value
+        private int size;
+
+        LongRing(int capacity) {
+            this.capacity = capacity;
+            this.values = new long[Math.min(INITIAL_ARRAY_SIZE, capacity)];
+        }
+
+        void add(long value) {
+            if (size == values.length && values.length < capacity) {
+                long[] grown = new long[(int) Math.min((long) values.length * 2, capacity)];
+                int firstPart = values.length - head;
+                System.arraycopy(values, head, grown, 0, firstPart);
+                System.arraycopy(values, 0, grown, firstPart, head);
+                values = grown;
+                head = 0;
+            }
+            if (size < values.length) {
+                values[(head + size++) % values.length] = value;
+            } else {
+                values[head] = value; // overwrite the oldest value
+                head = (head + 1) % values.length;
+            }
+        }
+
+        int size() {
+            return size;
+        }
+
+        long get(int index) {
+            return values[(head + index) % values.length];
+        }
+
+        long fromNewest(int age) {
+            return get(size - 1 - age);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package ch.bbw.m320.stocktrading.model;
+
+/**
+ * Technical indicators maintained by the {@link IndicatorEngine}.
+ * The window of an indicator is counted in price ticks, for {@link #VWAP} in trades.
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+public enum IndicatorType {
+    /** Simple moving average of the last prices. */
+    SMA,
+    /** Exponential moving average with smoothing factor 2 / (window + 1). */
+    EMA,
+    /** Relative strength index (0 to 100) with Wilder's smoothing. */
+    RSI,
+    /** Moving average plus two standard deviations. */
+    BOLLINGER_UPPER,
+    /** Moving average minus two standard deviations. */
+    BOLLINGER_LOWER,
+    /** Volume-weighted average price of the last trades. */
+    VWAP
+}
@@ -0,0 +1,285 @@
+package ch.bbw.m320.stocktrading.model;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Price simulator based on geometric Brownian motion with optional Merton jumps.
+ * Each step moves every price by
+ * exp((drift - volatility^2 / 2 - jumpIntensity * k) * dt + volatility * sqrt(dt) * Z + jumps),
+ * where k = E[e^J] - 1 keeps the expected return equal to the drift.
+ *
+ * The stocks are split into fixed-size chunks that are simulated in parallel. Every chunk
+ * has its own SplittableRandom stream, split from one seed, so a seed always produces the
+ * same price paths regardless of the number of cores. Model parameters are kept in
+ * primitive arrays indexed like the stocks.
+ *
+ * The simulator only changes prices; persisting them is up to the caller. If it knows the
+ * {@link TickBus} the price changes end up on, each chunk publishes its ticks as one batch,
+ * so the parallel chunks do not contend for the bus tick by tick.
+ *
+ * Clean Code: Single Responsibility - only evolves prices
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+public class MarketSimulator {
+    public static final double DEFAULT_DRIFT = 0.05;       // per year
+    public static final double DEFAULT_VOLATILITY = 0.25;  // per sqrt(year)
+    public static final Duration DEFAULT_TIME_STEP = Duration.ofDays(1);
+
+    private static final int CHUNK_SIZE = 4096;
+    private static final double SECONDS_PER_YEAR = 365.25 * 24 * 3600;
+    private static final double MICROS_PER_UNIT = 1_000_000.0;
+
+    private final Stock[] stocks;
+    private final double[] drifts;
+    private final double[] volatilities;
+    private final SplittableRandom[] chunkRandoms;
+    private final ScheduledExecutorService scheduler;
+
+    private volatile double timeStepYears;
+    private volatile double jumpIntensity;   // expected jumps per year
+    private volatile double jumpMean;        // mean of the log jump size
+    private volatile double jumpVolatility;  // standard deviation of the log jump size
+    private volatile long minimumPriceMicros;
+    private volatile TickBus tickBus; // null: ticks are published one by one
+    private ScheduledFuture<?> running;
+
+    /**
+     * Creates a simulator for the given stocks with default parameters (GBM without jumps).
+     * The order of the list is part of the reproducible state: use the same order for the same paths.
+     *
+     * @param stocks The stocks to simulate
+     * @param seed Seed of the random streams
+     */
+    public MarketSimulator(List<Stock> stocks, long seed) {
+        if (stocks == null) {
+            throw new IllegalArgumentException("Stocks cannot be null");
+        }
+        this.stocks = stocks.toArray(new Stock[0]);
+        this.drifts = new double[this.stocks.length];
+        this.volatilities = new double[this.stocks.length];
+        Arrays.fill(drifts, DEFAULT_DRIFT);
+        Arrays.fill(volatilities, DEFAULT_VOLATILITY);
+
+        SplittableRandom root = new SplittableRandom(seed);
+        this.chunkRandoms = new SplittableRandom[(this.stocks.length + CHUNK_SIZE - 1) / CHUNK_SIZE];
+        for (int i = 0; i < chunkRandoms.length; i++) {
+            chunkRandoms[i] = root.split();
+        }
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "market-simulator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.timeStepYears = toYears(DEFAULT_TIME_STEP);
+    }
+
+    /**
+     * Advances all prices by one time step, in parallel.
+     * Every stock gets its new price through {@link Stock#updatePrice}, so listeners and
+     * the tick bus see the change.
+     */
+    public void step() {
+        IntStream.range(0, chunkRandoms.length).parallel().forEach(this::stepChunk);
+    }
+
+    /**
+     * Starts stepping in the background.
+     *
+     * @param stepsPerSecond How many steps to run per second of wall-clock time
+     */
+    public synchronized void start(double stepsPerSecond) {
+        if (stepsPerSecond <= 0) {
+            throw new IllegalArgumentException("Step rate must be positive");
+        }
+        stop();
+        long periodNanos = Math.max(1, Math.round(TimeUnit.SECONDS.toNanos(1) / stepsPerSecond));
+        running = scheduler.scheduleAtFixedRate(this::stepSafely, periodNanos, periodNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Stops background stepping. A step that is already running completes.
+     */
+    public synchronized void stop() {
+        if (running != null) {
+            running.cancel(false);
+            running = null;
+        }
+    }
+
+    public synchronized boolean isRunning() {
+        return running != null;
+    }
+
+    /**
+     * Stops background stepping and releases the scheduler thread.
+     */
+    public void shutdown() {
+        stop();
+        scheduler.shutdown();
+    }
+
+    /**
+     * Sets the simulated time that passes in one step.
+     *
+     * @param timeStep Simulated time per step, e.g. one trading day
+     */
+    public void setTimeStep(Duration timeStep) {
+        if (timeStep == null || timeStep.isNegative() || timeStep.isZero()) {
+            throw new IllegalArgumentException("Time step must be positive");
+        }
+        this.timeStepYears = toYears(timeStep);
+    }
+
+    /**
+     * Sets drift and volatility of one stock.
+     *
+     * @param symbol The stock symbol
+     * @param drift Expected annual return, e.g. 0.05
+     * @param volatility Annual volatility, e.g. 0.25
+     */
+    public void setParameters(String symbol, double drift, double volatility) {
+        if (volatility < 0) {
+            throw new IllegalArgumentException("Volatility cannot be negative");
+        }
+        int symbolId = SymbolRegistry.getInstance().find(symbol);
+        for (int i = 0; i < stocks.length; i++) {
+            if (stocks[i].getSymbolId() == symbolId) {
+                drifts[i] = drift;
+                volatilities[i] = volatility;
+                return;
+            }
+        }
+        throw new IllegalArgumentException("Stock not simulated: " + symbol);
+    }
+
+    /**
+     * Enables jump-diffusion (Merton). Set the intensity to 0 for plain GBM.
+     *
+     * @param intensity Expected number of jumps per year
+     * @param mean Mean of the log jump size, e.g. -0.05 for 5% drops
+     * @param volatility Standard deviation of the log jump size
+     */
+    public void setJumps(double intensity, double mean, double volatility) {
+        if (intensity < 0 || volatility < 0) {
+            throw new IllegalArgumentException("Jump intensity and volatility cannot be negative");
+        }
+        this.jumpIntensity = intensity;
+        this.jumpMean = mean;
+        this.jumpVolatility = volatility;
+    }
+
+    /**
+     * Sets the bus on which the listeners of the simulated stocks publish their price changes.
+     * Each chunk of a step then opens a batch on it, see {@link TickBus#beginBatch()}.
+     *
+     * @param tickBus The bus, or null to publish every tick on its own
+     */
+    public void setTickBus(TickBus tickBus) {
+        this.tickBus = tickBus;
+    }
+
+    /**
+     * Sets the price floor. Prices never fall below it.
+     *
+     * @param minimumPrice The lowest possible price
+     */
+    public void setMinimumPrice(Money minimumPrice) {
+        if (minimumPrice == null || !minimumPrice.isPositive()) {
+            throw new IllegalArgumentException("Minimum price must be positive");
+        }
+        this.minimumPriceMicros = minimumPrice.getMicros();
+    }
+
+    public int getStockCount() {
+        return stocks.length;
+    }
+
+    private static double toYears(Duration duration) {
+        return duration.toNanos() / 1e9 / SECONDS_PER_YEAR;
+    }
+
+    private void stepSafely() {
+        try {
+            step();
+        } catch (RuntimeException e) {
+            System.err.println("Error simulating prices: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Simulates one chunk of stocks, publishing its ticks as one batch if a bus is set.
+     */
+    private void stepChunk(int chunk) {
+        TickBus bus = tickBus;
+        if (bus == null) {
+            simulateChunk(chunk);
+            return;
+        }
+        bus.beginBatch();
+        try {
+            simulateChunk(chunk);
+        } finally {
+            bus.endBatch();
+        }
+    }
+
+    /**
+     * Simulates one chunk of stocks with the chunk's own random stream.
+     */
+    private void simulateChunk(int chunk) {
+        SplittableRandom random = chunkRandoms[chunk];
+        double dt = timeStepYears;
+        double sqrtDt = Math.sqrt(dt);
+        double intensity = jumpIntensity;
+        double jumpMu = jumpMean;
+        double jumpSigma = jumpVolatility;
+        double jumpCompensation = intensity * (Math.exp(jumpMu + jumpSigma * jumpSigma / 2) - 1);
+        double jumpProbabilityFloor = Math.exp(-intensity * dt);
+        long floor = minimumPriceMicros;
+
+        int end = Math.min(stocks.length, (chunk + 1) * CHUNK_SIZE);
+        for (int i = chunk * CHUNK_SIZE; i < end; i++) {
+            double volatility = volatilities[i];
+            double logReturn = (drifts[i] - volatility * volatility / 2 - jumpCompensation) * dt
+                    + volatility * sqrtDt * random.nextGaussian();
+
+            if (intensity > 0) {
+                int jumps = poisson(random, jumpProbabilityFloor);
+                for (int j = 0; j < jumps; j++) {
+                    logReturn += jumpMu + jumpSigma * random.nextGaussian();
+                }
+            }
+
+            Stock stock = stocks[i];
+            double price = stock.getCurrentPrice().getMicros() / MICROS_PER_UNIT;
+            long newPriceMicros = Math.round(price * Math.exp(logReturn) * MICROS_PER_UNIT);
+            stock.updatePrice(Money.ofMicros(Math.max(newPriceMicros, Math.max(floor, 1))));
+        }
+    }
+
+    /**
+     * Draws a Poisson-distributed count (Knuth), efficient for the small means of one step.
+     *
+     * @param expMinusMean e^(-mean)
+     */
+    private static int poisson(SplittableRandom random, double expMinusMean) {
+        int count = 0;
+        double product = random.nextDouble();
+        while (product > expMinusMean) {
+            count++;
+            product *= random.nextDouble();
+        }
+        return count;
+    }
+}
@@ -0,0 +1,147 @@
+package ch.bbw.m320.stocktrading.model;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Immutable amount of money, stored as a long in micro-units (1 = 0.000001).
+ * Arithmetic works on the long directly, so it does not allocate intermediate
+ * BigDecimals; short-lived Money objects on the trade path are removed by escape analysis.
+ * All arithmetic is overflow-checked and throws ArithmeticException instead of wrapping.
+ *
+ * BigDecimal is only used at the boundaries (user input, display and JSON).
+ *
+ * Clean Code: Value Object - immutable, compared by value
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+public final class Money implements Comparable<Money> {
+    public static final int SCALE = 6;
+    public static final Money ZERO = new Money(0);
+
+    private static final int DISPLAY_SCALE = 2;
+
+    private final long micros;
+
+    private Money(long micros) {
+        this.micros = micros;
+    }
+
+    /**
+     * Creates an amount from micro-units.
+     *
+     * @param micros The amount in micro-units
+     * @return The amount
+     */
+    public static Money ofMicros(long micros) {
+        return micros == 0 ? ZERO : new Money(micros);
+    }
+
+    /**
+     * Converts a BigDecimal to an amount, rounding half-up to micro-units.
+     *
+     * @param amount The amount
+     * @return The amount
+     * @throws ArithmeticException if the amount does not fit into a long of micro-units
+     */
+    public static Money of(BigDecimal amount) {
+        if (amount == null) {
+            throw new IllegalArgumentException("Amount cannot be null");
+        }
+        return ofMicros(toMicros(amount));
+    }
+
+    /**
+     * Parses an amount, e.g. "175.50".
+     *
+     * @param amount The amount as a decimal string
+     * @return The amount
+     * @throws NumberFormatException if the string is not a number
+     */
+    public static Money of(String amount) {
+        return of(new BigDecimal(amount));
+    }
+
+    /**
+     * Converts a BigDecimal to micro-units, rounding half-up.
+     *
+     * @param amount The amount
+     * @return The amount in micro-units
+     * @throws ArithmeticException if the amount does not fit into a long
+     */
+    public static long toMicros(BigDecimal amount) {
+        return amount.setScale(SCALE, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+
+    public Money plus(Money other) {
+        return ofMicros(Math.addExact(micros, other.micros));
+    }
+
+    public Money minus(Money other) {
+        return ofMicros(Math.subtractExact(micros, other.micros));
+    }
+
+    /**
+     * Multiplies the amount by a quantity, e.g. price per share times number of shares.
+     *
+     * @param quantity The factor
+     * @return The product
+     */
+    public Money times(long quantity) {
+        return ofMicros(Math.multiplyExact(micros, quantity));
+    }
+
+    public Money negate() {
+        return ofMicros(Math.negateExact(micros));
+    }
+
+    public boolean isPositive() {
+        return micros > 0;
+    }
+
+    public boolean isNegative() {
+        return micros < 0;
+    }
+
+    public boolean isZero() {
+        return micros == 0;
+    }
+
+    public long getMicros() {
+        return micros;
+    }
+
+    /**
+     * Converts the amount to a BigDecimal with at least two decimal places
+     * (e.g. 175.50, 175.123). Use at the UI and persistence boundaries.
+     *
+     * @return The amount as BigDecimal
+     */
+    public BigDecimal toBigDecimal() {
+        BigDecimal value = BigDecimal.valueOf(micros, SCALE).stripTrailingZeros();
+        return value.scale() < DISPLAY_SCALE ? value.setScale(DISPLAY_SCALE) : value;
+    }
+
+    @Override
+    public int compareTo(Money other) {
+        return Long.compare(micros, other.micros);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        return micros == ((Money) o).micros;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(micros);
+    }
+
+    @Override
+    public String toString() {
+        return toBigDecimal().toPlainString();
+    }
+}
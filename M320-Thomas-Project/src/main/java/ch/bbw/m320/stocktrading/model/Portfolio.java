@@ -1,26 +1,49 @@
 package ch.bbw.m320.stocktrading.model;
 
-import java.math.BigDecimal;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Collections;
 
 /**
  * Represents a user's stock portfolio.
  * Manages stock holdings and their quantities.
+ *
+ * Valuation is incremental: once the portfolio is attached to a market (on the first
+ * {@link #calculateTotalValue} call) it keeps a running market value. A holding change
+ * adjusts it in O(1); a price tick of a held stock adjusts it through the market's
+ * reverse index. Reading the value is O(1) regardless of the number of positions.
+ * Holding changes and revaluations are synchronized on the portfolio.
+ * While attached, the market references the portfolio; {@link #detach()} releases it,
+ * e.g. when its user logs out or is evicted from the repository cache.
+ *
+ * Holdings are keyed by symbol ID (see {@link SymbolRegistry}); the String methods
+ * resolve the symbol once and delegate to the ID methods. They are stored in a primitive
+ * open-addressing map ({@link Holdings}), so changing a quantity boxes nothing.
+ *
+ * Shares reserved for open sell orders are moved out of the holdings into a separate
+ * reservation map that only lives in memory: they cannot be sold twice, but
+ * {@link #getHoldingsIncludingReserved()} still counts them, so what is persisted
+ * is what the user owns once the open orders are gone.
+ *
  * Clean Code: Single Responsibility - only manages portfolio holdings
  *
  * @author Thomas
  * @version 1.0
  */
 public class Portfolio {
-    private final Map<String, Integer> holdings; // stockSymbol -> quantity
+    private static final SymbolRegistry SYMBOLS = SymbolRegistry.getInstance();
+
+    private final Holdings holdings; // symbol ID -> quantity and the price it is counted at
+    private final Holdings reserved; // symbol ID -> shares held back for open sell orders
+    private StockMarket stockMarket; // set once the running value is maintained
+    private long marketValue; // micro-units
 
     /**
      * Creates a new empty portfolio.
      */
     public Portfolio() {
-        this.holdings = new HashMap<>();
+        this.holdings = new Holdings();
+        this.reserved = new Holdings();
     }
 
     /**
@@ -31,15 +54,24 @@ public class Portfolio {
      * @param quantity The quantity to add
      */
     public void addStock(String stockSymbol, int quantity) {
-        if (stockSymbol == null || stockSymbol.trim().isEmpty()) {
-            throw new IllegalArgumentException("Stock symbol cannot be null or empty");
-        }
+        addStock(SYMBOLS.idOf(stockSymbol), quantity);
+    }
+
+    /**
+     * Adds stocks to the portfolio.
+     *
+     * @param symbolId The ID of the stock symbol
+     * @param quantity The quantity to add
+     */
+    public synchronized void addStock(int symbolId, int quantity) {
+        SYMBOLS.symbolOf(symbolId); // validates the ID
         if (quantity <= 0) {
             throw new IllegalArgumentException("Quantity must be positive");
         }
 
-        String symbol = stockSymbol.toUpperCase();
-        holdings.put(symbol, holdings.getOrDefault(symbol, 0) + quantity);
+        Stock.PriceSnapshot valued = holdings.getValuedPrice(symbolId);
+        int currentQuantity = holdings.increment(symbolId, quantity);
+        updateValue(symbolId, valued, currentQuantity, currentQuantity + quantity);
     }
 
     /**
@@ -50,15 +82,24 @@ public class Portfolio {
      * @throws IllegalArgumentException if quantity exceeds holdings
      */
     public void removeStock(String stockSymbol, int quantity) {
-        if (stockSymbol == null || stockSymbol.trim().isEmpty()) {
-            throw new IllegalArgumentException("Stock symbol cannot be null or empty");
-        }
+        removeStock(SYMBOLS.idOf(stockSymbol), quantity);
+    }
+
+    /**
+     * Removes stocks from the portfolio.
+     *
+     * @param symbolId The ID of the stock symbol
+     * @param quantity The quantity to remove
+     * @throws IllegalArgumentException if quantity exceeds holdings
+     */
+    public synchronized void removeStock(int symbolId, int quantity) {
+        SYMBOLS.symbolOf(symbolId); // validates the ID
         if (quantity <= 0) {
             throw new IllegalArgumentException("Quantity must be positive");
         }
 
-        String symbol = stockSymbol.toUpperCase();
-        int currentQuantity = holdings.getOrDefault(symbol, 0);
+        Stock.PriceSnapshot valued = holdings.getValuedPrice(symbolId);
+        int currentQuantity = holdings.decrement(symbolId, quantity); // unchanged if too few
 
         if (currentQuantity < quantity) {
             throw new IllegalArgumentException(
@@ -66,12 +107,7 @@ public class Portfolio {
                             currentQuantity, quantity));
         }
 
-        int newQuantity = currentQuantity - quantity;
-        if (newQuantity == 0) {
-            holdings.remove(symbol);
-        } else {
-            holdings.put(symbol, newQuantity);
-        }
+        updateValue(symbolId, valued, currentQuantity, currentQuantity - quantity);
     }
 
     /**
@@ -81,10 +117,17 @@ public class Portfolio {
      * @return The quantity owned, or 0 if not owned
      */
     public int getQuantity(String stockSymbol) {
-        if (stockSymbol == null) {
-            return 0;
-        }
-        return holdings.getOrDefault(stockSymbol.toUpperCase(), 0);
+        return getQuantity(SYMBOLS.find(stockSymbol));
+    }
+
+    /**
+     * Gets the quantity of a specific stock in the portfolio.
+     *
+     * @param symbolId The ID of the stock symbol
+     * @return The quantity owned, or 0 if not owned
+     */
+    public synchronized int getQuantity(int symbolId) {
+        return holdings.get(symbolId);
     }
 
     /**
@@ -94,44 +137,208 @@ public class Portfolio {
      * @return true if the portfolio contains this stock
      */
     public boolean hasStock(String stockSymbol) {
-        if (stockSymbol == null) {
-            return false;
-        }
-        return holdings.containsKey(stockSymbol.toUpperCase());
+        return hasStock(SYMBOLS.find(stockSymbol));
+    }
+
+    /**
+     * Checks if the portfolio contains a specific stock.
+     *
+     * @param symbolId The ID of the stock symbol
+     * @return true if the portfolio contains this stock
+     */
+    public synchronized boolean hasStock(int symbolId) {
+        return holdings.contains(symbolId);
     }
 
     /**
-     * Gets all holdings in the portfolio.
+     * Gets all holdings in the portfolio, with the symbols resolved.
      * Clean Code: Returns defensive copy to prevent external modification
      *
      * @return Unmodifiable map of stock symbols to quantities
      */
-    public Map<String, Integer> getHoldings() {
-        return Collections.unmodifiableMap(holdings);
+    public synchronized Map<String, Integer> getHoldings() {
+        Map<String, Integer> resolved = new LinkedHashMap<>();
+        holdings.forEach((symbolId, quantity) -> resolved.put(SYMBOLS.symbolOf(symbolId), quantity));
+        return Collections.unmodifiableMap(resolved);
+    }
+
+    /**
+     * Reserves shares for an open sell order: they leave the holdings until the order is
+     * filled ({@link #consumeReservedStock}) or cancelled ({@link #releaseReservedStock}).
+     *
+     * @param symbolId The ID of the stock symbol
+     * @param quantity The number of shares to reserve
+     * @throws IllegalArgumentException if quantity exceeds holdings
+     */
+    public synchronized void reserveStock(int symbolId, int quantity) {
+        removeStock(symbolId, quantity);
+        reserved.increment(symbolId, quantity);
+    }
+
+    /**
+     * Returns reserved shares to the holdings, e.g. when an order is cancelled.
+     *
+     * @param symbolId The ID of the stock symbol
+     * @param quantity The number of shares to release
+     * @throws IllegalArgumentException if fewer shares are reserved
+     */
+    public synchronized void releaseReservedStock(int symbolId, int quantity) {
+        consumeReservedStock(symbolId, quantity);
+        addStock(symbolId, quantity);
+    }
+
+    /**
+     * Removes reserved shares for good, when the order they were reserved for is filled.
+     *
+     * @param symbolId The ID of the stock symbol
+     * @param quantity The number of shares sold
+     * @throws IllegalArgumentException if fewer shares are reserved
+     */
+    public synchronized void consumeReservedStock(int symbolId, int quantity) {
+        if (quantity <= 0) {
+            throw new IllegalArgumentException("Quantity must be positive");
+        }
+        int reservedQuantity = reserved.decrement(symbolId, quantity); // unchanged if too few
+        if (reservedQuantity < quantity) {
+            throw new IllegalArgumentException(
+                    String.format("Insufficient reserved shares. Have: %d, Trying to remove: %d",
+                            reservedQuantity, quantity));
+        }
+    }
+
+    /**
+     * Gets the number of shares of a stock reserved for open sell orders.
+     *
+     * @param symbolId The ID of the stock symbol
+     * @return The reserved quantity
+     */
+    public synchronized int getReservedQuantity(int symbolId) {
+        return reserved.get(symbolId);
+    }
+
+    /**
+     * Gets all holdings plus the shares reserved for open orders: what the user owns.
+     * This is what the repository persists, as open orders are not persisted.
+     *
+     * @return Unmodifiable map of stock symbols to quantities
+     */
+    public synchronized Map<String, Integer> getHoldingsIncludingReserved() {
+        Map<String, Integer> owned = new LinkedHashMap<>(getHoldings());
+        reserved.forEach((symbolId, quantity) -> owned.merge(SYMBOLS.symbolOf(symbolId), quantity, Integer::sum));
+        return Collections.unmodifiableMap(owned);
     }
 
     /**
-     * Calculates the total value of the portfolio.
+     * Gets the total value of the portfolio at current market prices.
+     * The first call attaches the portfolio to the market and values every holding once;
+     * after that the running value is returned in O(1).
      *
      * @param stockMarket The stock market to get current prices from
      * @return The total portfolio value
      */
-    public BigDecimal calculateTotalValue(StockMarket stockMarket) {
-        BigDecimal totalValue = BigDecimal.ZERO;
+    public synchronized Money calculateTotalValue(StockMarket stockMarket) {
+        if (this.stockMarket == null) {
+            attach(stockMarket);
+        }
+        return Money.ofMicros(marketValue);
+    }
+
+    /**
+     * Applies a price tick to the running value. Called by the market for portfolios
+     * that hold the symbol. Ticks older than the price already counted are ignored.
+     *
+     * @param symbolId The ID of the stock symbol
+     * @param snapshot The new price snapshot
+     */
+    synchronized void revalue(int symbolId, Stock.PriceSnapshot snapshot) {
+        Stock.PriceSnapshot valued = holdings.getValuedPrice(symbolId);
+        if (valued == null || snapshot.getVersion() <= valued.getVersion()) {
+            return;
+        }
+        long priceChange = snapshot.getPrice().getMicros() - valued.getPrice().getMicros();
+        marketValue = Math.addExact(marketValue,
+                Math.multiplyExact(priceChange, (long) holdings.get(symbolId)));
+        holdings.setValuedPrice(symbolId, snapshot);
+    }
+
+    /**
+     * Counts a held symbol at the price of a stock that replaced its listing.
+     * The new stock has its own versions, so the price is taken without comparing them;
+     * later ticks of the new stock are compared against its snapshot as usual.
+     *
+     * @param symbolId The ID of the stock symbol
+     * @param stock The stock now listed under the symbol
+     */
+    synchronized void rebase(int symbolId, Stock stock) {
+        Stock.PriceSnapshot valued = holdings.getValuedPrice(symbolId);
+        if (valued == null) {
+            return;
+        }
+        Stock.PriceSnapshot snapshot = stock.getPriceSnapshot();
+        long priceChange = snapshot.getPrice().getMicros() - valued.getPrice().getMicros();
+        marketValue = Math.addExact(marketValue,
+                Math.multiplyExact(priceChange, (long) holdings.get(symbolId)));
+        holdings.setValuedPrice(symbolId, snapshot);
+    }
+
+    /**
+     * Stops maintaining the running value and removes the portfolio from the holders of its
+     * stocks, so the market no longer keeps it reachable. Safe to call on a portfolio that is
+     * still used: the next {@link #calculateTotalValue} call attaches it again.
+     */
+    public synchronized void detach() {
+        StockMarket attachedMarket = stockMarket;
+        if (attachedMarket == null) {
+            return;
+        }
+        holdings.forEach((symbolId, quantity) -> {
+            attachedMarket.unregisterHolder(symbolId, this);
+            holdings.setValuedPrice(symbolId, null);
+        });
+        stockMarket = null;
+        marketValue = 0;
+    }
 
-        for (Map.Entry<String, Integer> entry : holdings.entrySet()) {
-            String symbol = entry.getKey();
-            int quantity = entry.getValue();
+    /**
+     * Starts maintaining the running value: values every holding and registers
+     * the portfolio as a holder of each symbol.
+     */
+    private void attach(StockMarket stockMarket) {
+        if (stockMarket == null) {
+            throw new IllegalArgumentException("Stock market cannot be null");
+        }
+        this.stockMarket = stockMarket;
+        holdings.forEach((symbolId, quantity) -> updateValue(symbolId, null, 0, quantity));
+    }
 
-            Stock stock = stockMarket.getStock(symbol);
-            if (stock != null) {
-                BigDecimal stockValue = stock.getCurrentPrice()
-                        .multiply(BigDecimal.valueOf(quantity));
-                totalValue = totalValue.add(stockValue);
+    /**
+     * Adjusts the running value after the quantity of a holding changed.
+     *
+     * @param valued The price the holding was counted at before the change, or null
+     */
+    private void updateValue(int symbolId, Stock.PriceSnapshot valued, int oldQuantity, int newQuantity) {
+        if (stockMarket == null) {
+            return; // not attached yet, valued on the first read
+        }
+
+        if (valued == null) {
+            Stock stock = stockMarket.getStock(symbolId);
+            if (stock == null || newQuantity == 0) {
+                return; // unknown stocks are not valued
             }
+            // Register before reading the price, so no tick in between is missed
+            stockMarket.registerHolder(symbolId, this);
+            valued = stock.getPriceSnapshot();
+            holdings.setValuedPrice(symbolId, valued);
+            oldQuantity = 0;
         }
 
-        return totalValue;
+        marketValue = Math.addExact(marketValue,
+                Math.multiplyExact(valued.getPrice().getMicros(), (long) newQuantity - oldQuantity));
+
+        if (newQuantity == 0) {
+            stockMarket.unregisterHolder(symbolId, this); // the holding is already gone
+        }
     }
 
     /**
@@ -139,8 +346,8 @@ public class Portfolio {
      *
      * @return true if no stocks are held
      */
-    public boolean isEmpty() {
-        return holdings.isEmpty();
+    public synchronized boolean isEmpty() {
+        return holdings.size() == 0;
     }
 
     /**
@@ -148,20 +355,19 @@ public class Portfolio {
      *
      * @return The count of unique stocks
      */
-    public int getStockCount() {
+    public synchronized int getStockCount() {
         return holdings.size();
     }
 
     @Override
-    public String toString() {
+    public synchronized String toString() {
         if (isEmpty()) {
             return "Portfolio is empty";
         }
 
         StringBuilder sb = new StringBuilder("Portfolio Holdings:\n");
-        for (Map.Entry<String, Integer> entry : holdings.entrySet()) {
-            sb.append(String.format("  %s: %d shares\n", entry.getKey(), entry.getValue()));
-        }
+        holdings.forEach((symbolId, quantity) ->
+                sb.append(String.format("  %s: %d shares\n", SYMBOLS.symbolOf(symbolId), quantity)));
         return sb.toString();
     }
 }
@@ -0,0 +1,378 @@
+package ch.bbw.m320.stocktrading.model;
+
+import java.lang.invoke.VarHandle;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.AbstractList;
+import java.util.ConcurrentModificationException;
+import java.util.RandomAccess;
+
+/**
+ * Columnar price history of a stock.
+ * Stores each tick as two primitive longs (epoch nanos and price in micro-units)
+ * in a ring buffer instead of one PricePoint object per tick.
+ *
+ * The buffer grows on demand up to its capacity; after that the oldest ticks are overwritten.
+ * Ticks older than the retention period (measured from the newest tick) are dropped on append.
+ *
+ * Thread safety: all methods of the history are synchronized. Views read the
+ * shared arrays without locking; every write first advances a sequence counter of the
+ * arrays, so a view detects when the ring buffer has overwritten one of its ticks
+ * and throws a {@link ConcurrentModificationException} instead of returning a newer tick.
+ *
+ * Clean Code: Single Responsibility - only stores and queries price ticks
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+public class PriceHistory {
+    public static final int DEFAULT_CAPACITY = 1 << 20;
+    public static final int PRICE_SCALE = Money.SCALE; // prices are stored in micro-units
+
+    private static final int INITIAL_ARRAY_SIZE = 16;
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    private long[] epochNanos;
+    private long[] scaledPrices;
+    private WriteSequence sequence = new WriteSequence(); // belongs to the current arrays
+    private int head;   // physical index of the oldest tick
+    private int size;
+    private int capacity;
+    private Duration retention;
+
+    /**
+     * Creates a price history with the default capacity and unlimited retention.
+     */
+    public PriceHistory() {
+        this(DEFAULT_CAPACITY, null);
+    }
+
+    /**
+     * Creates a price history.
+     *
+     * @param capacity The maximum number of ticks kept in memory
+     * @param retention How long ticks are kept relative to the newest tick, or null for unlimited
+     */
+    public PriceHistory(int capacity, Duration retention) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.retention = retention;
+        this.epochNanos = new long[Math.min(INITIAL_ARRAY_SIZE, capacity)];
+        this.scaledPrices = new long[epochNanos.length];
+    }
+
+    /**
+     * Appends a tick. Timestamps are kept strictly ascending: a tick that is not
+     * newer than the newest one is stored one nanosecond after it.
+     *
+     * @param price The price
+     * @param timestamp The time of the tick
+     */
+    public void append(Money price, LocalDateTime timestamp) {
+        append(toEpochNanos(timestamp), price.getMicros());
+    }
+
+    /**
+     * Appends a tick in primitive form.
+     *
+     * @param tickEpochNanos The time of the tick in nanoseconds since the epoch (UTC)
+     * @param scaledPrice The price in micro-units
+     */
+    public synchronized void append(long tickEpochNanos, long scaledPrice) {
+        if (size > 0) {
+            tickEpochNanos = Math.max(tickEpochNanos, getEpochNanos(size - 1) + 1);
+        }
+
+        if (size == epochNanos.length && size < capacity) {
+            grow();
+        }
+
+        // Announce the write before touching the slot, so views can see that it was overwritten
+        sequence.written++;
+        VarHandle.storeStoreFence();
+        if (size == capacity) {
+            // Buffer full - overwrite the oldest tick
+            epochNanos[head] = tickEpochNanos;
+            scaledPrices[head] = scaledPrice;
+            head = (head + 1) % epochNanos.length;
+        } else {
+            int index = (head + size) % epochNanos.length;
+            epochNanos[index] = tickEpochNanos;
+            scaledPrices[index] = scaledPrice;
+            size++;
+        }
+
+        applyRetention();
+    }
+
+    /**
+     * Changes the capacity. If the history holds more ticks, the oldest are dropped.
+     *
+     * @param capacity The new maximum number of ticks
+     */
+    public synchronized void setCapacity(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        int keep = Math.min(size, capacity);
+        int dropped = size - keep;
+        resize(Math.max(keep, Math.min(INITIAL_ARRAY_SIZE, capacity)), dropped, keep);
+        this.capacity = capacity;
+    }
+
+    /**
+     * Changes the retention period and drops ticks that fall outside of it.
+     *
+     * @param retention How long ticks are kept relative to the newest tick, or null for unlimited
+     */
+    public synchronized void setRetention(Duration retention) {
+        this.retention = retention;
+        applyRetention();
+    }
+
+    /**
+     * Removes all ticks.
+     */
+    public synchronized void clear() {
+        head = (int) (sequence.written % epochNanos.length); // the next write continues the sequence
+        size = 0;
+    }
+
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized Duration getRetention() {
+        return retention;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Gets the time of a tick.
+     *
+     * @param index Logical index, 0 is the oldest tick
+     * @return Nanoseconds since the epoch (UTC)
+     */
+    public synchronized long getEpochNanos(int index) {
+        return epochNanos[physicalIndex(index)];
+    }
+
+    /**
+     * Gets the price of a tick.
+     *
+     * @param index Logical index, 0 is the oldest tick
+     * @return The price in micro-units
+     */
+    public synchronized long getScaledPrice(int index) {
+        return scaledPrices[physicalIndex(index)];
+    }
+
+    /**
+     * Returns a read-only view of all ticks.
+     *
+     * @return View over the whole history
+     */
+    public synchronized View view() {
+        return newView(0, size);
+    }
+
+    /**
+     * Returns a read-only view of the ticks in a time range, without copying.
+     *
+     * @param from Start of the range (inclusive)
+     * @param to End of the range (exclusive)
+     * @return View over the ticks in the range
+     */
+    public View range(LocalDateTime from, LocalDateTime to) {
+        return range(toEpochNanos(from), toEpochNanos(to));
+    }
+
+    /**
+     * Returns a read-only view of the ticks in a time range, without copying.
+     *
+     * @param fromEpochNanos Start of the range (inclusive)
+     * @param toEpochNanos End of the range (exclusive)
+     * @return View over the ticks in the range
+     */
+    public synchronized View range(long fromEpochNanos, long toEpochNanos) {
+        int start = lowerBound(fromEpochNanos);
+        int end = Math.max(start, lowerBound(toEpochNanos));
+        return newView(start, end - start);
+    }
+
+    /**
+     * Creates a view over the current arrays. Tick i of the history has the write
+     * sequence number written - size + i; its physical index is that number modulo the array length.
+     */
+    private View newView(int start, int length) {
+        return new View(epochNanos, scaledPrices, sequence, sequence.written - size + start, length);
+    }
+
+    /**
+     * Converts a timestamp to nanoseconds since the epoch, treating it as UTC.
+     * Prices and trades are stamped with {@code LocalDateTime.now(ZoneOffset.UTC)} for this reason.
+     */
+    public static long toEpochNanos(LocalDateTime timestamp) {
+        return timestamp.toEpochSecond(ZoneOffset.UTC) * NANOS_PER_SECOND + timestamp.getNano();
+    }
+
+    /**
+     * Converts nanoseconds since the epoch back to a timestamp.
+     */
+    public static LocalDateTime toLocalDateTime(long epochNanos) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(epochNanos, NANOS_PER_SECOND),
+                (int) Math.floorMod(epochNanos, NANOS_PER_SECOND), ZoneOffset.UTC);
+    }
+
+    /**
+     * Finds the first logical index whose timestamp is >= the given time.
+     */
+    private int lowerBound(long targetEpochNanos) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (getEpochNanos(mid) < targetEpochNanos) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void applyRetention() {
+        if (retention == null || size == 0) {
+            return;
+        }
+        long cutoff = getEpochNanos(size - 1) - retention.toNanos();
+        while (size > 1 && epochNanos[head] < cutoff) {
+            head = (head + 1) % epochNanos.length;
+            size--;
+        }
+    }
+
+    private void grow() {
+        int newLength = (int) Math.min((long) epochNanos.length * 2, capacity);
+        resize(newLength, 0, size);
+    }
+
+    /**
+     * Copies ticks into new arrays, starting at the oldest kept tick.
+     * Views created earlier keep the old arrays and their sequence, and stay valid.
+     */
+    private void resize(int newLength, int skip, int count) {
+        long[] newEpochNanos = new long[newLength];
+        long[] newScaledPrices = new long[newLength];
+        for (int i = 0; i < count; i++) {
+            int source = physicalIndex(skip + i);
+            newEpochNanos[i] = epochNanos[source];
+            newScaledPrices[i] = scaledPrices[source];
+        }
+        epochNanos = newEpochNanos;
+        scaledPrices = newScaledPrices;
+        sequence = new WriteSequence(); // the old arrays are never written again
+        sequence.written = count;
+        head = 0;
+        size = count;
+    }
+
+    private int physicalIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return (head + index) % epochNanos.length;
+    }
+
+    /**
+     * Number of ticks ever written into one pair of arrays. Only changed under the history lock.
+     */
+    private static final class WriteSequence {
+        volatile long written;
+    }
+
+    /**
+     * Read-only window over a part of a price history.
+     * Shares the arrays of the history, so creating a view copies nothing.
+     * PricePoint objects are only created when {@link #get(int)} is called.
+     * A view stays valid until the ring buffer wraps around and overwrites its ticks;
+     * after that, reading an overwritten tick throws a {@link ConcurrentModificationException}.
+     */
+    public static class View extends AbstractList<Stock.PricePoint> implements RandomAccess {
+        private final long[] epochNanos;
+        private final long[] scaledPrices;
+        private final WriteSequence sequence;
+        private final long firstSequence; // write sequence number of tick 0
+        private final int length;
+
+        private View(long[] epochNanos, long[] scaledPrices, WriteSequence sequence, long firstSequence, int length) {
+            this.epochNanos = epochNanos;
+            this.scaledPrices = scaledPrices;
+            this.sequence = sequence;
+            this.firstSequence = firstSequence;
+            this.length = length;
+        }
+
+        public long getEpochNanos(int index) {
+            long tick = tickSequence(index);
+            long value = epochNanos[physicalIndex(tick)];
+            checkNotOverwritten(tick);
+            return value;
+        }
+
+        public long getScaledPrice(int index) {
+            long tick = tickSequence(index);
+            long value = scaledPrices[physicalIndex(tick)];
+            checkNotOverwritten(tick);
+            return value;
+        }
+
+        @Override
+        public Stock.PricePoint get(int index) {
+            long tick = tickSequence(index);
+            int physical = physicalIndex(tick);
+            long scaledPrice = scaledPrices[physical];
+            long tickEpochNanos = epochNanos[physical];
+            checkNotOverwritten(tick);
+            return new Stock.PricePoint(Money.ofMicros(scaledPrice), toLocalDateTime(tickEpochNanos));
+        }
+
+        @Override
+        public int size() {
+            return length;
+        }
+
+        private long tickSequence(int index) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + length);
+            }
+            return firstSequence + index;
+        }
+
+        private int physicalIndex(long tick) {
+            return (int) (tick % epochNanos.length);
+        }
+
+        /**
+         * Fails if the slot of the tick was (or is being) written again after the view was created.
+         * Must be called after the slot was read: the writer advances the sequence before the slot.
+         */
+        private void checkNotOverwritten(long tick) {
+            VarHandle.loadLoadFence();
+            if (sequence.written - tick > epochNanos.length) {
+                throw new ConcurrentModificationException("Tick " + (tick - firstSequence)
+                        + " of the view was overwritten by newer ticks");
+            }
+        }
+    }
+}
@@ -1,6 +1,6 @@
 package ch.bbw.m320.stocktrading.model;
 
-import java.math.BigDecimal;
+import java.time.LocalDateTime;
 
 /**
  * Represents a stock sale transaction.
@@ -18,16 +18,30 @@ public class SellTransaction extends Transaction {
      * @param quantity The number of shares to sell
      * @param pricePerShare The price per share at sale time
      */
-    public SellTransaction(String stockSymbol, int quantity, BigDecimal pricePerShare) {
+    public SellTransaction(String stockSymbol, int quantity, Money pricePerShare) {
         super(stockSymbol, quantity, pricePerShare, TransactionType.SELL);
     }
 
+    /**
+     * Restores a persisted sell transaction.
+     *
+     * @param transactionId The original transaction ID
+     * @param stockSymbol The symbol of the stock being sold
+     * @param quantity The number of shares
+     * @param pricePerShare The price per share at transaction time
+     * @param timestamp The original transaction time
+     */
+    public SellTransaction(String transactionId, String stockSymbol, int quantity, Money pricePerShare,
+                           LocalDateTime timestamp) {
+        super(transactionId, stockSymbol, quantity, pricePerShare, timestamp, TransactionType.SELL);
+    }
+
     /**
      * Returns the balance impact (positive for sales).
      * Demonstrates polymorphism - overrides abstract method from parent.
      */
     @Override
-    public BigDecimal getBalanceImpact() {
+    public Money getBalanceImpact() {
         return getTotalValue(); // Positive because selling adds money
     }
 
@@ -38,6 +52,6 @@ public class SellTransaction extends Transaction {
     @Override
     public String getTransactionDetails() {
         return String.format("Sold %d shares of %s at $%.2f per share (Total: $%.2f)",
-                getQuantity(), getStockSymbol(), getPricePerShare(), getTotalValue());
+                getQuantity(), getStockSymbol(), getPricePerShare().toBigDecimal(), getTotalValue().toBigDecimal());
     }
 }
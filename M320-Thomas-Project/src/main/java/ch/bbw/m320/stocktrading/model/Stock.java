@@ -1,23 +1,34 @@
 package ch.bbw.m320.stocktrading.model;
 
-import java.math.BigDecimal;
 import java.time.LocalDateTime;
-import java.util.ArrayList;
+import java.time.ZoneOffset;
 import java.util.List;
-import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Represents a stock with its symbol, name, current price, and price history.
  * This class follows Clean Code principles with meaningful names and single responsibility.
  *
+ * Thread safety: the current price is published as an immutable {@link PriceSnapshot}
+ * through a volatile field, so price readers never block. Writers take the lock of the
+ * price history, so the history holds the ticks in the same order as the snapshot versions.
+ *
+ * All timestamps are UTC, like the ticks of the {@link PriceHistory}.
+ *
+ * DESIGN PATTERN: Observer Pattern
+ * Reason: Portfolios need to revalue their holdings when a price changes,
+ * without the stock knowing who holds it. Interested parties register a {@link PriceListener}.
+ *
  * @author Thomas
  * @version 1.0
  */
 public class Stock {
+    private final int symbolId;         // see SymbolRegistry
     private final String symbol;        // e.g., "AAPL"
     private final String name;          // e.g., "Apple Inc."
-    private BigDecimal currentPrice;
-    private final List<PricePoint> priceHistory;
+    private volatile PriceSnapshot snapshot;
+    private final PriceHistory priceHistory;
+    private final List<PriceListener> priceListeners = new CopyOnWriteArrayList<>();
 
     /**
      * Constructor for creating a new Stock.
@@ -27,7 +38,7 @@ public class Stock {
      * @param initialPrice The initial price of the stock
      * @throws IllegalArgumentException if any parameter is null or invalid
      */
-    public Stock(String symbol, String name, BigDecimal initialPrice) {
+    public Stock(String symbol, String name, Money initialPrice) {
         // Clean Code: Validate input (Exception Handling)
         if (symbol == null || symbol.trim().isEmpty()) {
             throw new IllegalArgumentException("Stock symbol cannot be null or empty");
@@ -35,38 +46,92 @@ public class Stock {
         if (name == null || name.trim().isEmpty()) {
             throw new IllegalArgumentException("Stock name cannot be null or empty");
         }
-        if (initialPrice == null || initialPrice.compareTo(BigDecimal.ZERO) <= 0) {
+        if (initialPrice == null || !initialPrice.isPositive()) {
             throw new IllegalArgumentException("Initial price must be positive");
         }
 
-        this.symbol = symbol.toUpperCase();
+        this.symbolId = SymbolRegistry.getInstance().idOf(symbol);
+        this.symbol = SymbolRegistry.getInstance().symbolOf(symbolId);
         this.name = name;
-        this.currentPrice = initialPrice;
-        this.priceHistory = new ArrayList<>();
+        this.priceHistory = new PriceHistory();
 
         // Add initial price to history
-        addPricePoint(initialPrice);
+        LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC);
+        this.snapshot = new PriceSnapshot(initialPrice, now, 0);
+        priceHistory.append(initialPrice, now);
+    }
+
+    /**
+     * Restores a persisted stock with its price history.
+     *
+     * @param symbol The stock symbol
+     * @param name The full company name
+     * @param currentPrice The last known price
+     * @param priceHistory The persisted price history, oldest first
+     */
+    public Stock(String symbol, String name, Money currentPrice, List<PricePoint> priceHistory) {
+        if (symbol == null || symbol.trim().isEmpty()) {
+            throw new IllegalArgumentException("Stock symbol cannot be null or empty");
+        }
+        if (name == null || name.trim().isEmpty()) {
+            throw new IllegalArgumentException("Stock name cannot be null or empty");
+        }
+        if (currentPrice == null || !currentPrice.isPositive()) {
+            throw new IllegalArgumentException("Current price must be positive");
+        }
+
+        this.symbolId = SymbolRegistry.getInstance().idOf(symbol);
+        this.symbol = SymbolRegistry.getInstance().symbolOf(symbolId);
+        this.name = name;
+        this.snapshot = new PriceSnapshot(currentPrice, LocalDateTime.now(ZoneOffset.UTC), 0);
+        this.priceHistory = new PriceHistory();
+        if (priceHistory != null) {
+            for (PricePoint point : priceHistory) {
+                this.priceHistory.append(point.getPrice(), point.getTimestamp());
+            }
+        }
     }
 
     /**
-     * Updates the current price and adds it to the price history.
+     * Updates the current price, adds it to the price history and notifies the price listeners.
+     * Concurrent writers are serialized on the price history, which is appended before the
+     * new snapshot is published: tick n of the history always belongs to version n, and a
+     * reader that sees a snapshot finds its tick in the history. Readers never block.
      *
      * @param newPrice The new price to set
      */
-    public void updatePrice(BigDecimal newPrice) {
-        if (newPrice == null || newPrice.compareTo(BigDecimal.ZERO) <= 0) {
+    public void updatePrice(Money newPrice) {
+        if (newPrice == null || !newPrice.isPositive()) {
             throw new IllegalArgumentException("Price must be positive");
         }
-        this.currentPrice = newPrice;
-        addPricePoint(newPrice);
+
+        PriceSnapshot next;
+        synchronized (priceHistory) {
+            LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC);
+            next = new PriceSnapshot(newPrice, now, snapshot.getVersion() + 1);
+            priceHistory.append(newPrice, now);
+            snapshot = next;
+        }
+
+        for (PriceListener listener : priceListeners) {
+            listener.priceChanged(this, next);
+        }
     }
 
     /**
-     * Adds a price point to the history.
-     * Private helper method following Clean Code principles (small, focused methods).
+     * Registers a listener that is called after every price update.
+     *
+     * @param listener The listener
      */
-    private void addPricePoint(BigDecimal price) {
-        priceHistory.add(new PricePoint(price, LocalDateTime.now()));
+    public void addPriceListener(PriceListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener cannot be null");
+        }
+        priceListeners.add(listener);
+    }
+
+    public void removePriceListener(PriceListener listener) {
+        priceListeners.remove(listener);
     }
 
     // Getters
@@ -74,16 +139,61 @@ public class Stock {
         return symbol;
     }
 
+    /**
+     * Gets the ID of the symbol, see {@link SymbolRegistry}.
+     *
+     * @return The symbol ID
+     */
+    public int getSymbolId() {
+        return symbolId;
+    }
+
     public String getName() {
         return name;
     }
 
-    public BigDecimal getCurrentPrice() {
-        return currentPrice;
+    public Money getCurrentPrice() {
+        return snapshot.getPrice();
+    }
+
+    /**
+     * Gets the current price together with its timestamp and version.
+     * Lock-free: reads a single volatile field.
+     *
+     * @return The latest price snapshot
+     */
+    public PriceSnapshot getPriceSnapshot() {
+        return snapshot;
     }
 
+    /**
+     * Gets the price history as a read-only list view.
+     * No copy is made; PricePoint objects are created on access.
+     *
+     * @return Read-only view of all price points, oldest first
+     */
     public List<PricePoint> getPriceHistory() {
-        return new ArrayList<>(priceHistory); // Defensive copy
+        return priceHistory.view();
+    }
+
+    /**
+     * Gets the price points in a time range as a read-only view.
+     *
+     * @param from Start of the range (inclusive)
+     * @param to End of the range (exclusive)
+     * @return Read-only view of the price points in the range
+     */
+    public PriceHistory.View getPriceHistory(LocalDateTime from, LocalDateTime to) {
+        return priceHistory.range(from, to);
+    }
+
+    /**
+     * Gets the underlying price history store, e.g. to configure capacity and retention.
+     *
+     * @return The price history store
+     */
+    public PriceHistory getPriceHistoryStore() {
+        return priceHistory;
     }
 
     @Override
@@ -91,17 +201,54 @@ public class Stock {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Stock stock = (Stock) o;
-        return Objects.equals(symbol, stock.symbol);
+        return symbolId == stock.symbolId;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(symbol);
+        return Integer.hashCode(symbolId);
     }
 
     @Override
     public String toString() {
-        return String.format("%s (%s) - $%.2f", name, symbol, currentPrice);
+        return String.format("%s (%s) - $%.2f", name, symbol, getCurrentPrice().toBigDecimal());
+    }
+
+    /**
+     * Immutable snapshot of the current price.
+     * The version is incremented on every update, so readers can detect changes.
+     */
+    public static final class PriceSnapshot {
+        private final Money price;
+        private final LocalDateTime timestamp;
+        private final long version;
+
+        public PriceSnapshot(Money price, LocalDateTime timestamp, long version) {
+            this.price = price;
+            this.timestamp = timestamp;
+            this.version = version;
+        }
+
+        public Money getPrice() {
+            return price;
+        }
+
+        public LocalDateTime getTimestamp() {
+            return timestamp;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+    }
+
+    /**
+     * Callback for price updates. Called on the thread that updated the price.
+     * With concurrent updates, snapshots can arrive out of order; use the version to detect that.
+     */
+    @FunctionalInterface
+    public interface PriceListener {
+        void priceChanged(Stock stock, PriceSnapshot snapshot);
     }
 
     /**
@@ -109,15 +256,15 @@ public class Stock {
      * Encapsulates price and timestamp together.
      */
     public static class PricePoint {
-        private final BigDecimal price;
+        private final Money price;
         private final LocalDateTime timestamp;
 
-        public PricePoint(BigDecimal price, LocalDateTime timestamp) {
+        public PricePoint(Money price, LocalDateTime timestamp) {
             this.price = price;
             this.timestamp = timestamp;
         }
 
-        public BigDecimal getPrice() {
+        public Money getPrice() {
             return price;
         }
 
@@ -127,7 +274,7 @@ public class Stock {
 
         @Override
         public String toString() {
-            return String.format("$%.2f at %s", price, timestamp);
+            return String.format("$%.2f at %s", price.toBigDecimal(), timestamp);
         }
     }
 }
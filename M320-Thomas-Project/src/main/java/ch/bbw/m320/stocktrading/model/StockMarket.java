@@ -2,8 +2,13 @@ package ch.bbw.m320.stocktrading.model;
 
 import ch.bbw.m320.stocktrading.repository.StockMarketRepository;
 
-import java.math.BigDecimal;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Represents the stock market that manages all available stocks.
@@ -11,35 +16,70 @@ import java.util.*;
  * Reason: There should only be one instance of the stock market in the application.
  * This ensures all users trade on the same market with consistent prices.
  *
+ * Thread safety: stocks are kept in a ConcurrentHashMap and each Stock publishes its
+ * price lock-free, so price feeds and trading sessions can run on different threads.
+ *
+ * Stocks and their holders are indexed by symbol ID (see {@link SymbolRegistry}) in an
+ * array, so lookups on the trading path are an array access instead of a String hash.
+ *
+ * The market also keeps a reverse index from symbol to the portfolios holding it.
+ * On a price tick only those portfolios are revalued, so their market value stays current
+ * without being recomputed on every read.
+ *
+ * Every price change is also published on the market's {@link TickBus}, so other
+ * components can subscribe to ticks instead of polling {@link #getAllStocks()}.
+ * The market's {@link CandleEngine} is such a subscriber and keeps OHLCV bars of every stock,
+ * its {@link IndicatorEngine} keeps the technical indicators up to date.
+ *
+ * Prices are simulated by a {@link MarketSimulator}. A running simulation does not write
+ * to disk on every step; the prices are persisted on their own, slower schedule.
+ *
  * Clean Code: Single Responsibility - manages available stocks and their prices
  *
  * @author Thomas
  * @version 1.0
  */
 public class StockMarket {
+    private static final Money MINIMUM_PRICE = Money.of("1.00");
+    private static final Duration DEFAULT_PERSIST_INTERVAL = Duration.ofSeconds(5);
+
     // Singleton instance
     private static StockMarket instance;
 
     private final Map<String, Stock> availableStocks;
+    private volatile Listing[] listings; // symbol ID -> stock and holders, copy-on-write
+    private final TickBus tickBus;
+    private final CandleEngine candleEngine;
+    private final IndicatorEngine indicatorEngine;
     private final StockMarketRepository repository;
+    private final Stock.PriceListener priceListener = this::onPriceChanged; // one instance, so it can be removed
+    private MarketSimulator simulator;
+    private ScheduledExecutorService persistScheduler;
+    private ScheduledFuture<?> persistTask;
 
     /**
      * Private constructor to prevent direct instantiation.
      * This is part of the Singleton pattern.
      */
     private StockMarket() {
-        this.availableStocks = new HashMap<>();
+        this.availableStocks = new ConcurrentHashMap<>();
+        this.listings = new Listing[0];
+        this.tickBus = new TickBus();
+        this.candleEngine = new CandleEngine();
+        this.indicatorEngine = new IndicatorEngine();
         this.repository = new StockMarketRepository();
 
         // Try to load saved stock prices, otherwise use defaults
         Map<String, Stock> savedStocks = repository.load();
         if (savedStocks != null) {
-            this.availableStocks.putAll(savedStocks);
+            addStocks(savedStocks.values());
         } else {
             initializeDefaultStocks();
             // Save the default prices for next time
             persistStocks();
         }
+        candleEngine.subscribe(tickBus);
+        indicatorEngine.subscribe(tickBus);
     }
 
     /**
@@ -62,20 +102,20 @@ public class StockMarket {
      */
     private void initializeDefaultStocks() {
         // Technology stocks
-        addStock(new Stock("AAPL", "Apple Inc.", new BigDecimal("175.50")));
-        addStock(new Stock("GOOGL", "Alphabet Inc.", new BigDecimal("140.25")));
-        addStock(new Stock("MSFT", "Microsoft Corporation", new BigDecimal("378.90")));
-        addStock(new Stock("AMZN", "Amazon.com Inc.", new BigDecimal("155.75")));
+        addStock(new Stock("AAPL", "Apple Inc.", Money.of("175.50")));
+        addStock(new Stock("GOOGL", "Alphabet Inc.", Money.of("140.25")));
+        addStock(new Stock("MSFT", "Microsoft Corporation", Money.of("378.90")));
+        addStock(new Stock("AMZN", "Amazon.com Inc.", Money.of("155.75")));
 
         // Financial stocks
-        addStock(new Stock("JPM", "JPMorgan Chase & Co.", new BigDecimal("156.80")));
-        addStock(new Stock("BAC", "Bank of America Corp.", new BigDecimal("34.50")));
+        addStock(new Stock("JPM", "JPMorgan Chase & Co.", Money.of("156.80")));
+        addStock(new Stock("BAC", "Bank of America Corp.", Money.of("34.50")));
 
         // Other sectors
-        addStock(new Stock("TSLA", "Tesla Inc.", new BigDecimal("242.15")));
-        addStock(new Stock("NVDA", "NVIDIA Corporation", new BigDecimal("495.25")));
-        addStock(new Stock("DIS", "The Walt Disney Company", new BigDecimal("92.40")));
-        addStock(new Stock("NKE", "Nike Inc.", new BigDecimal("108.75")));
+        addStock(new Stock("TSLA", "Tesla Inc.", Money.of("242.15")));
+        addStock(new Stock("NVDA", "NVIDIA Corporation", Money.of("495.25")));
+        addStock(new Stock("DIS", "The Walt Disney Company", Money.of("92.40")));
+        addStock(new Stock("NKE", "Nike Inc.", Money.of("108.75")));
     }
 
     /**
@@ -87,7 +127,67 @@ public class StockMarket {
         if (stock == null) {
             throw new IllegalArgumentException("Stock cannot be null");
         }
-        availableStocks.put(stock.getSymbol(), stock);
+        addStocks(List.of(stock));
+    }
+
+    /**
+     * Adds several stocks at once. The listing index is copied once for all of them,
+     * which matters when a large market is loaded.
+     *
+     * @param stocks The stocks to add
+     */
+    public synchronized void addStocks(Collection<Stock> stocks) {
+        if (stocks == null) {
+            throw new IllegalArgumentException("Stocks cannot be null");
+        }
+
+        Listing[] current = listings;
+        int maxId = current.length - 1;
+        for (Stock stock : stocks) {
+            if (stock == null) {
+                throw new IllegalArgumentException("Stock cannot be null");
+            }
+            maxId = Math.max(maxId, stock.getSymbolId());
+        }
+        Listing[] updated = Arrays.copyOf(current, maxId + 1);
+        List<Stock> replacedStocks = new ArrayList<>();
+        List<Stock> newStocks = new ArrayList<>();
+        for (Stock stock : stocks) {
+            int id = stock.getSymbolId();
+            Listing previous = updated[id];
+            if (previous == null) {
+                newStocks.add(stock);
+            } else if (previous.stock != stock) {
+                replacedStocks.add(previous.stock);
+            }
+            Set<Portfolio> holders = previous != null
+                    ? previous.holders              // a replaced stock keeps its holders
+                    : ConcurrentHashMap.newKeySet();
+            updated[id] = new Listing(stock, holders);
+        }
+        listings = updated;
+
+        for (Stock replaced : replacedStocks) {
+            replaced.removePriceListener(priceListener);
+        }
+        // Only a symbol new to the market: the engines already hold the ticks of a listed one,
+        // and backfilling them again would count the same history twice
+        for (Stock stock : newStocks) {
+            candleEngine.backfill(stock); // before its first tick reaches the engines
+            indicatorEngine.backfill(stock);
+        }
+        for (Stock stock : stocks) {
+            availableStocks.put(stock.getSymbol(), stock);
+            stock.removePriceListener(priceListener); // listed again: keep a single listener
+            stock.addPriceListener(priceListener);
+        }
+        // The holders still count the replaced stock's price and versions
+        for (Stock replaced : replacedStocks) {
+            Listing listing = getListing(replaced.getSymbolId());
+            for (Portfolio portfolio : listing.holders) {
+                portfolio.rebase(replaced.getSymbolId(), listing.stock);
+            }
+        }
     }
 
     /**
@@ -97,10 +197,18 @@ public class StockMarket {
      * @return The stock, or null if not found
      */
     public Stock getStock(String symbol) {
-        if (symbol == null) {
-            return null;
-        }
-        return availableStocks.get(symbol.toUpperCase());
+        return getStock(SymbolRegistry.getInstance().find(symbol));
+    }
+
+    /**
+     * Gets a stock by its symbol ID.
+     *
+     * @param symbolId The symbol ID
+     * @return The stock, or null if not found
+     */
+    public Stock getStock(int symbolId) {
+        Listing listing = getListing(symbolId);
+        return listing != null ? listing.stock : null;
     }
 
     /**
@@ -114,30 +222,195 @@ public class StockMarket {
     }
 
     /**
-     * Simulates random price changes for all stocks.
-     * AI-Generated: Price simulation logic
+     * Simulates one step of price changes for all stocks and persists the new prices.
      * This could be used for demonstration purposes.
      */
     public void simulatePriceChanges() {
-        Random random = new Random();
-
-        for (Stock stock : availableStocks.values()) {
-            // Random change between -5% and +5%
-            double changePercent = (random.nextDouble() * 10) - 5;
-            BigDecimal currentPrice = stock.getCurrentPrice();
-            BigDecimal change = currentPrice.multiply(BigDecimal.valueOf(changePercent / 100));
-            BigDecimal newPrice = currentPrice.add(change);
-
-            // Ensure price doesn't go below $1
-            if (newPrice.compareTo(BigDecimal.ONE) < 0) {
-                newPrice = BigDecimal.ONE;
+        getSimulator().step();
+
+        // Persist the updated prices
+        persistStocks();
+    }
+
+    /**
+     * Simulates prices continuously in the background.
+     * The prices are persisted every few seconds instead of after every step.
+     *
+     * @param stepsPerSecond How many simulation steps to run per second
+     */
+    public synchronized void startSimulation(double stepsPerSecond) {
+        getSimulator().start(stepsPerSecond);
+
+        if (persistScheduler == null) {
+            persistScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "stock-persister");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        if (persistTask == null) {
+            long interval = DEFAULT_PERSIST_INTERVAL.toMillis();
+            persistTask = persistScheduler.scheduleAtFixedRate(this::persistStocks, interval, interval,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops the background simulation and persists the latest prices.
+     */
+    public synchronized void stopSimulation() {
+        if (simulator != null) {
+            simulator.stop();
+        }
+        if (persistTask != null) {
+            persistTask.cancel(false);
+            persistTask = null;
+            persistStocks();
+        }
+    }
+
+    /**
+     * Sets how often a snapshot of the stock list is written, see
+     * {@link StockMarketRepository#setSnapshotInterval(Duration)}.
+     *
+     * @param interval The minimum time between two snapshots
+     */
+    public void setSnapshotInterval(Duration interval) {
+        repository.setSnapshotInterval(interval);
+    }
+
+    /**
+     * Gets the simulator that moves the prices of this market.
+     * It is created with a random seed; use {@link #createSimulator(long)} for reproducible runs.
+     *
+     * @return The simulator for all current stocks
+     */
+    public synchronized MarketSimulator getSimulator() {
+        if (simulator == null || simulator.getStockCount() != availableStocks.size()) {
+            // Stocks were added since the simulator was created
+            boolean wasRunning = simulator != null && simulator.isRunning();
+            if (simulator != null) {
+                simulator.shutdown();
             }
+            simulator = createSimulator(new SplittableRandom().nextLong());
+            if (wasRunning) {
+                System.err.println("Stocks were added; restart the simulation to include them.");
+            }
+        }
+        return simulator;
+    }
+
+    /**
+     * Creates a simulator for all current stocks, ordered by symbol,
+     * so the same seed always produces the same prices.
+     *
+     * @param seed Seed of the simulation
+     * @return A new simulator
+     */
+    public MarketSimulator createSimulator(long seed) {
+        List<Stock> stocks = new ArrayList<>(availableStocks.values());
+        stocks.sort(Comparator.comparing(Stock::getSymbol));
 
-            stock.updatePrice(newPrice);
+        MarketSimulator marketSimulator = new MarketSimulator(stocks, seed);
+        marketSimulator.setMinimumPrice(MINIMUM_PRICE);
+        marketSimulator.setTickBus(tickBus); // the price listener publishes each step chunk as a batch
+        return marketSimulator;
+    }
+
+    /**
+     * Adds a portfolio to the holders of a symbol, so it is revalued on price ticks.
+     */
+    void registerHolder(int symbolId, Portfolio portfolio) {
+        Listing listing = getListing(symbolId);
+        if (listing != null) {
+            listing.holders.add(portfolio);
         }
+    }
 
-        // Persist the updated prices
-        persistStocks();
+    /**
+     * Removes a portfolio from the holders of a symbol after it sold its last share.
+     */
+    void unregisterHolder(int symbolId, Portfolio portfolio) {
+        Listing listing = getListing(symbolId);
+        if (listing != null) {
+            listing.holders.remove(portfolio);
+        }
+    }
+
+    private Listing getListing(int symbolId) {
+        Listing[] current = listings;
+        return symbolId >= 0 && symbolId < current.length ? current[symbolId] : null;
+    }
+
+    /**
+     * Gets the bus on which every price change of this market is published.
+     *
+     * @return The tick bus
+     */
+    public TickBus getTickBus() {
+        return tickBus;
+    }
+
+    /**
+     * Gets the engine that keeps the OHLCV bars of every stock.
+     *
+     * @return The candle engine
+     */
+    public CandleEngine getCandleEngine() {
+        return candleEngine;
+    }
+
+    /**
+     * Gets the engine that keeps the technical indicators of every stock.
+     *
+     * @return The indicator engine
+     */
+    public IndicatorEngine getIndicatorEngine() {
+        return indicatorEngine;
+    }
+
+    /**
+     * Reports an executed trade for the candle volume and the VWAP.
+     *
+     * @param transaction The transaction; for a trade between two users, report only one side
+     */
+    public void recordTrade(Transaction transaction) {
+        candleEngine.recordTrade(transaction);
+        indicatorEngine.recordTrade(transaction);
+    }
+
+    /**
+     * Price listener: revalues only the portfolios that hold the stock (synchronously,
+     * so account values are never stale) and publishes the tick on the bus.
+     */
+    private void onPriceChanged(Stock stock, Stock.PriceSnapshot snapshot) {
+        int symbolId = stock.getSymbolId();
+        Listing listing = getListing(symbolId);
+        if (listing != null) {
+            for (Portfolio portfolio : listing.holders) {
+                portfolio.revalue(symbolId, snapshot);
+            }
+        }
+        tickBus.publish(symbolId, PriceHistory.toEpochNanos(snapshot.getTimestamp()),
+                snapshot.getPrice().getMicros(), snapshot.getVersion());
+    }
+
+    /**
+     * Writes pending stock data to disk and releases the open files.
+     * Should be called once before the application exits.
+     */
+    public void shutdown() {
+        stopSimulation();
+        synchronized (this) {
+            if (simulator != null) {
+                simulator.shutdown();
+            }
+            if (persistScheduler != null) {
+                persistScheduler.shutdown();
+            }
+        }
+        tickBus.close();
+        repository.shutdown();
     }
 
     /**
@@ -148,6 +421,19 @@ public class StockMarket {
         repository.save(availableStocks);
     }
 
+    /**
+     * A listed stock together with the portfolios holding it.
+     */
+    private static final class Listing {
+        private final Stock stock;
+        private final Set<Portfolio> holders;
+
+        private Listing(Stock stock, Set<Portfolio> holders) {
+            this.stock = stock;
+            this.holders = holders;
+        }
+    }
+
     @Override
     public String toString() {
         return String.format("Stock Market with %d available stocks", availableStocks.size());
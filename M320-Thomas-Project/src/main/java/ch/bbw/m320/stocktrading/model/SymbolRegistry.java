@@ -0,0 +1,130 @@
+package ch.bbw.m320.stocktrading.model;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps every stock symbol once to a dense int ID.
+ * DESIGN PATTERN: Singleton Pattern
+ * Reason: IDs must mean the same symbol everywhere in the application,
+ * so arrays indexed by symbol ID can be shared between market, portfolios and tick bus.
+ *
+ * Symbols are stored upper case. Looking up a symbol that is already upper case
+ * is one hash lookup and allocates nothing; other spellings are upper-cased once per call.
+ * IDs are never reused, so the registry only grows.
+ *
+ * Clean Code: Single Responsibility - only maps symbols to IDs and back
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+public final class SymbolRegistry {
+    public static final int UNKNOWN = -1;
+
+    private static final SymbolRegistry INSTANCE = new SymbolRegistry();
+
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] symbols = new String[64]; // ID -> symbol
+    private int size; // guarded by this
+
+    private SymbolRegistry() {
+    }
+
+    /**
+     * Gets the registry of the application.
+     *
+     * @return The single instance of SymbolRegistry
+     */
+    public static SymbolRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Gets the ID of a symbol, registering the symbol if it is new.
+     *
+     * @param symbol The stock symbol, in any case
+     * @return The symbol ID
+     * @throws IllegalArgumentException if the symbol is null or empty
+     */
+    public int idOf(String symbol) {
+        int id = find(symbol);
+        if (id != UNKNOWN) {
+            return id;
+        }
+        if (symbol == null || symbol.trim().isEmpty()) {
+            throw new IllegalArgumentException("Stock symbol cannot be null or empty");
+        }
+        return register(symbol.toUpperCase());
+    }
+
+    /**
+     * Gets the ID of a symbol without registering it.
+     *
+     * @param symbol The stock symbol, in any case
+     * @return The symbol ID, or {@link #UNKNOWN} if the symbol was never registered
+     */
+    public int find(String symbol) {
+        if (symbol == null) {
+            return UNKNOWN;
+        }
+        Integer id = ids.get(symbol);
+        if (id == null) {
+            id = ids.get(symbol.toUpperCase());
+        }
+        return id != null ? id : UNKNOWN;
+    }
+
+    /**
+     * Gets the symbol of an ID.
+     *
+     * @param id The symbol ID
+     * @return The upper-case symbol
+     * @throws IllegalArgumentException if the ID was never assigned
+     */
+    public String symbolOf(int id) {
+        String[] current = symbols;
+        String symbol = id >= 0 && id < current.length ? current[id] : null;
+        if (symbol == null) {
+            throw new IllegalArgumentException("Unknown symbol ID: " + id);
+        }
+        return symbol;
+    }
+
+    /**
+     * Gets the canonical (upper-case, shared) instance of a symbol, registering it if it is new.
+     *
+     * @param symbol The stock symbol, in any case
+     * @return The canonical symbol
+     */
+    public String canonical(String symbol) {
+        return symbolOf(idOf(symbol));
+    }
+
+    /**
+     * Gets the number of registered symbols. All IDs are below this number.
+     *
+     * @return The symbol count
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    private synchronized int register(String symbol) {
+        Integer existing = ids.get(symbol);
+        if (existing != null) {
+            return existing; // registered by another thread meanwhile
+        }
+
+        int id = size;
+        String[] current = symbols;
+        if (id == current.length) {
+            current = Arrays.copyOf(current, current.length * 2);
+        }
+        current[id] = symbol;
+        symbols = current; // publish the slot before the ID can be found
+        ids.put(symbol, id);
+        size++;
+        return id;
+    }
+}
@@ -0,0 +1,514 @@
+package ch.bbw.m320.stocktrading.model;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Publish/subscribe bus for price ticks, built on a preallocated ring buffer.
+ * DESIGN PATTERN: Observer Pattern (asynchronous)
+ * Reason: Alerts, candles, persistence and similar consumers react to every price change
+ * without polling the market and without slowing down the thread that changes the price.
+ *
+ * Ticks are stored in parallel primitive arrays that are allocated once, so publishing
+ * and receiving a tick allocates nothing. Symbols travel as IDs of the {@link SymbolRegistry}.
+ *
+ * Any number of threads can publish at once without a lock: a publisher claims the next
+ * sequence with compare-and-set, writes the slot and then marks it with its lap of the ring.
+ * Ticks are delivered in claim order, so ticks of different publishers may interleave, but the
+ * ticks of one publisher keep their order. Every subscriber has its own consumer thread and
+ * read position and receives ticks without taking any lock.
+ *
+ * A thread that publishes many ticks at once (a simulation step) can open a batch with
+ * {@link #beginBatch()}: its ticks are then collected and claimed a block of slots at a time,
+ * so parallel publishers compete for the sequence once per block instead of once per tick.
+ *
+ * Backpressure is chosen per subscriber with a {@link SlowConsumerPolicy}.
+ * Only BLOCK subscribers can hold up publishers; the others are lapped instead.
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+public class TickBus {
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    private static final int SPIN_TRIES = 100;
+    private static final int YIELD_TRIES = 100;
+    private static final int MAX_PARK_DOUBLINGS = 16;
+    private static final int MAX_BATCH_SIZE = 256;
+    private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final long MAX_CONSUMER_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final VarHandle CLAIMED;
+    private static final VarHandle PUBLISHED = MethodHandles.arrayElementVarHandle(int[].class);
+
+    static {
+        try {
+            CLAIMED = MethodHandles.lookup().findVarHandle(TickBus.class, "claimed", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final int capacity;
+    private final int mask;
+    private final int shift; // sequence >>> shift = lap of the ring
+    private final int[] symbolIds;
+    private final long[] epochNanos;
+    private final long[] prices;
+    private final long[] versions;
+    private final int[] published; // per slot: lap of the tick written last, -1 if none
+
+    private volatile long claimed = -1; // highest sequence a publisher has claimed (CAS)
+    private volatile Subscription[] subscriptions = new Subscription[0];
+    private volatile long cachedGatingSequence = -1; // lowest BLOCK read position seen last
+    private final ThreadLocal<Batch> batches = new ThreadLocal<>(); // created on a thread's first batch
+    private final AtomicInteger openBatches = new AtomicInteger(); // publish skips the lookup while 0
+
+    /**
+     * Creates a bus with the default capacity.
+     */
+    public TickBus() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a bus.
+     *
+     * @param capacity Number of ticks the ring holds, must be a power of two
+     */
+    public TickBus(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a positive power of two");
+        }
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.shift = Integer.numberOfTrailingZeros(capacity);
+        this.symbolIds = new int[capacity];
+        this.epochNanos = new long[capacity];
+        this.prices = new long[capacity];
+        this.versions = new long[capacity];
+        this.published = new int[capacity];
+        Arrays.fill(published, -1);
+    }
+
+    /**
+     * Publishes a tick. Lock-free: the slot is claimed with compare-and-set, so any number of
+     * threads can publish at once. Waits only if a BLOCK subscriber is a full ring behind.
+     * While the calling thread has a batch open, the tick is only collected.
+     *
+     * @param symbolId The ID of the stock symbol
+     * @param tickEpochNanos The time of the tick in nanoseconds since the epoch (UTC)
+     * @param priceMicros The price in micro-units
+     * @param version The price version of the stock
+     */
+    public void publish(int symbolId, long tickEpochNanos, long priceMicros, long version) {
+        if (openBatches.get() > 0) {
+            Batch batch = batches.get();
+            if (batch != null && batch.depth > 0) {
+                batch.add(symbolId, tickEpochNanos, priceMicros, version);
+                return;
+            }
+        }
+        write(claim(1), symbolId, tickEpochNanos, priceMicros, version);
+    }
+
+    /**
+     * Starts collecting the ticks this thread publishes. They are published in blocks when the
+     * batch is full and at {@link #endBatch()}, so subscribers see them later, but in order.
+     * Batches nest; only the outermost {@code endBatch} ends the batch.
+     */
+    public void beginBatch() {
+        Batch batch = batches.get();
+        if (batch == null) {
+            batch = new Batch(Math.min(MAX_BATCH_SIZE, capacity));
+            batches.set(batch);
+        }
+        if (batch.depth++ == 0) {
+            openBatches.incrementAndGet();
+        }
+    }
+
+    /**
+     * Publishes the ticks collected since {@link #beginBatch()} and ends the batch.
+     * Call it in a finally block, so collected ticks are not held back after an exception.
+     */
+    public void endBatch() {
+        Batch batch = batches.get();
+        if (batch == null || batch.depth == 0) {
+            throw new IllegalStateException("No batch open on this thread");
+        }
+        if (--batch.depth == 0) {
+            try {
+                batch.flush();
+            } finally {
+                openBatches.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Writes a tick into the slot of a claimed sequence and publishes the slot.
+     */
+    private void write(long next, int symbolId, long tickEpochNanos, long priceMicros, long version) {
+        int index = (int) next & mask;
+
+        // A publisher that claimed this slot one lap earlier may still be writing it
+        int previousLap = lapOf(next) - 1;
+        int idleCount = 0;
+        while ((int) PUBLISHED.getAcquire(published, index) != previousLap) {
+            idleCount = idle(idleCount, PARK_NANOS);
+        }
+
+        symbolIds[index] = symbolId;
+        epochNanos[index] = tickEpochNanos;
+        prices[index] = priceMicros;
+        versions[index] = version;
+        PUBLISHED.setRelease(published, index, lapOf(next)); // publishes the slot
+    }
+
+    /**
+     * Claims the next sequences once no BLOCK subscriber still needs their slots.
+     *
+     * @param count Number of consecutive sequences, at most the capacity
+     * @return The first claimed sequence
+     */
+    private long claim(int count) {
+        int idleCount = 0;
+        while (true) {
+            long current = claimed;
+            long last = current + count;
+            if (!hasCapacity(last)) {
+                idleCount = idle(idleCount, PARK_NANOS);
+            } else if (CLAIMED.compareAndSet(this, current, last)) {
+                return current + 1;
+            }
+        }
+    }
+
+    private int lapOf(long sequence) {
+        return (int) (sequence >>> shift);
+    }
+
+    /**
+     * Subscribes to all ticks published from now on.
+     * The listener runs on its own daemon thread. A BLOCK listener must not publish
+     * on this bus itself, because it could end up waiting for its own progress.
+     *
+     * @param name Name of the subscriber, used for its thread
+     * @param listener Receives the ticks
+     * @param policy What happens when the subscriber falls a full ring behind
+     * @return The subscription, used to cancel it and read its statistics
+     */
+    public synchronized Subscription subscribe(String name, TickListener listener, SlowConsumerPolicy policy) {
+        if (listener == null || policy == null) {
+            throw new IllegalArgumentException("Listener and policy cannot be null");
+        }
+
+        Subscription subscription = new Subscription(name, listener, policy, claimed);
+        Subscription[] current = removeInactive(subscriptions);
+        Subscription[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = subscription;
+        subscriptions = updated;
+
+        subscription.start();
+        return subscription;
+    }
+
+    /**
+     * Cancels all subscriptions and stops their threads.
+     */
+    public void close() {
+        for (Subscription subscription : subscriptions) {
+            subscription.cancel();
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Gets the number of ticks published since the bus was created,
+     * including ticks whose publisher is still writing them.
+     *
+     * @return The tick count
+     */
+    public long getPublishedCount() {
+        return claimed + 1;
+    }
+
+    /**
+     * Checks whether the slot of the given sequence is no longer needed by a BLOCK subscriber.
+     */
+    private boolean hasCapacity(long next) {
+        long wrapPoint = next - capacity;
+        if (wrapPoint <= cachedGatingSequence) {
+            return true;
+        }
+        long gatingSequence = minBlockingSequence(next - 1);
+        cachedGatingSequence = gatingSequence; // racing publishers only ever store a recent minimum
+        return wrapPoint <= gatingSequence;
+    }
+
+    /**
+     * Gets the lowest read position of all active BLOCK subscribers.
+     */
+    private long minBlockingSequence(long defaultSequence) {
+        long minimum = defaultSequence;
+        boolean inactiveFound = false;
+        for (Subscription subscription : subscriptions) {
+            if (!subscription.active) {
+                inactiveFound = true;
+            } else if (subscription.policy == SlowConsumerPolicy.BLOCK) {
+                minimum = Math.min(minimum, subscription.sequence);
+            }
+        }
+        if (inactiveFound) {
+            pruneInactive();
+        }
+        return minimum;
+    }
+
+    private synchronized void pruneInactive() {
+        subscriptions = removeInactive(subscriptions);
+    }
+
+    private static Subscription[] removeInactive(Subscription[] current) {
+        int active = 0;
+        for (Subscription subscription : current) {
+            if (subscription.active) {
+                active++;
+            }
+        }
+        if (active == current.length) {
+            return current;
+        }
+        Subscription[] result = new Subscription[active];
+        int i = 0;
+        for (Subscription subscription : current) {
+            if (subscription.active) {
+                result[i++] = subscription;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Idle strategy shared by publishers and consumers: spin, then yield, then park.
+     * The park time doubles with every idle round, up to the given maximum.
+     *
+     * @param maxParkNanos The longest park; publishers keep it short, idle consumers back off further
+     * @return The updated idle count
+     */
+    private static int idle(int idleCount, long maxParkNanos) {
+        if (idleCount < SPIN_TRIES) {
+            Thread.onSpinWait();
+        } else if (idleCount < SPIN_TRIES + YIELD_TRIES) {
+            Thread.yield();
+        } else {
+            int doublings = Math.min(idleCount - SPIN_TRIES - YIELD_TRIES, MAX_PARK_DOUBLINGS);
+            LockSupport.parkNanos(Math.min(PARK_NANOS << doublings, maxParkNanos));
+        }
+        return Math.min(idleCount + 1, SPIN_TRIES + YIELD_TRIES + MAX_PARK_DOUBLINGS);
+    }
+
+    /**
+     * Receives ticks. Called on the subscriber's own thread, one tick at a time, in order.
+     * The symbol can be resolved with {@link SymbolRegistry#symbolOf(int)}.
+     */
+    @FunctionalInterface
+    public interface TickListener {
+        void onTick(int symbolId, long epochNanos, long priceMicros, long version);
+    }
+
+    /**
+     * What happens when a subscriber falls a full ring behind the publisher.
+     */
+    public enum SlowConsumerPolicy {
+        /** The publisher waits for the subscriber. Use for consumers that must see every tick. */
+        BLOCK,
+        /** The subscriber skips to the oldest tick still in the ring; skipped ticks are counted. */
+        DROP,
+        /** The subscription is cancelled. */
+        DISCONNECT
+    }
+
+    /**
+     * Ticks a thread collects between {@link #beginBatch()} and {@link #endBatch()}.
+     * Only used by its own thread.
+     */
+    private final class Batch {
+        private final int[] symbolIds;
+        private final long[] epochNanos;
+        private final long[] prices;
+        private final long[] versions;
+        private int size;
+        private int depth; // nesting level of beginBatch
+
+        private Batch(int batchSize) {
+            this.symbolIds = new int[batchSize];
+            this.epochNanos = new long[batchSize];
+            this.prices = new long[batchSize];
+            this.versions = new long[batchSize];
+        }
+
+        private void add(int symbolId, long tickEpochNanos, long priceMicros, long version) {
+            if (size == symbolIds.length) {
+                flush();
+            }
+            symbolIds[size] = symbolId;
+            epochNanos[size] = tickEpochNanos;
+            prices[size] = priceMicros;
+            versions[size] = version;
+            size++;
+        }
+
+        private void flush() {
+            if (size == 0) {
+                return;
+            }
+            long first = claim(size);
+            for (int i = 0; i < size; i++) {
+                write(first + i, symbolIds[i], epochNanos[i], prices[i], versions[i]);
+            }
+            size = 0;
+        }
+    }
+
+    /**
+     * A subscriber with its own read position and consumer thread.
+     */
+    public final class Subscription {
+        private final String name;
+        private final TickListener listener;
+        private final SlowConsumerPolicy policy;
+        private final Thread consumer;
+        private volatile long sequence; // last consumed sequence
+        private volatile boolean active = true;
+        private volatile long droppedCount;
+
+        private Subscription(String name, TickListener listener, SlowConsumerPolicy policy, long sequence) {
+            this.name = name;
+            this.listener = listener;
+            this.policy = policy;
+            this.sequence = sequence;
+            this.consumer = new Thread(this::consume, "tick-" + name);
+            consumer.setDaemon(true);
+        }
+
+        private void start() {
+            consumer.start();
+        }
+
+        /**
+         * Stops delivering ticks. The consumer thread ends after the current tick.
+         */
+        public void cancel() {
+            active = false;
+            LockSupport.unpark(consumer);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public SlowConsumerPolicy getPolicy() {
+            return policy;
+        }
+
+        public boolean isActive() {
+            return active;
+        }
+
+        /**
+         * Gets the number of ticks this subscriber missed because it was lapped (DROP policy).
+         *
+         * @return The dropped tick count
+         */
+        public long getDroppedCount() {
+            return droppedCount;
+        }
+
+        /**
+         * Gets the number of published ticks this subscriber has not consumed yet.
+         *
+         * @return The lag in ticks
+         */
+        public long getLag() {
+            return claimed - sequence;
+        }
+
+        /**
+         * Consumer loop. Clears {@code active} however it ends, so a consumer thread that
+         * died can never keep BLOCK publishers waiting for it.
+         */
+        private void consume() {
+            try {
+                consumeWhileActive();
+            } finally {
+                active = false;
+            }
+        }
+
+        private void consumeWhileActive() {
+            long next = sequence + 1;
+            int idleCount = 0;
+
+            while (active) {
+                int consumed = 0;
+                while (active) {
+                    int index = (int) next & mask;
+                    if ((int) PUBLISHED.getAcquire(published, index) != lapOf(next)) {
+                        if (claimed - next >= capacity) {
+                            next = handleOverrun(next); // lapped while waiting for the slot
+                            continue;
+                        }
+                        break; // not written yet
+                    }
+                    int symbolId = symbolIds[index];
+                    long tickEpochNanos = epochNanos[index];
+                    long price = prices[index];
+                    long version = versions[index];
+
+                    // Seqlock check: the slot may have been overwritten while it was read
+                    VarHandle.loadLoadFence();
+                    if (claimed - next >= capacity) {
+                        next = handleOverrun(next);
+                        continue;
+                    }
+
+                    try {
+                        listener.onTick(symbolId, tickEpochNanos, price, version);
+                    } catch (RuntimeException e) {
+                        System.err.println("Tick subscriber " + name + " failed: " + e.getMessage());
+                    }
+                    next++;
+                    consumed++;
+                }
+                sequence = next - 1;
+                idleCount = consumed > 0 ? 0 : idle(idleCount, MAX_CONSUMER_PARK_NANOS);
+            }
+        }
+
+        /**
+         * Applies the slow-consumer policy after the publisher lapped this subscriber.
+         *
+         * @return The next sequence to read
+         */
+        private long handleOverrun(long next) {
+            if (policy == SlowConsumerPolicy.DISCONNECT) {
+                System.err.println("Tick subscriber " + name + " fell behind and was disconnected.");
+                active = false;
+                return next;
+            }
+            // DROP: continue with the oldest tick that cannot be overwritten right away
+            long oldest = claimed - capacity + 1;
+            droppedCount += oldest - next;
+            return oldest;
+        }
+    }
+}
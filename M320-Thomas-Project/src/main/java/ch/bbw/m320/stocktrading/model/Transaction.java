@@ -1,30 +1,50 @@
 package ch.bbw.m320.stocktrading.model;
 
-import java.math.BigDecimal;
 import java.time.LocalDateTime;
-import java.util.UUID;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Abstract base class for all transaction types.
  * Demonstrates inheritance hierarchy and polymorphism.
  * This is part of the Template Method pattern where subclasses define transaction-specific behavior.
  *
+ * Timestamps are UTC. Transactions recorded before the switch to UTC carry the local time of
+ * the machine that recorded them and are read back unchanged, so they appear shifted by that
+ * machine's UTC offset. No zone was stored with them, so they cannot be told apart and converted.
+ *
  * @author Thomas
  * @version 1.0
  */
 public abstract class Transaction {
+    private static final SymbolRegistry SYMBOLS = SymbolRegistry.getInstance();
+    private static final int ID_SEQUENCE_BITS = 16;
+    private static final AtomicLong LAST_ID = new AtomicLong();
+
     private final String transactionId;
-    private final String stockSymbol;
+    private final int symbolId;
     private final int quantity;
-    private final BigDecimal pricePerShare;
+    private final Money pricePerShare;
     private final LocalDateTime timestamp;
     private final TransactionType type;
 
     /**
      * Protected constructor for subclasses.
      * Clean Code: Constructor validates all inputs
+     * The timestamp is UTC and kept in millis, the precision it is stored with.
      */
-    protected Transaction(String stockSymbol, int quantity, BigDecimal pricePerShare, TransactionType type) {
+    protected Transaction(String stockSymbol, int quantity, Money pricePerShare, TransactionType type) {
+        this(Long.toString(nextTransactionId()), stockSymbol, quantity, pricePerShare,
+                LocalDateTime.now(ZoneOffset.UTC).truncatedTo(ChronoUnit.MILLIS), type);
+    }
+
+    /**
+     * Protected constructor for restoring a persisted transaction.
+     * Keeps the original ID and timestamp instead of generating new ones.
+     */
+    protected Transaction(String transactionId, String stockSymbol, int quantity, Money pricePerShare,
+                          LocalDateTime timestamp, TransactionType type) {
         // Input validation (Exception Handling)
         if (stockSymbol == null || stockSymbol.trim().isEmpty()) {
             throw new IllegalArgumentException("Stock symbol cannot be null or empty");
@@ -32,24 +52,34 @@ public abstract class Transaction {
         if (quantity <= 0) {
             throw new IllegalArgumentException("Quantity must be positive");
         }
-        if (pricePerShare == null || pricePerShare.compareTo(BigDecimal.ZERO) <= 0) {
+        if (pricePerShare == null || !pricePerShare.isPositive()) {
             throw new IllegalArgumentException("Price per share must be positive");
         }
 
-        this.transactionId = UUID.randomUUID().toString();
-        this.stockSymbol = stockSymbol.toUpperCase();
+        this.transactionId = transactionId;
+        this.symbolId = SYMBOLS.idOf(stockSymbol);
         this.quantity = quantity;
         this.pricePerShare = pricePerShare;
-        this.timestamp = LocalDateTime.now();
+        this.timestamp = timestamp;
         this.type = type;
     }
 
+    /**
+     * Generates a numeric transaction ID: the current time in millis, shifted left to leave
+     * room for 65536 IDs per millisecond. IDs increase strictly, so they stay unique across
+     * restarts as long as the clock does not go back. Older transactions keep their UUIDs.
+     */
+    private static long nextTransactionId() {
+        long now = System.currentTimeMillis() << ID_SEQUENCE_BITS;
+        return LAST_ID.accumulateAndGet(now, (last, time) -> Math.max(last + 1, time));
+    }
+
     /**
      * Calculates the total value of the transaction.
      * Clean Code: Small, focused method with clear purpose
      */
-    public BigDecimal getTotalValue() {
-        return pricePerShare.multiply(BigDecimal.valueOf(quantity));
+    public Money getTotalValue() {
+        return pricePerShare.times(quantity);
     }
 
     /**
@@ -57,7 +87,7 @@ public abstract class Transaction {
      * Positive for sales, negative for purchases.
      * This demonstrates polymorphism - each subclass implements its own behavior.
      */
-    public abstract BigDecimal getBalanceImpact();
+    public abstract Money getBalanceImpact();
 
     /**
      * Abstract method to format transaction details.
@@ -71,14 +101,23 @@ public abstract class Transaction {
     }
 
     public String getStockSymbol() {
-        return stockSymbol;
+        return SYMBOLS.symbolOf(symbolId);
+    }
+
+    /**
+     * Gets the ID of the stock symbol, see {@link SymbolRegistry}.
+     *
+     * @return The symbol ID
+     */
+    public int getSymbolId() {
+        return symbolId;
     }
 
     public int getQuantity() {
         return quantity;
     }
 
-    public BigDecimal getPricePerShare() {
+    public Money getPricePerShare() {
         return pricePerShare;
     }
 
@@ -92,7 +131,7 @@ public abstract class Transaction {
 
     @Override
     public String toString() {
-        return String.format("[%s] %s - %s", timestamp, type, getTransactionDetails());
+        return String.format("[%s UTC] %s - %s", timestamp, type, getTransactionDetails());
     }
 
     /**
@@ -1,6 +1,5 @@
 package ch.bbw.m320.stocktrading.model;
 
-import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -8,7 +7,16 @@ import java.util.UUID;
 
 /**
  * Represents a user of the stock trading system.
- * Manages user account, balance, portfolio, and transaction history.
+ * Manages user account, balance, portfolio, and new transactions.
+ * The balance is kept as a primitive in micro-units, so deposits and withdrawals do not allocate.
+ *
+ * Funds reserved for open limit orders are moved out of the balance into a reservation that
+ * only lives in memory. The balance is what can be spent; {@link #getBalanceIncludingReserved()}
+ * is what the repository persists, since open orders do not survive a restart.
+ *
+ * The user only holds the transactions made since it was last saved. The repository moves
+ * them to its transaction store on save, where the full history is queried page by page,
+ * so loading a user never loads its history.
  * Clean Code: Single Responsibility - manages user data and account operations
  *
  * @author Thomas
@@ -17,9 +25,10 @@ import java.util.UUID;
 public class User {
     private final String userId;
     private final String username;
-    private BigDecimal balance;
+    private long balance; // micro-units, see Money
+    private long reservedBalance; // micro-units held for open orders, not persisted separately
     private final Portfolio portfolio;
-    private List<Transaction> transactionHistory;  // Non-final to support lazy initialization for Gson compatibility
+    private final List<Transaction> pendingTransactions; // not yet handed to the repository
 
     /**
      * Creates a new user with an initial balance.
@@ -27,20 +36,50 @@ public class User {
      * @param username The username
      * @param initialBalance The starting balance
      */
-    public User(String username, BigDecimal initialBalance) {
+    public User(String username, Money initialBalance) {
         // Input validation (Exception Handling)
         if (username == null || username.trim().isEmpty()) {
             throw new IllegalArgumentException("Username cannot be null or empty");
         }
-        if (initialBalance == null || initialBalance.compareTo(BigDecimal.ZERO) < 0) {
+        if (initialBalance == null || initialBalance.isNegative()) {
             throw new IllegalArgumentException("Initial balance cannot be negative");
         }
 
         this.userId = UUID.randomUUID().toString();
         this.username = username;
-        this.balance = initialBalance;
+        this.balance = initialBalance.getMicros();
         this.portfolio = new Portfolio();
-        this.transactionHistory = new ArrayList<>();
+        this.pendingTransactions = new ArrayList<>();
+    }
+
+    /**
+     * Restores a persisted user with its original ID and portfolio.
+     *
+     * @param userId The original user ID
+     * @param username The username
+     * @param balance The persisted balance
+     * @param portfolio The persisted portfolio
+     * @param pendingTransactions Transactions that still have to be stored, e.g. a history
+     *                            read from an old users.json; may be null
+     */
+    public User(String userId, String username, Money balance, Portfolio portfolio,
+                List<Transaction> pendingTransactions) {
+        if (userId == null || userId.isEmpty()) {
+            throw new IllegalArgumentException("User ID cannot be null or empty");
+        }
+        if (username == null || username.trim().isEmpty()) {
+            throw new IllegalArgumentException("Username cannot be null or empty");
+        }
+        if (balance == null || balance.isNegative()) {
+            throw new IllegalArgumentException("Balance cannot be negative");
+        }
+
+        this.userId = userId;
+        this.username = username;
+        this.balance = balance.getMicros();
+        this.portfolio = portfolio != null ? portfolio : new Portfolio();
+        this.pendingTransactions = pendingTransactions != null
+                ? new ArrayList<>(pendingTransactions) : new ArrayList<>();
     }
 
     /**
@@ -49,11 +88,11 @@ public class User {
      *
      * @param amount The amount to add
      */
-    public void deposit(BigDecimal amount) {
-        if (amount == null || amount.compareTo(BigDecimal.ZERO) <= 0) {
+    public void deposit(Money amount) {
+        if (amount == null || !amount.isPositive()) {
             throw new IllegalArgumentException("Deposit amount must be positive");
         }
-        this.balance = this.balance.add(amount);
+        this.balance = Math.addExact(balance, amount.getMicros());
     }
 
     /**
@@ -62,16 +101,57 @@ public class User {
      * @param amount The amount to withdraw
      * @throws IllegalArgumentException if insufficient balance
      */
-    public void withdraw(BigDecimal amount) {
-        if (amount == null || amount.compareTo(BigDecimal.ZERO) <= 0) {
+    public void withdraw(Money amount) {
+        if (amount == null || !amount.isPositive()) {
             throw new IllegalArgumentException("Withdrawal amount must be positive");
         }
-        if (balance.compareTo(amount) < 0) {
+        if (balance < amount.getMicros()) {
             throw new IllegalArgumentException(
                     String.format("Insufficient balance. Available: $%.2f, Requested: $%.2f",
-                            balance, amount));
+                            getBalance().toBigDecimal(), amount.toBigDecimal()));
+        }
+        this.balance -= amount.getMicros();
+    }
+
+    /**
+     * Reserves funds for an open order: they leave the balance until the order is filled
+     * ({@link #consumeReservation}) or cancelled ({@link #releaseReservation}).
+     *
+     * @param amount The amount to reserve
+     * @throws IllegalArgumentException if insufficient balance
+     */
+    public void reserve(Money amount) {
+        withdraw(amount);
+        reservedBalance = Math.addExact(reservedBalance, amount.getMicros());
+    }
+
+    /**
+     * Returns reserved funds to the balance, e.g. when an order is cancelled.
+     *
+     * @param amount The amount to release
+     * @throws IllegalArgumentException if less is reserved
+     */
+    public void releaseReservation(Money amount) {
+        consumeReservation(amount);
+        deposit(amount);
+    }
+
+    /**
+     * Removes reserved funds for good, when the order they were reserved for is paid.
+     *
+     * @param amount The amount paid from the reservation
+     * @throws IllegalArgumentException if less is reserved
+     */
+    public void consumeReservation(Money amount) {
+        if (amount == null || !amount.isPositive()) {
+            throw new IllegalArgumentException("Reservation amount must be positive");
+        }
+        if (reservedBalance < amount.getMicros()) {
+            throw new IllegalArgumentException(
+                    String.format("Insufficient reserved funds. Reserved: $%.2f, Requested: $%.2f",
+                            getReservedBalance().toBigDecimal(), amount.toBigDecimal()));
         }
-        this.balance = this.balance.subtract(amount);
+        reservedBalance -= amount.getMicros();
     }
 
     /**
@@ -80,39 +160,43 @@ public class User {
      * @param amount The amount to check
      * @return true if balance is sufficient
      */
-    public boolean hasSufficientBalance(BigDecimal amount) {
-        return balance.compareTo(amount) >= 0;
+    public boolean hasSufficientBalance(Money amount) {
+        return balance >= amount.getMicros();
     }
 
     /**
      * Adds a transaction to the user's history.
+     * It is kept with the user until the next save moves it to the transaction store.
      * Clean Code: Encapsulation - transaction history is managed internally
      *
      * @param transaction The transaction to add
      */
-    public void addTransaction(Transaction transaction) {
+    public synchronized void addTransaction(Transaction transaction) {
         if (transaction == null) {
             throw new IllegalArgumentException("Transaction cannot be null");
         }
-        // Lazy initialization for backward compatibility with old JSON data
-        if (transactionHistory == null) {
-            transactionHistory = new ArrayList<>();
-        }
-        transactionHistory.add(transaction);
+        pendingTransactions.add(transaction);
     }
 
     /**
-     * Gets the user's transaction history.
+     * Gets the transactions added since the user was last saved.
      * Clean Code: Returns defensive copy to prevent external modification
      *
-     * @return Unmodifiable list of transactions
+     * @return Unmodifiable copy of the pending transactions, oldest first
      */
-    public List<Transaction> getTransactionHistory() {
-        // Handle case where Gson might deserialize to null (backward compatibility)
-        if (transactionHistory == null) {
-            return Collections.emptyList();
-        }
-        return Collections.unmodifiableList(transactionHistory);
+    public synchronized List<Transaction> getPendingTransactions() {
+        return Collections.unmodifiableList(new ArrayList<>(pendingTransactions));
+    }
+
+    /**
+     * Removes and returns the pending transactions. Called by the repository when it stores them.
+     *
+     * @return The pending transactions, oldest first
+     */
+    public synchronized List<Transaction> drainPendingTransactions() {
+        List<Transaction> drained = new ArrayList<>(pendingTransactions);
+        pendingTransactions.clear();
+        return drained;
     }
 
     /**
@@ -121,9 +205,9 @@ public class User {
      * @param stockMarket The stock market to get current prices from
      * @return The total account value (balance + portfolio value)
      */
-    public BigDecimal getTotalAccountValue(StockMarket stockMarket) {
-        BigDecimal portfolioValue = portfolio.calculateTotalValue(stockMarket);
-        return balance.add(portfolioValue);
+    public Money getTotalAccountValue(StockMarket stockMarket) {
+        Money portfolioValue = portfolio.calculateTotalValue(stockMarket);
+        return getBalance().plus(portfolioValue);
     }
 
     // Getters
@@ -135,8 +219,21 @@ public class User {
         return username;
     }
 
-    public BigDecimal getBalance() {
-        return balance;
+    public Money getBalance() {
+        return Money.ofMicros(balance);
+    }
+
+    public Money getReservedBalance() {
+        return Money.ofMicros(reservedBalance);
+    }
+
+    /**
+     * Gets the balance plus the funds reserved for open orders: what the user owns in cash.
+     *
+     * @return The balance including reservations
+     */
+    public Money getBalanceIncludingReserved() {
+        return Money.ofMicros(Math.addExact(balance, reservedBalance));
     }
 
     public Portfolio getPortfolio() {
@@ -146,6 +243,6 @@ public class User {
     @Override
     public String toString() {
         return String.format("User: %s (Balance: $%.2f, Holdings: %d stocks)",
-                username, balance, portfolio.getStockCount());
+                username, getBalance().toBigDecimal(), portfolio.getStockCount());
     }
 }
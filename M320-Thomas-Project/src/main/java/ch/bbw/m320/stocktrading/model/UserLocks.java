@@ -0,0 +1,44 @@
+package ch.bbw.m320.stocktrading.model;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Striped locks that guard the balance and portfolio of each user.
+ * The stripes are shared by the whole application, so every component that changes
+ * or persists a user (trading, order matching, the user repository) holds the same lock
+ * for the same user, no matter which instance it goes through.
+ *
+ * Clean Code: Single Responsibility - only maps users to their locks
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+public final class UserLocks {
+    private static final int STRIPES = 256; // power of two
+    private static final Lock[] LOCKS = new Lock[STRIPES];
+
+    static {
+        for (int i = 0; i < STRIPES; i++) {
+            LOCKS[i] = new ReentrantLock();
+        }
+    }
+
+    private UserLocks() {
+    }
+
+    /**
+     * Gets the lock of a user's stripe.
+     *
+     * @param user The user
+     * @return The lock guarding the user's balance and portfolio
+     */
+    public static Lock lockFor(User user) {
+        if (user == null) {
+            throw new IllegalArgumentException("User cannot be null");
+        }
+        int hash = user.getUserId().hashCode();
+        hash ^= (hash >>> 16); // spread high bits into the stripe index
+        return LOCKS[hash & (STRIPES - 1)];
+    }
+}
@@ -0,0 +1,66 @@
+package ch.bbw.m320.stocktrading.repository;
+
+import ch.bbw.m320.stocktrading.model.Portfolio;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Streaming Gson adapter for {@link Portfolio}.
+ * Format: {"holdings": {"AAPL": 10, ...}}
+ * Shares reserved for open orders are written as held, since the orders are not persisted.
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+public class PortfolioTypeAdapter extends TypeAdapter<Portfolio> {
+    private static final String HOLDINGS = "holdings";
+
+    @Override
+    public void write(JsonWriter out, Portfolio portfolio) throws IOException {
+        if (portfolio == null) {
+            out.nullValue();
+            return;
+        }
+
+        out.beginObject();
+        out.name(HOLDINGS).beginObject();
+        for (Map.Entry<String, Integer> entry : portfolio.getHoldingsIncludingReserved().entrySet()) {
+            out.name(entry.getKey()).value(entry.getValue());
+        }
+        out.endObject();
+        out.endObject();
+    }
+
+    @Override
+    public Portfolio read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+
+        Portfolio portfolio = new Portfolio();
+        in.beginObject();
+        while (in.hasNext()) {
+            if (HOLDINGS.equals(in.nextName()) && in.peek() == JsonToken.BEGIN_OBJECT) {
+                in.beginObject();
+                while (in.hasNext()) {
+                    String symbol = in.nextName();
+                    int quantity = in.nextInt();
+                    if (quantity > 0) {
+                        portfolio.addStock(symbol, quantity);
+                    }
+                }
+                in.endObject();
+            } else {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+        return portfolio;
+    }
+}
@@ -1,26 +1,42 @@
 package ch.bbw.m320.stocktrading.repository;
 
+import ch.bbw.m320.stocktrading.model.Money;
+import ch.bbw.m320.stocktrading.model.PriceHistory;
 import ch.bbw.m320.stocktrading.model.Stock;
-import com.google.gson.*;
-import com.google.gson.reflect.TypeToken;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
 
 import java.io.*;
-import java.lang.reflect.Type;
-import java.math.BigDecimal;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-import java.util.HashMap;
-import java.util.Map;
+import java.time.ZoneOffset;
+import java.util.*;
 
 /**
- * Repository for persisting stock market data to JSON files.
+ * Repository for persisting stock market data to disk.
  * DESIGN PATTERN: Repository Pattern
  * Reason: Separates data access logic from business logic.
  * Provides a clean interface for data operations and makes it easy to change storage mechanism.
  *
+ * Stocks (symbol, name, current price) are stored in crash-safe snapshots under data/snapshots
+ * (see {@link StockSnapshotStore}). The price history of each symbol is kept in its own
+ * append-only binary tick file under data/ticks, so saving only appends the new ticks and
+ * loading a history maps the file instead of parsing JSON.
+ *
+ * Write-behind: save() only enqueues the changed symbols. A background thread coalesces
+ * them and commits their new ticks in groups, followed by fsync. A snapshot is written at
+ * a configurable interval, when stocks were added and on shutdown. Prices that changed
+ * after the last snapshot are recovered from the tick files when loading.
+ * Use {@link #flush()} when the data must be on disk before continuing.
+ *
+ * Loading restores the stocks of the newest valid snapshot and their histories in parallel.
+ * An old stocks.json is only read if there is no snapshot yet.
+ *
  * Clean Code: Single Responsibility - handles only data persistence for stock prices
  *
  * @author Thomas
@@ -29,21 +45,50 @@ import java.util.Map;
 public class StockMarketRepository {
     private static final String DATA_DIR = "data";
     private static final String STOCKS_FILE = "stocks.json";
+    private static final String TICKS_DIR = "ticks";
+    private static final String SNAPSHOTS_DIR = "snapshots";
+    public static final Duration DEFAULT_SNAPSHOT_INTERVAL = Duration.ofSeconds(30);
+    private static final int WRITE_BEHIND_BATCH_SIZE = 1024;
+    private static final long WRITE_BEHIND_DELAY_MILLIS = 200;
 
-    private final Gson gson;
+    private final StockTypeAdapter stockAdapter;
+    private final Path dataDirectory;
     private final Path dataFilePath;
+    private final Path ticksDirPath;
+    private final Map<String, TickArchive> tickArchives;
+    private final StockSnapshotStore snapshotStore;
+    private final WriteBehindQueue<String, Stock> writeBehind;
+    private volatile Map<String, Stock> latestStocks;
+    private volatile long snapshotIntervalNanos;
+    private long lastSnapshotNanos;                  // guarded by this
+    private Set<String> snapshotSymbols = Set.of();  // guarded by this, symbols of the last snapshot
+    private boolean snapshotPending;                 // guarded by this, ticks committed since the last snapshot
 
     /**
-     * Creates a new StockMarketRepository.
+     * Creates a new StockMarketRepository in the data directory of the application.
      * Initializes the data directory.
      */
     public StockMarketRepository() {
-        this.gson = new GsonBuilder()
-                .setPrettyPrinting()
-                .registerTypeAdapter(LocalDateTime.class, new LocalDateTimeAdapter())
-                .registerTypeAdapter(BigDecimal.class, new BigDecimalAdapter())
-                .create();
-        this.dataFilePath = Paths.get(DATA_DIR, STOCKS_FILE);
+        this(Paths.get(DATA_DIR));
+    }
+
+    /**
+     * Creates a new StockMarketRepository.
+     * Initializes the data directory.
+     *
+     * @param dataDirectory The directory that holds the stock files
+     */
+    public StockMarketRepository(Path dataDirectory) {
+        this.stockAdapter = new StockTypeAdapter(false);
+        this.dataDirectory = dataDirectory;
+        this.dataFilePath = dataDirectory.resolve(STOCKS_FILE);
+        this.ticksDirPath = dataDirectory.resolve(TICKS_DIR);
+        this.tickArchives = new HashMap<>();
+        this.snapshotStore = new StockSnapshotStore(dataDirectory.resolve(SNAPSHOTS_DIR));
+        this.snapshotIntervalNanos = DEFAULT_SNAPSHOT_INTERVAL.toNanos();
+        this.lastSnapshotNanos = System.nanoTime();
+        this.writeBehind = new WriteBehindQueue<>("stock-write-behind", WRITE_BEHIND_BATCH_SIZE,
+                WRITE_BEHIND_DELAY_MILLIS, (older, newer) -> newer, this::commitStocks);
 
         initializeDataDirectory();
     }
@@ -54,9 +99,11 @@ public class StockMarketRepository {
      */
     private void initializeDataDirectory() {
         try {
-            Path dataDir = Paths.get(DATA_DIR);
-            if (!Files.exists(dataDir)) {
-                Files.createDirectories(dataDir);
+            if (!Files.exists(dataDirectory)) {
+                Files.createDirectories(dataDirectory);
+            }
+            if (!Files.exists(ticksDirPath)) {
+                Files.createDirectories(ticksDirPath);
             }
         } catch (IOException e) {
             System.err.println("Error creating data directory: " + e.getMessage());
@@ -64,7 +111,7 @@ public class StockMarketRepository {
     }
 
     /**
-     * Saves stock market data to disk.
+     * Schedules stock market data to be saved to disk. Returns without waiting for the disk.
      *
      * @param stocks Map of stock symbols to Stock objects
      */
@@ -73,20 +120,181 @@ public class StockMarketRepository {
             throw new IllegalArgumentException("Stocks map cannot be null");
         }
 
-        try (Writer writer = new FileWriter(dataFilePath.toFile())) {
-            gson.toJson(stocks, writer);
+        latestStocks = stocks;
+        for (Map.Entry<String, Stock> entry : stocks.entrySet()) {
+            writeBehind.enqueue(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Sets how often a snapshot of the stock list is written while prices change.
+     * Ticks are committed in between, so a longer interval only makes loading replay more ticks.
+     *
+     * @param interval The minimum time between two snapshots; zero writes one on every commit
+     */
+    public void setSnapshotInterval(Duration interval) {
+        if (interval == null || interval.isNegative()) {
+            throw new IllegalArgumentException("Snapshot interval must not be negative");
+        }
+        this.snapshotIntervalNanos = interval.toNanos();
+    }
+
+    /**
+     * Writes all scheduled changes and waits until they are synced to disk.
+     *
+     * @throws UncheckedIOException if the ticks could not be written; they are retried in the background
+     */
+    public void flush() {
+        writeBehind.flush();
+    }
+
+    /**
+     * Writes all scheduled changes and then a snapshot, regardless of the interval.
+     *
+     * @throws UncheckedIOException if the ticks could not be written; they are retried in the background
+     */
+    public void snapshot() {
+        writeBehind.flush();
+        synchronized (this) {
+            if (latestStocks != null) {
+                writeSnapshot(latestStocks);
+            }
+        }
+    }
+
+    /**
+     * Writes all scheduled changes and a final snapshot, stops the write-behind thread
+     * and closes the tick files. Should be called once before the application exits.
+     */
+    public void shutdown() {
+        writeBehind.shutdown();
+        synchronized (this) {
+            if (snapshotPending && latestStocks != null) {
+                writeSnapshot(latestStocks);
+            }
+        }
+        close();
+    }
+
+    /**
+     * Group commit: appends the new ticks of every changed stock and syncs them once.
+     * Writes a snapshot when the interval has passed or a stock is not in the last snapshot yet.
+     * Runs on the write-behind thread.
+     *
+     * @throws IOException if ticks could not be written or synced; the queue retries the batch.
+     *                     A failed snapshot is not an error: the ticks are on disk, and the
+     *                     snapshot is retried with the next commit
+     */
+    private synchronized void commitStocks(Map<String, Stock> batch) throws IOException {
+        for (Stock stock : batch.values()) {
+            appendNewTicks(stock);
+        }
+        for (String symbol : batch.keySet()) {
+            TickArchive archive = tickArchives.get(symbol);
+            if (archive != null) {
+                archive.force();
+            }
+        }
+
+        snapshotPending = true;
+        if (!snapshotSymbols.containsAll(batch.keySet())
+                || System.nanoTime() - lastSnapshotNanos >= snapshotIntervalNanos) {
+            writeSnapshot(latestStocks);
+        }
+    }
+
+    /**
+     * Writes a snapshot. A failure is reported and retried with the next commit.
+     */
+    private void writeSnapshot(Map<String, Stock> stocks) {
+        try {
+            snapshotStore.write(stocks.values());
+            snapshotSymbols = new HashSet<>(stocks.keySet());
+            lastSnapshotNanos = System.nanoTime();
+            snapshotPending = false;
         } catch (IOException e) {
-            System.err.println("Error saving stock market data: " + e.getMessage());
-            e.printStackTrace();
+            System.err.println("Error writing stock snapshot: " + e.getMessage());
         }
     }
 
     /**
-     * Loads stock market data from disk.
+     * Loads stock market data from disk: the newest valid snapshot, or an old stocks.json
+     * if there is none yet (which is then converted to a snapshot).
      *
      * @return Map of stock symbols to Stock objects, or null if no data exists
      */
-    public Map<String, Stock> load() {
+    public synchronized Map<String, Stock> load() {
+        try {
+            List<StockSnapshotStore.Entry> entries = snapshotStore.readNewest();
+            if (entries != null && !entries.isEmpty()) {
+                Map<String, Stock> stocks = restoreStocks(entries);
+                snapshotSymbols = new HashSet<>(stocks.keySet());
+                System.out.println("Loaded " + stocks.size() + " stocks from saved data.");
+                return stocks;
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading stock snapshots: " + e.getMessage());
+        }
+
+        Map<String, Stock> stocks = loadStocksFile();
+        if (stocks != null) {
+            writeSnapshot(stocks);
+        }
+        return stocks;
+    }
+
+    /**
+     * Restores the stocks of a snapshot with their price histories, in parallel.
+     */
+    private Map<String, Stock> restoreStocks(List<StockSnapshotStore.Entry> entries) {
+        List<Stock> restored = entries.parallelStream().map(this::restoreStock).toList();
+        Map<String, Stock> stocks = new HashMap<>(restored.size() * 4 / 3 + 1);
+        for (Stock stock : restored) {
+            stocks.put(stock.getSymbol(), stock);
+        }
+        return stocks;
+    }
+
+    /**
+     * Restores one stock. A tick committed after the snapshot replaces the snapshot price.
+     * The tick file is only read, not opened as an archive, so loading many stocks
+     * neither maps nor keeps open their files.
+     */
+    private Stock restoreStock(StockSnapshotStore.Entry entry) {
+        Path tickFile = ticksDirPath.resolve(entry.getSymbol() + TickArchive.FILE_EXTENSION);
+        try {
+            TickArchive.Range ticks = TickArchive.readTail(tickFile, PriceHistory.DEFAULT_CAPACITY);
+            if (ticks.size() == 0) {
+                try (TickArchive archive = new TickArchive(tickFile)) {
+                    archive.append(entry.getPriceEpochNanos(), entry.getPriceMicros());
+                    archive.force();
+                }
+                ticks = TickArchive.readTail(tickFile, PriceHistory.DEFAULT_CAPACITY);
+            }
+
+            int last = ticks.size() - 1;
+            long priceMicros = ticks.getEpochNanos(last) > entry.getPriceEpochNanos()
+                    ? ticks.getScaledPrice(last) : entry.getPriceMicros();
+            Stock stock = new Stock(entry.getSymbol(), entry.getName(), Money.ofMicros(priceMicros), null);
+            PriceHistory history = stock.getPriceHistoryStore();
+            for (int i = 0; i < ticks.size(); i++) {
+                history.append(ticks.getEpochNanos(i), ticks.getScaledPrice(i));
+            }
+            return stock;
+        } catch (IOException e) {
+            System.err.println("Error loading price history of " + entry.getSymbol() + ": " + e.getMessage());
+            Stock stock = new Stock(entry.getSymbol(), entry.getName(), Money.ofMicros(entry.getPriceMicros()), null);
+            stock.getPriceHistoryStore().append(entry.getPriceEpochNanos(), entry.getPriceMicros());
+            return stock;
+        }
+    }
+
+    /**
+     * Reads stocks.json as written by older versions.
+     *
+     * @return Map of stock symbols to Stock objects, or null if the file does not exist or is unusable
+     */
+    private Map<String, Stock> loadStocksFile() {
         if (!Files.exists(dataFilePath)) {
             return null; // No file yet, return null to indicate no saved data
         }
@@ -98,15 +306,30 @@ public class StockMarketRepository {
                 return null;
             }
 
-            try (Reader reader = new FileReader(dataFilePath.toFile())) {
-                Type stockMapType = new TypeToken<HashMap<String, Stock>>(){}.getType();
-                Map<String, Stock> loadedStocks = gson.fromJson(reader, stockMapType);
-                if (loadedStocks != null && !loadedStocks.isEmpty()) {
-                    System.out.println("Loaded " + loadedStocks.size() + " stocks from saved data.");
-                    return loadedStocks;
+            // Stream the stocks one by one instead of building the whole JSON tree
+            Map<String, Stock> loadedStocks = new HashMap<>();
+            try (JsonReader reader = new JsonReader(Files.newBufferedReader(dataFilePath))) {
+                if (reader.peek() == JsonToken.NULL) {
+                    return null;
                 }
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String symbol = reader.nextName();
+                    Stock stock = stockAdapter.read(reader);
+                    if (stock != null) {
+                        loadedStocks.put(symbol, stock);
+                    }
+                }
+                reader.endObject();
             }
-        } catch (JsonSyntaxException e) {
+            if (!loadedStocks.isEmpty()) {
+                for (Stock stock : loadedStocks.values()) {
+                    loadPriceHistory(stock);
+                }
+                System.out.println("Loaded " + loadedStocks.size() + " stocks from saved data.");
+                return loadedStocks;
+            }
+        } catch (JsonParseException | MalformedJsonException | IllegalStateException e) {
             System.err.println("Corrupted stock market data file detected. Using default prices.");
             System.err.println("Error details: " + e.getMessage());
         } catch (IOException e) {
@@ -118,36 +341,89 @@ public class StockMarketRepository {
     }
 
     /**
-     * Custom Gson TypeAdapter for LocalDateTime serialization/deserialization.
-     * Fixes Java 21+ module system restrictions with Gson.
+     * Returns the archived ticks of a symbol in a time range as a memory-mapped view.
+     * Unlike the in-memory history, this covers every tick ever recorded.
+     *
+     * @param symbol The stock symbol
+     * @param from Start of the range (inclusive)
+     * @param to End of the range (exclusive)
+     * @return Mapped view of the ticks in the range
+     * @throws IOException if the tick file cannot be read
      */
-    private static class LocalDateTimeAdapter implements JsonSerializer<LocalDateTime>, JsonDeserializer<LocalDateTime> {
-        private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
+    public synchronized TickArchive.Range loadTicks(String symbol, LocalDateTime from, LocalDateTime to)
+            throws IOException {
+        return getTickArchive(symbol.toUpperCase())
+                .range(PriceHistory.toEpochNanos(from), PriceHistory.toEpochNanos(to));
+    }
 
-        @Override
-        public JsonElement serialize(LocalDateTime dateTime, Type type, JsonSerializationContext context) {
-            return new JsonPrimitive(dateTime.format(FORMATTER));
+    /**
+     * Closes all open tick files.
+     */
+    public synchronized void close() {
+        for (TickArchive archive : tickArchives.values()) {
+            try {
+                archive.close();
+            } catch (IOException e) {
+                System.err.println("Error closing tick archive: " + e.getMessage());
+            }
         }
+        tickArchives.clear();
+    }
 
-        @Override
-        public LocalDateTime deserialize(JsonElement json, Type type, JsonDeserializationContext context) throws JsonParseException {
-            return LocalDateTime.parse(json.getAsString(), FORMATTER);
+    /**
+     * Appends the ticks of a stock that are newer than the newest archived tick.
+     * Only the new ticks are written, so the cost does not depend on the history length.
+     * After a failure, the next call continues with the first tick that was not written.
+     *
+     * @throws IOException if the tick file cannot be written
+     */
+    private void appendNewTicks(Stock stock) throws IOException {
+        TickArchive archive = getTickArchive(stock.getSymbol());
+        PriceHistory history = stock.getPriceHistoryStore();
+
+        int first = history.size();
+        while (first > 0 && history.getEpochNanos(first - 1) > archive.getLastEpochNanos()) {
+            first--;
+        }
+        try {
+            for (int i = first; i < history.size(); i++) {
+                archive.append(history.getEpochNanos(i), history.getScaledPrice(i));
+            }
+        } catch (IOException e) {
+            throw new IOException("Error saving price history of " + stock.getSymbol() + ": " + e.getMessage(), e);
         }
     }
 
     /**
-     * Custom Gson TypeAdapter for BigDecimal serialization/deserialization.
-     * Ensures proper handling of decimal numbers.
+     * Fills the price history of a loaded stock from its tick file.
+     * Stocks from older stocks.json files carry their history inline; it is migrated
+     * into a new tick file the first time they are loaded.
      */
-    private static class BigDecimalAdapter implements JsonSerializer<BigDecimal>, JsonDeserializer<BigDecimal> {
-        @Override
-        public JsonElement serialize(BigDecimal decimal, Type type, JsonSerializationContext context) {
-            return new JsonPrimitive(decimal);
+    private void loadPriceHistory(Stock stock) {
+        try {
+            TickArchive archive = getTickArchive(stock.getSymbol());
+            PriceHistory history = stock.getPriceHistoryStore();
+
+            if (archive.size() == 0) {
+                if (history.isEmpty()) {
+                    history.append(stock.getCurrentPrice(), LocalDateTime.now(ZoneOffset.UTC));
+                }
+                appendNewTicks(stock);
+            } else {
+                history.clear();
+                archive.loadInto(history);
+            }
+        } catch (IOException e) {
+            System.err.println("Error loading price history of " + stock.getSymbol() + ": " + e.getMessage());
         }
+    }
 
-        @Override
-        public BigDecimal deserialize(JsonElement json, Type type, JsonDeserializationContext context) throws JsonParseException {
-            return json.getAsBigDecimal();
+    private TickArchive getTickArchive(String symbol) throws IOException {
+        TickArchive archive = tickArchives.get(symbol);
+        if (archive == null) {
+            archive = new TickArchive(ticksDirPath.resolve(symbol + TickArchive.FILE_EXTENSION));
+            tickArchives.put(symbol, archive);
         }
+        return archive;
     }
 }
@@ -0,0 +1,320 @@
+package ch.bbw.m320.stocktrading.repository;
+
+import ch.bbw.m320.stocktrading.model.PriceHistory;
+import ch.bbw.m320.stocktrading.model.Stock;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32C;
+
+/**
+ * Writes and reads crash-safe snapshots of the stock list (symbol, name and current price).
+ *
+ * A snapshot is written to a temporary file, synced and then renamed to its final name,
+ * so a crash leaves either the complete new snapshot or none at all. Every snapshot carries
+ * checksums; loading takes the newest snapshot whose checksums match and falls back to the
+ * previous one otherwise. The newest {@value #SNAPSHOTS_KEPT} snapshots are kept.
+ *
+ * Layout (big-endian):
+ * <pre>
+ *   header      magic "STKS", version, sequence, creation millis, stock count, chunk count
+ *   chunk table per chunk: length in bytes, stock count, CRC32C of the chunk
+ *   header CRC  CRC32C of header and chunk table
+ *   chunks      per stock: symbol and name (2 byte length + UTF-8), price in micro-units, price epoch nanos
+ * </pre>
+ * The stocks are split into chunks of {@value #CHUNK_SIZE}, which are checked and decoded in parallel.
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+public class StockSnapshotStore {
+    public static final int SNAPSHOTS_KEPT = 2;
+    public static final int CHUNK_SIZE = 4096;
+
+    private static final int MAGIC = 0x53544B53; // "STKS"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int CHUNK_ENTRY_SIZE = 12;
+    private static final String FILE_PREFIX = "snapshot-";
+    private static final String FILE_EXTENSION = ".snap";
+
+    private final Path directory;
+    private long lastSequence = -1; // -1 until the directory was listed
+
+    /**
+     * Creates a snapshot store.
+     *
+     * @param directory The directory that holds the snapshot files
+     */
+    public StockSnapshotStore(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Writes a new snapshot of the stocks and removes the snapshots that are no longer kept.
+     *
+     * @param stocks The stocks; their prices are read one by one, each consistent with its timestamp
+     * @throws IOException if the snapshot cannot be written
+     */
+    public synchronized void write(Collection<Stock> stocks) throws IOException {
+        Files.createDirectories(directory);
+        long sequence = nextSequence();
+
+        List<byte[]> chunks = new ArrayList<>();
+        List<Integer> counts = new ArrayList<>();
+        ByteArrayOutputStream chunk = new ByteArrayOutputStream(CHUNK_SIZE * 48);
+        DataOutputStream data = new DataOutputStream(chunk);
+        int count = 0;
+        int total = 0;
+        for (Stock stock : stocks) {
+            Stock.PriceSnapshot price = stock.getPriceSnapshot();
+            writeString(data, stock.getSymbol());
+            writeString(data, stock.getName());
+            data.writeLong(price.getPrice().getMicros());
+            data.writeLong(PriceHistory.toEpochNanos(price.getTimestamp()));
+            total++;
+            if (++count == CHUNK_SIZE) {
+                chunks.add(chunk.toByteArray());
+                counts.add(count);
+                chunk.reset();
+                count = 0;
+            }
+        }
+        if (count > 0) {
+            chunks.add(chunk.toByteArray());
+            counts.add(count);
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + chunks.size() * CHUNK_ENTRY_SIZE + Integer.BYTES);
+        header.putInt(MAGIC).putInt(VERSION).putLong(sequence).putLong(System.currentTimeMillis())
+                .putInt(total).putInt(chunks.size());
+        for (int i = 0; i < chunks.size(); i++) {
+            header.putInt(chunks.get(i).length).putInt(counts.get(i)).putInt(checksum(chunks.get(i), 0, chunks.get(i).length));
+        }
+        header.putInt(checksum(header.array(), 0, header.position()));
+
+        Path file = directory.resolve(fileName(sequence));
+        Path tempFile = directory.resolve(fileName(sequence) + ".tmp");
+        try (FileOutputStream output = new FileOutputStream(tempFile.toFile())) {
+            BufferedOutputStream buffered = new BufferedOutputStream(output, 1 << 16);
+            buffered.write(header.array());
+            for (byte[] bytes : chunks) {
+                buffered.write(bytes);
+            }
+            buffered.flush();
+            output.getFD().sync();
+        }
+        Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory();
+        lastSequence = sequence;
+
+        removeOldSnapshots();
+    }
+
+    /**
+     * Reads the newest snapshot with valid checksums.
+     *
+     * @return The stocks of the snapshot in the order they were written, or null if there is no valid snapshot
+     * @throws IOException if the snapshot directory cannot be listed
+     */
+    public synchronized List<Entry> readNewest() throws IOException {
+        for (Path file : listSnapshots()) {
+            try {
+                return read(file);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Skipping invalid stock snapshot " + file.getFileName() + ": " + e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    private List<Entry> read(Path file) throws IOException {
+        ByteBuffer content = ByteBuffer.wrap(Files.readAllBytes(file));
+        try {
+            if (content.getInt() != MAGIC || content.getInt() != VERSION) {
+                throw new IOException("Not a stock snapshot (version " + VERSION + ")");
+            }
+            content.getLong(); // sequence, taken from the file name
+            content.getLong(); // creation millis
+            int total = content.getInt();
+            int chunkCount = content.getInt();
+            if (chunkCount < 0 || chunkCount > content.remaining() / CHUNK_ENTRY_SIZE) {
+                throw new IOException("Invalid chunk count: " + chunkCount);
+            }
+
+            int[] lengths = new int[chunkCount];
+            int[] counts = new int[chunkCount];
+            int[] checksums = new int[chunkCount];
+            for (int i = 0; i < chunkCount; i++) {
+                lengths[i] = content.getInt();
+                counts[i] = content.getInt();
+                checksums[i] = content.getInt();
+            }
+            int headerLength = content.position();
+            if (content.getInt() != checksum(content.array(), 0, headerLength)) {
+                throw new IOException("Header checksum mismatch");
+            }
+
+            int[] offsets = new int[chunkCount];
+            long end = content.position();
+            for (int i = 0; i < chunkCount; i++) {
+                offsets[i] = (int) end;
+                end += lengths[i];
+            }
+            if (end != content.limit()) {
+                throw new IOException("Snapshot size does not match its chunk table");
+            }
+
+            List<List<Entry>> decoded = IntStream.range(0, chunkCount).parallel()
+                    .mapToObj(i -> decodeChunk(content.array(), offsets[i], lengths[i], counts[i], checksums[i]))
+                    .toList();
+            List<Entry> entries = new ArrayList<>(total);
+            decoded.forEach(entries::addAll);
+            if (entries.size() != total) {
+                throw new IOException("Stock count does not match the chunks");
+            }
+            return entries;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Snapshot is cut off", e);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static List<Entry> decodeChunk(byte[] content, int offset, int length, int count, int expectedChecksum) {
+        if (checksum(content, offset, length) != expectedChecksum) {
+            throw new UncheckedIOException(new IOException("Chunk checksum mismatch at offset " + offset));
+        }
+        ByteBuffer chunk = ByteBuffer.wrap(content, offset, length);
+        List<Entry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            entries.add(new Entry(readString(chunk), readString(chunk), chunk.getLong(), chunk.getLong()));
+        }
+        return entries;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] utf = value.getBytes(StandardCharsets.UTF_8);
+        if (utf.length > 0xFFFF) {
+            throw new IOException("Value too long for a stock snapshot: " + utf.length + " bytes");
+        }
+        out.writeShort(utf.length);
+        out.write(utf);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getShort() & 0xFFFF;
+        String value = new String(in.array(), in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+
+    private static int checksum(byte[] bytes, int offset, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Lists the snapshot files, newest first.
+     */
+    private List<Path> listSnapshots() throws IOException {
+        List<Path> files = new ArrayList<>();
+        if (Files.isDirectory(directory)) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+                    FILE_PREFIX + "*" + FILE_EXTENSION)) {
+                for (Path file : stream) {
+                    if (sequenceOf(file) >= 0) {
+                        files.add(file);
+                    }
+                }
+            }
+        }
+        files.sort(Comparator.comparingLong(StockSnapshotStore::sequenceOf).reversed());
+        return files;
+    }
+
+    private long nextSequence() throws IOException {
+        if (lastSequence < 0) {
+            List<Path> files = listSnapshots();
+            lastSequence = files.isEmpty() ? 0 : sequenceOf(files.get(0));
+        }
+        return lastSequence + 1;
+    }
+
+    private void removeOldSnapshots() throws IOException {
+        List<Path> files = listSnapshots();
+        for (int i = SNAPSHOTS_KEPT; i < files.size(); i++) {
+            Files.deleteIfExists(files.get(i));
+        }
+        // Temporary files of snapshots that were never completed
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, FILE_PREFIX + "*.tmp")) {
+            for (Path file : stream) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    /**
+     * Syncs the directory, so the rename survives a crash. Not supported on every platform.
+     */
+    private void syncDirectory() {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // e.g. Windows cannot open a directory; the rename is still atomic
+        }
+    }
+
+    private static String fileName(long sequence) {
+        return String.format("%s%019d%s", FILE_PREFIX, sequence, FILE_EXTENSION);
+    }
+
+    private static long sequenceOf(Path file) {
+        String name = file.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(FILE_PREFIX.length(), name.length() - FILE_EXTENSION.length()));
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * One stock of a snapshot.
+     */
+    public static final class Entry {
+        private final String symbol;
+        private final String name;
+        private final long priceMicros;
+        private final long priceEpochNanos;
+
+        private Entry(String symbol, String name, long priceMicros, long priceEpochNanos) {
+            this.symbol = symbol;
+            this.name = name;
+            this.priceMicros = priceMicros;
+            this.priceEpochNanos = priceEpochNanos;
+        }
+
+        public String getSymbol() {
+            return symbol;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getPriceMicros() {
+            return priceMicros;
+        }
+
+        public long getPriceEpochNanos() {
+            return priceEpochNanos;
+        }
+    }
+}
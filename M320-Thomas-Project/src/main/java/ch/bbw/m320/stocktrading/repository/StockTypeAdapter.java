@@ -0,0 +1,148 @@
+package ch.bbw.m320.stocktrading.repository;
+
+import ch.bbw.m320.stocktrading.model.Money;
+import ch.bbw.m320.stocktrading.model.PriceHistory;
+import ch.bbw.m320.stocktrading.model.Stock;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming Gson adapter for {@link Stock} including its price history.
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+public class StockTypeAdapter extends TypeAdapter<Stock> {
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
+
+    private static final String SYMBOL = "symbol";
+    private static final String NAME = "name";
+    private static final String CURRENT_PRICE = "currentPrice";
+    private static final String PRICE_HISTORY = "priceHistory";
+    private static final String PRICE = "price";
+    private static final String TIMESTAMP = "timestamp";
+
+    private final boolean writeHistory;
+
+    /**
+     * Creates an adapter that writes the price history inline.
+     */
+    public StockTypeAdapter() {
+        this(true);
+    }
+
+    /**
+     * Creates a new StockTypeAdapter.
+     * An inline price history is always read if present.
+     *
+     * @param writeHistory false if the price history is stored elsewhere (e.g. a tick archive)
+     */
+    public StockTypeAdapter(boolean writeHistory) {
+        this.writeHistory = writeHistory;
+    }
+
+    @Override
+    public void write(JsonWriter out, Stock stock) throws IOException {
+        if (stock == null) {
+            out.nullValue();
+            return;
+        }
+
+        out.beginObject();
+        out.name(SYMBOL).value(stock.getSymbol());
+        out.name(NAME).value(stock.getName());
+        out.name(CURRENT_PRICE).value(stock.getCurrentPrice().toBigDecimal());
+        if (writeHistory) {
+            writeHistory(out, stock);
+        }
+        out.endObject();
+    }
+
+    private void writeHistory(JsonWriter out, Stock stock) throws IOException {
+        out.name(PRICE_HISTORY).beginArray();
+        PriceHistory.View history = stock.getPriceHistoryStore().view();
+        for (int i = 0; i < history.size(); i++) {
+            out.beginObject();
+            out.name(PRICE).value(Money.ofMicros(history.getScaledPrice(i)).toBigDecimal());
+            out.name(TIMESTAMP).value(PriceHistory.toLocalDateTime(history.getEpochNanos(i)).format(FORMATTER));
+            out.endObject();
+        }
+        out.endArray();
+    }
+
+    @Override
+    public Stock read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+
+        String symbol = null;
+        String name = null;
+        BigDecimal currentPrice = null;
+        List<Stock.PricePoint> priceHistory = new ArrayList<>();
+
+        in.beginObject();
+        while (in.hasNext()) {
+            String field = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                continue;
+            }
+            switch (field) {
+                case SYMBOL -> symbol = in.nextString();
+                case NAME -> name = in.nextString();
+                case CURRENT_PRICE -> currentPrice = new BigDecimal(in.nextString());
+                case PRICE_HISTORY -> {
+                    in.beginArray();
+                    while (in.hasNext()) {
+                        priceHistory.add(readPricePoint(in));
+                    }
+                    in.endArray();
+                }
+                default -> in.skipValue();
+            }
+        }
+        in.endObject();
+
+        try {
+            return new Stock(symbol, name, currentPrice != null ? Money.of(currentPrice) : null, priceHistory);
+        } catch (IllegalArgumentException | ArithmeticException e) {
+            throw new JsonParseException("Invalid stock: " + e.getMessage(), e);
+        }
+    }
+
+    private Stock.PricePoint readPricePoint(JsonReader in) throws IOException {
+        BigDecimal price = null;
+        LocalDateTime timestamp = null;
+
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case PRICE -> price = new BigDecimal(in.nextString());
+                case TIMESTAMP -> timestamp = LocalDateTime.parse(in.nextString(), FORMATTER);
+                default -> in.skipValue();
+            }
+        }
+        in.endObject();
+
+        if (price == null || timestamp == null) {
+            throw new JsonParseException("Price point missing price or timestamp");
+        }
+        try {
+            return new Stock.PricePoint(Money.of(price), timestamp);
+        } catch (ArithmeticException e) {
+            throw new JsonParseException("Price out of range: " + price, e);
+        }
+    }
+}
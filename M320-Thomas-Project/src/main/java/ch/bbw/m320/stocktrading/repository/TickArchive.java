@@ -0,0 +1,281 @@
+package ch.bbw.m320.stocktrading.repository;
+
+import ch.bbw.m320.stocktrading.model.PriceHistory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Append-only binary tick file for one stock symbol.
+ * Layout: a 16 byte header followed by fixed-width 16 byte records
+ * (epoch nanos, price in micro-units), both big-endian longs.
+ *
+ * Appending writes one record at the end of the file, so its cost does not depend
+ * on the history length. Reads memory-map the file instead of parsing it.
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+public class TickArchive implements Closeable {
+    public static final String FILE_EXTENSION = ".ticks";
+
+    private static final int MAGIC = 0x5449434B; // "TICK"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_SIZE = 16;
+
+    private final FileChannel channel;
+    private final ByteBuffer recordBuffer;
+    private long recordCount;
+    private long lastEpochNanos;
+
+    /**
+     * Opens (or creates) the tick file at the given path.
+     *
+     * @param path The tick file
+     * @throws IOException if the file cannot be opened or has an invalid header
+     */
+    public TickArchive(Path path) throws IOException {
+        this.channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.recordBuffer = ByteBuffer.allocateDirect(RECORD_SIZE);
+        this.lastEpochNanos = Long.MIN_VALUE;
+
+        try {
+            initialize();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes the header of a new file or validates the header of an existing one.
+     * A torn record at the end (crash during append) is cut off.
+     */
+    private void initialize() throws IOException {
+        long fileSize = channel.size();
+        if (fileSize == 0) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putLong(0).flip();
+            channel.write(header, 0);
+            return;
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        channel.read(header, 0);
+        header.flip();
+        if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC || header.getInt() != VERSION) {
+            throw new IOException("Not a tick archive (version " + VERSION + ")");
+        }
+
+        recordCount = (fileSize - HEADER_SIZE) / RECORD_SIZE;
+        long validSize = HEADER_SIZE + recordCount * RECORD_SIZE;
+        if (validSize != fileSize) {
+            channel.truncate(validSize);
+        }
+        if (recordCount > 0) {
+            ByteBuffer last = ByteBuffer.allocate(Long.BYTES);
+            channel.read(last, validSize - RECORD_SIZE);
+            lastEpochNanos = last.flip().getLong();
+        }
+    }
+
+    /**
+     * Appends one tick at the end of the file.
+     *
+     * @param epochNanos The time of the tick
+     * @param scaledPrice The price in micro-units
+     * @throws IOException if the tick cannot be written
+     */
+    public void append(long epochNanos, long scaledPrice) throws IOException {
+        recordBuffer.clear();
+        recordBuffer.putLong(epochNanos).putLong(scaledPrice).flip();
+        long position = HEADER_SIZE + recordCount * RECORD_SIZE;
+        while (recordBuffer.hasRemaining()) {
+            position += channel.write(recordBuffer, position);
+        }
+        recordCount++;
+        lastEpochNanos = epochNanos;
+    }
+
+    /**
+     * Forces appended ticks to the storage device.
+     *
+     * @throws IOException if the file cannot be synced
+     */
+    public void force() throws IOException {
+        channel.force(false);
+    }
+
+    /**
+     * Gets the number of ticks in the file.
+     *
+     * @return The tick count
+     */
+    public long size() {
+        return recordCount;
+    }
+
+    /**
+     * Gets the time of the newest tick.
+     *
+     * @return Epoch nanos of the newest tick, or Long.MIN_VALUE if the file is empty
+     */
+    public long getLastEpochNanos() {
+        return lastEpochNanos;
+    }
+
+    /**
+     * Loads the newest ticks into a price history, at most as many as it can hold.
+     *
+     * @param history The history to fill
+     * @throws IOException if the file cannot be mapped
+     */
+    public void loadInto(PriceHistory history) throws IOException {
+        long first = Math.max(0, recordCount - history.getCapacity());
+        Range range = mapRecords(first, recordCount - first);
+        for (int i = 0; i < range.size(); i++) {
+            history.append(range.getEpochNanos(i), range.getScaledPrice(i));
+        }
+    }
+
+    /**
+     * Reads the newest ticks of a tick file without opening it for writing or mapping it.
+     * This is cheaper than opening an archive when many files are read once, e.g. at startup.
+     * A torn record at the end is ignored.
+     *
+     * @param path The tick file
+     * @param maxTicks Maximum number of ticks to read
+     * @return The newest ticks, oldest first; empty if the file does not exist
+     * @throws IOException if the file cannot be read or has an invalid header
+     */
+    public static Range readTail(Path path, int maxTicks) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if (fileSize == 0) {
+                return new Range(ByteBuffer.allocate(0), 0);
+            }
+            long recordCount = Math.max(0, (fileSize - HEADER_SIZE) / RECORD_SIZE);
+            int count = (int) Math.min(recordCount, Math.min(maxTicks, Integer.MAX_VALUE / RECORD_SIZE - 1));
+            long firstRecord = recordCount - count;
+
+            ByteBuffer buffer;
+            if (firstRecord == 0) {
+                // Header and records in one read
+                buffer = ByteBuffer.allocate(HEADER_SIZE + count * RECORD_SIZE);
+                readFully(channel, buffer, 0);
+            } else {
+                buffer = ByteBuffer.allocate(HEADER_SIZE);
+                readFully(channel, buffer, 0);
+            }
+            if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(Integer.BYTES) != VERSION) {
+                throw new IOException("Not a tick archive (version " + VERSION + ")");
+            }
+            if (firstRecord == 0) {
+                return new Range(buffer.slice(HEADER_SIZE, count * RECORD_SIZE), count);
+            }
+
+            ByteBuffer records = ByteBuffer.allocate(count * RECORD_SIZE);
+            readFully(channel, records, HEADER_SIZE + firstRecord * RECORD_SIZE);
+            return new Range(records, count);
+        } catch (NoSuchFileException e) {
+            return new Range(ByteBuffer.allocate(0), 0);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                break;
+            }
+            position += read;
+        }
+        buffer.flip();
+    }
+
+    /**
+     * Returns the ticks in a time range as a memory-mapped view, without copying.
+     *
+     * @param fromEpochNanos Start of the range (inclusive)
+     * @param toEpochNanos End of the range (exclusive)
+     * @return Mapped view of the ticks in the range
+     * @throws IOException if the file cannot be mapped
+     */
+    public Range range(long fromEpochNanos, long toEpochNanos) throws IOException {
+        Range all = mapRecords(0, recordCount);
+        int start = all.lowerBound(fromEpochNanos);
+        int end = Math.max(start, all.lowerBound(toEpochNanos));
+        return mapRecords(start, end - start);
+    }
+
+    private Range mapRecords(long firstRecord, long count) throws IOException {
+        if (count > Integer.MAX_VALUE / RECORD_SIZE) {
+            throw new IOException("Tick range too large to map: " + count + " ticks");
+        }
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                HEADER_SIZE + firstRecord * RECORD_SIZE, count * RECORD_SIZE);
+        return new Range(buffer, (int) count);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Read-only view over consecutive ticks of a memory-mapped tick file.
+     */
+    public static class Range {
+        private final ByteBuffer buffer;
+        private final int size;
+
+        private Range(ByteBuffer buffer, int size) {
+            this.buffer = buffer;
+            this.size = size;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public long getEpochNanos(int index) {
+            return buffer.getLong(offset(index));
+        }
+
+        public long getScaledPrice(int index) {
+            return buffer.getLong(offset(index) + Long.BYTES);
+        }
+
+        private int offset(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            return index * RECORD_SIZE;
+        }
+
+        /**
+         * Finds the first index whose timestamp is >= the given time.
+         */
+        private int lowerBound(long targetEpochNanos) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (getEpochNanos(mid) < targetEpochNanos) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+}
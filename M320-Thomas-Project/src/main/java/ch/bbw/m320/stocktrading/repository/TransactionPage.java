@@ -0,0 +1,39 @@
+package ch.bbw.m320.stocktrading.repository;
+
+import ch.bbw.m320.stocktrading.model.Transaction;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One page of a {@link TransactionQuery} result, newest first.
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+public final class TransactionPage {
+    private final List<Transaction> transactions;
+    private final String nextCursor;
+
+    TransactionPage(List<Transaction> transactions, String nextCursor) {
+        this.transactions = Collections.unmodifiableList(transactions);
+        this.nextCursor = nextCursor;
+    }
+
+    public List<Transaction> getTransactions() {
+        return transactions;
+    }
+
+    /**
+     * Gets the cursor for the next (older) page.
+     *
+     * @return The cursor, or null if this is the last page
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean hasMore() {
+        return nextCursor != null;
+    }
+}
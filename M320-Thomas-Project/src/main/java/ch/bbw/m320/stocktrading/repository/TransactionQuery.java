@@ -0,0 +1,95 @@
+package ch.bbw.m320.stocktrading.repository;
+
+import java.time.LocalDateTime;
+
+/**
+ * Immutable query for a user's transactions in the {@link TransactionStore}.
+ * Results are returned newest first, one page at a time.
+ *
+ * Example: {@code TransactionQuery.newestFirst(20).forSymbol("AAPL").after(page.getNextCursor())}
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+public final class TransactionQuery {
+    private final LocalDateTime from;   // inclusive, null = no lower bound
+    private final LocalDateTime to;     // exclusive, null = no upper bound
+    private final String symbol;        // null = all symbols
+    private final String cursor;        // null = start with the newest transaction
+    private final int pageSize;
+
+    private TransactionQuery(LocalDateTime from, LocalDateTime to, String symbol, String cursor, int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Page size must be positive");
+        }
+        if (from != null && to != null && from.isAfter(to)) {
+            throw new IllegalArgumentException("Start of the range must not be after its end");
+        }
+        this.from = from;
+        this.to = to;
+        this.symbol = symbol;
+        this.cursor = cursor;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Creates a query for all transactions, newest first.
+     *
+     * @param pageSize Maximum number of transactions per page
+     * @return The query
+     */
+    public static TransactionQuery newestFirst(int pageSize) {
+        return new TransactionQuery(null, null, null, null, pageSize);
+    }
+
+    /**
+     * Restricts the query to a time range.
+     *
+     * @param from Start of the range (inclusive), or null
+     * @param to End of the range (exclusive), or null
+     * @return A new query
+     */
+    public TransactionQuery between(LocalDateTime from, LocalDateTime to) {
+        return new TransactionQuery(from, to, symbol, cursor, pageSize);
+    }
+
+    /**
+     * Restricts the query to one stock.
+     *
+     * @param symbol The stock symbol, or null for all
+     * @return A new query
+     */
+    public TransactionQuery forSymbol(String symbol) {
+        return new TransactionQuery(from, to, symbol, cursor, pageSize);
+    }
+
+    /**
+     * Continues after a previous page.
+     *
+     * @param cursor The cursor of the previous page, see {@link TransactionPage#getNextCursor()}
+     * @return A new query
+     */
+    public TransactionQuery after(String cursor) {
+        return new TransactionQuery(from, to, symbol, cursor, pageSize);
+    }
+
+    public LocalDateTime getFrom() {
+        return from;
+    }
+
+    public LocalDateTime getTo() {
+        return to;
+    }
+
+    public String getSymbol() {
+        return symbol;
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+}
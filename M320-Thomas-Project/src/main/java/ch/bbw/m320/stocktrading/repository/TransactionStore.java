@@ -0,0 +1,600 @@
+package ch.bbw.m320.stocktrading.repository;
+
+import ch.bbw.m320.stocktrading.model.SymbolRegistry;
+import ch.bbw.m320.stocktrading.model.Transaction;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+
+/**
+ * Stores the transaction history of every user outside of users.json.
+ * DESIGN PATTERN: Repository Pattern
+ * Reason: Histories grow without bound, so they are kept apart from the user data
+ * and read page by page instead of being loaded with the user.
+ *
+ * Every user has a directory with time-ordered segment files of a fixed number of records.
+ * New records go to the user's active segment; a full segment is sealed by renaming it
+ * to a name that contains its sequence number, time range and record count. A time-range
+ * query skips sealed segments outside the range without opening them.
+ *
+ * Records are stored in the binary format of {@link TransactionCodec}. Segments written
+ * as JSON lines by older versions stay readable; an old active segment is converted
+ * when the user's history is first opened.
+ *
+ * Appends are buffered in memory and visible to queries right away; {@link #flush()}
+ * writes and syncs them. Queries return pages, newest first. The cursor of a page is
+ * the position of the next older record, which stays valid when segments are sealed.
+ *
+ * Clean Code: Single Responsibility - only stores and queries transactions
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+public class TransactionStore {
+    public static final int DEFAULT_SEGMENT_SIZE = 4096;
+
+    private static final int MAX_OPEN_LOGS = 10_000;
+    private static final String ACTIVE_FILE = "active.bin";
+    private static final String SEGMENT_PREFIX = "seg-";
+    private static final String SEGMENT_SUFFIX = ".bin";
+    private static final String LEGACY_ACTIVE_FILE = "active.jsonl";
+    private static final String LEGACY_SEGMENT_SUFFIX = ".jsonl";
+    private static final String SYMBOL_FILE = "symbols.txt";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final TransactionCodec codec;
+    private final TransactionTypeAdapter legacyAdapter;
+    private final Object bufferLock = new Object();
+    private final Object ioLock = new Object();
+    private Map<String, List<Transaction>> buffered; // guarded by bufferLock, userId -> records not written yet
+    private final Map<String, UserLog> logs;         // guarded by ioLock, least recently used first
+
+    /**
+     * Creates a store with the default segment size.
+     *
+     * @param directory The directory that holds the user directories
+     */
+    public TransactionStore(Path directory) {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Creates a store.
+     *
+     * @param directory The directory that holds the user directories
+     * @param segmentSize Number of records per segment file
+     */
+    public TransactionStore(Path directory, int segmentSize) {
+        if (segmentSize <= 0) {
+            throw new IllegalArgumentException("Segment size must be positive");
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.codec = new TransactionCodec(directory.resolve(SYMBOL_FILE));
+        this.legacyAdapter = new TransactionTypeAdapter();
+        this.buffered = new LinkedHashMap<>();
+        this.logs = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, UserLog> eldest) {
+                return size() > MAX_OPEN_LOGS; // logs hold no unwritten data, so eviction is safe
+            }
+        };
+    }
+
+    /**
+     * Appends transactions to a user's history. They are buffered until the next {@link #flush()}.
+     *
+     * @param userId The user
+     * @param transactions The new transactions, oldest first
+     */
+    public void append(String userId, List<Transaction> transactions) {
+        validateUserId(userId);
+        if (transactions == null || transactions.isEmpty()) {
+            return;
+        }
+        synchronized (bufferLock) {
+            buffered.computeIfAbsent(userId, key -> new ArrayList<>()).addAll(transactions);
+        }
+    }
+
+    /**
+     * Writes all buffered transactions to their segments and syncs them to disk.
+     * Transactions that could not be written stay buffered for the next flush.
+     *
+     * @throws IOException if a user's segment cannot be written
+     */
+    public void flush() throws IOException {
+        synchronized (ioLock) {
+            Map<String, List<Transaction>> batch;
+            synchronized (bufferLock) {
+                if (buffered.isEmpty()) {
+                    return;
+                }
+                batch = buffered;
+                buffered = new LinkedHashMap<>();
+            }
+
+            IOException failure = null;
+            for (Map.Entry<String, List<Transaction>> entry : batch.entrySet()) {
+                try {
+                    logFor(entry.getKey()).write(entry.getValue());
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+
+            if (failure != null) {
+                requeue(batch);
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * Adds transactions that are not stored yet, e.g. a history read from an old users.json.
+     * Transactions are matched by ID, so migrating the same history twice stores it once.
+     *
+     * @param userId The user
+     * @param transactions The transactions, in any order
+     * @throws IOException if the history cannot be read or written
+     */
+    public void migrate(String userId, List<Transaction> transactions) throws IOException {
+        validateUserId(userId);
+        synchronized (ioLock) {
+            UserLog log = logFor(userId);
+            Set<String> storedIds = log.readTransactionIds();
+
+            List<Transaction> missing = new ArrayList<>();
+            for (Transaction transaction : transactions) {
+                if (storedIds.add(transaction.getTransactionId())) {
+                    missing.add(transaction);
+                }
+            }
+            missing.sort(Comparator.comparing(Transaction::getTimestamp,
+                    Comparator.nullsFirst(Comparator.naturalOrder())));
+            log.write(missing);
+        }
+    }
+
+    /**
+     * Counts a user's transactions, including buffered ones.
+     *
+     * @param userId The user
+     * @return The number of transactions
+     */
+    public long count(String userId) {
+        validateUserId(userId);
+        synchronized (ioLock) {
+            long stored;
+            try {
+                stored = logFor(userId).size();
+            } catch (IOException e) {
+                System.err.println("Error reading transactions of " + userId + ": " + e.getMessage());
+                stored = 0;
+            }
+            return stored + bufferedOf(userId).size();
+        }
+    }
+
+    /**
+     * Reads one page of a user's transactions, newest first.
+     *
+     * @param userId The user
+     * @param query The filters, page size and cursor
+     * @return The page
+     * @throws IOException if a segment cannot be read
+     */
+    public TransactionPage query(String userId, TransactionQuery query) throws IOException {
+        validateUserId(userId);
+        if (query == null) {
+            throw new IllegalArgumentException("Query cannot be null");
+        }
+
+        int symbolId = SymbolRegistry.UNKNOWN;
+        if (query.getSymbol() != null) {
+            symbolId = SymbolRegistry.getInstance().find(query.getSymbol());
+            if (symbolId == SymbolRegistry.UNKNOWN) {
+                return new TransactionPage(new ArrayList<>(), null); // never traded
+            }
+        }
+
+        synchronized (ioLock) {
+            UserLog log = logFor(userId);
+            List<Transaction> pending = bufferedOf(userId);
+            long total = log.size() + pending.size();
+            long position = query.getCursor() == null ? total - 1 : Math.min(parseCursor(query.getCursor()), total - 1);
+
+            List<Transaction> results = new ArrayList<>();
+            while (position >= 0) {
+                Segment segment = log.segmentAt(position);
+                List<Transaction> records;
+                long start;
+                if (segment == null) {
+                    // The active segment followed by the buffered records
+                    records = log.readActive();
+                    records.addAll(pending);
+                    start = log.sealedSize;
+                } else if (!segment.overlaps(query.getFrom(), query.getTo())) {
+                    position = segment.start - 1;
+                    continue;
+                } else {
+                    records = readSegment(segment.path);
+                    start = segment.start;
+                }
+
+                for (int i = (int) (position - start); i >= 0; i--) {
+                    if (results.size() == query.getPageSize()) {
+                        return new TransactionPage(results, Long.toString(start + i));
+                    }
+                    Transaction transaction = records.get(i);
+                    if (matches(transaction, query, symbolId)) {
+                        results.add(transaction);
+                    }
+                }
+                position = start - 1;
+            }
+            return new TransactionPage(results, null);
+        }
+    }
+
+    private static boolean matches(Transaction transaction, TransactionQuery query, int symbolId) {
+        if (symbolId != SymbolRegistry.UNKNOWN && transaction.getSymbolId() != symbolId) {
+            return false;
+        }
+        LocalDateTime timestamp = transaction.getTimestamp();
+        if (query.getFrom() != null && (timestamp == null || timestamp.isBefore(query.getFrom()))) {
+            return false;
+        }
+        return query.getTo() == null || (timestamp != null && timestamp.isBefore(query.getTo()));
+    }
+
+    private static long parseCursor(String cursor) {
+        try {
+            return Long.parseLong(cursor);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+    }
+
+    private List<Transaction> bufferedOf(String userId) {
+        synchronized (bufferLock) {
+            List<Transaction> pending = buffered.get(userId);
+            return pending != null ? new ArrayList<>(pending) : new ArrayList<>();
+        }
+    }
+
+    /**
+     * Puts the unwritten rest of a failed flush back in front of the newer buffered records.
+     */
+    private void requeue(Map<String, List<Transaction>> batch) {
+        synchronized (bufferLock) {
+            Map<String, List<Transaction>> merged = new LinkedHashMap<>();
+            for (Map.Entry<String, List<Transaction>> entry : batch.entrySet()) {
+                if (!entry.getValue().isEmpty()) {
+                    merged.put(entry.getKey(), entry.getValue());
+                }
+            }
+            for (Map.Entry<String, List<Transaction>> entry : buffered.entrySet()) {
+                merged.computeIfAbsent(entry.getKey(), key -> new ArrayList<>()).addAll(entry.getValue());
+            }
+            buffered = merged;
+        }
+    }
+
+    private UserLog logFor(String userId) throws IOException {
+        UserLog log = logs.get(userId);
+        if (log == null) {
+            log = new UserLog(userDirectory(userId));
+            logs.put(userId, log);
+        }
+        return log;
+    }
+
+    /**
+     * Spreads the user directories over subdirectories, so no single directory gets huge.
+     */
+    private Path userDirectory(String userId) {
+        return directory.resolve(userId.substring(0, Math.min(2, userId.length()))).resolve(userId);
+    }
+
+    private static void validateUserId(String userId) {
+        if (userId == null || userId.isEmpty() || userId.contains("/") || userId.contains("\\")
+                || userId.startsWith(".")) {
+            throw new IllegalArgumentException("Invalid user ID: " + userId);
+        }
+    }
+
+    private List<Transaction> readSegment(Path path) throws IOException {
+        if (path.getFileName().toString().endsWith(LEGACY_SEGMENT_SUFFIX)) {
+            return readJsonSegment(path, false);
+        }
+        List<Transaction> records = new ArrayList<>();
+        codec.decodeAll(Files.readAllBytes(path), records);
+        return records;
+    }
+
+    /**
+     * Reads a segment written as JSON lines by an older version.
+     *
+     * @param stopAtTornRecord Whether a record that cannot be read ends the segment
+     *                         instead of failing (for a torn active segment)
+     */
+    private List<Transaction> readJsonSegment(Path path, boolean stopAtTornRecord) throws IOException {
+        List<Transaction> records = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                try {
+                    records.add(legacyAdapter.fromJson(line));
+                } catch (IOException | RuntimeException e) {
+                    if (!stopAtTornRecord) {
+                        throw new IOException("Invalid transaction record in " + path + ": " + e.getMessage(), e);
+                    }
+                    System.err.println("Skipping a torn transaction record in " + path);
+                    break;
+                }
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Appends records to a segment file and syncs it. A new file starts with the header.
+     */
+    private void appendRecords(Path path, List<Transaction> records) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(records.size() * 40 + TransactionCodec.HEADER_LENGTH);
+        DataOutputStream data = new DataOutputStream(buffer);
+        if (!Files.exists(path) || Files.size(path) == 0) {
+            TransactionCodec.writeHeader(data);
+        }
+        for (Transaction transaction : records) {
+            codec.encode(transaction, data);
+        }
+
+        try (FileOutputStream output = new FileOutputStream(path.toFile(), true)) {
+            buffer.writeTo(output);
+            output.getFD().sync();
+        }
+    }
+
+    private static long toEpochMillis(LocalDateTime timestamp) {
+        return timestamp == null ? 0 : timestamp.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    /**
+     * A sealed segment file.
+     */
+    private static final class Segment {
+        private final Path path;
+        private final long start; // position of the first record
+        private final long minMillis;
+        private final long maxMillis;
+
+        private Segment(Path path, long start, long minMillis, long maxMillis) {
+            this.path = path;
+            this.start = start;
+            this.minMillis = minMillis;
+            this.maxMillis = maxMillis;
+        }
+
+        private boolean overlaps(LocalDateTime from, LocalDateTime to) {
+            return (from == null || maxMillis >= toEpochMillis(from))
+                    && (to == null || minMillis < toEpochMillis(to));
+        }
+    }
+
+    /**
+     * The segments of one user: sealed segments plus the active segment.
+     * Only metadata is kept in memory; records are read from the files on demand.
+     */
+    private final class UserLog {
+        private final Path userDirectory;
+        private final Path activePath;
+        private final List<Segment> sealed = new ArrayList<>();
+        private long sealedSize;
+        private int activeCount;
+        private long activeMin = Long.MAX_VALUE;
+        private long activeMax = Long.MIN_VALUE;
+
+        private UserLog(Path userDirectory) throws IOException {
+            this.userDirectory = userDirectory;
+            this.activePath = userDirectory.resolve(ACTIVE_FILE);
+            if (Files.isDirectory(userDirectory)) {
+                loadSealed();
+                loadActive();
+                if (activeCount >= segmentSize) {
+                    seal(); // crashed between filling and sealing the segment
+                }
+            }
+        }
+
+        private long size() {
+            return sealedSize + activeCount;
+        }
+
+        /**
+         * Finds the sealed segment of a position.
+         *
+         * @return The segment, or null if the position is in the active segment
+         */
+        private Segment segmentAt(long position) {
+            if (position >= sealedSize) {
+                return null;
+            }
+            int low = 0;
+            int high = sealed.size() - 1;
+            while (low < high) {
+                int middle = (low + high + 1) >>> 1;
+                if (sealed.get(middle).start <= position) {
+                    low = middle;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return sealed.get(low);
+        }
+
+        /**
+         * Appends records to the active segment and seals it whenever it is full.
+         * Written records are removed from the list, so a failed write can be retried with the rest.
+         */
+        private void write(List<Transaction> records) throws IOException {
+            while (!records.isEmpty()) {
+                if (activeCount >= segmentSize) {
+                    seal();
+                }
+                List<Transaction> chunk = records.subList(0, Math.min(segmentSize - activeCount, records.size()));
+
+                Files.createDirectories(userDirectory);
+                appendRecords(activePath, chunk);
+
+                for (Transaction transaction : chunk) {
+                    long millis = toEpochMillis(transaction.getTimestamp());
+                    activeMin = Math.min(activeMin, millis);
+                    activeMax = Math.max(activeMax, millis);
+                }
+                activeCount += chunk.size();
+                chunk.clear();
+            }
+            if (activeCount >= segmentSize) {
+                seal();
+            }
+        }
+
+        /**
+         * Renames the full active segment to a sealed segment.
+         */
+        private void seal() throws IOException {
+            Path sealedPath = userDirectory.resolve(String.format("%s%d-%d-%d-%d%s",
+                    SEGMENT_PREFIX, sealed.size(), activeMin, activeMax, activeCount, SEGMENT_SUFFIX));
+            Files.move(activePath, sealedPath, StandardCopyOption.ATOMIC_MOVE);
+
+            sealed.add(new Segment(sealedPath, sealedSize, activeMin, activeMax));
+            sealedSize += activeCount;
+            activeCount = 0;
+            activeMin = Long.MAX_VALUE;
+            activeMax = Long.MIN_VALUE;
+        }
+
+        private List<Transaction> readActive() throws IOException {
+            return Files.exists(activePath) ? readSegment(activePath) : new ArrayList<>();
+        }
+
+        private Set<String> readTransactionIds() throws IOException {
+            Set<String> ids = new HashSet<>();
+            for (Segment segment : sealed) {
+                for (Transaction transaction : readSegment(segment.path)) {
+                    ids.add(transaction.getTransactionId());
+                }
+            }
+            for (Transaction transaction : readActive()) {
+                ids.add(transaction.getTransactionId());
+            }
+            return ids;
+        }
+
+        /**
+         * Reads the sealed segment metadata from the file names.
+         */
+        private void loadSealed() throws IOException {
+            List<Path> files = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(userDirectory, SEGMENT_PREFIX + "*")) {
+                for (Path file : stream) {
+                    if (segmentFields(file) != null) {
+                        files.add(file);
+                    } else {
+                        System.err.println("Ignoring unknown transaction segment: " + file);
+                    }
+                }
+            }
+            files.sort(Comparator.comparingLong(file -> Long.parseLong(segmentFields(file)[0])));
+
+            for (Path file : files) {
+                String[] fields = segmentFields(file);
+                sealed.add(new Segment(file, sealedSize, Long.parseLong(fields[1]), Long.parseLong(fields[2])));
+                sealedSize += Integer.parseInt(fields[3]);
+            }
+        }
+
+        /**
+         * Splits a sealed segment name into sequence number, time range and record count.
+         *
+         * @return The four fields, or null if the name is not a segment name
+         */
+        private String[] segmentFields(Path file) {
+            String name = file.getFileName().toString();
+            String suffix = name.endsWith(SEGMENT_SUFFIX) ? SEGMENT_SUFFIX
+                    : name.endsWith(LEGACY_SEGMENT_SUFFIX) ? LEGACY_SEGMENT_SUFFIX : null;
+            if (suffix == null) {
+                return null;
+            }
+            String[] fields = name.substring(SEGMENT_PREFIX.length(), name.length() - suffix.length()).split("-");
+            return fields.length == 4 ? fields : null;
+        }
+
+        /**
+         * Counts the records of the active segment. A torn last record (crash during
+         * a write) is cut off, so later appends start at a record boundary.
+         */
+        private void loadActive() throws IOException {
+            convertLegacyActive();
+            if (!Files.exists(activePath)) {
+                return;
+            }
+
+            byte[] content = Files.readAllBytes(activePath);
+            ByteBuffer in = ByteBuffer.wrap(content);
+            int validLength = 0;
+            try {
+                TransactionCodec.readHeader(in);
+                validLength = in.position();
+                while (in.hasRemaining()) {
+                    long millis = toEpochMillis(codec.decode(in).getTimestamp());
+                    activeMin = Math.min(activeMin, millis);
+                    activeMax = Math.max(activeMax, millis);
+                    activeCount++;
+                    validLength = in.position();
+                }
+            } catch (EOFException e) {
+                // torn record, cut off below; any other error is real corruption and is thrown
+            }
+
+            if (validLength < content.length) {
+                System.err.println("Cutting off a torn transaction record in " + activePath);
+                try (FileChannel channel = FileChannel.open(activePath, StandardOpenOption.WRITE)) {
+                    channel.truncate(validLength);
+                    channel.force(true);
+                }
+            }
+        }
+
+        /**
+         * Rewrites an active segment of JSON lines in the binary format. The new segment is
+         * moved into place before the old one is deleted, so a crash in between only repeats
+         * the conversion.
+         */
+        private void convertLegacyActive() throws IOException {
+            Path legacyPath = userDirectory.resolve(LEGACY_ACTIVE_FILE);
+            if (!Files.exists(legacyPath)) {
+                return;
+            }
+
+            List<Transaction> records = readJsonSegment(legacyPath, true);
+            Path tempPath = userDirectory.resolve(ACTIVE_FILE + ".tmp");
+            Files.deleteIfExists(tempPath);
+            appendRecords(tempPath, records);
+            Files.move(tempPath, activePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.delete(legacyPath);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package ch.bbw.m320.stocktrading.repository;
+
+import ch.bbw.m320.stocktrading.model.BuyTransaction;
+import ch.bbw.m320.stocktrading.model.Money;
+import ch.bbw.m320.stocktrading.model.SellTransaction;
+import ch.bbw.m320.stocktrading.model.Transaction;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Streaming Gson adapter for {@link Transaction} and its subclasses.
+ * Writes the flat format with a "type" field.
+ * Reads both the flat format and the older wrapper format
+ * ({"transactionClass": "...BuyTransaction", "data": {...}}) without Class.forName.
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+public class TransactionTypeAdapter extends TypeAdapter<Transaction> {
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
+
+    private static final String CLASS_TYPE = "transactionClass";
+    private static final String DATA = "data";
+    private static final String TRANSACTION_ID = "transactionId";
+    private static final String STOCK_SYMBOL = "stockSymbol";
+    private static final String QUANTITY = "quantity";
+    private static final String PRICE_PER_SHARE = "pricePerShare";
+    private static final String TIMESTAMP = "timestamp";
+    private static final String TYPE = "type";
+
+    @Override
+    public void write(JsonWriter out, Transaction transaction) throws IOException {
+        if (transaction == null) {
+            out.nullValue();
+            return;
+        }
+
+        out.beginObject();
+        out.name(TRANSACTION_ID).value(transaction.getTransactionId());
+        out.name(STOCK_SYMBOL).value(transaction.getStockSymbol());
+        out.name(QUANTITY).value(transaction.getQuantity());
+        out.name(PRICE_PER_SHARE).value(transaction.getPricePerShare().toBigDecimal());
+        out.name(TIMESTAMP).value(transaction.getTimestamp() != null
+                ? transaction.getTimestamp().format(FORMATTER) : null);
+        out.name(TYPE).value(transaction.getType().name());
+        out.endObject();
+    }
+
+    @Override
+    public Transaction read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return readFields(in, new Fields()).toTransaction();
+    }
+
+    /**
+     * Reads the fields of one transaction object.
+     * Recurses once into "data" for the wrapper format.
+     */
+    private Fields readFields(JsonReader in, Fields fields) throws IOException {
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                continue;
+            }
+            switch (name) {
+                case CLASS_TYPE -> fields.type = typeOfClass(in.nextString());
+                case DATA -> readFields(in, fields);
+                case TRANSACTION_ID -> fields.transactionId = in.nextString();
+                case STOCK_SYMBOL -> fields.stockSymbol = in.nextString();
+                case QUANTITY -> fields.quantity = in.nextInt();
+                case PRICE_PER_SHARE -> fields.pricePerShare = new BigDecimal(in.nextString());
+                case TIMESTAMP -> fields.timestamp = LocalDateTime.parse(in.nextString(), FORMATTER);
+                case TYPE -> {
+                    String type = in.nextString();
+                    if (fields.type == null) {
+                        fields.type = typeOfName(type);
+                    }
+                }
+                default -> in.skipValue();
+            }
+        }
+        in.endObject();
+        return fields;
+    }
+
+    private static Transaction.TransactionType typeOfClass(String className) {
+        if (className.equals(BuyTransaction.class.getName())) {
+            return Transaction.TransactionType.BUY;
+        }
+        if (className.equals(SellTransaction.class.getName())) {
+            return Transaction.TransactionType.SELL;
+        }
+        throw new JsonParseException("Unknown transaction class: " + className);
+    }
+
+    private static Transaction.TransactionType typeOfName(String type) {
+        if ("BUY".equalsIgnoreCase(type)) {
+            return Transaction.TransactionType.BUY;
+        }
+        if ("SELL".equalsIgnoreCase(type)) {
+            return Transaction.TransactionType.SELL;
+        }
+        throw new JsonParseException("Unknown transaction type: " + type);
+    }
+
+    /**
+     * Collects the fields of a transaction while reading, in whatever order they appear.
+     */
+    private static class Fields {
+        private Transaction.TransactionType type;
+        private String transactionId;
+        private String stockSymbol;
+        private int quantity;
+        private BigDecimal pricePerShare;
+        private LocalDateTime timestamp;
+
+        private Transaction toTransaction() {
+            if (type == null) {
+                throw new JsonParseException("Transaction JSON missing both 'transactionClass' and 'type' fields");
+            }
+            try {
+                Money price = Money.of(pricePerShare);
+                return type == Transaction.TransactionType.BUY
+                        ? new BuyTransaction(transactionId, stockSymbol, quantity, price, timestamp)
+                        : new SellTransaction(transactionId, stockSymbol, quantity, price, timestamp);
+            } catch (IllegalArgumentException | ArithmeticException e) {
+                throw new JsonParseException("Invalid transaction: " + e.getMessage(), e);
+            }
+        }
+    }
+}
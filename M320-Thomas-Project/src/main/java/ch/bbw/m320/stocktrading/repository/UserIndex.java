@@ -0,0 +1,246 @@
+package ch.bbw.m320.stocktrading.repository;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32C;
+
+/**
+ * Startup index of the users.json snapshot: for every user the hash of the normalized
+ * username and the position of the user's entry in the snapshot.
+ *
+ * With the index the repository finds a user without parsing the snapshot; it reads only
+ * the entry at the indexed position. The entries are kept in three primitive arrays
+ * (20 bytes per user), sorted by hash. Two usernames can share a hash, so a lookup
+ * returns every candidate and the caller compares the username of the entry it read.
+ *
+ * The index records the size, modification time and file key of the snapshot it was
+ * written for. If users.json was replaced since, the index does not match and is not used.
+ *
+ * Layout (big-endian):
+ * <pre>
+ *   header   magic "UIDX", version, snapshot identity (2 byte length + UTF-8), entry count
+ *   entries  per user, sorted by hash: username hash (8 bytes), offset (8 bytes), length (4 bytes)
+ *   trailer  CRC32C of header and entries
+ * </pre>
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+public final class UserIndex {
+    private static final int MAGIC = 0x55494458; // "UIDX"
+    private static final int VERSION = 1;
+    private static final int ENTRY_SIZE = 20;
+
+    private final long[] hashes;
+    private final long[] offsets;
+    private final int[] lengths;
+
+    private UserIndex(long[] hashes, long[] offsets, int[] lengths) {
+        this.hashes = hashes;
+        this.offsets = offsets;
+        this.lengths = lengths;
+    }
+
+    /**
+     * Hashes a normalized username (64-bit FNV-1a over its characters).
+     *
+     * @param normalizedUsername The username as used for lookups
+     * @return The hash
+     */
+    public static long hash(String normalizedUsername) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < normalizedUsername.length(); i++) {
+            hash ^= normalizedUsername.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Reads the index of a snapshot.
+     *
+     * @param indexFile The index file
+     * @param snapshotFile The snapshot the index has to match
+     * @return The index, or null if one of the files is missing or the index belongs to another snapshot
+     * @throws IOException if the index cannot be read or is corrupt
+     */
+    public static UserIndex read(Path indexFile, Path snapshotFile) throws IOException {
+        if (!Files.exists(indexFile) || !Files.exists(snapshotFile)) {
+            return null;
+        }
+        ByteBuffer content = ByteBuffer.wrap(Files.readAllBytes(indexFile));
+        try {
+            if (content.getInt() != MAGIC || content.getInt() != VERSION) {
+                throw new IOException("Not a user index (version " + VERSION + ")");
+            }
+            byte[] identity = new byte[content.getShort() & 0xFFFF];
+            content.get(identity);
+            int count = content.getInt();
+            if (count < 0 || count != (content.remaining() - Integer.BYTES) / ENTRY_SIZE) {
+                throw new IOException("User index size does not match its entry count");
+            }
+
+            long[] hashes = new long[count];
+            long[] offsets = new long[count];
+            int[] lengths = new int[count];
+            for (int i = 0; i < count; i++) {
+                hashes[i] = content.getLong();
+                offsets[i] = content.getLong();
+                lengths[i] = content.getInt();
+            }
+            int checkedLength = content.position();
+            if (content.getInt() != checksum(content.array(), checkedLength)) {
+                throw new IOException("User index checksum mismatch");
+            }
+
+            if (!new String(identity, StandardCharsets.UTF_8).equals(identityOf(snapshotFile))) {
+                return null; // written for an older users.json
+            }
+            return new UserIndex(hashes, offsets, lengths);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("User index is cut off", e);
+        }
+    }
+
+    /**
+     * Writes the index for a snapshot; call it after the snapshot has its final name.
+     *
+     * @param indexFile The index file, replaced atomically
+     * @param snapshotFile The snapshot the index describes
+     * @throws IOException if the index cannot be written
+     */
+    public void write(Path indexFile, Path snapshotFile) throws IOException {
+        byte[] identity = identityOf(snapshotFile).getBytes(StandardCharsets.UTF_8);
+        ByteBuffer content = ByteBuffer.allocate(
+                14 + identity.length + size() * ENTRY_SIZE + Integer.BYTES);
+        content.putInt(MAGIC).putInt(VERSION).putShort((short) identity.length).put(identity).putInt(size());
+        for (int i = 0; i < size(); i++) {
+            content.putLong(hashes[i]).putLong(offsets[i]).putInt(lengths[i]);
+        }
+        content.putInt(checksum(content.array(), content.position()));
+
+        Path tempFile = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        try (FileOutputStream output = new FileOutputStream(tempFile.toFile())) {
+            output.write(content.array());
+            output.getFD().sync();
+        }
+        Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Gets the number of indexed users.
+     *
+     * @return The number of entries
+     */
+    public int size() {
+        return hashes.length;
+    }
+
+    /**
+     * Finds the first entry with a hash; the other candidates follow it.
+     *
+     * @param hash The username hash
+     * @return The slot of the first entry with this hash, or -1 if there is none
+     */
+    public int find(long hash) {
+        int low = 0;
+        int high = hashes.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (hashes[middle] < hash) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low < hashes.length && hashes[low] == hash ? low : -1;
+    }
+
+    public long hashAt(int slot) {
+        return hashes[slot];
+    }
+
+    public long offsetAt(int slot) {
+        return offsets[slot];
+    }
+
+    public int lengthAt(int slot) {
+        return lengths[slot];
+    }
+
+    private static String identityOf(Path snapshotFile) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(snapshotFile, BasicFileAttributes.class);
+        return attributes.size() + "/" + attributes.lastModifiedTime().toMillis() + "/" + attributes.fileKey();
+    }
+
+    private static int checksum(byte[] bytes, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(bytes, 0, length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Collects the entries while a snapshot is written.
+     */
+    public static final class Builder {
+        private long[] hashes = new long[1024];
+        private long[] offsets = new long[1024];
+        private int[] lengths = new int[1024];
+        private int count;
+
+        /**
+         * Adds the entry of one user.
+         *
+         * @param hash The hash of the normalized username
+         * @param offset The byte offset of the entry in the snapshot
+         * @param length The length of the entry in bytes
+         */
+        public void add(long hash, long offset, int length) {
+            if (count == hashes.length) {
+                hashes = Arrays.copyOf(hashes, count * 2);
+                offsets = Arrays.copyOf(offsets, count * 2);
+                lengths = Arrays.copyOf(lengths, count * 2);
+            }
+            hashes[count] = hash;
+            offsets[count] = offset;
+            lengths[count] = length;
+            count++;
+        }
+
+        /**
+         * Gets the number of entries added so far.
+         *
+         * @return The number of entries
+         */
+        public int size() {
+            return count;
+        }
+
+        /**
+         * Sorts the entries by hash.
+         *
+         * @return The index
+         */
+        public UserIndex build() {
+            long[] sortedHashes = new long[count];
+            long[] sortedOffsets = new long[count];
+            int[] sortedLengths = new int[count];
+            int[] order = IntStream.range(0, count).boxed()
+                    .sorted(Comparator.comparingLong(i -> hashes[i]))
+                    .mapToInt(Integer::intValue).toArray();
+            for (int i = 0; i < count; i++) {
+                sortedHashes[i] = hashes[order[i]];
+                sortedOffsets[i] = offsets[order[i]];
+                sortedLengths[i] = lengths[order[i]];
+            }
+            return new UserIndex(sortedHashes, sortedOffsets, sortedLengths);
+        }
+    }
+}
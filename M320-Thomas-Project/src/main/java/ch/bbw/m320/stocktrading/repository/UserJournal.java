@@ -0,0 +1,244 @@
+package ch.bbw.m320.stocktrading.repository;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSyntaxException;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * Append-only write-ahead journal for user changes.
+ * Each line is one compact JSON record describing a single change
+ * (new user, balance, holding or transaction).
+ *
+ * A record only counts once its line is terminated. A crash during an append leaves a torn
+ * last line; {@link #replay(Consumer)} cuts it off (or terminates it if the record happens to be
+ * complete), so the next append starts on a fresh line instead of being glued to the fragment.
+ *
+ * Clean Code: Single Responsibility - only appends, replays and truncates journal records
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+public class UserJournal implements Closeable {
+    private final Path journalPath;
+    private FileOutputStream output;
+    private Writer writer;
+    private volatile int recordCount; // read by the compactor without a lock
+
+    /**
+     * Creates a journal backed by the given file.
+     *
+     * @param journalPath The journal file (created on first append)
+     */
+    public UserJournal(Path journalPath) {
+        this.journalPath = journalPath;
+    }
+
+    /**
+     * Appends one record to the journal.
+     * The record is only buffered; call {@link #flush()} to hand it to the OS.
+     *
+     * @param record The record to append
+     * @throws IOException if the journal cannot be written
+     */
+    public void append(JsonObject record) throws IOException {
+        if (writer == null) {
+            open();
+        }
+        writer.write(record.toString());
+        writer.write('\n');
+        recordCount++;
+    }
+
+    /**
+     * Opens the journal for appending. If the file does not end with a newline, e.g. because an
+     * earlier write failed halfway, the fragment is terminated so it cannot swallow the next record.
+     */
+    private void open() throws IOException {
+        boolean terminate = false;
+        if (Files.exists(journalPath) && Files.size(journalPath) > 0) {
+            try (FileChannel channel = FileChannel.open(journalPath, StandardOpenOption.READ)) {
+                ByteBuffer last = ByteBuffer.allocate(1);
+                channel.read(last, channel.size() - 1);
+                terminate = last.get(0) != '\n';
+            }
+        }
+        output = new FileOutputStream(journalPath.toFile(), true);
+        writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+        if (terminate) {
+            writer.write('\n');
+        }
+    }
+
+    /**
+     * Flushes buffered records to the journal file.
+     *
+     * @throws IOException if the journal cannot be written
+     */
+    public void flush() throws IOException {
+        if (writer != null) {
+            writer.flush();
+        }
+    }
+
+    /**
+     * Flushes buffered records and forces them to the storage device (fsync).
+     *
+     * @throws IOException if the journal cannot be written
+     */
+    public void sync() throws IOException {
+        if (writer != null) {
+            writer.flush();
+            output.getFD().sync();
+        }
+    }
+
+    /**
+     * Replays every record of the journal in order.
+     * An unterminated last line (crash during append) is replayed if it is a complete record
+     * and then terminated; otherwise it is cut off the file.
+     *
+     * @param consumer Callback receiving each record
+     * @return The number of records replayed
+     * @throws IOException if the journal cannot be read or repaired
+     */
+    public int replay(Consumer<JsonObject> consumer) throws IOException {
+        if (!Files.exists(journalPath)) {
+            return 0;
+        }
+
+        int replayed = 0;
+        long position = 0;
+        long completeLength = 0; // end of the last terminated line
+        boolean tailReplayed = false;
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(journalPath), 1 << 16)) {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int b;
+            while ((b = in.read()) != -1) {
+                position++;
+                if (b != '\n') {
+                    line.write(b);
+                    continue;
+                }
+                completeLength = position;
+                if (replayLine(line.toString(StandardCharsets.UTF_8), consumer, false)) {
+                    replayed++;
+                }
+                line.reset();
+            }
+            if (line.size() > 0 && replayLine(line.toString(StandardCharsets.UTF_8), consumer, true)) {
+                replayed++;
+                tailReplayed = true;
+            }
+        }
+
+        if (position > completeLength) {
+            repairTail(tailReplayed ? -1 : completeLength);
+        }
+        recordCount = replayed;
+        return replayed;
+    }
+
+    /**
+     * Replays one line.
+     *
+     * @param torn true for an unterminated last line, which is expected to be unreadable
+     * @return true if the line was a record
+     */
+    private static boolean replayLine(String line, Consumer<JsonObject> consumer, boolean torn) {
+        if (line.isBlank()) {
+            return false;
+        }
+        JsonObject record;
+        try {
+            record = JsonParser.parseString(line).getAsJsonObject();
+        } catch (JsonSyntaxException | IllegalStateException e) {
+            if (!torn) {
+                System.err.println("Skipping unreadable journal record: " + e.getMessage());
+            }
+            return false;
+        }
+        consumer.accept(record);
+        return true;
+    }
+
+    /**
+     * Terminates a complete last record, or cuts off a torn one.
+     *
+     * @param length The length to cut the file to, or -1 to append the missing newline
+     */
+    private void repairTail(long length) throws IOException {
+        try (FileChannel channel = FileChannel.open(journalPath, StandardOpenOption.WRITE)) {
+            if (length < 0) {
+                channel.write(ByteBuffer.wrap(new byte[] {'\n'}), channel.size());
+            } else {
+                System.err.println("Discarding torn journal record (" + (channel.size() - length) + " bytes)");
+                channel.truncate(length);
+            }
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Discards all records. Called after the records were folded into a snapshot.
+     *
+     * @throws IOException if the journal cannot be truncated
+     */
+    public void truncate() throws IOException {
+        close();
+        Files.deleteIfExists(journalPath);
+        recordCount = 0;
+    }
+
+    /**
+     * Gets the number of records written since the last truncation.
+     *
+     * @return The record count
+     */
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Closes the journal file without writing the records that are still buffered,
+     * e.g. after a failed append or sync. Records that already reached the file stay there;
+     * the next append reopens the file and terminates a torn last line first.
+     *
+     * @throws IOException if the file cannot be closed
+     */
+    public void discard() throws IOException {
+        if (output != null) {
+            try {
+                output.close(); // closes the file under the writer, whose buffer is dropped unwritten
+            } finally {
+                writer = null;
+                output = null;
+            }
+        }
+    }
+
+    /**
+     * Closes the journal file after writing the buffered records.
+     *
+     * @throws IOException if buffered records cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (writer != null) {
+            try {
+                writer.close();
+            } finally {
+                writer = null;
+                output = null;
+            }
+        }
+    }
+}
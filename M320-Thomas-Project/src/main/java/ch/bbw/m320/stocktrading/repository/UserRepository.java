@@ -1,22 +1,39 @@
 package ch.bbw.m320.stocktrading.repository;
 
-import ch.bbw.m320.stocktrading.model.BuyTransaction;
-import ch.bbw.m320.stocktrading.model.SellTransaction;
+import ch.bbw.m320.stocktrading.model.Money;
+import ch.bbw.m320.stocktrading.model.Portfolio;
 import ch.bbw.m320.stocktrading.model.Transaction;
 import ch.bbw.m320.stocktrading.model.User;
-import com.google.gson.*;
-import com.google.gson.reflect.TypeToken;
+import ch.bbw.m320.stocktrading.model.UserLocks;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
 
 import java.io.*;
-import java.lang.reflect.Type;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Optional;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
 
 /**
  * Repository for persisting user data to JSON files.
@@ -24,34 +41,148 @@ import java.util.Optional;
  * Reason: Separates data access logic from business logic.
  * Provides a clean interface for data operations and makes it easy to change storage mechanism.
  *
+ * Journal mode: instead of rewriting users.json on every save, only the changes
+ * (new user, balance, holding) are appended to users.journal.
+ * A background compactor periodically folds the journal into the users.json snapshot.
+ *
+ * Write-behind: in journal mode save() only computes the change records and enqueues them.
+ * A background thread coalesces the records per user and appends them in group commits,
+ * followed by a single fsync, so trade latency does not depend on the disk.
+ * Use {@link #saveDurably(User)} when the change must be on disk before returning.
+ * Journal records hold absolute values, so replaying a record twice is harmless.
+ *
+ * Transaction histories live in a {@link TransactionStore} under data/transactions.
+ * A save moves the user's new transactions there; every group commit flushes them.
+ * Histories embedded in an older users.json are migrated into the store on startup.
+ *
+ * Lazy loading: unless the repository is created with {@link #LOAD_ALL}, startup reads only
+ * the {@link UserIndex} of users.json (username hash -> position of the user's entry) and
+ * keeps the journal records since the snapshot per user. A user is read from the snapshot,
+ * with its journal records applied, when it is first looked up, and stays in an LRU cache
+ * of the given size. A user that drops out of the cache is saved first (write-back). As long
+ * as the application still holds it, e.g. in a session, the same object is returned again,
+ * so there is never a second copy of a user. Compaction copies the entries of users that
+ * are not in memory from the old snapshot unchanged.
+ *
  * Clean Code: Single Responsibility - handles only data persistence for users
  *
  * @author Thomas
  * @version 1.0
  */
 public class UserRepository {
+    public static final int LOAD_ALL = 0;
+    public static final int DEFAULT_CACHE_SIZE = 10_000;
+
     private static final String DATA_DIR = "data";
     private static final String USERS_FILE = "users.json";
+    private static final String INDEX_FILE = "users.idx";
+    private static final String JOURNAL_FILE = "users.journal";
+    private static final String TRANSACTIONS_DIR = "transactions";
+    private static final long COMPACTION_INTERVAL_SECONDS = 30;
+    private static final int COMPACTION_THRESHOLD = 1000;
+    private static final int WRITE_BEHIND_BATCH_SIZE = 256;
+    private static final long WRITE_BEHIND_DELAY_MILLIS = 50;
+
+    // Journal record fields
+    private static final String OP = "op";
+    private static final String USER_ID = "userId";
+    private static final String OP_USER = "USER";
+    private static final String OP_BALANCE = "BALANCE";
+    private static final String OP_HOLDING = "HOLDING";
+    private static final String OP_TRANSACTION = "TX"; // only in journals older than the transaction store
 
-    private final Gson gson;
+    private final UserTypeAdapter userAdapter;
+    private final TransactionTypeAdapter transactionAdapter;
+    private final Path dataDirectory;
     private final Path dataFilePath;
-    private Map<String, User> users;
+    private final Path indexFilePath;
+    private final boolean journalMode;
+    private final UserJournal journal;
+    private final TransactionStore transactionStore;
+    private final Object journalLock;
+    private WriteBehindQueue<String, PendingRecords> writeBehind;
+    private final Map<String, PersistedState> persistedStates;
+    private final Map<String, String> usernameIndex; // normalized username -> userId
+    private ScheduledExecutorService compactor;
+    private final Map<String, User> users; // access order, the eldest is evicted first
+
+    // Lazy loading
+    private int cacheSize;
+    private UserIndex snapshotIndex;
+    private long snapshotGeneration; // counts snapshot replacements, guarded by the repository lock
+    private final Map<String, List<JsonObject>> journalTail; // userId -> records since the snapshot
+    private final Map<String, DetachedUser> detachedUsers;   // evicted, but still referenced elsewhere
+    private final ReferenceQueue<User> collectedUsers;
 
     /**
-     * Creates a new UserRepository.
-     * Initializes the data directory and loads existing users.
+     * Creates a new UserRepository in journal mode with lazy loading.
+     * Initializes the data directory and reads the user index.
      */
     public UserRepository() {
-        this.gson = new GsonBuilder()
-                .setPrettyPrinting()
-                .registerTypeAdapter(LocalDateTime.class, new LocalDateTimeAdapter())
-                .registerTypeAdapter(Transaction.class, new TransactionAdapter())
-                .create();
-        this.dataFilePath = Paths.get(DATA_DIR, USERS_FILE);
-        this.users = new HashMap<>();
+        this(true);
+    }
+
+    /**
+     * Creates a new UserRepository with lazy loading.
+     *
+     * @param journalMode true to append changes to a journal, false to rewrite users.json on every save
+     */
+    public UserRepository(boolean journalMode) {
+        this(journalMode, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * Creates a new UserRepository.
+     *
+     * @param journalMode true to append changes to a journal, false to rewrite users.json on every save
+     * @param cacheSize The number of users kept in memory, or {@link #LOAD_ALL} to load every user at startup
+     * @throws IllegalArgumentException if the cache size is negative
+     */
+    public UserRepository(boolean journalMode, int cacheSize) {
+        this(Paths.get(DATA_DIR), journalMode, cacheSize);
+    }
+
+    /**
+     * Creates a new UserRepository.
+     *
+     * @param dataDirectory The directory that holds the user files
+     * @param journalMode true to append changes to a journal, false to rewrite users.json on every save
+     * @param cacheSize The number of users kept in memory, or {@link #LOAD_ALL} to load every user at startup
+     * @throws IllegalArgumentException if the cache size is negative
+     */
+    public UserRepository(Path dataDirectory, boolean journalMode, int cacheSize) {
+        if (cacheSize < 0) {
+            throw new IllegalArgumentException("Cache size cannot be negative");
+        }
+        this.userAdapter = new UserTypeAdapter();
+        this.transactionAdapter = new TransactionTypeAdapter();
+        this.dataDirectory = dataDirectory;
+        this.dataFilePath = dataDirectory.resolve(USERS_FILE);
+        this.indexFilePath = dataDirectory.resolve(INDEX_FILE);
+        this.journalMode = journalMode;
+        this.journal = new UserJournal(dataDirectory.resolve(JOURNAL_FILE));
+        this.transactionStore = new TransactionStore(dataDirectory.resolve(TRANSACTIONS_DIR));
+        this.journalLock = new Object();
+        this.persistedStates = new HashMap<>();
+        this.usernameIndex = new ConcurrentHashMap<>();
+        this.users = new LinkedHashMap<>(16, 0.75f, true);
+        this.cacheSize = cacheSize;
+        this.journalTail = new HashMap<>();
+        this.detachedUsers = new HashMap<>();
+        this.collectedUsers = new ReferenceQueue<>();
 
         initializeDataDirectory();
-        loadUsers();
+        if (isLazy()) {
+            openIndex();
+        } else {
+            loadUsers();
+        }
+
+        if (journalMode) {
+            writeBehind = new WriteBehindQueue<>("user-write-behind", WRITE_BEHIND_BATCH_SIZE,
+                    WRITE_BEHIND_DELAY_MILLIS, PendingRecords::merge, this::commitRecords);
+            startCompactor();
+        }
     }
 
     /**
@@ -60,9 +191,8 @@ public class UserRepository {
      */
     private void initializeDataDirectory() {
         try {
-            Path dataDir = Paths.get(DATA_DIR);
-            if (!Files.exists(dataDir)) {
-                Files.createDirectories(dataDir);
+            if (!Files.exists(dataDirectory)) {
+                Files.createDirectories(dataDirectory);
             }
         } catch (IOException e) {
             System.err.println("Error creating data directory: " + e.getMessage());
@@ -74,14 +204,133 @@ public class UserRepository {
      * Clean Code: Method does one thing - saves user data
      *
      * @param user The user to save
+     * @throws IllegalArgumentException if another user already has the same username
      */
     public void save(User user) {
+        enqueueSave(user);
+    }
+
+    /**
+     * Saves a user and waits until the change is written and synced to disk.
+     *
+     * @param user The user to save
+     * @throws IllegalArgumentException if another user already has the same username
+     * @throws UncheckedIOException if the change could not be written; it is retried in the background
+     */
+    public void saveDurably(User user) {
+        long ticket = enqueueSave(user);
+        if (writeBehind != null) {
+            writeBehind.awaitCommitted(ticket);
+        }
+    }
+
+    /**
+     * Writes all pending changes, folds the journal into the users.json snapshot
+     * and stops the background threads. Should be called once before the application exits.
+     */
+    public void shutdown() {
+        if (compactor != null) {
+            compactor.shutdown();
+        }
+        if (journalMode) {
+            try {
+                compactNow();
+            } catch (UncheckedIOException e) {
+                // The queue keeps the changes; shutting it down tries them once more
+                System.err.println("Error saving users: " + e.getMessage());
+            }
+            writeBehind.shutdown();
+        }
+        flushTransactions();
+    }
+
+    /**
+     * Reads one page of a user's transaction history, newest first.
+     * Transactions become visible once the user was saved.
+     *
+     * @param user The user
+     * @param query The filters, page size and cursor
+     * @return The page; empty if the history cannot be read
+     */
+    public TransactionPage findTransactions(User user, TransactionQuery query) {
+        if (user == null) {
+            throw new IllegalArgumentException("User cannot be null");
+        }
+        try {
+            return transactionStore.query(user.getUserId(), query);
+        } catch (IOException | JsonParseException e) {
+            System.err.println("Error loading transactions: " + e.getMessage());
+            return new TransactionPage(new ArrayList<>(), null);
+        }
+    }
+
+    /**
+     * Counts the saved transactions of a user.
+     *
+     * @param user The user
+     * @return The number of transactions
+     */
+    public long countTransactions(User user) {
+        if (user == null) {
+            throw new IllegalArgumentException("User cannot be null");
+        }
+        return transactionStore.count(user.getUserId());
+    }
+
+    /**
+     * Updates the in-memory state and schedules the change records of a user.
+     * Holds the user's lock ({@link UserLocks}) while the records are built,
+     * so a trade running at the same time is either fully in them or not at all.
+     *
+     * @return The write-behind ticket, or 0 if the user was written synchronously
+     */
+    private long enqueueSave(User user) {
         if (user == null) {
             throw new IllegalArgumentException("User cannot be null");
         }
 
-        users.put(user.getUserId(), user);
-        persistUsers();
+        // The user's lock first, like a trade that saves while holding it: no lock-order inversion
+        Lock lock = UserLocks.lockFor(user);
+        lock.lock();
+        try {
+            synchronized (this) {
+                expungeCollectedUsers();
+                indexUsername(user);
+                detachedUsers.remove(user.getUserId()); // saved again, so it is back in the cache
+                users.put(user.getUserId(), user);
+                long ticket = writeChanges(user);
+                evictIfNeeded();
+                return ticket;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Moves the new transactions of a user to the store and writes or enqueues its changes.
+     *
+     * @return The write-behind ticket, or 0 if the user was written synchronously
+     */
+    private long writeChanges(User user) {
+        List<Transaction> newTransactions = user.drainPendingTransactions();
+        transactionStore.append(user.getUserId(), newTransactions);
+        if (!journalMode) {
+            flushTransactions();
+            persistUsers();
+            persistedStates.put(user.getUserId(), new PersistedState(user));
+            return 0;
+        }
+
+        PendingRecords records = collectChanges(user);
+        records.transactionsAppended = !newTransactions.isEmpty();
+        persistedStates.put(user.getUserId(), new PersistedState(user));
+        if (isLazy() && !records.records.isEmpty()) {
+            // Kept until the next compaction, so the user can be read back after an eviction
+            journalTail.computeIfAbsent(user.getUserId(), userId -> new ArrayList<>())
+                    .addAll(records.records.values());
+        }
+        return records.isEmpty() ? 0 : writeBehind.enqueue(user.getUserId(), records);
     }
 
     /**
@@ -95,9 +344,14 @@ public class UserRepository {
             return Optional.empty();
         }
 
-        return users.values().stream()
-                .filter(user -> user.getUsername().equalsIgnoreCase(username))
-                .findFirst();
+        String normalizedUsername = normalizeUsername(username);
+        if (isLazy()) {
+            return Optional.ofNullable(loadUser(normalizedUsername));
+        }
+        synchronized (this) {
+            String userId = usernameIndex.get(normalizedUsername);
+            return userId == null ? Optional.empty() : Optional.ofNullable(users.get(userId));
+        }
     }
 
     /**
@@ -107,28 +361,536 @@ public class UserRepository {
      * @return true if user exists
      */
     public boolean existsByUsername(String username) {
-        return findByUsername(username).isPresent();
+        if (username == null) {
+            return false;
+        }
+        String normalizedUsername = normalizeUsername(username);
+        SnapshotFile snapshot;
+        synchronized (this) {
+            if (usernameIndex.containsKey(normalizedUsername)) {
+                return true;
+            }
+            if (!isLazy()) {
+                return false;
+            }
+            try {
+                snapshot = openSnapshot();
+            } catch (IOException e) {
+                System.err.println("Error reading user " + normalizedUsername + ": " + e.getMessage());
+                return false;
+            }
+        }
+        // Users are never deleted, so a user found in an older snapshot still exists
+        try (SnapshotFile file = snapshot) {
+            return file != null && readSnapshotUser(file, normalizedUsername) != null;
+        }
+    }
+
+    /**
+     * Calls an action for every user, e.g. for an end-of-day batch.
+     * Users in memory are passed as they are. In lazy mode the other users are read from
+     * the snapshot and the journal one by one and not cached, so a batch over all users does
+     * not evict the active ones; treat those users as read-only, changes to them are not saved.
+     * The repository is only locked to take a consistent view (the users in memory, the open
+     * snapshot and a copy of the journal records); reading the users and running the action
+     * do not block saves.
+     *
+     * @param action The action, called once per user
+     * @throws IllegalStateException if the snapshot cannot be read
+     */
+    public void forEachUser(Consumer<User> action) {
+        if (action == null) {
+            throw new IllegalArgumentException("Action cannot be null");
+        }
+        if (!isLazy()) {
+            List<User> allUsers;
+            synchronized (this) {
+                allUsers = new ArrayList<>(users.values());
+            }
+            allUsers.forEach(action);
+            return;
+        }
+
+        Map<String, User> liveUsers;
+        Map<String, List<JsonObject>> tail = new HashMap<>();
+        SnapshotFile snapshot;
+        synchronized (this) {
+            expungeCollectedUsers();
+            liveUsers = liveUsers();
+            journalTail.forEach((userId, records) -> tail.put(userId, new ArrayList<>(records)));
+            try {
+                snapshot = openSnapshot();
+            } catch (IOException e) {
+                throw new IllegalStateException("Error reading users: " + e.getMessage(), e);
+            }
+        }
+
+        Set<String> remaining = new LinkedHashSet<>(liveUsers.keySet());
+        remaining.addAll(tail.keySet());
+        try (SnapshotFile file = snapshot) {
+            forEachSnapshotEntry(file, (userId, entry, slot) -> {
+                remaining.remove(userId);
+                User user = liveUsers.containsKey(userId)
+                        ? liveUsers.get(userId)
+                        : applyJournalTail(readEntryUser(entry), tail.get(userId));
+                if (user != null) {
+                    action.accept(user);
+                }
+            });
+        } catch (IOException | JsonParseException e) {
+            // A batch over part of the users would look complete, so fail instead
+            throw new IllegalStateException("Error reading users: " + e.getMessage(), e);
+        }
+
+        // Users created since the snapshot
+        for (String userId : remaining) {
+            User user = liveUsers.containsKey(userId)
+                    ? liveUsers.get(userId)
+                    : applyJournalTail(null, tail.get(userId));
+            if (user != null) {
+                action.accept(user);
+            }
+        }
     }
 
     /**
-     * Persists all users to disk.
+     * Adds the username of a user to the index.
+     * Called with the repository lock held, so the uniqueness check and the insert are one step.
+     * In lazy mode the username index only holds the users read since the last compaction,
+     * so a username it does not know is also looked up in the snapshot.
+     *
+     * @throws IllegalArgumentException if the username belongs to another user
+     */
+    private void indexUsername(User user) {
+        String normalizedUsername = normalizeUsername(user.getUsername());
+        String existingUserId = usernameIndex.get(normalizedUsername);
+        if (existingUserId == null && isLazy()) {
+            User snapshotUser = readSnapshotUser(normalizedUsername);
+            existingUserId = snapshotUser == null ? null : snapshotUser.getUserId();
+        }
+        if (existingUserId != null && !existingUserId.equals(user.getUserId())) {
+            throw new IllegalArgumentException("Username already exists: " + user.getUsername());
+        }
+        usernameIndex.put(normalizedUsername, user.getUserId());
+    }
+
+    /**
+     * Rebuilds the username index from the loaded users.
+     */
+    private void rebuildUsernameIndex() {
+        usernameIndex.clear();
+        for (User user : users.values()) {
+            try {
+                indexUsername(user);
+            } catch (IllegalArgumentException e) {
+                System.err.println("Duplicate username in user data, ignoring: " + user.getUsername());
+            }
+        }
+    }
+
+    /**
+     * Normalizes a username for case-insensitive lookups.
+     */
+    private static String normalizeUsername(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Persists all users to disk, followed by the {@link UserIndex} of the new snapshot.
      * AI-Generated: JSON serialization logic
      * Private method following Clean Code principles.
+     *
+     * @return true if the snapshot was written
      */
-    private void persistUsers() {
-        try (Writer writer = new FileWriter(dataFilePath.toFile())) {
-            gson.toJson(users, writer);
+    private boolean persistUsers() {
+        // Write to a temporary file first so a crash never leaves a half-written snapshot
+        Path tempPath = dataFilePath.resolveSibling(USERS_FILE + ".tmp");
+        Map<String, User> liveUsers = isLazy() ? liveUsers() : users;
+        UserIndex index;
+        try (FileOutputStream output = new FileOutputStream(tempPath.toFile())) {
+            SnapshotWriter writer = new SnapshotWriter(new BufferedOutputStream(output, 1 << 16));
+            if (isLazy()) {
+                writeLazySnapshot(writer, liveUsers);
+            } else {
+                for (User user : users.values()) {
+                    writer.writeUser(user);
+                }
+            }
+            index = writer.finish();
+            output.getFD().sync();
+        } catch (IOException | JsonParseException | IllegalStateException e) {
+            System.err.println("Error saving users: " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        }
+
+        try {
+            Files.move(tempPath, dataFilePath,
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
         } catch (IOException e) {
             System.err.println("Error saving users: " + e.getMessage());
             e.printStackTrace();
+            return false;
+        }
+
+        if (isLazy()) {
+            // Everything is in the new snapshot now
+            snapshotIndex = index;
+            snapshotGeneration++;
+            journalTail.clear();
+            usernameIndex.clear();
+            for (User user : liveUsers.values()) {
+                usernameIndex.put(normalizeUsername(user.getUsername()), user.getUserId());
+            }
+        }
+        try {
+            index.write(indexFilePath, dataFilePath);
+        } catch (IOException e) {
+            // The next lazy start finds no matching index and rebuilds it
+            System.err.println("Error saving user index: " + e.getMessage());
+        }
+        return true;
+    }
+
+    /**
+     * Lazy mode: writes the users in memory and the users with journal records as objects
+     * and copies all other entries of the old snapshot unchanged, in file order.
+     */
+    private void writeLazySnapshot(SnapshotWriter writer, Map<String, User> liveUsers) throws IOException {
+        Set<String> remaining = new LinkedHashSet<>(liveUsers.keySet());
+        remaining.addAll(journalTail.keySet());
+
+        try (SnapshotFile snapshot = openSnapshot()) {
+            forEachSnapshotEntry(snapshot, (userId, entry, slot) -> {
+                if (!remaining.remove(userId)) {
+                    writer.writeEntry(entry, snapshot.index.hashAt(slot));
+                } else if (liveUsers.containsKey(userId)) {
+                    writer.writeUser(liveUsers.get(userId));
+                } else {
+                    writer.writeUser(applyJournalTail(readEntryUser(entry), journalTail.get(userId)));
+                }
+            });
+        }
+
+        // Users created since the snapshot
+        for (String userId : remaining) {
+            User user = liveUsers.containsKey(userId)
+                    ? liveUsers.get(userId)
+                    : applyJournalTail(null, journalTail.get(userId));
+            if (user != null) {
+                writer.writeUser(user);
+            }
         }
     }
 
+    /**
+     * Reads the entries of a snapshot in file order, so the file is read sequentially once.
+     *
+     * @param snapshot The open snapshot, or null if there is none
+     */
+    private static void forEachSnapshotEntry(SnapshotFile snapshot, SnapshotEntryVisitor visitor)
+            throws IOException {
+        if (snapshot == null) {
+            return;
+        }
+        UserIndex index = snapshot.index;
+        int[] slots = IntStream.range(0, index.size()).boxed()
+                .sorted(Comparator.comparingLong(index::offsetAt))
+                .mapToInt(Integer::intValue).toArray();
+        snapshot.channel.position(0);
+        // Not closed: closing the stream would close the snapshot's channel
+        InputStream in = new BufferedInputStream(Channels.newInputStream(snapshot.channel), 1 << 16);
+        long position = 0;
+        for (int slot : slots) {
+            in.skipNBytes(index.offsetAt(slot) - position);
+            byte[] entry = in.readNBytes(index.lengthAt(slot));
+            if (entry.length < index.lengthAt(slot)) {
+                throw new EOFException("users.json is shorter than its index");
+            }
+            position = index.offsetAt(slot) + entry.length;
+            visitor.visit(entryReader(entry).nextName(), entry, slot);
+        }
+    }
+
+    /**
+     * Callback for one {@code "userId": {...}} entry of the snapshot.
+     */
+    @FunctionalInterface
+    private interface SnapshotEntryVisitor {
+        void visit(String userId, byte[] entry, int slot) throws IOException;
+    }
+
+    /**
+     * Collects the journal records for the changes of a user since its last save.
+     * Only fields that differ from the last persisted state produce a record.
+     */
+    private PendingRecords collectChanges(User user) {
+        PendingRecords records = new PendingRecords();
+        PersistedState state = persistedStates.get(user.getUserId());
+        if (state == null) {
+            JsonObject record = newRecord(OP_USER, user);
+            record.add("user", userAdapter.toJsonTree(user));
+            records.add(OP_USER, record);
+        } else {
+            collectBalanceChange(user, state, records);
+            collectHoldingChanges(user, state, records);
+        }
+        return records;
+    }
+
+    private void collectBalanceChange(User user, PersistedState state, PendingRecords records) {
+        Money balance = user.getBalanceIncludingReserved();
+        if (!balance.equals(state.balance)) {
+            JsonObject record = newRecord(OP_BALANCE, user);
+            record.addProperty("balance", balance.toBigDecimal());
+            records.add(OP_BALANCE, record);
+        }
+    }
+
+    private void collectHoldingChanges(User user, PersistedState state, PendingRecords records) {
+        Map<String, Integer> holdings = user.getPortfolio().getHoldingsIncludingReserved();
+
+        Set<String> symbols = new HashSet<>(state.holdings.keySet());
+        symbols.addAll(holdings.keySet());
+
+        for (String symbol : symbols) {
+            int quantity = holdings.getOrDefault(symbol, 0);
+            if (quantity != state.holdings.getOrDefault(symbol, 0)) {
+                JsonObject record = newRecord(OP_HOLDING, user);
+                record.addProperty("symbol", symbol);
+                record.addProperty("quantity", quantity);
+                records.add(OP_HOLDING + ":" + symbol, record);
+            }
+        }
+    }
+
+    /**
+     * Group commit: writes the buffered transactions, then appends the coalesced records
+     * of all users in the batch and syncs the journal once. Runs on the write-behind thread.
+     */
+    private void commitRecords(Map<String, PendingRecords> batch) throws IOException {
+        transactionStore.flush();
+        synchronized (journalLock) {
+            try {
+                for (PendingRecords records : batch.values()) {
+                    for (JsonObject record : records.records.values()) {
+                        journal.append(record);
+                    }
+                }
+                journal.sync();
+            } catch (IOException e) {
+                // Drop the records still buffered; the retry reopens the journal and appends the whole
+                // batch again. Records that reached the file before the failure are then in it twice,
+                // which replay tolerates because every record sets an absolute value (balance,
+                // holding quantity, user), and a torn last line is terminated and skipped.
+                try {
+                    journal.discard();
+                } catch (IOException closeError) {
+                    e.addSuppressed(closeError);
+                }
+                throw e;
+            }
+        }
+    }
+
+    private JsonObject newRecord(String op, User user) {
+        JsonObject record = new JsonObject();
+        record.addProperty(OP, op);
+        record.addProperty(USER_ID, user.getUserId());
+        return record;
+    }
+
+    /**
+     * Applies one journal record to the in-memory users.
+     */
+    private void applyRecord(JsonObject record) {
+        String userId = record.get(USER_ID).getAsString();
+        User user = applyRecord(users.get(userId), record);
+        if (user != null) {
+            users.put(userId, user);
+        }
+    }
+
+    /**
+     * Applies one journal record to a user.
+     * Records hold absolute values and transaction IDs, so applying
+     * a record that is already part of the snapshot changes nothing.
+     *
+     * @param user The user, or null if it is not known yet
+     * @return The user after the record (a new user for a USER record), or null if it is unknown
+     */
+    private User applyRecord(User user, JsonObject record) {
+        String op = record.get(OP).getAsString();
+
+        if (OP_USER.equals(op)) {
+            return user != null ? user : userAdapter.fromJsonTree(record.get("user"));
+        }
+
+        if (user == null) {
+            System.err.println("Skipping journal record for unknown user: " + record.get(USER_ID).getAsString());
+            return null;
+        }
+
+        switch (op) {
+            case OP_BALANCE -> applyBalance(user, record.get("balance").getAsBigDecimal());
+            case OP_HOLDING -> applyHolding(user.getPortfolio(),
+                    record.get("symbol").getAsString(), record.get("quantity").getAsInt());
+            case OP_TRANSACTION -> applyTransaction(user,
+                    transactionAdapter.fromJsonTree(record.get("transaction")));
+            default -> System.err.println("Skipping unknown journal record: " + op);
+        }
+        return user;
+    }
+
+    private void applyBalance(User user, BigDecimal balance) {
+        Money difference = Money.of(balance).minus(user.getBalance());
+        if (difference.isPositive()) {
+            user.deposit(difference);
+        } else if (difference.isNegative()) {
+            user.withdraw(difference.negate());
+        }
+    }
+
+    private void applyHolding(Portfolio portfolio, String symbol, int quantity) {
+        int difference = quantity - portfolio.getQuantity(symbol);
+        if (difference > 0) {
+            portfolio.addStock(symbol, difference);
+        } else if (difference < 0) {
+            portfolio.removeStock(symbol, -difference);
+        }
+    }
+
+    /**
+     * Applies a transaction record of an older journal. The transaction is migrated
+     * into the transaction store after loading, see {@link #migrateHistories()}.
+     */
+    private void applyTransaction(User user, Transaction transaction) {
+        boolean alreadyRecorded = user.getPendingTransactions().stream()
+                .anyMatch(existing -> existing.getTransactionId().equals(transaction.getTransactionId()));
+        if (!alreadyRecorded) {
+            user.addTransaction(transaction);
+        }
+    }
+
+    /**
+     * Writes a fresh snapshot and discards the journal.
+     * The snapshot is written atomically before the journal is removed,
+     * so a crash in between only causes an idempotent replay.
+     */
+    private void compact() {
+        synchronized (journalLock) {
+            if (journal.getRecordCount() == 0) {
+                return;
+            }
+            persistAndTruncate();
+        }
+    }
+
+    /**
+     * Writes a fresh snapshot and discards the journal. If the snapshot cannot be
+     * written, the journal is kept, as it still holds the changes. Needs the journal lock.
+     */
+    private void persistAndTruncate() {
+        if (!persistUsers()) {
+            return;
+        }
+        try {
+            journal.truncate();
+        } catch (IOException e) {
+            System.err.println("Error truncating user journal: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Commits pending records first, so no older record can reach the journal
+     * after the snapshot, then compacts. Holding the repository lock keeps saves out.
+     */
+    private synchronized void compactNow() {
+        writeBehind.flush();
+        compact();
+    }
+
+    /**
+     * Starts the background thread that periodically compacts the journal.
+     */
+    private void startCompactor() {
+        compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "user-journal-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        compactor.scheduleWithFixedDelay(() -> {
+            try {
+                if (journal.getRecordCount() >= COMPACTION_THRESHOLD) {
+                    compactNow();
+                }
+            } catch (RuntimeException e) {
+                // Keep the schedule alive; the next run retries
+                System.err.println("Error compacting user journal: " + e.getMessage());
+            }
+        }, COMPACTION_INTERVAL_SECONDS, COMPACTION_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
     /**
      * Loads users from disk.
      * AI-Generated: JSON deserialization logic
      */
     private void loadUsers() {
+        loadSnapshot();
+        replayJournal(this::applyRecord);
+        rebuildUsernameIndex();
+        migrateHistories();
+
+        for (User user : users.values()) {
+            persistedStates.put(user.getUserId(), new PersistedState(user));
+        }
+    }
+
+    /**
+     * Moves transaction histories read from an older users.json or journal into the
+     * transaction store, then rewrites the snapshot without them. The store skips
+     * transactions it already has, so an interrupted migration is simply repeated.
+     */
+    private void migrateHistories() {
+        int migrated = 0;
+        for (User user : users.values()) {
+            List<Transaction> history = user.getPendingTransactions();
+            if (history.isEmpty()) {
+                continue;
+            }
+            try {
+                transactionStore.migrate(user.getUserId(), history);
+                user.drainPendingTransactions();
+                migrated++;
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Error migrating transactions of " + user.getUsername() + ": " + e.getMessage());
+                return; // keep the old snapshot, it still holds the histories
+            }
+        }
+
+        if (migrated > 0) {
+            System.out.println("Moved the transaction history of " + migrated + " users to the transaction store.");
+            synchronized (journalLock) {
+                persistAndTruncate();
+            }
+        }
+    }
+
+    /**
+     * Writes buffered transactions; used where no write-behind thread does it.
+     */
+    private void flushTransactions() {
+        try {
+            transactionStore.flush();
+        } catch (IOException e) {
+            System.err.println("Error saving transactions: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Loads the users.json snapshot.
+     */
+    private void loadSnapshot() {
         if (!Files.exists(dataFilePath)) {
             return; // No file yet, start with empty map
         }
@@ -140,15 +902,24 @@ public class UserRepository {
                 return;
             }
 
-            try (Reader reader = new FileReader(dataFilePath.toFile())) {
-                // Use TypeToken to tell Gson the exact generic type we need
-                Type userMapType = new TypeToken<HashMap<String, User>>(){}.getType();
-                Map<String, User> loadedUsers = gson.fromJson(reader, userMapType);
-                if (loadedUsers != null) {
-                    this.users = loadedUsers;
+            // Stream the users one by one instead of building the whole JSON tree
+            Map<String, User> loadedUsers = new HashMap<>();
+            try (JsonReader reader = new JsonReader(Files.newBufferedReader(dataFilePath))) {
+                if (reader.peek() == JsonToken.NULL) {
+                    return;
                 }
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String userId = reader.nextName();
+                    User user = userAdapter.read(reader);
+                    if (user != null) {
+                        loadedUsers.put(userId, user);
+                    }
+                }
+                reader.endObject();
             }
-        } catch (JsonSyntaxException e) {
+            users.putAll(loadedUsers);
+        } catch (JsonParseException | MalformedJsonException | IllegalStateException e) {
             System.err.println("Corrupted user data file detected. Starting with fresh user repository.");
             System.err.println("Error details: " + e.getMessage());
             // Start with empty map - corrupted file will be overwritten on first save
@@ -159,74 +930,444 @@ public class UserRepository {
     }
 
     /**
-     * Custom Gson TypeAdapter for LocalDateTime serialization/deserialization.
-     * Fixes Java 21+ module system restrictions with Gson.
+     * Replays the journal tail on top of the loaded snapshot.
+     * The journal is replayed in both modes so no changes are lost when switching modes.
+     *
+     * @param apply Applies a record to the loaded users, or keeps it for lazy loading
      */
-    private static class LocalDateTimeAdapter implements JsonSerializer<LocalDateTime>, JsonDeserializer<LocalDateTime> {
-        private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
+    private void replayJournal(Consumer<JsonObject> apply) {
+        try {
+            int replayed = journal.replay(record -> {
+                try {
+                    apply.accept(record);
+                } catch (RuntimeException e) {
+                    System.err.println("Skipping invalid journal record: " + e.getMessage());
+                }
+            });
+            if (replayed > 0) {
+                System.out.println("Replayed " + replayed + " journal records.");
+                if (!journalMode) {
+                    compact();
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading user journal: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
 
-        @Override
-        public JsonElement serialize(LocalDateTime dateTime, java.lang.reflect.Type type, JsonSerializationContext context) {
-            return new JsonPrimitive(dateTime.format(FORMATTER));
+    // --- Lazy loading ---
+
+    private boolean isLazy() {
+        return cacheSize != LOAD_ALL;
+    }
+
+    /**
+     * Lazy mode: reads the user index and keeps the journal records per user.
+     * Without a matching index (first start, data of an older version, crash during a
+     * compaction) all users are loaded once and the snapshot is rewritten with its index.
+     */
+    private void openIndex() {
+        try {
+            snapshotIndex = UserIndex.read(indexFilePath, dataFilePath);
+        } catch (IOException e) {
+            System.err.println("Error reading user index: " + e.getMessage());
+        }
+        if (snapshotIndex != null) {
+            replayJournal(this::keepJournalRecord);
+            return;
         }
 
-        @Override
-        public LocalDateTime deserialize(JsonElement json, java.lang.reflect.Type type, JsonDeserializationContext context) throws JsonParseException {
-            return LocalDateTime.parse(json.getAsString(), FORMATTER);
+        loadUsers();
+        synchronized (journalLock) {
+            persistAndTruncate();
+        }
+        if (snapshotIndex == null) {
+            System.err.println("User index could not be written. Keeping all users in memory.");
+            cacheSize = LOAD_ALL;
+            return;
         }
+        users.clear();
+        persistedStates.clear();
+        usernameIndex.clear();
     }
 
     /**
-     * Custom Gson TypeAdapter for Transaction serialization/deserialization.
-     * Handles polymorphism by storing the concrete type and delegating to appropriate subclass.
-     * Supports both old format (with "type" field) and new format (with "transactionClass" wrapper).
+     * Keeps a replayed journal record for the user it belongs to.
+     * A new user's record also adds the username to the index.
      */
-    private static class TransactionAdapter implements JsonSerializer<Transaction>, JsonDeserializer<Transaction> {
-        private static final String CLASS_TYPE = "transactionClass";
-        private static final String TYPE_FIELD = "type";
+    private void keepJournalRecord(JsonObject record) {
+        String userId = record.get(USER_ID).getAsString();
+        if (OP_USER.equals(record.get(OP).getAsString())) {
+            String username = record.getAsJsonObject("user").get("username").getAsString();
+            usernameIndex.putIfAbsent(normalizeUsername(username), userId);
+        }
+        journalTail.computeIfAbsent(userId, id -> new ArrayList<>()).add(record);
+    }
 
-        @Override
-        public JsonElement serialize(Transaction transaction, java.lang.reflect.Type type, JsonSerializationContext context) {
-            JsonObject jsonObject = new JsonObject();
-            // Store the actual class name
-            jsonObject.addProperty(CLASS_TYPE, transaction.getClass().getName());
-            // Serialize the transaction data
-            JsonElement transactionData = context.serialize(transaction, transaction.getClass());
-            jsonObject.add("data", transactionData);
-            return jsonObject;
+    /**
+     * Gets a user from memory, or reads it from the snapshot and applies its journal records.
+     * The snapshot is read without the repository lock. If a compaction replaced the snapshot
+     * in the meantime, the journal records no longer belong to it and the user is read again;
+     * if another thread loaded or saved the user in the meantime, that instance wins.
+     *
+     * @return The user, or null if there is no user with this name
+     */
+    private User loadUser(String normalizedUsername) {
+        while (true) {
+            long generation;
+            SnapshotFile snapshot;
+            synchronized (this) {
+                User user = cachedUserByName(normalizedUsername);
+                if (user != null) {
+                    return user;
+                }
+                generation = snapshotGeneration;
+                try {
+                    snapshot = openSnapshot();
+                } catch (IOException e) {
+                    System.err.println("Error reading user " + normalizedUsername + ": " + e.getMessage());
+                    snapshot = null; // as if the snapshot had no such user
+                }
+            }
+
+            User snapshotUser;
+            try (SnapshotFile file = snapshot) {
+                snapshotUser = file == null ? null : readSnapshotUser(file, normalizedUsername);
+            }
+
+            synchronized (this) {
+                if (generation != snapshotGeneration) {
+                    continue;
+                }
+                User user = cachedUserByName(normalizedUsername);
+                if (user != null) {
+                    return user;
+                }
+                String userId = snapshotUser != null ? snapshotUser.getUserId() : usernameIndex.get(normalizedUsername);
+                user = userId == null ? null : applyJournalTail(snapshotUser, journalTail.get(userId));
+                if (user == null) {
+                    return null;
+                }
+
+                usernameIndex.put(normalizedUsername, userId);
+                users.put(userId, user);
+                persistedStates.put(userId, new PersistedState(user));
+                evictIfNeeded();
+                return user;
+            }
         }
+    }
 
-        @Override
-        public Transaction deserialize(JsonElement json, java.lang.reflect.Type type, JsonDeserializationContext context) throws JsonParseException {
-            JsonObject jsonObject = json.getAsJsonObject();
+    /**
+     * Gets a user that is in memory by its normalized username. Needs the repository lock.
+     *
+     * @return The user, or null if it has to be read
+     */
+    private User cachedUserByName(String normalizedUsername) {
+        expungeCollectedUsers();
+        String userId = usernameIndex.get(normalizedUsername);
+        return userId == null ? null : cachedUser(userId);
+    }
 
-            // Check if this is the new format (with transactionClass wrapper)
-            if (jsonObject.has(CLASS_TYPE)) {
-                String className = jsonObject.get(CLASS_TYPE).getAsString();
-                JsonElement transactionData = jsonObject.get("data");
+    /**
+     * Gets a user that is in memory: from the cache, or an evicted user that the
+     * application still holds, which goes back into the cache.
+     *
+     * @return The user, or null if it has to be read
+     */
+    private User cachedUser(String userId) {
+        User user = users.get(userId);
+        if (user != null) {
+            return user;
+        }
+        DetachedUser detached = detachedUsers.remove(userId);
+        user = detached == null ? null : detached.get();
+        if (user == null) {
+            persistedStates.remove(userId);
+            return null;
+        }
+        users.put(userId, user);
+        evictIfNeeded();
+        return user;
+    }
 
-                try {
-                    Class<?> clazz = Class.forName(className);
-                    return context.deserialize(transactionData, clazz);
-                } catch (ClassNotFoundException e) {
-                    throw new JsonParseException("Unknown transaction class: " + className, e);
+    /**
+     * Evicts the least recently used users beyond the cache size. An evicted user is saved
+     * first if it has unsaved changes, and stays reachable through a weak reference, together
+     * with its persisted state, while the application still holds it. Its portfolio is detached
+     * from the market, which would otherwise hold it strongly.
+     *
+     * Like {@link #enqueueSave(User)}, a user is only saved and evicted while its lock
+     * ({@link UserLocks}) is held. The lock is only tried: a trade holding it may be waiting
+     * for the repository lock to save, so waiting for it here would deadlock. A user whose
+     * lock is busy stays cached and the next older one is evicted instead; the cache can
+     * exceed its size until a later call finds the lock free.
+     */
+    private void evictIfNeeded() {
+        if (!isLazy()) {
+            return;
+        }
+        Iterator<User> eldestFirst = users.values().iterator();
+        while (users.size() > cacheSize && eldestFirst.hasNext()) {
+            User eldest = eldestFirst.next();
+            Lock lock = UserLocks.lockFor(eldest);
+            if (!lock.tryLock()) {
+                continue; // a trade is running on it
+            }
+            try {
+                if (hasUnsavedChanges(eldest)) {
+                    writeChanges(eldest);
                 }
+                eldestFirst.remove();
+                eldest.getPortfolio().detach(); // the market must not keep it reachable
+                detachedUsers.put(eldest.getUserId(), new DetachedUser(eldest, collectedUsers));
+            } finally {
+                lock.unlock();
             }
+        }
+    }
 
-            // Handle old format (with "type" field directly in object)
-            if (jsonObject.has(TYPE_FIELD)) {
-                String transactionType = jsonObject.get(TYPE_FIELD).getAsString();
+    private boolean hasUnsavedChanges(User user) {
+        PersistedState state = persistedStates.get(user.getUserId());
+        return state == null || !state.matches(user) || !user.getPendingTransactions().isEmpty();
+    }
 
-                if ("BUY".equalsIgnoreCase(transactionType)) {
-                    return context.deserialize(json, BuyTransaction.class);
-                } else if ("SELL".equalsIgnoreCase(transactionType)) {
-                    return context.deserialize(json, SellTransaction.class);
-                } else {
-                    throw new JsonParseException("Unknown transaction type: " + transactionType);
+    /**
+     * Forgets evicted users that were garbage collected.
+     */
+    private void expungeCollectedUsers() {
+        Reference<? extends User> reference;
+        while ((reference = collectedUsers.poll()) != null) {
+            DetachedUser detached = (DetachedUser) reference;
+            if (detachedUsers.remove(detached.userId, detached)) {
+                persistedStates.remove(detached.userId);
+            }
+        }
+    }
+
+    /**
+     * Collects the users in memory: the cache and the evicted users still held elsewhere.
+     */
+    private Map<String, User> liveUsers() {
+        Map<String, User> liveUsers = new HashMap<>(users);
+        detachedUsers.forEach((userId, detached) -> {
+            User user = detached.get();
+            if (user != null) {
+                liveUsers.put(userId, user);
+            }
+        });
+        return liveUsers;
+    }
+
+    /**
+     * Applies the journal records since the snapshot to a user.
+     *
+     * @param snapshotUser The user read from the snapshot, or null for a user created since
+     * @param records The user's journal records since the snapshot, or null if there are none
+     * @return The current user, or null if there is no such user
+     */
+    private User applyJournalTail(User snapshotUser, List<JsonObject> records) {
+        User user = snapshotUser;
+        for (JsonObject record : records != null ? records : List.<JsonObject>of()) {
+            try {
+                user = applyRecord(user, record);
+            } catch (RuntimeException e) {
+                System.err.println("Skipping invalid journal record: " + e.getMessage());
+            }
+        }
+        return user;
+    }
+
+    /**
+     * Reads a user from the current snapshot. Needs the repository lock.
+     *
+     * @return The user as in the snapshot, or null if the snapshot has no user with this name
+     */
+    private User readSnapshotUser(String normalizedUsername) {
+        try (SnapshotFile snapshot = openSnapshot()) {
+            return snapshot == null ? null : readSnapshotUser(snapshot, normalizedUsername);
+        } catch (IOException e) {
+            System.err.println("Error reading user " + normalizedUsername + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Reads a user from a snapshot, at the position the index gives for the username.
+     * Does not need the repository lock.
+     *
+     * @return The user as in the snapshot, or null if the snapshot has no user with this name
+     */
+    private User readSnapshotUser(SnapshotFile snapshot, String normalizedUsername) {
+        UserIndex index = snapshot.index;
+        long hash = UserIndex.hash(normalizedUsername);
+        int slot = index.find(hash);
+        if (slot < 0) {
+            return null;
+        }
+
+        try {
+            for (; slot < index.size() && index.hashAt(slot) == hash; slot++) {
+                ByteBuffer entry = ByteBuffer.allocate(index.lengthAt(slot));
+                long offset = index.offsetAt(slot);
+                while (entry.hasRemaining()) {
+                    if (snapshot.channel.read(entry, offset + entry.position()) < 0) {
+                        throw new EOFException("users.json is shorter than its index");
+                    }
+                }
+                User user = readEntryUser(entry.array());
+                if (user != null && normalizeUsername(user.getUsername()).equals(normalizedUsername)) {
+                    return user;
                 }
             }
+        } catch (IOException | JsonParseException | IllegalStateException e) {
+            System.err.println("Error reading user " + normalizedUsername + ": " + e.getMessage());
+        }
+        return null;
+    }
+
+    private User readEntryUser(byte[] entry) throws IOException {
+        JsonReader reader = entryReader(entry);
+        reader.nextName();
+        return userAdapter.read(reader);
+    }
+
+    /**
+     * Opens a reader on one {@code "userId": {...}} entry of the snapshot, positioned before the userId.
+     */
+    private static JsonReader entryReader(byte[] entry) throws IOException {
+        JsonReader reader = new JsonReader(new StringReader("{" + new String(entry, StandardCharsets.UTF_8) + "}"));
+        reader.beginObject();
+        return reader;
+    }
+
+    /**
+     * Opens the current snapshot together with its index. Needs the repository lock;
+     * the returned file can be read without it.
+     *
+     * @return The open snapshot, or null if there is none
+     * @throws IOException if users.json cannot be opened
+     */
+    private SnapshotFile openSnapshot() throws IOException {
+        return snapshotIndex == null
+                ? null
+                : new SnapshotFile(snapshotIndex, FileChannel.open(dataFilePath, StandardOpenOption.READ));
+    }
+
+    /**
+     * A users.json snapshot and its index as of one moment. The open channel keeps reading
+     * the same file even if a compaction replaces users.json while it is read.
+     */
+    private static final class SnapshotFile implements Closeable {
+        private final UserIndex index;
+        private final FileChannel channel;
+
+        SnapshotFile(UserIndex index, FileChannel channel) {
+            this.index = index;
+            this.channel = channel;
+        }
+
+        @Override
+        public void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("Error closing users.json: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Writes the users.json snapshot entry by entry and records where each entry starts.
+     * The file stays one JSON object, with one {@code "userId": {...}} entry per line.
+     */
+    private final class SnapshotWriter {
+        private final OutputStream out;
+        private final UserIndex.Builder index = new UserIndex.Builder();
+        private long position;
+
+        SnapshotWriter(OutputStream out) throws IOException {
+            this.out = out;
+            write(new byte[] {'{'});
+        }
+
+        void writeUser(User user) throws IOException {
+            String entry = new JsonPrimitive(user.getUserId()) + ":" + userAdapter.toJson(user);
+            writeEntry(entry.getBytes(StandardCharsets.UTF_8), UserIndex.hash(normalizeUsername(user.getUsername())));
+        }
+
+        void writeEntry(byte[] entry, long usernameHash) throws IOException {
+            write(index.size() == 0 ? new byte[] {'\n'} : new byte[] {',', '\n'});
+            index.add(usernameHash, position, entry.length);
+            write(entry);
+        }
+
+        UserIndex finish() throws IOException {
+            write(new byte[] {'\n', '}', '\n'});
+            out.flush();
+            return index.build();
+        }
+
+        private void write(byte[] bytes) throws IOException {
+            out.write(bytes);
+            position += bytes.length;
+        }
+    }
+
+    /**
+     * An evicted user, reachable as long as the application holds it.
+     */
+    private static final class DetachedUser extends WeakReference<User> {
+        private final String userId;
+
+        DetachedUser(User user, ReferenceQueue<User> queue) {
+            super(user, queue);
+            this.userId = user.getUserId();
+        }
+    }
+
+    /**
+     * Journal records of one user waiting for the next group commit.
+     * Keyed by what they describe (balance, holding per symbol, transaction ID), so a newer
+     * record replaces an older one for the same thing while keeping the original order.
+     */
+    private static class PendingRecords {
+        private final Map<String, JsonObject> records = new LinkedHashMap<>();
+        private boolean transactionsAppended; // the transaction store has to be flushed
+
+        void add(String key, JsonObject record) {
+            records.put(key, record);
+        }
+
+        boolean isEmpty() {
+            return records.isEmpty() && !transactionsAppended;
+        }
+
+        PendingRecords merge(PendingRecords newer) {
+            records.putAll(newer.records);
+            transactionsAppended |= newer.transactionsAppended;
+            return this;
+        }
+    }
+
+    /**
+     * Last state of a user that was written or queued for the snapshot or journal.
+     * Used to find out which records a save has to append. Funds and shares reserved
+     * for open orders count as owned, since the orders are not persisted.
+     */
+    private static class PersistedState {
+        private final Money balance;
+        private final Map<String, Integer> holdings;
+
+        PersistedState(User user) {
+            this.balance = user.getBalanceIncludingReserved();
+            this.holdings = new HashMap<>(user.getPortfolio().getHoldingsIncludingReserved());
+        }
 
-            throw new JsonParseException("Transaction JSON missing both 'transactionClass' and 'type' fields");
+        boolean matches(User user) {
+            return balance.equals(user.getBalanceIncludingReserved())
+                    && holdings.equals(user.getPortfolio().getHoldingsIncludingReserved());
         }
     }
 }
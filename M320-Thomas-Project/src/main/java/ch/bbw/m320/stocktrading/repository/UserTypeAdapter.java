@@ -0,0 +1,109 @@
+package ch.bbw.m320.stocktrading.repository;
+
+import ch.bbw.m320.stocktrading.model.Money;
+import ch.bbw.m320.stocktrading.model.Portfolio;
+import ch.bbw.m320.stocktrading.model.Transaction;
+import ch.bbw.m320.stocktrading.model.User;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming Gson adapter for {@link User}.
+ * Reads and writes field by field, so no JSON tree is built per user.
+ *
+ * Transaction histories are kept in the {@link TransactionStore}, so they are not written.
+ * A "transactionHistory" array of older files is read into the user's pending
+ * transactions, from where the repository migrates it into the store.
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+public class UserTypeAdapter extends TypeAdapter<User> {
+    private static final String USER_ID = "userId";
+    private static final String USERNAME = "username";
+    private static final String BALANCE = "balance";
+    private static final String PORTFOLIO = "portfolio";
+    private static final String TRANSACTION_HISTORY = "transactionHistory";
+
+    private final PortfolioTypeAdapter portfolioAdapter;
+    private final TransactionTypeAdapter transactionAdapter;
+
+    /**
+     * Creates a new UserTypeAdapter.
+     */
+    public UserTypeAdapter() {
+        this.portfolioAdapter = new PortfolioTypeAdapter();
+        this.transactionAdapter = new TransactionTypeAdapter();
+    }
+
+    @Override
+    public void write(JsonWriter out, User user) throws IOException {
+        if (user == null) {
+            out.nullValue();
+            return;
+        }
+
+        out.beginObject();
+        out.name(USER_ID).value(user.getUserId());
+        out.name(USERNAME).value(user.getUsername());
+        out.name(BALANCE).value(user.getBalanceIncludingReserved().toBigDecimal()); // open orders are not persisted
+        out.name(PORTFOLIO);
+        portfolioAdapter.write(out, user.getPortfolio());
+        out.endObject();
+    }
+
+    @Override
+    public User read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+
+        String userId = null;
+        String username = null;
+        BigDecimal balance = BigDecimal.ZERO;
+        Portfolio portfolio = null;
+        List<Transaction> transactions = new ArrayList<>();
+
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                continue;
+            }
+            switch (name) {
+                case USER_ID -> userId = in.nextString();
+                case USERNAME -> username = in.nextString();
+                case BALANCE -> balance = new BigDecimal(in.nextString());
+                case PORTFOLIO -> portfolio = portfolioAdapter.read(in);
+                case TRANSACTION_HISTORY -> {
+                    in.beginArray();
+                    while (in.hasNext()) {
+                        Transaction transaction = transactionAdapter.read(in);
+                        if (transaction != null) {
+                            transactions.add(transaction);
+                        }
+                    }
+                    in.endArray();
+                }
+                default -> in.skipValue();
+            }
+        }
+        in.endObject();
+
+        try {
+            return new User(userId, username, Money.of(balance), portfolio, transactions);
+        } catch (IllegalArgumentException | ArithmeticException e) {
+            throw new JsonParseException("Invalid user: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package ch.bbw.m320.stocktrading.repository;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BinaryOperator;
+
+/**
+ * Asynchronous write-behind queue with group commit.
+ * Callers enqueue changes keyed by an entity (user ID, stock symbol); changes for the same
+ * key are coalesced until the next commit. A background thread hands all pending changes
+ * to a {@link Committer} in one batch once the batch is big enough or the oldest change
+ * has waited long enough. The committer is expected to write and fsync the whole batch once.
+ *
+ * Callers that need durability wait for their ticket with {@link #awaitCommitted(long)}.
+ *
+ * A batch whose commit fails is not dropped: its changes go back in front of the changes
+ * enqueued since, and the commit is retried with a growing delay. The ticket only advances
+ * when a commit succeeds, and callers waiting for a failed batch get the error instead of
+ * returning as if their change were on disk.
+ *
+ * @param <K> The key changes are coalesced by
+ * @param <V> The pending change
+ * @author Thomas
+ * @version 1.0
+ */
+public class WriteBehindQueue<K, V> {
+    private static final long MAX_RETRY_DELAY_MILLIS = 5_000;
+
+    private final int maxBatchSize;
+    private final long maxDelayMillis;
+    private final BinaryOperator<V> merger;
+    private final Committer<K, V> committer;
+    private final Thread flusher;
+
+    private Map<K, V> pending;
+    private long firstPendingMillis;
+    private long lastTicket;
+    private long committedTicket;
+    private boolean flushRequested;
+    private boolean stopped;
+    private IOException failure;   // error of the last commit, null once a commit succeeds
+    private long failedTicket;     // last ticket of the batch that failed
+    private long retryDelayMillis;
+    private long retryAtMillis;
+
+    /**
+     * Creates the queue and starts its flusher thread.
+     *
+     * @param name Name of the flusher thread
+     * @param maxBatchSize Number of pending keys that triggers a commit
+     * @param maxDelayMillis Longest time a change waits before it is committed
+     * @param merger Combines a pending change (first argument) with a newer one (second argument)
+     * @param committer Writes a batch of changes
+     */
+    public WriteBehindQueue(String name, int maxBatchSize, long maxDelayMillis,
+                            BinaryOperator<V> merger, Committer<K, V> committer) {
+        if (maxBatchSize <= 0 || maxDelayMillis <= 0) {
+            throw new IllegalArgumentException("Batch size and delay must be positive");
+        }
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayMillis = maxDelayMillis;
+        this.merger = merger;
+        this.committer = committer;
+        this.pending = new LinkedHashMap<>();
+
+        this.flusher = new Thread(this::runFlusher, name);
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Enqueues a change. Returns immediately; the change is committed in the background.
+     *
+     * @param key The entity the change belongs to
+     * @param change The change
+     * @return A ticket that can be passed to {@link #awaitCommitted(long)}
+     */
+    public synchronized long enqueue(K key, V change) {
+        if (stopped) {
+            throw new IllegalStateException("Write-behind queue is shut down");
+        }
+        boolean firstPending = pending.isEmpty();
+        if (firstPending) {
+            firstPendingMillis = System.currentTimeMillis();
+        }
+        pending.merge(key, change, merger);
+        lastTicket++;
+        if (firstPending || pending.size() >= maxBatchSize) {
+            notifyAll(); // start the delay timer or commit a full batch
+        }
+        return lastTicket;
+    }
+
+    /**
+     * Waits until the change with the given ticket has been committed.
+     * Asks the flusher to commit right away instead of waiting for the delay.
+     *
+     * @param ticket The ticket returned by {@link #enqueue}
+     * @throws UncheckedIOException if the commit of the change failed; it is retried in the
+     *                              background, but must not be treated as durable yet
+     */
+    public synchronized void awaitCommitted(long ticket) {
+        boolean interrupted = false;
+        try {
+            while (committedTicket < ticket) {
+                if (failure != null && failedTicket >= ticket) {
+                    throw new UncheckedIOException("Change was not committed: " + failure.getMessage(), failure);
+                }
+                if (!flusher.isAlive()) {
+                    throw new UncheckedIOException(new IOException("Write-behind queue stopped before the change was committed"));
+                }
+                flushRequested = true;
+                notifyAll();
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Commits everything enqueued so far and waits for it.
+     *
+     * @throws UncheckedIOException if the commit failed
+     */
+    public void flush() {
+        long ticket;
+        synchronized (this) {
+            ticket = lastTicket;
+        }
+        awaitCommitted(ticket);
+    }
+
+    /**
+     * Commits all pending changes and stops the flusher thread.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            stopped = true;
+            notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Main loop of the flusher thread: waits for a full batch, the delay or a flush request,
+     * then commits the pending changes outside of the lock so callers can keep enqueueing.
+     */
+    private void runFlusher() {
+        while (true) {
+            Map<K, V> batch;
+            long batchTicket;
+            synchronized (this) {
+                try {
+                    waitForBatch();
+                } catch (InterruptedException e) {
+                    stopped = true;
+                }
+                if (pending.isEmpty()) {
+                    if (stopped) {
+                        notifyAll();
+                        return;
+                    }
+                    continue;
+                }
+                batch = pending;
+                batchTicket = lastTicket;
+                pending = new LinkedHashMap<>();
+                flushRequested = false;
+            }
+
+            IOException error = null;
+            try {
+                committer.commit(batch);
+            } catch (IOException e) {
+                error = e;
+            } catch (RuntimeException e) {
+                error = new IOException(e);
+            }
+
+            synchronized (this) {
+                if (error == null) {
+                    committedTicket = batchTicket;
+                    failure = null;
+                    retryDelayMillis = 0;
+                } else if (!retryLater(batch, batchTicket, error)) {
+                    notifyAll();
+                    return;
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Puts a failed batch back in front of the changes enqueued since and schedules a retry.
+     * Needs the lock.
+     *
+     * @return false if the queue is shut down and the changes are given up
+     */
+    private boolean retryLater(Map<K, V> batch, long batchTicket, IOException error) {
+        failure = error;
+        failedTicket = batchTicket;
+        if (stopped) {
+            System.err.println("Error committing " + (batch.size() + pending.size())
+                    + " pending changes on shutdown, they are lost: " + error.getMessage());
+            return false;
+        }
+        System.err.println("Error committing " + batch.size() + " pending changes, retrying: " + error.getMessage());
+
+        // The failed changes are older, so they are merged with the newer ones, not replaced
+        pending.forEach((key, change) -> batch.merge(key, change, merger));
+        pending = batch;
+        retryDelayMillis = Math.min(MAX_RETRY_DELAY_MILLIS, Math.max(maxDelayMillis, retryDelayMillis * 2));
+        retryAtMillis = System.currentTimeMillis() + retryDelayMillis;
+        return true;
+    }
+
+    private void waitForBatch() throws InterruptedException {
+        while (pending.isEmpty() && !stopped) {
+            wait();
+        }
+        while (!stopped) {
+            long remaining;
+            if (failure != null) {
+                remaining = retryAtMillis - System.currentTimeMillis(); // back off, even for flush requests
+            } else if (flushRequested || pending.size() >= maxBatchSize) {
+                break;
+            } else {
+                remaining = firstPendingMillis + maxDelayMillis - System.currentTimeMillis();
+            }
+            if (remaining <= 0) {
+                break;
+            }
+            wait(remaining);
+        }
+    }
+
+    /**
+     * Writes one batch of coalesced changes.
+     *
+     * @param <K> The key type
+     * @param <V> The change type
+     */
+    @FunctionalInterface
+    public interface Committer<K, V> {
+        void commit(Map<K, V> batch) throws IOException;
+    }
+}
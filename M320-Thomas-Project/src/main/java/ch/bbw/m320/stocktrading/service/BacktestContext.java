@@ -0,0 +1,246 @@
+package ch.bbw.m320.stocktrading.service;
+
+import ch.bbw.m320.stocktrading.exception.InsufficientBalanceException;
+import ch.bbw.m320.stocktrading.exception.InsufficientStockException;
+import ch.bbw.m320.stocktrading.exception.StockNotFoundException;
+import ch.bbw.m320.stocktrading.model.*;
+
+/**
+ * The simulated market and account of one backtest run.
+ *
+ * Orders are booked on a simulated {@link User} with the same checks and rollbacks as in the
+ * {@link TradingService}, at the price of the last replayed tick of the symbol. The user is
+ * not registered anywhere and is never attached to the {@link StockMarket}, so a run cannot
+ * affect real users, the market or another run.
+ *
+ * The context mirrors cash and positions in primitive arrays. Every tick revalues only the
+ * symbol that ticked, so equity and drawdown are known after each tick at O(1) cost.
+ * Transaction IDs and timestamps come from the run and the tape, not from the clock,
+ * so the same run always produces the same transactions.
+ *
+ * Thread safety: a context belongs to a single run and is used by one thread only.
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+public final class BacktestContext {
+    private final MarketTape tape;
+    private final String runId;
+    private final User user;
+    private final boolean keepTransactions;
+    private final long[] prices;     // tape symbol index -> last price in micro-units, 0 before the first tick
+    private final long[] positions;  // tape symbol index -> shares held
+    private long cash;               // micro-units
+    private long positionValue;      // micro-units
+    private long epochNanos;
+    private long peakEquity;
+    private long maxDrawdown;
+    private int tradeCount;
+
+    BacktestContext(MarketTape tape, String runId, Money initialBalance, boolean keepTransactions) {
+        this.tape = tape;
+        this.runId = runId;
+        this.user = new User(runId, runId, initialBalance, new Portfolio(), null);
+        this.keepTransactions = keepTransactions;
+        this.prices = new long[tape.getSymbolCount()];
+        this.positions = new long[tape.getSymbolCount()];
+        this.cash = initialBalance.getMicros();
+        this.peakEquity = cash;
+    }
+
+    /**
+     * Moves the market to the next tick and revalues the position in that symbol.
+     */
+    void advance(int symbol, long tickEpochNanos, long priceMicros) {
+        positionValue += positions[symbol] * (priceMicros - prices[symbol]);
+        prices[symbol] = priceMicros;
+        epochNanos = tickEpochNanos;
+
+        long equity = cash + positionValue;
+        if (equity > peakEquity) {
+            peakEquity = equity;
+        } else if (peakEquity - equity > maxDrawdown) {
+            maxDrawdown = peakEquity - equity;
+        }
+    }
+
+    /**
+     * Buys shares at the last price of the symbol.
+     *
+     * @param stockSymbol The stock symbol
+     * @param quantity The number of shares to buy
+     * @return The created transaction
+     * @throws StockNotFoundException if the symbol is not on the tape or has not ticked yet
+     * @throws InsufficientBalanceException if the simulated user cannot pay
+     */
+    public BuyTransaction buy(String stockSymbol, int quantity)
+            throws StockNotFoundException, InsufficientBalanceException {
+        return buy(symbolIndex(stockSymbol), quantity);
+    }
+
+    /**
+     * Buys shares at the last price of the symbol.
+     *
+     * @param symbol The tape index of the symbol
+     * @param quantity The number of shares to buy
+     * @return The created transaction
+     * @throws StockNotFoundException if the symbol has not ticked yet
+     * @throws InsufficientBalanceException if the simulated user cannot pay
+     */
+    public BuyTransaction buy(int symbol, int quantity) throws StockNotFoundException, InsufficientBalanceException {
+        long price = priceFor(symbol, quantity);
+        BuyTransaction transaction = new BuyTransaction(nextTransactionId(), tape.getSymbol(symbol), quantity,
+                Money.ofMicros(price), PriceHistory.toLocalDateTime(epochNanos));
+        TradingService.applyBuy(user, transaction);
+
+        long cost = transaction.getTotalValue().getMicros();
+        cash -= cost;
+        positions[symbol] += quantity;
+        positionValue += cost;
+        booked();
+        return transaction;
+    }
+
+    /**
+     * Sells shares at the last price of the symbol.
+     *
+     * @param stockSymbol The stock symbol
+     * @param quantity The number of shares to sell
+     * @return The created transaction
+     * @throws StockNotFoundException if the symbol is not on the tape or has not ticked yet
+     * @throws InsufficientStockException if the simulated user owns fewer shares
+     */
+    public SellTransaction sell(String stockSymbol, int quantity)
+            throws StockNotFoundException, InsufficientStockException {
+        return sell(symbolIndex(stockSymbol), quantity);
+    }
+
+    /**
+     * Sells shares at the last price of the symbol.
+     *
+     * @param symbol The tape index of the symbol
+     * @param quantity The number of shares to sell
+     * @return The created transaction
+     * @throws StockNotFoundException if the symbol has not ticked yet
+     * @throws InsufficientStockException if the simulated user owns fewer shares
+     */
+    public SellTransaction sell(int symbol, int quantity) throws StockNotFoundException, InsufficientStockException {
+        long price = priceFor(symbol, quantity);
+        SellTransaction transaction = new SellTransaction(nextTransactionId(), tape.getSymbol(symbol), quantity,
+                Money.ofMicros(price), PriceHistory.toLocalDateTime(epochNanos));
+        TradingService.applySell(user, transaction);
+
+        long revenue = transaction.getTotalValue().getMicros();
+        cash += revenue;
+        positions[symbol] -= quantity;
+        positionValue -= revenue;
+        booked();
+        return transaction;
+    }
+
+    private void booked() {
+        tradeCount++;
+        if (!keepTransactions) {
+            user.drainPendingTransactions();
+        }
+    }
+
+    private long priceFor(int symbol, int quantity) throws StockNotFoundException {
+        if (quantity <= 0) {
+            throw new IllegalArgumentException("Quantity must be positive");
+        }
+        if (symbol < 0 || symbol >= prices.length) {
+            throw new StockNotFoundException("Stock not found: tape index " + symbol);
+        }
+        if (prices[symbol] == 0) {
+            throw new StockNotFoundException("No price yet for " + tape.getSymbol(symbol));
+        }
+        return prices[symbol];
+    }
+
+    private int symbolIndex(String stockSymbol) throws StockNotFoundException {
+        int symbol = tape.indexOf(stockSymbol);
+        if (symbol < 0) {
+            throw new StockNotFoundException("Stock not found: " + stockSymbol);
+        }
+        return symbol;
+    }
+
+    private String nextTransactionId() {
+        return runId + "-" + (tradeCount + 1);
+    }
+
+    public MarketTape getTape() {
+        return tape;
+    }
+
+    /**
+     * Gets the simulated user, with the transactions of the run as pending transactions
+     * unless the backtester drops them.
+     *
+     * @return The simulated user
+     */
+    public User getUser() {
+        return user;
+    }
+
+    /**
+     * Gets the last price of a symbol.
+     *
+     * @param symbol The tape index of the symbol
+     * @return The price in micro-units, 0 if the symbol has not ticked yet
+     */
+    public long getPrice(int symbol) {
+        return prices[symbol];
+    }
+
+    /**
+     * Gets the number of shares held of a symbol.
+     *
+     * @param symbol The tape index of the symbol
+     * @return The number of shares
+     */
+    public long getPosition(int symbol) {
+        return positions[symbol];
+    }
+
+    /**
+     * Gets the cash balance.
+     *
+     * @return The balance in micro-units
+     */
+    public long getCash() {
+        return cash;
+    }
+
+    /**
+     * Gets cash plus the value of all positions at their last prices.
+     *
+     * @return The equity in micro-units
+     */
+    public long getEquity() {
+        return cash + positionValue;
+    }
+
+    /**
+     * Gets the largest drop of the equity from a previous high so far.
+     *
+     * @return The drawdown in micro-units
+     */
+    public long getMaxDrawdown() {
+        return maxDrawdown;
+    }
+
+    /**
+     * Gets the time of the current tick.
+     *
+     * @return Nanoseconds since the epoch (UTC)
+     */
+    public long getEpochNanos() {
+        return epochNanos;
+    }
+
+    public int getTradeCount() {
+        return tradeCount;
+    }
+}
@@ -0,0 +1,108 @@
+package ch.bbw.m320.stocktrading.service;
+
+import ch.bbw.m320.stocktrading.model.Money;
+import ch.bbw.m320.stocktrading.model.User;
+
+/**
+ * Outcome of one backtest run.
+ * Everything except the elapsed time depends only on the tape, the strategy and the
+ * initial balance, so the same run always gives the same result.
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+public final class BacktestResult {
+    private final String runId;
+    private final String strategyName;
+    private final User user;
+    private final Money initialBalance;
+    private final Money finalEquity;
+    private final Money maxDrawdown;
+    private final int tradeCount;
+    private final long tickCount;
+    private final long elapsedNanos;
+
+    BacktestResult(String runId, String strategyName, BacktestContext context, Money initialBalance,
+                   long tickCount, long elapsedNanos) {
+        this.runId = runId;
+        this.strategyName = strategyName;
+        this.user = context.getUser();
+        this.initialBalance = initialBalance;
+        this.finalEquity = Money.ofMicros(context.getEquity());
+        this.maxDrawdown = Money.ofMicros(context.getMaxDrawdown());
+        this.tradeCount = context.getTradeCount();
+        this.tickCount = tickCount;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * Gets the profit or loss of the run: final equity minus initial balance.
+     *
+     * @return The profit (negative for a loss)
+     */
+    public Money getProfit() {
+        return finalEquity.minus(initialBalance);
+    }
+
+    /**
+     * Gets the profit relative to the initial balance.
+     *
+     * @return The return, e.g. 0.05 for 5 %
+     */
+    public double getReturn() {
+        return initialBalance.isZero() ? 0 : (double) getProfit().getMicros() / initialBalance.getMicros();
+    }
+
+    public String getRunId() {
+        return runId;
+    }
+
+    public String getStrategyName() {
+        return strategyName;
+    }
+
+    /**
+     * Gets the simulated user with its final balance, portfolio and the transactions of the run.
+     *
+     * @return The simulated user
+     */
+    public User getUser() {
+        return user;
+    }
+
+    public Money getInitialBalance() {
+        return initialBalance;
+    }
+
+    /**
+     * Gets cash plus the value of the open positions at the last prices of the tape.
+     *
+     * @return The final equity
+     */
+    public Money getFinalEquity() {
+        return finalEquity;
+    }
+
+    public Money getMaxDrawdown() {
+        return maxDrawdown;
+    }
+
+    public int getTradeCount() {
+        return tradeCount;
+    }
+
+    public long getTickCount() {
+        return tickCount;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %s: equity $%.2f (%+.2f%%), max drawdown $%.2f, %d trades",
+                runId, strategyName, finalEquity.toBigDecimal(), getReturn() * 100,
+                maxDrawdown.toBigDecimal(), tradeCount);
+    }
+}
@@ -0,0 +1,177 @@
+package ch.bbw.m320.stocktrading.service;
+
+import ch.bbw.m320.stocktrading.model.Money;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Supplier;
+
+/**
+ * Replays a {@link MarketTape} through {@link TradingStrategy trading strategies}.
+ *
+ * Each run gets its own strategy instance and its own {@link BacktestContext} with a
+ * simulated user, so runs share nothing but the read-only tape. Many runs, e.g. a
+ * parameter sweep, are split across a {@link ForkJoinPool}; a single run is sequential,
+ * since every tick depends on the state the previous one left behind.
+ *
+ * Results are deterministic: they do not depend on the number of threads or on which
+ * run finishes first, and they are returned in the order of the strategies.
+ *
+ * The transactions of a run are kept with its simulated user. For sweeps with many
+ * trading runs, {@link #setKeepTransactions(boolean)} drops them to save memory.
+ *
+ * Clean Code: Single Responsibility - drives the replay; booking is left to the context
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+public class Backtester {
+    private static final int SEQUENTIAL_RUNS = 1; // fork down to single runs; each run is long
+
+    private final ForkJoinPool pool;
+    private volatile boolean keepTransactions = true;
+
+    /**
+     * Creates a backtester that runs on the common fork/join pool.
+     */
+    public Backtester() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a backtester.
+     * Clean Code: Dependency injection through constructor
+     *
+     * @param pool The pool the runs are executed on
+     */
+    public Backtester(ForkJoinPool pool) {
+        if (pool == null) {
+            throw new IllegalArgumentException("Pool cannot be null");
+        }
+        this.pool = pool;
+    }
+
+    /**
+     * Sets whether the simulated users keep the transactions of their run.
+     * The counts and the final state are the same either way.
+     *
+     * @param keepTransactions false to drop each transaction once it is booked
+     */
+    public void setKeepTransactions(boolean keepTransactions) {
+        this.keepTransactions = keepTransactions;
+    }
+
+    /**
+     * Runs one strategy on the calling thread.
+     *
+     * @param tape The recorded prices
+     * @param strategy The strategy, used for this run only
+     * @param initialBalance The starting balance of the simulated user
+     * @return The result of the run
+     */
+    public BacktestResult run(MarketTape tape, TradingStrategy strategy, Money initialBalance) {
+        validate(tape, initialBalance);
+        if (strategy == null) {
+            throw new IllegalArgumentException("Strategy cannot be null");
+        }
+        return replay(tape, strategy, "BT1", initialBalance, keepTransactions);
+    }
+
+    /**
+     * Runs many strategies in parallel, each on a fresh instance from its factory.
+     *
+     * @param tape The recorded prices
+     * @param strategies One factory per run, e.g. one per parameter set
+     * @param initialBalance The starting balance of each simulated user
+     * @return The results, in the order of the factories
+     */
+    public List<BacktestResult> runAll(MarketTape tape, List<? extends Supplier<? extends TradingStrategy>> strategies,
+                                       Money initialBalance) {
+        validate(tape, initialBalance);
+        if (strategies == null || strategies.stream().anyMatch(Objects::isNull)) {
+            throw new IllegalArgumentException("Strategies cannot be null");
+        }
+        BacktestResult[] results = new BacktestResult[strategies.size()];
+        pool.invoke(new RunRange(tape, strategies, initialBalance, keepTransactions, results, 0, results.length));
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Replays every tick of the tape through the strategy.
+     */
+    private static BacktestResult replay(MarketTape tape, TradingStrategy strategy, String runId,
+                                         Money initialBalance, boolean keepTransactions) {
+        long start = System.nanoTime();
+        BacktestContext context = new BacktestContext(tape, runId, initialBalance, keepTransactions);
+        int[] symbols = tape.tickSymbols;
+        long[] epochNanos = tape.tickEpochNanos;
+        long[] prices = tape.tickPrices;
+
+        strategy.onStart(context);
+        for (int tick = 0; tick < symbols.length; tick++) {
+            int symbol = symbols[tick];
+            long price = prices[tick];
+            context.advance(symbol, epochNanos[tick], price);
+            strategy.onTick(context, symbol, price);
+        }
+        strategy.onFinish(context);
+
+        return new BacktestResult(runId, strategy.getName(), context, initialBalance, symbols.length,
+                System.nanoTime() - start);
+    }
+
+    private void validate(MarketTape tape, Money initialBalance) {
+        if (tape == null) {
+            throw new IllegalArgumentException("Tape cannot be null");
+        }
+        if (initialBalance == null || initialBalance.isNegative()) {
+            throw new IllegalArgumentException("Initial balance cannot be negative");
+        }
+    }
+
+    /**
+     * Fork/join task over a range of runs: splits the range in halves until single runs remain.
+     */
+    private static final class RunRange extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final MarketTape tape;
+        private final List<? extends Supplier<? extends TradingStrategy>> strategies;
+        private final Money initialBalance;
+        private final boolean keepTransactions;
+        private final BacktestResult[] results;
+        private final int from;
+        private final int to;
+
+        RunRange(MarketTape tape, List<? extends Supplier<? extends TradingStrategy>> strategies,
+                 Money initialBalance, boolean keepTransactions, BacktestResult[] results, int from, int to) {
+            this.tape = tape;
+            this.strategies = strategies;
+            this.initialBalance = initialBalance;
+            this.keepTransactions = keepTransactions;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SEQUENTIAL_RUNS) {
+                for (int run = from; run < to; run++) {
+                    TradingStrategy strategy = strategies.get(run).get();
+                    if (strategy == null) {
+                        throw new IllegalStateException("Strategy factory " + (run + 1) + " returned null");
+                    }
+                    results[run] = replay(tape, strategy, "BT" + (run + 1), initialBalance, keepTransactions);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new RunRange(tape, strategies, initialBalance, keepTransactions, results, from, middle),
+                    new RunRange(tape, strategies, initialBalance, keepTransactions, results, middle, to));
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package ch.bbw.m320.stocktrading.service;
+
+import ch.bbw.m320.stocktrading.model.Money;
+import ch.bbw.m320.stocktrading.model.SymbolRegistry;
+import ch.bbw.m320.stocktrading.model.Transaction;
+import ch.bbw.m320.stocktrading.model.User;
+
+/**
+ * A limit order resting in or passing through an {@link OrderBook}.
+ * The limit price is kept in micro-units so the order book can compare prices as longs.
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+public class LimitOrder {
+    private final long orderId;
+    private final User user;
+    private final int symbolId;
+    private final Transaction.TransactionType side;
+    private final long limitPrice; // micro-units
+    private final int quantity;
+    private volatile int remainingQuantity; // only changed under the order book lock
+    private volatile boolean cancelled;
+
+    LimitOrder(long orderId, User user, int symbolId, Transaction.TransactionType side,
+               long limitPrice, int quantity) {
+        this.orderId = orderId;
+        this.user = user;
+        this.symbolId = symbolId;
+        this.side = side;
+        this.limitPrice = limitPrice;
+        this.quantity = quantity;
+        this.remainingQuantity = quantity;
+    }
+
+    /**
+     * Reduces the remaining quantity after a fill.
+     */
+    void fill(int fillQuantity) {
+        remainingQuantity -= fillQuantity;
+    }
+
+    void cancel() {
+        cancelled = true;
+    }
+
+    // Getters
+    public long getOrderId() {
+        return orderId;
+    }
+
+    public User getUser() {
+        return user;
+    }
+
+    public String getStockSymbol() {
+        return SymbolRegistry.getInstance().symbolOf(symbolId);
+    }
+
+    public int getSymbolId() {
+        return symbolId;
+    }
+
+    public Transaction.TransactionType getSide() {
+        return side;
+    }
+
+    public long getScaledLimitPrice() {
+        return limitPrice;
+    }
+
+    public Money getLimitPrice() {
+        return Money.ofMicros(limitPrice);
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+
+    public int getRemainingQuantity() {
+        return remainingQuantity;
+    }
+
+    public int getFilledQuantity() {
+        return quantity - remainingQuantity;
+    }
+
+    public boolean isFilled() {
+        return remainingQuantity == 0;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("#%d %s %d %s @ $%.2f (remaining: %d)",
+                orderId, side, quantity, getStockSymbol(), getLimitPrice().toBigDecimal(), getRemainingQuantity());
+    }
+}
@@ -0,0 +1,184 @@
+package ch.bbw.m320.stocktrading.service;
+
+import ch.bbw.m320.stocktrading.model.PriceHistory;
+import ch.bbw.m320.stocktrading.model.Stock;
+import ch.bbw.m320.stocktrading.model.SymbolRegistry;
+
+import java.util.*;
+
+/**
+ * Recorded price histories of several stocks, merged into one stream of ticks in time order,
+ * for the {@link Backtester} to replay.
+ *
+ * The ticks are kept in three primitive arrays (symbol, time, price in micro-units),
+ * built once and only read afterwards. All backtests can therefore replay the same tape
+ * in parallel without copying it. Ticks at the same time are ordered by symbol,
+ * so a tape built from the same histories always replays in the same order.
+ *
+ * Clean Code: Immutable object - safe to share between threads
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+public final class MarketTape {
+    private final String[] symbols;      // tape symbol index -> symbol, sorted
+    final int[] tickSymbols;             // tick -> tape symbol index
+    final long[] tickEpochNanos;
+    final long[] tickPrices;             // micro-units
+
+    private MarketTape(String[] symbols, int[] tickSymbols, long[] tickEpochNanos, long[] tickPrices) {
+        this.symbols = symbols;
+        this.tickSymbols = tickSymbols;
+        this.tickEpochNanos = tickEpochNanos;
+        this.tickPrices = tickPrices;
+    }
+
+    /**
+     * Builds a tape from recorded price points, e.g. from {@link Stock#getPriceHistory()}.
+     *
+     * @param histories The price points of each symbol, oldest first
+     * @return The tape
+     */
+    public static MarketTape of(Map<String, ? extends List<Stock.PricePoint>> histories) {
+        if (histories == null) {
+            throw new IllegalArgumentException("Histories cannot be null");
+        }
+        Map<String, long[][]> columns = new TreeMap<>();
+        histories.forEach((symbol, history) -> {
+            if (history == null) {
+                throw new IllegalArgumentException("History of " + symbol + " cannot be null");
+            }
+            long[] epochNanos = new long[history.size()];
+            long[] prices = new long[history.size()];
+            for (int i = 0; i < history.size(); i++) {
+                Stock.PricePoint point = history.get(i);
+                epochNanos[i] = PriceHistory.toEpochNanos(point.getTimestamp());
+                prices[i] = point.getPrice().getMicros();
+            }
+            columns.put(SymbolRegistry.getInstance().canonical(symbol), new long[][]{epochNanos, prices});
+        });
+        return merge(columns);
+    }
+
+    /**
+     * Builds a tape from the price histories of stocks. Reads the primitive history
+     * of each stock directly instead of creating a price point per tick.
+     *
+     * @param stocks The stocks to replay
+     * @return The tape
+     */
+    public static MarketTape of(Collection<Stock> stocks) {
+        if (stocks == null) {
+            throw new IllegalArgumentException("Stocks cannot be null");
+        }
+        Map<String, long[][]> columns = new TreeMap<>();
+        for (Stock stock : stocks) {
+            PriceHistory.View history = stock.getPriceHistoryStore().view();
+            long[] epochNanos = new long[history.size()];
+            long[] prices = new long[history.size()];
+            for (int i = 0; i < history.size(); i++) {
+                epochNanos[i] = history.getEpochNanos(i);
+                prices[i] = history.getScaledPrice(i);
+            }
+            columns.put(stock.getSymbol(), new long[][]{epochNanos, prices});
+        }
+        return merge(columns);
+    }
+
+    /**
+     * Merges the histories of all symbols by time; on equal times the symbol that sorts first wins.
+     */
+    private static MarketTape merge(Map<String, long[][]> columns) {
+        String[] symbols = columns.keySet().toArray(new String[0]);
+        long[][] epochNanos = new long[symbols.length][];
+        long[][] prices = new long[symbols.length][];
+        long total = 0;
+        for (int s = 0; s < symbols.length; s++) {
+            long[][] column = columns.get(symbols[s]);
+            epochNanos[s] = column[0];
+            prices[s] = column[1];
+            for (int i = 1; i < epochNanos[s].length; i++) {
+                if (epochNanos[s][i] < epochNanos[s][i - 1]) {
+                    throw new IllegalArgumentException("History of " + symbols[s] + " is not in time order");
+                }
+            }
+            total += epochNanos[s].length;
+        }
+        if (total > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Too many ticks for one tape: " + total);
+        }
+
+        int[] tickSymbols = new int[(int) total];
+        long[] tickEpochNanos = new long[(int) total];
+        long[] tickPrices = new long[(int) total];
+        int[] positions = new int[symbols.length];
+        PriorityQueue<Integer> next = new PriorityQueue<>(Math.max(1, symbols.length), (a, b) -> {
+            int byTime = Long.compare(epochNanos[a][positions[a]], epochNanos[b][positions[b]]);
+            return byTime != 0 ? byTime : Integer.compare(a, b);
+        });
+        for (int s = 0; s < symbols.length; s++) {
+            if (epochNanos[s].length > 0) {
+                next.add(s);
+            }
+        }
+        for (int tick = 0; !next.isEmpty(); tick++) {
+            int s = next.poll();
+            tickSymbols[tick] = s;
+            tickEpochNanos[tick] = epochNanos[s][positions[s]];
+            tickPrices[tick] = prices[s][positions[s]];
+            if (++positions[s] < epochNanos[s].length) {
+                next.add(s);
+            }
+        }
+        return new MarketTape(symbols, tickSymbols, tickEpochNanos, tickPrices);
+    }
+
+    /**
+     * Gets the number of ticks on the tape.
+     *
+     * @return The number of ticks
+     */
+    public int getTickCount() {
+        return tickSymbols.length;
+    }
+
+    /**
+     * Gets the number of symbols on the tape.
+     *
+     * @return The number of symbols
+     */
+    public int getSymbolCount() {
+        return symbols.length;
+    }
+
+    /**
+     * Gets a symbol by its index on the tape.
+     *
+     * @param index The tape index, 0 to {@link #getSymbolCount()} - 1
+     * @return The symbol
+     */
+    public String getSymbol(int index) {
+        return symbols[index];
+    }
+
+    /**
+     * Finds the tape index of a symbol.
+     *
+     * @param symbol The stock symbol
+     * @return The tape index, or -1 if the symbol is not on the tape
+     */
+    public int indexOf(String symbol) {
+        SymbolRegistry registry = SymbolRegistry.getInstance();
+        int symbolId = registry.find(symbol);
+        if (symbolId == SymbolRegistry.UNKNOWN) {
+            return -1;
+        }
+        int index = Arrays.binarySearch(symbols, registry.symbolOf(symbolId));
+        return index >= 0 ? index : -1;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Market tape with %d ticks of %d stocks", getTickCount(), getSymbolCount());
+    }
+}
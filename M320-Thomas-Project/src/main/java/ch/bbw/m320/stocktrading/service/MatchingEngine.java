@@ -0,0 +1,269 @@
+package ch.bbw.m320.stocktrading.service;
+
+import ch.bbw.m320.stocktrading.exception.InsufficientBalanceException;
+import ch.bbw.m320.stocktrading.exception.InsufficientStockException;
+import ch.bbw.m320.stocktrading.exception.StockNotFoundException;
+import ch.bbw.m320.stocktrading.model.*;
+import ch.bbw.m320.stocktrading.repository.UserRepository;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Matching engine for limit orders, working alongside the market orders of {@link TradingService}.
+ * Keeps one {@link OrderBook} per symbol and crosses incoming orders against it.
+ *
+ * Funds and shares are reserved when an order is submitted: a buy order reserves
+ * limit price x quantity of the balance, a sell order reserves the shares.
+ * Fills therefore cannot fail at settlement; a buyer filled below its limit gets the
+ * difference back, and cancelling an order returns whatever is still reserved.
+ * Each fill is recorded as a BuyTransaction for the buyer and a SellTransaction for
+ * the seller, and the stock price moves to the last fill price.
+ *
+ * Order books are not persisted. Reservations are kept apart from the balance and the
+ * holdings ({@link User#reserve}, {@link Portfolio#reserveStock}) and are persisted as if
+ * the orders were cancelled, so after a restart the resting orders are gone but nothing
+ * they had reserved is lost. The users of each fill are saved once the fill is settled.
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+public class MatchingEngine {
+    private final StockMarket stockMarket;
+    private final TradingService tradingService;
+    private final UserRepository userRepository; // null if fills are not saved
+    private final Map<String, OrderBook> orderBooks;
+    private final AtomicLong nextOrderId;
+
+    /**
+     * Creates a MatchingEngine that does not save the users of a fill, e.g. for simulations.
+     *
+     * @param tradingService The trading service whose user locks guard balances and portfolios
+     */
+    public MatchingEngine(TradingService tradingService) {
+        this(tradingService, null);
+    }
+
+    /**
+     * Creates a new MatchingEngine.
+     * Clean Code: Dependency injection through constructor
+     *
+     * @param tradingService The trading service whose user locks guard balances and portfolios
+     * @param userRepository The repository the buyer and seller of each fill are saved to, or null
+     */
+    public MatchingEngine(TradingService tradingService, UserRepository userRepository) {
+        if (tradingService == null) {
+            throw new IllegalArgumentException("Trading service cannot be null");
+        }
+        this.stockMarket = StockMarket.getInstance(); // Using Singleton
+        this.tradingService = tradingService;
+        this.userRepository = userRepository;
+        this.orderBooks = new ConcurrentHashMap<>();
+        this.nextOrderId = new AtomicLong(1);
+    }
+
+    /**
+     * Submits a limit order. Matching fills are settled before the method returns;
+     * any unfilled quantity rests in the order book.
+     *
+     * @param user The user placing the order
+     * @param stockSymbol The stock symbol
+     * @param side BUY or SELL
+     * @param quantity The number of shares
+     * @param limitPrice The worst acceptable price per share
+     * @return The order, with its filled and remaining quantity
+     * @throws StockNotFoundException if the stock doesn't exist
+     * @throws InsufficientBalanceException if a buyer cannot reserve limit price x quantity
+     * @throws InsufficientStockException if a seller doesn't own the shares
+     */
+    public LimitOrder submitLimitOrder(User user, String stockSymbol, Transaction.TransactionType side,
+                                       int quantity, Money limitPrice)
+            throws StockNotFoundException, InsufficientBalanceException, InsufficientStockException {
+
+        if (user == null) {
+            throw new IllegalArgumentException("User cannot be null");
+        }
+        if (side == null) {
+            throw new IllegalArgumentException("Order side cannot be null");
+        }
+        if (quantity <= 0) {
+            throw new IllegalArgumentException("Quantity must be positive");
+        }
+        if (limitPrice == null || !limitPrice.isPositive()) {
+            throw new IllegalArgumentException("Limit price must be positive");
+        }
+
+        Stock stock = stockMarket.getStock(stockSymbol);
+        if (stock == null) {
+            throw new StockNotFoundException("Stock not found: " + stockSymbol);
+        }
+
+        LimitOrder order = new LimitOrder(nextOrderId.getAndIncrement(), user, stock.getSymbolId(), side,
+                limitPrice.getMicros(), quantity);
+        reserve(order);
+
+        List<OrderBook.Fill> fills = new ArrayList<>();
+        OrderBook book = getOrderBook(stock.getSymbol());
+        synchronized (book) {
+            book.match(order, fills);
+            if (!fills.isEmpty()) {
+                // Under the book lock, so concurrent submits publish their last fills in match order
+                stock.updatePrice(Money.ofMicros(fills.get(fills.size() - 1).getScaledPrice()));
+            }
+        }
+
+        if (!fills.isEmpty()) {
+            for (OrderBook.Fill fill : fills) {
+                settle(fill);
+            }
+            saveParticipants(fills);
+        }
+        return order;
+    }
+
+    /**
+     * Cancels a resting order and releases what is still reserved for it.
+     *
+     * @param order The order to cancel
+     * @return true if the order was cancelled, false if it was already filled or cancelled
+     */
+    public boolean cancelOrder(LimitOrder order) {
+        if (order == null) {
+            return false;
+        }
+
+        int remaining;
+        OrderBook book = getOrderBook(order.getStockSymbol());
+        synchronized (book) {
+            if (!book.remove(order)) {
+                return false;
+            }
+            order.cancel();
+            remaining = order.getRemainingQuantity();
+        }
+
+        release(order, remaining);
+        return true;
+    }
+
+    /**
+     * Gets the order book of a symbol, creating an empty one if needed.
+     *
+     * @param stockSymbol The stock symbol
+     * @return The order book
+     */
+    public OrderBook getOrderBook(String stockSymbol) {
+        return orderBooks.computeIfAbsent(SymbolRegistry.getInstance().canonical(stockSymbol), OrderBook::new);
+    }
+
+    /**
+     * Reserves the funds or shares an order needs, under the user's lock.
+     */
+    private void reserve(LimitOrder order) throws InsufficientBalanceException, InsufficientStockException {
+        User user = order.getUser();
+        Lock lock = tradingService.lockFor(user);
+        lock.lock();
+        try {
+            if (order.getSide() == Transaction.TransactionType.BUY) {
+                Money reserved = order.getLimitPrice().times(order.getQuantity());
+                if (!user.hasSufficientBalance(reserved)) {
+                    throw new InsufficientBalanceException(
+                            String.format("Insufficient balance. Required: $%.2f, Available: $%.2f",
+                                    reserved.toBigDecimal(), user.getBalance().toBigDecimal()));
+                }
+                user.reserve(reserved);
+            } else {
+                int ownedQuantity = user.getPortfolio().getQuantity(order.getSymbolId());
+                if (ownedQuantity < order.getQuantity()) {
+                    throw new InsufficientStockException(
+                            String.format("Insufficient stock. Have: %d shares, Trying to sell: %d shares",
+                                    ownedQuantity, order.getQuantity()));
+                }
+                user.getPortfolio().reserveStock(order.getSymbolId(), order.getQuantity());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the reservation for the unfilled part of a cancelled order.
+     */
+    private void release(LimitOrder order, int quantity) {
+        if (quantity == 0) {
+            return;
+        }
+        User user = order.getUser();
+        Lock lock = tradingService.lockFor(user);
+        lock.lock();
+        try {
+            if (order.getSide() == Transaction.TransactionType.BUY) {
+                user.releaseReservation(order.getLimitPrice().times(quantity));
+            } else {
+                user.getPortfolio().releaseReservedStock(order.getSymbolId(), quantity);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Settles one fill: the buyer gets the shares (and any price improvement back),
+     * the seller gets the proceeds. Each user is updated under its own lock.
+     * The fill counts once towards the volume of the symbol's candles and its VWAP.
+     */
+    private void settle(OrderBook.Fill fill) {
+        Money price = Money.ofMicros(fill.getScaledPrice());
+        int quantity = fill.getQuantity();
+        LimitOrder buyOrder = fill.getBuyOrder();
+        LimitOrder sellOrder = fill.getSellOrder();
+
+        BuyTransaction purchase = new BuyTransaction(buyOrder.getStockSymbol(), quantity, price);
+        User buyer = buyOrder.getUser();
+        Lock buyerLock = tradingService.lockFor(buyer);
+        buyerLock.lock();
+        try {
+            buyer.consumeReservation(buyOrder.getLimitPrice().times(quantity));
+            buyer.getPortfolio().addStock(buyOrder.getSymbolId(), quantity);
+            Money improvement = buyOrder.getLimitPrice().minus(price).times(quantity);
+            if (improvement.isPositive()) {
+                buyer.deposit(improvement);
+            }
+            buyer.addTransaction(purchase);
+        } finally {
+            buyerLock.unlock();
+        }
+
+        User seller = sellOrder.getUser();
+        Lock sellerLock = tradingService.lockFor(seller);
+        sellerLock.lock();
+        try {
+            seller.getPortfolio().consumeReservedStock(sellOrder.getSymbolId(), quantity);
+            seller.deposit(price.times(quantity));
+            seller.addTransaction(new SellTransaction(sellOrder.getStockSymbol(), quantity, price));
+        } finally {
+            sellerLock.unlock();
+        }
+
+        stockMarket.recordTrade(purchase);
+    }
+
+    /**
+     * Saves every buyer and seller of the fills once, after all of them are settled.
+     */
+    private void saveParticipants(List<OrderBook.Fill> fills) {
+        if (userRepository == null) {
+            return;
+        }
+        Set<User> participants = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (OrderBook.Fill fill : fills) {
+            participants.add(fill.getBuyOrder().getUser());
+            participants.add(fill.getSellOrder().getUser());
+        }
+        for (User participant : participants) {
+            userRepository.save(participant);
+        }
+    }
+}
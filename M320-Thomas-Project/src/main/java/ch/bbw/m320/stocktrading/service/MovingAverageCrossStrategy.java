@@ -0,0 +1,104 @@
+package ch.bbw.m320.stocktrading.service;
+
+import ch.bbw.m320.stocktrading.exception.InsufficientBalanceException;
+import ch.bbw.m320.stocktrading.exception.InsufficientStockException;
+import ch.bbw.m320.stocktrading.exception.StockNotFoundException;
+
+/**
+ * Example strategy for the {@link Backtester}: buys a stock when its fast moving average
+ * crosses above the slow one and sells the whole position when it crosses below.
+ *
+ * Both averages are running sums over one ring buffer of the last prices per symbol,
+ * so a tick costs the same for any window length.
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+public class MovingAverageCrossStrategy implements TradingStrategy {
+    private final int fastWindow;
+    private final int slowWindow;
+    private final int quantity;
+
+    private long[][] recentPrices; // tape symbol index -> ring of the last slowWindow prices
+    private int[] counts;          // prices seen per symbol, up to slowWindow
+    private int[] heads;           // next ring position per symbol
+    private long[] fastSums;
+    private long[] slowSums;
+    private boolean[] fastAbove;
+
+    /**
+     * Creates the strategy.
+     *
+     * @param fastWindow The number of ticks of the fast average
+     * @param slowWindow The number of ticks of the slow average, larger than the fast one
+     * @param quantity The number of shares bought on each signal
+     */
+    public MovingAverageCrossStrategy(int fastWindow, int slowWindow, int quantity) {
+        if (fastWindow <= 0 || slowWindow <= fastWindow) {
+            throw new IllegalArgumentException("Windows must satisfy 0 < fast < slow");
+        }
+        if (quantity <= 0) {
+            throw new IllegalArgumentException("Quantity must be positive");
+        }
+        this.fastWindow = fastWindow;
+        this.slowWindow = slowWindow;
+        this.quantity = quantity;
+    }
+
+    @Override
+    public String getName() {
+        return String.format("MA cross %d/%d x%d", fastWindow, slowWindow, quantity);
+    }
+
+    @Override
+    public void onStart(BacktestContext context) {
+        int symbolCount = context.getTape().getSymbolCount();
+        recentPrices = new long[symbolCount][slowWindow];
+        counts = new int[symbolCount];
+        heads = new int[symbolCount];
+        fastSums = new long[symbolCount];
+        slowSums = new long[symbolCount];
+        fastAbove = new boolean[symbolCount];
+    }
+
+    @Override
+    public void onTick(BacktestContext context, int symbol, long priceMicros) {
+        long[] ring = recentPrices[symbol];
+        int head = heads[symbol];
+        int count = counts[symbol];
+
+        // The price leaving the fast window is fastWindow positions back in the ring
+        if (count >= fastWindow) {
+            fastSums[symbol] -= ring[Math.floorMod(head - fastWindow, slowWindow)];
+        }
+        if (count == slowWindow) {
+            slowSums[symbol] -= ring[head];
+        } else {
+            counts[symbol] = ++count;
+        }
+        ring[head] = priceMicros;
+        heads[symbol] = head + 1 == slowWindow ? 0 : head + 1;
+        fastSums[symbol] += priceMicros;
+        slowSums[symbol] += priceMicros;
+
+        if (count < slowWindow) {
+            return;
+        }
+        // Compare fastSum / fast with slowSum / slow without dividing
+        boolean above = fastSums[symbol] * slowWindow > slowSums[symbol] * fastWindow;
+        if (above == fastAbove[symbol]) {
+            return;
+        }
+        fastAbove[symbol] = above;
+        try {
+            if (above && context.getCash() >= priceMicros * quantity) {
+                context.buy(symbol, quantity);
+            } else if (!above && context.getPosition(symbol) > 0) {
+                context.sell(symbol, (int) context.getPosition(symbol));
+            }
+        } catch (StockNotFoundException | InsufficientBalanceException | InsufficientStockException e) {
+            // Cannot happen: the symbol has ticked and cash and position were checked
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package ch.bbw.m320.stocktrading.service;
+
+import ch.bbw.m320.stocktrading.model.Transaction;
+
+import java.util.*;
+
+/**
+ * Limit order book for one stock symbol with price-time priority.
+ * Each side keeps its price levels sorted (best price first) and each level
+ * is a FIFO queue, so at the same price the older order is filled first.
+ *
+ * The {@link MatchingEngine} matches and removes orders while holding the book's monitor;
+ * the public read methods take the same monitor, so they never see a level mid-update.
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+public class OrderBook {
+    private final String stockSymbol;
+    private final NavigableMap<Long, ArrayDeque<LimitOrder>> bids; // highest price first
+    private final NavigableMap<Long, ArrayDeque<LimitOrder>> asks; // lowest price first
+
+    /**
+     * Creates an empty order book.
+     *
+     * @param stockSymbol The symbol traded in this book
+     */
+    public OrderBook(String stockSymbol) {
+        this.stockSymbol = stockSymbol;
+        this.bids = new TreeMap<>(Comparator.reverseOrder());
+        this.asks = new TreeMap<>();
+    }
+
+    /**
+     * Matches an incoming order against the opposite side and rests any remainder.
+     * Fills are executed at the price of the resting order.
+     *
+     * @param order The incoming order
+     * @param fills Receives the fills produced by this order, in execution order
+     */
+    void match(LimitOrder order, List<Fill> fills) {
+        boolean isBuy = order.getSide() == Transaction.TransactionType.BUY;
+        NavigableMap<Long, ArrayDeque<LimitOrder>> opposite = isBuy ? asks : bids;
+
+        while (order.getRemainingQuantity() > 0 && !opposite.isEmpty()) {
+            Map.Entry<Long, ArrayDeque<LimitOrder>> bestLevel = opposite.firstEntry();
+            long levelPrice = bestLevel.getKey();
+            boolean crosses = isBuy
+                    ? levelPrice <= order.getScaledLimitPrice()
+                    : levelPrice >= order.getScaledLimitPrice();
+            if (!crosses) {
+                break;
+            }
+
+            ArrayDeque<LimitOrder> queue = bestLevel.getValue();
+            while (order.getRemainingQuantity() > 0 && !queue.isEmpty()) {
+                LimitOrder resting = queue.peekFirst();
+                int fillQuantity = Math.min(order.getRemainingQuantity(), resting.getRemainingQuantity());
+                order.fill(fillQuantity);
+                resting.fill(fillQuantity);
+                fills.add(isBuy
+                        ? new Fill(order, resting, levelPrice, fillQuantity)
+                        : new Fill(resting, order, levelPrice, fillQuantity));
+                if (resting.isFilled()) {
+                    queue.pollFirst();
+                }
+            }
+            if (queue.isEmpty()) {
+                opposite.pollFirstEntry();
+            }
+        }
+
+        if (order.getRemainingQuantity() > 0) {
+            sideOf(order).computeIfAbsent(order.getScaledLimitPrice(), price -> new ArrayDeque<>()).addLast(order);
+        }
+    }
+
+    /**
+     * Removes a resting order from the book.
+     *
+     * @param order The order to remove
+     * @return true if the order was resting in the book
+     */
+    boolean remove(LimitOrder order) {
+        NavigableMap<Long, ArrayDeque<LimitOrder>> side = sideOf(order);
+        ArrayDeque<LimitOrder> queue = side.get(order.getScaledLimitPrice());
+        if (queue == null || !queue.remove(order)) {
+            return false;
+        }
+        if (queue.isEmpty()) {
+            side.remove(order.getScaledLimitPrice());
+        }
+        return true;
+    }
+
+    /**
+     * Gets the highest bid price.
+     *
+     * @return The best bid in micro-units, or null if there are no bids
+     */
+    public synchronized Long getBestBid() {
+        return bids.isEmpty() ? null : bids.firstKey();
+    }
+
+    /**
+     * Gets the lowest ask price.
+     *
+     * @return The best ask in micro-units, or null if there are no asks
+     */
+    public synchronized Long getBestAsk() {
+        return asks.isEmpty() ? null : asks.firstKey();
+    }
+
+    /**
+     * Gets the total quantity resting at a price on one side.
+     *
+     * @param side BUY for bids, SELL for asks
+     * @param scaledPrice The price level in micro-units
+     * @return The total quantity at that level
+     */
+    public synchronized int getDepth(Transaction.TransactionType side, long scaledPrice) {
+        ArrayDeque<LimitOrder> queue = (side == Transaction.TransactionType.BUY ? bids : asks).get(scaledPrice);
+        if (queue == null) {
+            return 0;
+        }
+        int depth = 0;
+        for (LimitOrder order : queue) {
+            depth += order.getRemainingQuantity();
+        }
+        return depth;
+    }
+
+    public String getStockSymbol() {
+        return stockSymbol;
+    }
+
+    private NavigableMap<Long, ArrayDeque<LimitOrder>> sideOf(LimitOrder order) {
+        return order.getSide() == Transaction.TransactionType.BUY ? bids : asks;
+    }
+
+    /**
+     * A match between a buy and a sell order.
+     */
+    public static class Fill {
+        private final LimitOrder buyOrder;
+        private final LimitOrder sellOrder;
+        private final long price; // micro-units
+        private final int quantity;
+
+        Fill(LimitOrder buyOrder, LimitOrder sellOrder, long price, int quantity) {
+            this.buyOrder = buyOrder;
+            this.sellOrder = sellOrder;
+            this.price = price;
+            this.quantity = quantity;
+        }
+
+        public LimitOrder getBuyOrder() {
+            return buyOrder;
+        }
+
+        public LimitOrder getSellOrder() {
+            return sellOrder;
+        }
+
+        public long getScaledPrice() {
+            return price;
+        }
+
+        public int getQuantity() {
+            return quantity;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package ch.bbw.m320.stocktrading.service;
+
+import ch.bbw.m320.stocktrading.model.Transaction;
+
+/**
+ * One leg of a batch of market orders, see {@link TradingService#executeBatch}.
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+public class OrderRequest {
+    private final String stockSymbol;
+    private final Transaction.TransactionType side;
+    private final int quantity;
+
+    /**
+     * Creates a new order request.
+     *
+     * @param stockSymbol The stock symbol
+     * @param side BUY or SELL
+     * @param quantity The number of shares
+     */
+    public OrderRequest(String stockSymbol, Transaction.TransactionType side, int quantity) {
+        if (stockSymbol == null || stockSymbol.trim().isEmpty()) {
+            throw new IllegalArgumentException("Stock symbol cannot be null or empty");
+        }
+        if (side == null) {
+            throw new IllegalArgumentException("Order side cannot be null");
+        }
+        if (quantity <= 0) {
+            throw new IllegalArgumentException("Quantity must be positive");
+        }
+
+        this.stockSymbol = stockSymbol.toUpperCase();
+        this.side = side;
+        this.quantity = quantity;
+    }
+
+    /**
+     * Creates a buy request.
+     */
+    public static OrderRequest buy(String stockSymbol, int quantity) {
+        return new OrderRequest(stockSymbol, Transaction.TransactionType.BUY, quantity);
+    }
+
+    /**
+     * Creates a sell request.
+     */
+    public static OrderRequest sell(String stockSymbol, int quantity) {
+        return new OrderRequest(stockSymbol, Transaction.TransactionType.SELL, quantity);
+    }
+
+    // Getters
+    public String getStockSymbol() {
+        return stockSymbol;
+    }
+
+    public Transaction.TransactionType getSide() {
+        return side;
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %d %s", side, quantity, stockSymbol);
+    }
+}
@@ -0,0 +1,73 @@
+package ch.bbw.m320.stocktrading.service;
+
+import ch.bbw.m320.stocktrading.model.Money;
+
+/**
+ * Value-at-risk and expected shortfall of one user's portfolio, as computed by the {@link RiskEngine}.
+ * VaR is the loss that is exceeded only with the probability 1 - confidence;
+ * expected shortfall is the average loss in those worst cases.
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+public final class PortfolioRisk {
+    private final String userId;
+    private final String username;
+    private final Money marketValue;
+    private final Money oneDayValueAtRisk;
+    private final Money oneDayExpectedShortfall;
+    private final Money tenDayValueAtRisk;
+    private final Money tenDayExpectedShortfall;
+
+    PortfolioRisk(String userId, String username, Money marketValue, Money oneDayValueAtRisk,
+                  Money oneDayExpectedShortfall, Money tenDayValueAtRisk, Money tenDayExpectedShortfall) {
+        this.userId = userId;
+        this.username = username;
+        this.marketValue = marketValue;
+        this.oneDayValueAtRisk = oneDayValueAtRisk;
+        this.oneDayExpectedShortfall = oneDayExpectedShortfall;
+        this.tenDayValueAtRisk = tenDayValueAtRisk;
+        this.tenDayExpectedShortfall = tenDayExpectedShortfall;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * Gets the value of the portfolio at the current prices, without the cash balance.
+     *
+     * @return The market value
+     */
+    public Money getMarketValue() {
+        return marketValue;
+    }
+
+    public Money getOneDayValueAtRisk() {
+        return oneDayValueAtRisk;
+    }
+
+    public Money getOneDayExpectedShortfall() {
+        return oneDayExpectedShortfall;
+    }
+
+    public Money getTenDayValueAtRisk() {
+        return tenDayValueAtRisk;
+    }
+
+    public Money getTenDayExpectedShortfall() {
+        return tenDayExpectedShortfall;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: value $%.2f, 1-day VaR $%.2f / ES $%.2f, 10-day VaR $%.2f / ES $%.2f",
+                username, marketValue.toBigDecimal(), oneDayValueAtRisk.toBigDecimal(),
+                oneDayExpectedShortfall.toBigDecimal(), tenDayValueAtRisk.toBigDecimal(),
+                tenDayExpectedShortfall.toBigDecimal());
+    }
+}
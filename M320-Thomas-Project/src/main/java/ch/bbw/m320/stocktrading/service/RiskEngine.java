@@ -0,0 +1,726 @@
+package ch.bbw.m320.stocktrading.service;
+
+import ch.bbw.m320.stocktrading.model.*;
+import ch.bbw.m320.stocktrading.repository.UserRepository;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Monte Carlo value-at-risk and expected shortfall for user portfolios.
+ *
+ * The risk model is calibrated from the price histories of the held stocks: log returns
+ * are sampled on a common time grid (one return per return interval, prices carried forward
+ * between ticks), then their covariance is scaled to one day. Correlated log returns are drawn
+ * as L z, with L the Cholesky factor of the covariance and z independent standard normal draws.
+ * The drift is taken as zero, as usual for short horizons: the sample mean is mostly noise, and
+ * scaled from short return intervals to a day it would dominate the result. The 10-day horizon
+ * reuses the same draws as sqrt(10) x L z (square-root-of-time rule).
+ *
+ * Scenarios are generated once per batch and shared by all portfolios: blocks of scenarios
+ * are forked across a {@link ForkJoinPool}, each block with its own {@link SplittableRandom}
+ * seeded from the block number, so the result depends only on the seed and not on the number
+ * of threads. Scenario returns and portfolio losses live in primitive arrays; Money is only
+ * used at the edges, when holdings are valued and results are reported.
+ *
+ * Thread safety: one batch runs at a time; {@link #getProgress()} may be called from any thread.
+ *
+ * Clean Code: Single Responsibility - risk calculation only; users come from the repository
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+public class RiskEngine {
+    public static final int DEFAULT_SCENARIO_COUNT = 1_000_000;
+    public static final double DEFAULT_CONFIDENCE = 0.99;
+    public static final Duration DEFAULT_RETURN_INTERVAL = Duration.ofDays(1);
+    public static final int DEFAULT_LOOKBACK = 250; // returns, about one trading year of daily returns
+    public static final long DEFAULT_SEED = 320L;
+
+    private static final int LONG_HORIZON_DAYS = 10;
+    private static final int SCENARIOS_PER_BLOCK = 16_384;
+    private static final long NANOS_PER_DAY = Duration.ofDays(1).toNanos();
+    private static final double MICROS_PER_UNIT = 1_000_000.0;
+    private static final double VARIANCE_EPSILON = 1e-18;
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private final StockMarket stockMarket;
+    private final ForkJoinPool pool;
+    private int scenarioCount = DEFAULT_SCENARIO_COUNT;
+    private double confidence = DEFAULT_CONFIDENCE;
+    private Duration returnInterval = DEFAULT_RETURN_INTERVAL;
+    private int lookback = DEFAULT_LOOKBACK;
+    private long seed = DEFAULT_SEED;
+
+    // Progress of the current batch, read by other threads
+    private volatile Phase phase = Phase.IDLE;
+    private volatile long startNanos;
+    private volatile long finishNanos;
+    private volatile int scenarioTotal;
+    private volatile int portfolioTotal;
+    private final AtomicLong scenariosGenerated = new AtomicLong();
+    private final AtomicInteger portfoliosEvaluated = new AtomicInteger();
+
+    /**
+     * Creates a risk engine for the global stock market on the common fork/join pool.
+     */
+    public RiskEngine() {
+        this(StockMarket.getInstance(), ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a risk engine.
+     * Clean Code: Dependency injection through constructor
+     *
+     * @param stockMarket The market providing prices and price histories
+     * @param pool The pool the scenarios and portfolios are computed on
+     */
+    public RiskEngine(StockMarket stockMarket, ForkJoinPool pool) {
+        if (stockMarket == null) {
+            throw new IllegalArgumentException("Stock market cannot be null");
+        }
+        if (pool == null) {
+            throw new IllegalArgumentException("Pool cannot be null");
+        }
+        this.stockMarket = stockMarket;
+        this.pool = pool;
+    }
+
+    /**
+     * Sets the number of Monte Carlo scenarios per batch.
+     *
+     * @param scenarioCount The number of scenarios
+     */
+    public synchronized void setScenarioCount(int scenarioCount) {
+        if (scenarioCount <= 0) {
+            throw new IllegalArgumentException("Scenario count must be positive");
+        }
+        this.scenarioCount = scenarioCount;
+    }
+
+    /**
+     * Sets the confidence level of VaR and expected shortfall, e.g. 0.99.
+     *
+     * @param confidence The confidence level, between 0 and 1 (exclusive)
+     */
+    public synchronized void setConfidence(double confidence) {
+        if (!(confidence > 0 && confidence < 1)) {
+            throw new IllegalArgumentException("Confidence must be between 0 and 1");
+        }
+        this.confidence = confidence;
+    }
+
+    /**
+     * Sets the spacing of the returns the model is calibrated on. The simulated market ticks
+     * far more often than once a day, so a shorter interval gives more returns from the same
+     * history; they are scaled to one day either way.
+     *
+     * @param returnInterval The return interval
+     */
+    public synchronized void setReturnInterval(Duration returnInterval) {
+        if (returnInterval == null || returnInterval.isNegative() || returnInterval.isZero()) {
+            throw new IllegalArgumentException("Return interval must be positive");
+        }
+        this.returnInterval = returnInterval;
+    }
+
+    /**
+     * Sets how many of the most recent returns the model is calibrated on.
+     *
+     * @param lookback The maximum number of returns, at least 2
+     */
+    public synchronized void setLookback(int lookback) {
+        if (lookback < 2) {
+            throw new IllegalArgumentException("Lookback must be at least 2 returns");
+        }
+        this.lookback = lookback;
+    }
+
+    /**
+     * Sets the seed of the scenarios. The same seed, model and portfolios give the same results.
+     *
+     * @param seed The seed
+     */
+    public synchronized void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Runs the end-of-day batch: the risk of every user in the repository.
+     * Users are streamed from the repository; only their holdings are kept.
+     *
+     * @param userRepository The repository of all users
+     * @return The report, with one result per user in repository order
+     * @throws IllegalStateException if the held stocks do not have enough price history
+     */
+    public synchronized RiskReport runEndOfDay(UserRepository userRepository) {
+        if (userRepository == null) {
+            throw new IllegalArgumentException("User repository cannot be null");
+        }
+        start();
+        List<Exposure> exposures = new ArrayList<>();
+        try {
+            userRepository.forEachUser(user -> exposures.add(Exposure.of(user)));
+        } catch (RuntimeException e) {
+            failed();
+            throw e;
+        }
+        return evaluate(exposures);
+    }
+
+    /**
+     * Computes the risk of the given users.
+     *
+     * @param users The users
+     * @return The report, with one result per user in the given order
+     * @throws IllegalStateException if the held stocks do not have enough price history
+     */
+    public synchronized RiskReport assess(Collection<User> users) {
+        if (users == null || users.stream().anyMatch(Objects::isNull)) {
+            throw new IllegalArgumentException("Users cannot be null");
+        }
+        start();
+        List<Exposure> exposures = new ArrayList<>(users.size());
+        for (User user : users) {
+            exposures.add(Exposure.of(user));
+        }
+        return evaluate(exposures);
+    }
+
+    /**
+     * Computes the risk of one user.
+     *
+     * @param user The user
+     * @return The risk of the user's portfolio
+     * @throws IllegalStateException if the held stocks do not have enough price history
+     */
+    public PortfolioRisk assess(User user) {
+        if (user == null) {
+            throw new IllegalArgumentException("User cannot be null");
+        }
+        return assess(List.of(user)).getResults().get(0);
+    }
+
+    /**
+     * Gets the progress of the current or last batch.
+     *
+     * @return A snapshot of the progress
+     */
+    public Progress getProgress() {
+        Phase currentPhase = phase;
+        long end = currentPhase == Phase.DONE || currentPhase == Phase.FAILED ? finishNanos : System.nanoTime();
+        Duration elapsed = currentPhase == Phase.IDLE ? Duration.ZERO : Duration.ofNanos(end - startNanos);
+        return new Progress(currentPhase, scenariosGenerated.get(), scenarioTotal,
+                portfoliosEvaluated.get(), portfolioTotal, elapsed);
+    }
+
+    private void start() {
+        startNanos = System.nanoTime();
+        scenariosGenerated.set(0);
+        portfoliosEvaluated.set(0);
+        scenarioTotal = scenarioCount;
+        portfolioTotal = 0;
+        phase = Phase.LOADING;
+    }
+
+    /**
+     * Calibrates the model on the held stocks, generates the scenarios and evaluates every portfolio.
+     */
+    private RiskReport evaluate(List<Exposure> exposures) {
+        try {
+            portfolioTotal = exposures.size();
+            phase = Phase.CALIBRATING;
+            List<Stock> stocks = heldStocks(exposures);
+            Map<String, Integer> factors = new HashMap<>();
+            long[] prices = new long[stocks.size()];
+            for (int i = 0; i < stocks.size(); i++) {
+                factors.put(stocks.get(i).getSymbol(), i);
+                prices[i] = stocks.get(i).getCurrentPrice().getMicros();
+            }
+            for (Exposure exposure : exposures) {
+                exposure.resolve(factors, prices);
+            }
+
+            Scenarios scenarios = new Scenarios(scenarioCount, stocks.size());
+            if (!stocks.isEmpty()) {
+                RiskModel model = calibrate(stocks);
+                phase = Phase.SIMULATING;
+                pool.invoke(new ScenarioBlocks(model, scenarios, seed, 0, scenarios.blockCount()));
+            }
+            scenariosGenerated.set(scenarioCount);
+
+            phase = Phase.EVALUATING;
+            int tail = Math.max(1, (int) Math.floor(scenarioCount * (1 - confidence) + 1e-9));
+            PortfolioRisk[] results = new PortfolioRisk[exposures.size()];
+            int sequential = Math.max(1, results.length / (pool.getParallelism() * 4));
+            pool.invoke(new PortfolioRange(exposures, scenarios, tail, sequential, results,
+                    portfoliosEvaluated, 0, results.length));
+
+            List<String> symbols = new ArrayList<>(stocks.size());
+            stocks.forEach(stock -> symbols.add(stock.getSymbol()));
+            finishNanos = System.nanoTime();
+            phase = Phase.DONE;
+            return new RiskReport(LocalDateTime.now(), scenarioCount, confidence, symbols,
+                    new ArrayList<>(Arrays.asList(results)), Duration.ofNanos(finishNanos - startNanos));
+        } catch (RuntimeException e) {
+            failed();
+            throw e;
+        }
+    }
+
+    private void failed() {
+        finishNanos = System.nanoTime();
+        phase = Phase.FAILED;
+    }
+
+    /**
+     * Gets every listed stock held by one of the users, sorted by symbol so the model
+     * and therefore the scenarios do not depend on the order of the users.
+     */
+    private List<Stock> heldStocks(List<Exposure> exposures) {
+        SortedMap<String, Stock> stocks = new TreeMap<>();
+        for (Exposure exposure : exposures) {
+            for (String symbol : exposure.symbols) {
+                Stock stock = stockMarket.getStock(symbol);
+                if (stock != null) {
+                    stocks.put(stock.getSymbol(), stock);
+                }
+            }
+        }
+        return new ArrayList<>(stocks.values());
+    }
+
+    /**
+     * Estimates the daily covariance of the log returns and factors it.
+     */
+    private RiskModel calibrate(List<Stock> stocks) {
+        int factorCount = stocks.size();
+        PriceHistory.View[] histories = new PriceHistory.View[factorCount];
+        long first = Long.MIN_VALUE;
+        long last = Long.MIN_VALUE;
+        String youngest = null;
+        for (int i = 0; i < factorCount; i++) {
+            histories[i] = stocks.get(i).getPriceHistoryStore().view();
+            if (histories[i].isEmpty()) {
+                throw new IllegalStateException("No price history for " + stocks.get(i).getSymbol());
+            }
+            if (histories[i].getEpochNanos(0) > first) {
+                first = histories[i].getEpochNanos(0);
+                youngest = stocks.get(i).getSymbol();
+            }
+            last = Math.max(last, histories[i].getEpochNanos(histories[i].size() - 1));
+        }
+
+        // The grid starts where every stock has a price, so no return is made up
+        long interval = returnInterval.toNanos();
+        int returnCount = (int) Math.min(lookback, (last - first) / interval);
+        if (returnCount < 2) {
+            throw new IllegalStateException(String.format(
+                    "Not enough price history for a risk model: need 2 returns of %s, %s has %d",
+                    returnInterval, youngest, Math.max(returnCount, 0)));
+        }
+        long gridStart = last - returnCount * interval;
+
+        double[][] returns = new double[factorCount][returnCount];
+        double[] mean = new double[factorCount];
+        for (int i = 0; i < factorCount; i++) {
+            double previous = Math.log(priceAt(histories[i], gridStart));
+            for (int k = 0; k < returnCount; k++) {
+                double current = Math.log(priceAt(histories[i], gridStart + (k + 1) * interval));
+                returns[i][k] = current - previous;
+                mean[i] += returns[i][k];
+                previous = current;
+            }
+            mean[i] /= returnCount;
+        }
+
+        double dayFactor = (double) NANOS_PER_DAY / interval;
+        double[][] covariance = new double[factorCount][factorCount];
+        for (int i = 0; i < factorCount; i++) {
+            for (int j = 0; j <= i; j++) {
+                double sum = 0;
+                for (int k = 0; k < returnCount; k++) {
+                    sum += (returns[i][k] - mean[i]) * (returns[j][k] - mean[j]);
+                }
+                covariance[i][j] = sum / (returnCount - 1) * dayFactor;
+                covariance[j][i] = covariance[i][j];
+            }
+        }
+        return new RiskModel(cholesky(covariance));
+    }
+
+    /**
+     * Gets the last price at or before a time, in micro-units.
+     */
+    private static long priceAt(PriceHistory.View history, long epochNanos) {
+        int low = 0;
+        int high = history.size() - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (history.getEpochNanos(middle) <= epochNanos) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return history.getScaledPrice(low);
+    }
+
+    /**
+     * Factors a covariance matrix into a lower triangular L with L L^T = covariance, stored row by row.
+     * A stock without variance, or one that moves exactly with others, gets a zero column
+     * instead of failing the whole batch.
+     */
+    static double[] cholesky(double[][] covariance) {
+        int n = covariance.length;
+        double[] lower = new double[n * n];
+        for (int j = 0; j < n; j++) {
+            double diagonal = covariance[j][j];
+            for (int k = 0; k < j; k++) {
+                diagonal -= lower[j * n + k] * lower[j * n + k];
+            }
+            if (diagonal <= VARIANCE_EPSILON) {
+                continue;
+            }
+            double pivot = Math.sqrt(diagonal);
+            lower[j * n + j] = pivot;
+            for (int i = j + 1; i < n; i++) {
+                double sum = covariance[i][j];
+                for (int k = 0; k < j; k++) {
+                    sum -= lower[i * n + k] * lower[j * n + k];
+                }
+                lower[i * n + j] = sum / pivot;
+            }
+        }
+        return lower;
+    }
+
+    /**
+     * Sums the value changes of the holdings per scenario, then takes the tail of the losses.
+     */
+    private static PortfolioRisk evaluate(Exposure exposure, Scenarios scenarios, int tail, double[] losses) {
+        int n = scenarios.count;
+        int width = scenarios.factorCount;
+        int[] factors = exposure.factors;
+        double[] values = exposure.values;
+        double[] result = new double[4];
+
+        float[][] horizons = {scenarios.oneDay, scenarios.tenDay};
+        for (int h = 0; h < horizons.length; h++) {
+            float[] returns = horizons[h];
+            if (factors.length > 0) {
+                for (int s = 0, base = 0; s < n; s++, base += width) {
+                    double change = 0;
+                    for (int i = 0; i < factors.length; i++) {
+                        change += values[i] * returns[base + factors[i]];
+                    }
+                    losses[s] = -change;
+                }
+                select(losses, n, n - tail);
+                double shortfall = 0;
+                for (int s = n - tail; s < n; s++) {
+                    shortfall += losses[s];
+                }
+                result[2 * h] = losses[n - tail];
+                result[2 * h + 1] = shortfall / tail;
+            }
+        }
+        return new PortfolioRisk(exposure.userId, exposure.username, Money.ofMicros(exposure.marketValue),
+                toMoney(result[0]), toMoney(result[1]), toMoney(result[2]), toMoney(result[3]));
+    }
+
+    private static Money toMoney(double units) {
+        return Money.ofMicros(Math.round(units * MICROS_PER_UNIT));
+    }
+
+    /**
+     * Partially sorts the first n values so that values[k] is in its sorted place,
+     * with nothing larger before it and nothing smaller after it (quickselect, O(n) on average).
+     */
+    static void select(double[] values, int n, int k) {
+        int low = 0;
+        int high = n - 1;
+        while (low < high) {
+            double a = values[low];
+            double b = values[(low + high) >>> 1];
+            double c = values[high];
+            double pivot = Math.max(Math.min(a, b), Math.min(Math.max(a, b), c)); // median of three
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (values[i] < pivot) {
+                    i++;
+                }
+                while (values[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    double swap = values[i];
+                    values[i++] = values[j];
+                    values[j--] = swap;
+                }
+            }
+            if (k <= j) {
+                high = j;
+            } else if (k >= i) {
+                low = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * The phases of a batch.
+     */
+    public enum Phase {
+        IDLE, LOADING, CALIBRATING, SIMULATING, EVALUATING, DONE, FAILED
+    }
+
+    /**
+     * Snapshot of the progress of a batch, for monitoring long end-of-day runs.
+     */
+    public static final class Progress {
+        private final Phase phase;
+        private final long scenariosGenerated;
+        private final long scenarioTotal;
+        private final int portfoliosEvaluated;
+        private final int portfolioTotal;
+        private final Duration elapsed;
+
+        Progress(Phase phase, long scenariosGenerated, long scenarioTotal, int portfoliosEvaluated,
+                 int portfolioTotal, Duration elapsed) {
+            this.phase = phase;
+            this.scenariosGenerated = scenariosGenerated;
+            this.scenarioTotal = scenarioTotal;
+            this.portfoliosEvaluated = portfoliosEvaluated;
+            this.portfolioTotal = portfolioTotal;
+            this.elapsed = elapsed;
+        }
+
+        public Phase getPhase() {
+            return phase;
+        }
+
+        public long getScenariosGenerated() {
+            return scenariosGenerated;
+        }
+
+        public long getScenarioTotal() {
+            return scenarioTotal;
+        }
+
+        public int getPortfoliosEvaluated() {
+            return portfoliosEvaluated;
+        }
+
+        public int getPortfolioTotal() {
+            return portfolioTotal;
+        }
+
+        public Duration getElapsed() {
+            return elapsed;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d/%d scenarios, %d/%d portfolios (%.1f s)", phase, scenariosGenerated,
+                    scenarioTotal, portfoliosEvaluated, portfolioTotal, elapsed.toMillis() / 1000.0);
+        }
+    }
+
+    /**
+     * The holdings of one user, copied out of the portfolio.
+     */
+    private static final class Exposure {
+        private final String userId;
+        private final String username;
+        private final String[] symbols;
+        private final int[] quantities;
+        private int[] factors;   // holding -> index in the risk model
+        private double[] values; // holding -> market value in units
+        private long marketValue; // micro-units
+
+        private Exposure(String userId, String username, String[] symbols, int[] quantities) {
+            this.userId = userId;
+            this.username = username;
+            this.symbols = symbols;
+            this.quantities = quantities;
+        }
+
+        static Exposure of(User user) {
+            Map<String, Integer> holdings = user.getPortfolio().getHoldingsIncludingReserved();
+            String[] symbols = new String[holdings.size()];
+            int[] quantities = new int[holdings.size()];
+            int i = 0;
+            for (Map.Entry<String, Integer> holding : holdings.entrySet()) {
+                symbols[i] = holding.getKey();
+                quantities[i++] = holding.getValue();
+            }
+            return new Exposure(user.getUserId(), user.getUsername(), symbols, quantities);
+        }
+
+        /**
+         * Values the holdings at the current prices; holdings of unlisted stocks are left out.
+         */
+        void resolve(Map<String, Integer> factorIndex, long[] prices) {
+            int[] resolvedFactors = new int[symbols.length];
+            double[] resolvedValues = new double[symbols.length];
+            int count = 0;
+            marketValue = 0;
+            for (int i = 0; i < symbols.length; i++) {
+                Integer factor = factorIndex.get(symbols[i]);
+                if (factor == null) {
+                    continue;
+                }
+                long value = Math.multiplyExact(prices[factor], (long) quantities[i]);
+                marketValue = Math.addExact(marketValue, value);
+                resolvedFactors[count] = factor;
+                resolvedValues[count++] = value / MICROS_PER_UNIT;
+            }
+            factors = Arrays.copyOf(resolvedFactors, count);
+            values = Arrays.copyOf(resolvedValues, count);
+        }
+    }
+
+    /**
+     * The Cholesky factor of the daily covariance of the log returns, row by row.
+     */
+    private static final class RiskModel {
+        private final double[] lower;
+
+        RiskModel(double[] lower) {
+            this.lower = lower;
+        }
+    }
+
+    /**
+     * Simple returns per scenario and stock, row by row, for both horizons.
+     * Floats halve the memory of a million scenarios; the precision is far below the sampling error.
+     */
+    private static final class Scenarios {
+        private final int count;
+        private final int factorCount;
+        private final float[] oneDay;
+        private final float[] tenDay;
+
+        Scenarios(int count, int factorCount) {
+            this.count = count;
+            this.factorCount = factorCount;
+            long size = (long) count * factorCount;
+            if (size > Integer.MAX_VALUE - 8) {
+                throw new IllegalStateException(String.format(
+                        "Too many scenarios for %d stocks: %d", factorCount, count));
+            }
+            this.oneDay = new float[(int) size];
+            this.tenDay = new float[(int) size];
+        }
+
+        int blockCount() {
+            return (count + SCENARIOS_PER_BLOCK - 1) / SCENARIOS_PER_BLOCK;
+        }
+    }
+
+    /**
+     * Fork/join task over a range of scenario blocks. Each block draws from its own generator,
+     * so a block produces the same scenarios on whichever thread it runs.
+     */
+    private final class ScenarioBlocks extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final RiskModel model;
+        private final Scenarios scenarios;
+        private final long seed;
+        private final int from;
+        private final int to;
+
+        ScenarioBlocks(RiskModel model, Scenarios scenarios, long seed, int from, int to) {
+            this.model = model;
+            this.scenarios = scenarios;
+            this.seed = seed;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ScenarioBlocks(model, scenarios, seed, from, middle),
+                        new ScenarioBlocks(model, scenarios, seed, middle, to));
+                return;
+            }
+            int width = scenarios.factorCount;
+            double[] lower = model.lower;
+            double longShockFactor = Math.sqrt(LONG_HORIZON_DAYS);
+            SplittableRandom random = new SplittableRandom(seed ^ (from + 1) * GOLDEN_GAMMA);
+            double[] draws = new double[width];
+
+            int first = from * SCENARIOS_PER_BLOCK;
+            int end = Math.min(scenarios.count, first + SCENARIOS_PER_BLOCK);
+            for (int s = first, base = first * width; s < end; s++, base += width) {
+                for (int i = 0; i < width; i++) {
+                    draws[i] = random.nextGaussian();
+                }
+                for (int i = 0, row = 0; i < width; i++, row += width) {
+                    double shock = 0;
+                    for (int k = 0; k <= i; k++) {
+                        shock += lower[row + k] * draws[k];
+                    }
+                    scenarios.oneDay[base + i] = (float) Math.expm1(shock);
+                    scenarios.tenDay[base + i] = (float) Math.expm1(longShockFactor * shock);
+                }
+            }
+            scenariosGenerated.addAndGet(end - first);
+        }
+    }
+
+    /**
+     * Fork/join task over a range of portfolios. The ranges are split into a few chunks per worker,
+     * and each chunk reuses one loss buffer for all of its portfolios.
+     */
+    private static final class PortfolioRange extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Exposure> exposures;
+        private final Scenarios scenarios;
+        private final int tail;
+        private final int sequential;
+        private final PortfolioRisk[] results;
+        private final AtomicInteger evaluated;
+        private final int from;
+        private final int to;
+
+        PortfolioRange(List<Exposure> exposures, Scenarios scenarios, int tail, int sequential,
+                       PortfolioRisk[] results, AtomicInteger evaluated, int from, int to) {
+            this.exposures = exposures;
+            this.scenarios = scenarios;
+            this.tail = tail;
+            this.sequential = sequential;
+            this.results = results;
+            this.evaluated = evaluated;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > sequential) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new PortfolioRange(exposures, scenarios, tail, sequential, results, evaluated, from, middle),
+                        new PortfolioRange(exposures, scenarios, tail, sequential, results, evaluated, middle, to));
+                return;
+            }
+            double[] losses = new double[scenarios.count];
+            for (int i = from; i < to; i++) {
+                results[i] = evaluate(exposures.get(i), scenarios, tail, losses);
+                evaluated.incrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package ch.bbw.m320.stocktrading.service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The result of a {@link RiskEngine} batch: the risk of every portfolio and the settings it was computed with.
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+public final class RiskReport {
+    private final LocalDateTime createdAt;
+    private final int scenarioCount;
+    private final double confidence;
+    private final List<String> symbols;
+    private final List<PortfolioRisk> results;
+    private final Duration elapsed;
+
+    RiskReport(LocalDateTime createdAt, int scenarioCount, double confidence, List<String> symbols,
+               List<PortfolioRisk> results, Duration elapsed) {
+        this.createdAt = createdAt;
+        this.scenarioCount = scenarioCount;
+        this.confidence = confidence;
+        this.symbols = Collections.unmodifiableList(symbols);
+        this.results = Collections.unmodifiableList(results);
+        this.elapsed = elapsed;
+    }
+
+    /**
+     * Writes the results as CSV, one line per user.
+     *
+     * @param file The file to write, replaced if it exists
+     * @throws IOException if the file cannot be written
+     */
+    public void writeCsv(Path file) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write("userId,username,marketValue,var1d,es1d,var10d,es10d");
+            writer.newLine();
+            for (PortfolioRisk risk : results) {
+                writer.write(String.join(",", risk.getUserId(), risk.getUsername(),
+                        risk.getMarketValue().toString(),
+                        risk.getOneDayValueAtRisk().toString(), risk.getOneDayExpectedShortfall().toString(),
+                        risk.getTenDayValueAtRisk().toString(), risk.getTenDayExpectedShortfall().toString()));
+                writer.newLine();
+            }
+        }
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public int getScenarioCount() {
+        return scenarioCount;
+    }
+
+    public double getConfidence() {
+        return confidence;
+    }
+
+    /**
+     * Gets the symbols of the risk model: every stock held by one of the users.
+     *
+     * @return The symbols, sorted
+     */
+    public List<String> getSymbols() {
+        return symbols;
+    }
+
+    /**
+     * Gets the risk of each portfolio, in the order the users were read.
+     *
+     * @return The results
+     */
+    public List<PortfolioRisk> getResults() {
+        return results;
+    }
+
+    public Duration getElapsed() {
+        return elapsed;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Risk of %d portfolios in %d stocks, %d scenarios at %.1f%% confidence (%d ms)",
+                results.size(), symbols.size(), scenarioCount, confidence * 100, elapsed.toMillis());
+    }
+}
@@ -5,11 +5,20 @@ import ch.bbw.m320.stocktrading.exception.InsufficientStockException;
 import ch.bbw.m320.stocktrading.exception.StockNotFoundException;
 import ch.bbw.m320.stocktrading.model.*;
 
-import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
 
 /**
  * Service class that handles trading operations (buying and selling stocks).
  * This class demonstrates Delegation pattern - it delegates work to appropriate objects.
+ * Thread safety: every buy or sell holds the lock of the user's stripe ({@link UserLocks}), so the
+ * balance check and the updates happen as one atomic step. Users on different stripes trade in parallel.
+ * The stripes are shared, so several TradingService instances still exclude each other.
+ * If an update fails halfway, the earlier updates are rolled back.
+ *
  * Clean Code: Single Responsibility - handles only trading business logic
  *
  * @author Thomas
@@ -50,29 +59,19 @@ public class TradingService {
             throw new StockNotFoundException("Stock not found: " + stockSymbol);
         }
 
-        // Calculate total cost
-        BigDecimal totalCost = stock.getCurrentPrice().multiply(BigDecimal.valueOf(quantity));
+        // Read the price once so cost and transaction use the same price
+        Money price = stock.getCurrentPrice();
+        BuyTransaction transaction = new BuyTransaction(stock.getSymbol(), quantity, price);
 
-        // Check if user has sufficient balance
-        if (!user.hasSufficientBalance(totalCost)) {
-            throw new InsufficientBalanceException(
-                    String.format("Insufficient balance. Required: $%.2f, Available: $%.2f",
-                            totalCost, user.getBalance()));
+        Lock lock = lockFor(user);
+        lock.lock();
+        try {
+            applyBuy(user, transaction);
+        } finally {
+            lock.unlock();
         }
 
-        // Execute the transaction
-        // Clean Code: Small steps, each with clear purpose
-        user.withdraw(totalCost);
-        user.getPortfolio().addStock(stockSymbol, quantity);
-
-        // Create and record transaction
-        BuyTransaction transaction = new BuyTransaction(
-                stockSymbol,
-                quantity,
-                stock.getCurrentPrice()
-        );
-        user.addTransaction(transaction);
-
+        stockMarket.recordTrade(transaction);
         return transaction;
     }
 
@@ -99,30 +98,146 @@ public class TradingService {
             throw new StockNotFoundException("Stock not found: " + stockSymbol);
         }
 
-        // Check if user has sufficient stock
-        int ownedQuantity = user.getPortfolio().getQuantity(stockSymbol);
-        if (ownedQuantity < quantity) {
-            throw new InsufficientStockException(
-                    String.format("Insufficient stock. Have: %d shares, Trying to sell: %d shares",
-                            ownedQuantity, quantity));
-        }
+        // Read the price once so revenue and transaction use the same price
+        Money price = stock.getCurrentPrice();
+        SellTransaction transaction = new SellTransaction(stock.getSymbol(), quantity, price);
 
-        // Execute the transaction
-        BigDecimal totalRevenue = stock.getCurrentPrice().multiply(BigDecimal.valueOf(quantity));
-        user.getPortfolio().removeStock(stockSymbol, quantity);
-        user.deposit(totalRevenue);
-
-        // Create and record transaction
-        SellTransaction transaction = new SellTransaction(
-                stockSymbol,
-                quantity,
-                stock.getCurrentPrice()
-        );
-        user.addTransaction(transaction);
+        Lock lock = lockFor(user);
+        lock.lock();
+        try {
+            applySell(user, transaction);
+        } finally {
+            lock.unlock();
+        }
 
+        stockMarket.recordTrade(transaction);
         return transaction;
     }
 
+    /**
+     * Executes a batch of market orders for one user, all or nothing.
+     * The whole batch is validated before anything is changed: legs are checked in order
+     * against the running balance and holdings, so a sell can fund a later buy.
+     * If any leg fails, the user is left unchanged.
+     * Callers should persist the user once after the batch instead of once per leg.
+     *
+     * @param user The user placing the orders
+     * @param orders The orders, executed in list order
+     * @return The created transactions, in the same order as the orders
+     * @throws StockNotFoundException if a stock doesn't exist
+     * @throws InsufficientBalanceException if a buy leg cannot be paid
+     * @throws InsufficientStockException if a sell leg sells more shares than owned at that point
+     */
+    public List<Transaction> executeBatch(User user, List<OrderRequest> orders)
+            throws StockNotFoundException, InsufficientBalanceException, InsufficientStockException {
+
+        validateUser(user);
+        if (orders == null) {
+            throw new IllegalArgumentException("Orders cannot be null");
+        }
+
+        // Create all transactions up front: one symbol lookup and one price read per leg
+        List<Transaction> transactions = new ArrayList<>(orders.size());
+        for (OrderRequest order : orders) {
+            if (order == null) {
+                throw new IllegalArgumentException("Order cannot be null");
+            }
+            Stock stock = stockMarket.getStock(order.getStockSymbol());
+            if (stock == null) {
+                throw new StockNotFoundException("Stock not found: " + order.getStockSymbol());
+            }
+            Money price = stock.getCurrentPrice();
+            transactions.add(order.getSide() == Transaction.TransactionType.BUY
+                    ? new BuyTransaction(stock.getSymbol(), order.getQuantity(), price)
+                    : new SellTransaction(stock.getSymbol(), order.getQuantity(), price));
+        }
+
+        Lock lock = lockFor(user);
+        lock.lock();
+        try {
+            validateBatch(user, transactions);
+            applyBatch(user, transactions);
+        } finally {
+            lock.unlock();
+        }
+
+        for (Transaction transaction : transactions) {
+            stockMarket.recordTrade(transaction);
+        }
+        return transactions;
+    }
+
+    /**
+     * Replays a batch against the running balance and holdings without changing the user.
+     */
+    private void validateBatch(User user, List<Transaction> transactions)
+            throws InsufficientBalanceException, InsufficientStockException {
+
+        long balance = user.getBalance().getMicros();
+        Map<Integer, Integer> holdings = new HashMap<>(); // symbol ID -> quantity
+
+        for (int i = 0; i < transactions.size(); i++) {
+            Transaction transaction = transactions.get(i);
+            int symbolId = transaction.getSymbolId();
+            int owned = holdings.computeIfAbsent(symbolId, user.getPortfolio()::getQuantity);
+
+            if (transaction.getType() == Transaction.TransactionType.BUY) {
+                Money totalCost = transaction.getTotalValue();
+                if (balance < totalCost.getMicros()) {
+                    throw new InsufficientBalanceException(
+                            String.format("Insufficient balance for order %d. Required: $%.2f, Available: $%.2f",
+                                    i + 1, totalCost.toBigDecimal(), Money.ofMicros(balance).toBigDecimal()));
+                }
+                balance -= totalCost.getMicros();
+                holdings.put(symbolId, owned + transaction.getQuantity());
+            } else {
+                if (owned < transaction.getQuantity()) {
+                    throw new InsufficientStockException(
+                            String.format("Insufficient stock for order %d. Have: %d shares, Trying to sell: %d shares",
+                                    i + 1, owned, transaction.getQuantity()));
+                }
+                balance = Math.addExact(balance, transaction.getTotalValue().getMicros());
+                holdings.put(symbolId, owned - transaction.getQuantity());
+            }
+        }
+    }
+
+    /**
+     * Applies a validated batch. Rolls back the applied legs if one fails unexpectedly.
+     */
+    private void applyBatch(User user, List<Transaction> transactions) {
+        Portfolio portfolio = user.getPortfolio();
+        int applied = 0;
+        try {
+            for (Transaction transaction : transactions) {
+                if (transaction.getType() == Transaction.TransactionType.BUY) {
+                    user.withdraw(transaction.getTotalValue());
+                    portfolio.addStock(transaction.getSymbolId(), transaction.getQuantity());
+                } else {
+                    portfolio.removeStock(transaction.getSymbolId(), transaction.getQuantity());
+                    user.deposit(transaction.getTotalValue());
+                }
+                applied++;
+            }
+            for (Transaction transaction : transactions) {
+                user.addTransaction(transaction);
+            }
+        } catch (RuntimeException e) {
+            // Undo the fully applied legs in reverse order (validation rules out failures within a leg)
+            for (int i = applied - 1; i >= 0; i--) {
+                Transaction transaction = transactions.get(i);
+                if (transaction.getType() == Transaction.TransactionType.BUY) {
+                    portfolio.removeStock(transaction.getSymbolId(), transaction.getQuantity());
+                    user.deposit(transaction.getTotalValue());
+                } else {
+                    user.withdraw(transaction.getTotalValue());
+                    portfolio.addStock(transaction.getSymbolId(), transaction.getQuantity());
+                }
+            }
+            throw e;
+        }
+    }
+
     /**
      * Gets the current price quote for a stock.
      * Clean Code: Small method with single purpose
@@ -131,7 +246,7 @@ public class TradingService {
      * @return The current price
      * @throws StockNotFoundException if stock doesn't exist
      */
-    public BigDecimal getStockPrice(String stockSymbol) throws StockNotFoundException {
+    public Money getStockPrice(String stockSymbol) throws StockNotFoundException {
         Stock stock = stockMarket.getStock(stockSymbol);
         if (stock == null) {
             throw new StockNotFoundException("Stock not found: " + stockSymbol);
@@ -147,11 +262,10 @@ public class TradingService {
      * @return The total cost
      * @throws StockNotFoundException if stock doesn't exist
      */
-    public BigDecimal calculatePurchaseCost(String stockSymbol, int quantity)
+    public Money calculatePurchaseCost(String stockSymbol, int quantity)
             throws StockNotFoundException {
         validateQuantity(quantity);
-        BigDecimal price = getStockPrice(stockSymbol);
-        return price.multiply(BigDecimal.valueOf(quantity));
+        return getStockPrice(stockSymbol).times(quantity);
     }
 
     /**
@@ -162,11 +276,101 @@ public class TradingService {
      * @return The total revenue
      * @throws StockNotFoundException if stock doesn't exist
      */
-    public BigDecimal calculateSaleRevenue(String stockSymbol, int quantity)
+    public Money calculateSaleRevenue(String stockSymbol, int quantity)
             throws StockNotFoundException {
         validateQuantity(quantity);
-        BigDecimal price = getStockPrice(stockSymbol);
-        return price.multiply(BigDecimal.valueOf(quantity));
+        return getStockPrice(stockSymbol).times(quantity);
+    }
+
+    /**
+     * Gets the lock that guards a user's balance and portfolio.
+     * Callers that read or change a user outside of this service
+     * can hold the same lock to see a consistent state.
+     *
+     * @param user The user
+     * @return The lock of the user's stripe
+     */
+    public Lock lockFor(User user) {
+        validateUser(user);
+        return UserLocks.lockFor(user);
+    }
+
+    /**
+     * Books a buy: checks the balance, pays the cost, adds the shares and records the transaction.
+     * If a step fails, the earlier steps are rolled back.
+     * The caller holds the user's lock, or owns the user alone (as the {@link Backtester} does).
+     *
+     * @param user The buyer
+     * @param transaction The purchase, priced already
+     * @throws InsufficientBalanceException if the user cannot pay the total cost
+     */
+    static void applyBuy(User user, BuyTransaction transaction) throws InsufficientBalanceException {
+        Money totalCost = transaction.getTotalValue();
+        int symbolId = transaction.getSymbolId();
+        int quantity = transaction.getQuantity();
+
+        // Check if user has sufficient balance
+        if (!user.hasSufficientBalance(totalCost)) {
+            throw new InsufficientBalanceException(
+                    String.format("Insufficient balance. Required: $%.2f, Available: $%.2f",
+                            totalCost.toBigDecimal(), user.getBalance().toBigDecimal()));
+        }
+
+        // Execute the transaction
+        // Clean Code: Small steps, each with clear purpose
+        user.withdraw(totalCost);
+        try {
+            user.getPortfolio().addStock(symbolId, quantity);
+            recordTransaction(user, transaction, () -> user.getPortfolio().removeStock(symbolId, quantity));
+        } catch (RuntimeException e) {
+            user.deposit(totalCost); // Roll back the withdrawal
+            throw e;
+        }
+    }
+
+    /**
+     * Books a sale: checks the holdings, removes the shares, credits the revenue and records
+     * the transaction. If a step fails, the earlier steps are rolled back.
+     * The caller holds the user's lock, or owns the user alone (as the {@link Backtester} does).
+     *
+     * @param user The seller
+     * @param transaction The sale, priced already
+     * @throws InsufficientStockException if the user owns fewer shares than sold
+     */
+    static void applySell(User user, SellTransaction transaction) throws InsufficientStockException {
+        Money totalRevenue = transaction.getTotalValue();
+        int symbolId = transaction.getSymbolId();
+        int quantity = transaction.getQuantity();
+
+        // Check if user has sufficient stock
+        int ownedQuantity = user.getPortfolio().getQuantity(symbolId);
+        if (ownedQuantity < quantity) {
+            throw new InsufficientStockException(
+                    String.format("Insufficient stock. Have: %d shares, Trying to sell: %d shares",
+                            ownedQuantity, quantity));
+        }
+
+        // Execute the transaction
+        user.getPortfolio().removeStock(symbolId, quantity);
+        try {
+            user.deposit(totalRevenue);
+            recordTransaction(user, transaction, () -> user.withdraw(totalRevenue));
+        } catch (RuntimeException e) {
+            user.getPortfolio().addStock(symbolId, quantity); // Roll back the removal
+            throw e;
+        }
+    }
+
+    /**
+     * Adds a transaction to the history, running the rollback if that fails.
+     */
+    private static void recordTransaction(User user, Transaction transaction, Runnable rollback) {
+        try {
+            user.addTransaction(transaction);
+        } catch (RuntimeException e) {
+            rollback.run();
+            throw e;
+        }
     }
 
     // Private validation methods (Clean Code: DRY principle)
@@ -0,0 +1,52 @@
+package ch.bbw.m320.stocktrading.service;
+
+/**
+ * A trading strategy that the {@link Backtester} runs against recorded prices.
+ * DESIGN PATTERN: Strategy Pattern
+ * Reason: the backtester replays the market the same way for every strategy; only the
+ * decisions differ, so they are plugged in through this interface.
+ *
+ * The backtester calls {@link #onTick} for every tick of the tape, in time order.
+ * The strategy places orders through the {@link BacktestContext}, which books them
+ * like the {@link TradingService} does. A strategy instance belongs to one run;
+ * the backtester creates a new one for each run, so it may keep state in fields.
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+public interface TradingStrategy {
+
+    /**
+     * Gets the name shown in the results, e.g. including the parameters.
+     *
+     * @return The name of the strategy
+     */
+    default String getName() {
+        return getClass().getSimpleName();
+    }
+
+    /**
+     * Called once before the first tick.
+     *
+     * @param context The simulated account and market of this run
+     */
+    default void onStart(BacktestContext context) {
+    }
+
+    /**
+     * Called for every tick, after the context shows the new price.
+     *
+     * @param context The simulated account and market of this run
+     * @param symbol The tape index of the symbol that ticked
+     * @param priceMicros The new price in micro-units
+     */
+    void onTick(BacktestContext context, int symbol, long priceMicros);
+
+    /**
+     * Called once after the last tick, e.g. to close positions.
+     *
+     * @param context The simulated account and market of this run
+     */
+    default void onFinish(BacktestContext context) {
+    }
+}
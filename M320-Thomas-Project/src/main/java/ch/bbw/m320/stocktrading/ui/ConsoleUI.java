@@ -4,10 +4,12 @@ import ch.bbw.m320.stocktrading.exception.InsufficientBalanceException;
 import ch.bbw.m320.stocktrading.exception.InsufficientStockException;
 import ch.bbw.m320.stocktrading.exception.StockNotFoundException;
 import ch.bbw.m320.stocktrading.model.*;
+import ch.bbw.m320.stocktrading.repository.TransactionPage;
+import ch.bbw.m320.stocktrading.repository.TransactionQuery;
 import ch.bbw.m320.stocktrading.repository.UserRepository;
 import ch.bbw.m320.stocktrading.service.TradingService;
 
-import java.math.BigDecimal;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
 
 /**
@@ -19,6 +21,13 @@ import java.util.*;
  * @version 1.0
  */
 public class ConsoleUI {
+    private static final Money DEFAULT_BALANCE = Money.of("10000");
+    private static final int HISTORY_PAGE_SIZE = 20;
+    private static final int CHART_BARS = 20;
+    private static final int INDICATOR_WINDOW = 20;
+    private static final int RSI_WINDOW = 14;
+    private static final DateTimeFormatter BAR_START_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
     private final Scanner scanner;
     private final TradingService tradingService;
     private final UserRepository userRepository;
@@ -121,23 +130,29 @@ public class ConsoleUI {
         }
 
         System.out.print("Initial balance (default 10000): ");
-        BigDecimal initialBalance;
+        Money initialBalance;
         try {
             String input = scanner.nextLine().trim();
-            initialBalance = input.isEmpty() ? new BigDecimal("10000") : new BigDecimal(input);
+            initialBalance = input.isEmpty() ? DEFAULT_BALANCE : Money.of(input);
 
-            if (initialBalance.compareTo(BigDecimal.ZERO) < 0) {
+            if (initialBalance.isNegative()) {
                 System.out.println("Balance cannot be negative.");
                 return;
             }
-        } catch (NumberFormatException e) {
+        } catch (NumberFormatException | ArithmeticException e) {
             System.out.println("Invalid amount. Using default balance of $10,000.");
-            initialBalance = new BigDecimal("10000");
+            initialBalance = DEFAULT_BALANCE;
         }
 
         // Create and save new user
-        currentUser = new User(username, initialBalance);
-        userRepository.save(currentUser);
+        User newUser = new User(username, initialBalance);
+        try {
+            userRepository.save(newUser);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Username already exists. Please choose another.");
+            return;
+        }
+        currentUser = newUser;
         System.out.println("Registration successful! Welcome, " + username + "!");
     }
 
@@ -147,7 +162,7 @@ public class ConsoleUI {
     private void handleMainMenu() {
         System.out.println("\n--- MAIN MENU ---");
         System.out.println("User: " + currentUser.getUsername() +
-                " | Balance: $" + String.format("%.2f", currentUser.getBalance()));
+                " | Balance: $" + String.format("%.2f", currentUser.getBalance().toBigDecimal()));
         System.out.println("\n1. View available stocks");
         System.out.println("2. Buy stock");
         System.out.println("3. Sell stock");
@@ -193,7 +208,7 @@ public class ConsoleUI {
             System.out.printf("%-10s %-30s $%9.2f%n",
                     stock.getSymbol(),
                     stock.getName(),
-                    stock.getCurrentPrice());
+                    stock.getCurrentPrice().toBigDecimal());
         }
     }
 
@@ -207,9 +222,9 @@ public class ConsoleUI {
         String symbol = scanner.nextLine().trim().toUpperCase();
 
         try {
-            BigDecimal price = tradingService.getStockPrice(symbol);
-            System.out.printf("Current price: $%.2f%n", price);
-            System.out.printf("Your balance: $%.2f%n", currentUser.getBalance());
+            Money price = tradingService.getStockPrice(symbol);
+            System.out.printf("Current price: $%.2f%n", price.toBigDecimal());
+            System.out.printf("Your balance: $%.2f%n", currentUser.getBalance().toBigDecimal());
 
             System.out.print("Quantity to buy: ");
             int quantity = readInt();
@@ -219,8 +234,8 @@ public class ConsoleUI {
                 return;
             }
 
-            BigDecimal totalCost = tradingService.calculatePurchaseCost(symbol, quantity);
-            System.out.printf("Total cost: $%.2f%n", totalCost);
+            Money totalCost = tradingService.calculatePurchaseCost(symbol, quantity);
+            System.out.printf("Total cost: $%.2f%n", totalCost.toBigDecimal());
             System.out.print("Confirm purchase? (yes/no): ");
             String confirm = scanner.nextLine().trim().toLowerCase();
 
@@ -264,8 +279,8 @@ public class ConsoleUI {
                 return;
             }
 
-            BigDecimal price = tradingService.getStockPrice(symbol);
-            System.out.printf("Current price: $%.2f%n", price);
+            Money price = tradingService.getStockPrice(symbol);
+            System.out.printf("Current price: $%.2f%n", price.toBigDecimal());
             System.out.printf("You own: %d shares%n", ownedQuantity);
 
             System.out.print("Quantity to sell: ");
@@ -276,8 +291,8 @@ public class ConsoleUI {
                 return;
             }
 
-            BigDecimal totalRevenue = tradingService.calculateSaleRevenue(symbol, quantity);
-            System.out.printf("Total revenue: $%.2f%n", totalRevenue);
+            Money totalRevenue = tradingService.calculateSaleRevenue(symbol, quantity);
+            System.out.printf("Total revenue: $%.2f%n", totalRevenue.toBigDecimal());
             System.out.print("Confirm sale? (yes/no): ");
             String confirm = scanner.nextLine().trim().toLowerCase();
 
@@ -316,55 +331,74 @@ public class ConsoleUI {
                 "SYMBOL", "NAME", "QUANTITY", "PRICE", "TOTAL VALUE");
         System.out.println(repeat("-", 77));
 
-        BigDecimal totalPortfolioValue = BigDecimal.ZERO;
-
         for (Map.Entry<String, Integer> entry : portfolio.getHoldings().entrySet()) {
             String symbol = entry.getKey();
             int quantity = entry.getValue();
             Stock stock = stockMarket.getStock(symbol);
 
             if (stock != null) {
-                BigDecimal price = stock.getCurrentPrice();
-                BigDecimal totalValue = price.multiply(BigDecimal.valueOf(quantity));
-                totalPortfolioValue = totalPortfolioValue.add(totalValue);
+                Money price = stock.getCurrentPrice();
+                Money totalValue = price.times(quantity);
 
                 System.out.printf("%-10s %-30s %10d $%9.2f $%14.2f%n",
                         symbol,
                         stock.getName(),
                         quantity,
-                        price,
-                        totalValue);
+                        price.toBigDecimal(),
+                        totalValue.toBigDecimal());
             }
         }
 
+        // Running value maintained by the portfolio, no need to sum the rows again
+        Money totalPortfolioValue = portfolio.calculateTotalValue(stockMarket);
         System.out.println(repeat("-", 77));
-        System.out.printf("Total Portfolio Value: $%.2f%n", totalPortfolioValue);
-        System.out.printf("Cash Balance: $%.2f%n", currentUser.getBalance());
+        System.out.printf("Total Portfolio Value: $%.2f%n", totalPortfolioValue.toBigDecimal());
+        System.out.printf("Cash Balance: $%.2f%n", currentUser.getBalance().toBigDecimal());
         System.out.printf("Total Account Value: $%.2f%n",
-                totalPortfolioValue.add(currentUser.getBalance()));
+                totalPortfolioValue.plus(currentUser.getBalance()).toBigDecimal());
     }
 
     /**
-     * Displays transaction history.
+     * Displays transaction history, newest first, one page at a time.
      */
     private void handleViewTransactionHistory() {
         System.out.println("\n--- TRANSACTION HISTORY ---");
-        List<Transaction> transactions = currentUser.getTransactionHistory();
+        long total = userRepository.countTransactions(currentUser);
 
-        if (transactions.isEmpty()) {
+        if (total == 0) {
             System.out.println("No transactions yet.");
             return;
         }
 
-        for (Transaction transaction : transactions) {
-            System.out.println(transaction);
+        System.out.print("Filter by stock symbol (leave empty for all): ");
+        String symbol = scanner.nextLine().trim().toUpperCase();
+        TransactionQuery query = TransactionQuery.newestFirst(HISTORY_PAGE_SIZE)
+                .forSymbol(symbol.isEmpty() ? null : symbol);
+        System.out.println("Times are UTC; transactions from before the switch to UTC show their local time.");
+
+        while (true) {
+            TransactionPage page = userRepository.findTransactions(currentUser, query);
+            for (Transaction transaction : page.getTransactions()) {
+                System.out.println(transaction);
+            }
+            if (!page.hasMore()) {
+                break;
+            }
+
+            System.out.print("Show older transactions? (yes/no): ");
+            String answer = scanner.nextLine().trim().toLowerCase();
+            if (!answer.equals("yes") && !answer.equals("y")) {
+                break;
+            }
+            query = query.after(page.getNextCursor());
         }
 
-        System.out.println("\nTotal transactions: " + transactions.size());
+        System.out.println("\nTotal transactions: " + total);
     }
 
     /**
-     * Displays stock price history.
+     * Displays the price history of a stock as OHLCV bars of the chosen interval.
+     * Only the newest bars are read, however many ticks the stock has.
      */
     private void handleViewPriceHistory() {
         System.out.print("\nEnter stock symbol: ");
@@ -376,17 +410,60 @@ public class ConsoleUI {
             return;
         }
 
-        System.out.println("\n--- PRICE HISTORY FOR " + stock.getName() + " ---");
-        List<Stock.PricePoint> history = stock.getPriceHistory();
+        System.out.print("Interval (1s, 1m, 5m, 1h, 1d) [1m]: ");
+        String label = scanner.nextLine().trim();
+        CandleInterval interval;
+        try {
+            interval = label.isEmpty() ? CandleInterval.MINUTE : CandleInterval.ofLabel(label);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            return;
+        }
+
+        System.out.println("\n--- PRICE HISTORY FOR " + stock.getName() + " (" + interval.getLabel() + ") ---");
+        List<Candle> candles = stockMarket.getCandleEngine().getLatestCandles(symbol, interval, CHART_BARS);
 
-        if (history.isEmpty()) {
+        if (candles.isEmpty()) {
             System.out.println("No price history available.");
             return;
         }
 
-        for (Stock.PricePoint point : history) {
-            System.out.println(point);
+        System.out.printf("%-19s %10s %10s %10s %10s %8s%n", "START (UTC)", "OPEN", "HIGH", "LOW", "CLOSE", "VOLUME");
+        System.out.println(repeat("-", 72));
+        for (Candle candle : candles) {
+            System.out.printf("%-19s %10.2f %10.2f %10.2f %10.2f %8d%n",
+                    candle.getStart().format(BAR_START_FORMAT),
+                    candle.getOpen().toBigDecimal(),
+                    candle.getHigh().toBigDecimal(),
+                    candle.getLow().toBigDecimal(),
+                    candle.getClose().toBigDecimal(),
+                    candle.getVolume());
         }
+        printIndicators(symbol);
+    }
+
+    /**
+     * Prints the common indicators of a stock below its price history.
+     */
+    private void printIndicators(String symbol) {
+        IndicatorEngine indicators = stockMarket.getIndicatorEngine();
+        System.out.println(repeat("-", 72));
+        System.out.println("SMA(" + INDICATOR_WINDOW + "): "
+                + formatIndicator(indicators.getIndicator(symbol, IndicatorType.SMA, INDICATOR_WINDOW))
+                + "  EMA(" + INDICATOR_WINDOW + "): "
+                + formatIndicator(indicators.getIndicator(symbol, IndicatorType.EMA, INDICATOR_WINDOW))
+                + "  RSI(" + RSI_WINDOW + "): "
+                + formatIndicator(indicators.getIndicator(symbol, IndicatorType.RSI, RSI_WINDOW)));
+        System.out.println("Bollinger(" + INDICATOR_WINDOW + "): "
+                + formatIndicator(indicators.getIndicator(symbol, IndicatorType.BOLLINGER_LOWER, INDICATOR_WINDOW))
+                + " - "
+                + formatIndicator(indicators.getIndicator(symbol, IndicatorType.BOLLINGER_UPPER, INDICATOR_WINDOW))
+                + "  VWAP(" + INDICATOR_WINDOW + " trades): "
+                + formatIndicator(indicators.getIndicator(symbol, IndicatorType.VWAP, INDICATOR_WINDOW)));
+    }
+
+    private String formatIndicator(OptionalDouble value) {
+        return value.isPresent() ? String.format("%.2f", value.getAsDouble()) : "n/a";
     }
 
     /**
@@ -395,16 +472,16 @@ public class ConsoleUI {
     private void handleAccountSummary() {
         System.out.println("\n--- ACCOUNT SUMMARY ---");
         System.out.println("Username: " + currentUser.getUsername());
-        System.out.printf("Cash Balance: $%.2f%n", currentUser.getBalance());
+        System.out.printf("Cash Balance: $%.2f%n", currentUser.getBalance().toBigDecimal());
 
-        BigDecimal portfolioValue = currentUser.getPortfolio().calculateTotalValue(stockMarket);
-        System.out.printf("Portfolio Value: $%.2f%n", portfolioValue);
+        Money portfolioValue = currentUser.getPortfolio().calculateTotalValue(stockMarket);
+        System.out.printf("Portfolio Value: $%.2f%n", portfolioValue.toBigDecimal());
 
-        BigDecimal totalValue = currentUser.getTotalAccountValue(stockMarket);
-        System.out.printf("Total Account Value: $%.2f%n", totalValue);
+        Money totalValue = currentUser.getTotalAccountValue(stockMarket);
+        System.out.printf("Total Account Value: $%.2f%n", totalValue.toBigDecimal());
 
         System.out.println("Number of Stock Holdings: " + currentUser.getPortfolio().getStockCount());
-        System.out.println("Number of Transactions: " + currentUser.getTransactionHistory().size());
+        System.out.println("Number of Transactions: " + userRepository.countTransactions(currentUser));
     }
 
     /**
@@ -422,6 +499,7 @@ public class ConsoleUI {
     private void handleLogout() {
         System.out.println("Logging out...");
         userRepository.save(currentUser); // Save before logout
+        currentUser.getPortfolio().detach(); // no longer revalued on every tick
         currentUser = null;
         System.out.println("Goodbye!");
     }
@@ -431,6 +509,8 @@ public class ConsoleUI {
      */
     private void handleExit() {
         System.out.println("Thank you for using Stock Trading Simulator!");
+        userRepository.shutdown(); // Fold the journal into the snapshot
+        stockMarket.shutdown();    // Write pending prices and ticks
         scanner.close();
         System.exit(0);
     }
@@ -0,0 +1,70 @@
+package ch.bbw.m320.stocktrading.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the open-addressing map of {@link Holdings} and the portfolio lookups built on it.
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+class HoldingsTest {
+
+    @Test
+    void unknownSymbolIsNeverHeld() {
+        Holdings holdings = new Holdings();
+        assertFalse(holdings.contains(SymbolRegistry.UNKNOWN), "Empty slot matched the unknown symbol");
+        assertEquals(0, holdings.get(SymbolRegistry.UNKNOWN));
+        assertNull(holdings.getValuedPrice(SymbolRegistry.UNKNOWN));
+        assertEquals(0, holdings.decrement(SymbolRegistry.UNKNOWN, 1));
+        assertThrows(IllegalArgumentException.class, () -> holdings.increment(SymbolRegistry.UNKNOWN, 1));
+
+        holdings.increment(3, 10);
+        assertFalse(holdings.contains(SymbolRegistry.UNKNOWN));
+        assertEquals(1, holdings.size());
+
+        Portfolio portfolio = new Portfolio();
+        assertFalse(portfolio.hasStock("NOT-A-LISTED-SYMBOL"));
+        assertEquals(0, portfolio.getQuantity("NOT-A-LISTED-SYMBOL"));
+    }
+
+    @Test
+    void insertAndRemoveMatchReferenceMap() {
+        Random random = new Random(17);
+        for (int round = 0; round < 2_000; round++) {
+            Holdings holdings = new Holdings();
+            Map<Integer, Integer> expected = new HashMap<>();
+            for (int op = 0; op < 40; op++) {
+                int symbolId = random.nextInt(24); // few IDs, so probe chains collide and wrap around the table
+                int quantity = 1 + random.nextInt(3);
+                if (random.nextBoolean()) {
+                    assertEquals(expected.getOrDefault(symbolId, 0).intValue(), holdings.increment(symbolId, quantity));
+                    expected.merge(symbolId, quantity, Integer::sum);
+                } else {
+                    int held = expected.getOrDefault(symbolId, 0);
+                    assertEquals(held, holdings.decrement(symbolId, quantity));
+                    if (held == quantity) {
+                        expected.remove(symbolId);
+                    } else if (held > quantity) {
+                        expected.put(symbolId, held - quantity);
+                    }
+                }
+                assertEquals(expected.size(), holdings.size());
+                for (int id = 0; id < 24; id++) {
+                    assertEquals(expected.getOrDefault(id, 0).intValue(), holdings.get(id), "Quantity of " + id);
+                    assertEquals(expected.containsKey(id), holdings.contains(id), "Contains " + id);
+                }
+            }
+
+            Map<Integer, Integer> visited = new HashMap<>();
+            holdings.forEach((symbolId, quantity) -> assertNull(visited.put(symbolId, quantity)));
+            assertEquals(expected, visited);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package ch.bbw.m320.stocktrading.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ConcurrentModificationException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the zero-copy views of {@link PriceHistory} while the ring buffer wraps around.
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+class PriceHistoryTest {
+    private static final int CAPACITY = 8;
+
+    @Test
+    void viewRejectsTicksOverwrittenAfterWrap() {
+        PriceHistory history = new PriceHistory(CAPACITY, null);
+        for (int i = 0; i < CAPACITY; i++) {
+            history.append(i, 100 + i);
+        }
+        PriceHistory.View view = history.view();
+
+        history.append(CAPACITY, 100 + CAPACITY); // overwrites tick 0 of the view
+        assertThrows(ConcurrentModificationException.class, () -> view.getScaledPrice(0));
+        assertThrows(ConcurrentModificationException.class, () -> view.get(0));
+        assertEquals(101, view.getScaledPrice(1), "Ticks that were not overwritten stay readable");
+
+        for (int i = 1; i < CAPACITY; i++) {
+            history.append(CAPACITY + i, 100 + CAPACITY + i);
+        }
+        assertThrows(ConcurrentModificationException.class, () -> view.getEpochNanos(CAPACITY - 1));
+    }
+
+    @Test
+    void viewSurvivesGrowthAndClear() {
+        PriceHistory history = new PriceHistory(64, null);
+        for (int i = 0; i < 10; i++) {
+            history.append(i, 100 + i);
+        }
+        PriceHistory.View beforeGrowth = history.view();
+        for (int i = 10; i < 40; i++) {
+            history.append(i, 100 + i); // grows the arrays, the old view keeps the old ones
+        }
+        assertEquals(109, beforeGrowth.getScaledPrice(9));
+
+        history.clear();
+        history.append(1_000, 7);
+        PriceHistory.View afterClear = history.view();
+        assertEquals(1, afterClear.size());
+        assertEquals(7, afterClear.getScaledPrice(0));
+        assertEquals(1_000, afterClear.getEpochNanos(0));
+    }
+}
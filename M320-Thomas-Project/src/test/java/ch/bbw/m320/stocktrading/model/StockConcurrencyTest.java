@@ -0,0 +1,180 @@
+package ch.bbw.m320.stocktrading.model;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Stress test for the lock-free price updates of {@link Stock}.
+ * Several writer threads call {@link Stock#updatePrice} while reader threads check that
+ * the snapshots and the price history they see are consistent.
+ *
+ * Every written price encodes its writer and sequence number, so a reader can tell
+ * which update a value came from without any extra synchronization.
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+class StockConcurrencyTest {
+    private static final int WRITERS = 4;
+    private static final int READERS = 4;
+    private static final int UPDATES_PER_WRITER = 20_000;
+    private static final long PRICE_BASE = 1_000_000_000L; // $1000, above the initial price
+    private static final long WRITER_STRIDE = 1_000_000L;  // > UPDATES_PER_WRITER
+    private static final int HISTORY_TAIL = 64;            // ticks a reader checks per pass
+
+    @Test
+    @Timeout(value = 60, unit = TimeUnit.SECONDS)
+    void concurrentUpdatesNeverTearSnapshotsOrHistory() throws InterruptedException {
+        Stock stock = new Stock("CONC", "Concurrency Test Inc.", Money.of("1"));
+        Map<Long, Long> priceByVersion = new ConcurrentHashMap<>();
+        stock.addPriceListener((changed, snapshot) ->
+                assertNull(priceByVersion.put(snapshot.getVersion(), snapshot.getPrice().getMicros()),
+                        "Version published twice: " + snapshot.getVersion()));
+
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> writers = new ArrayList<>();
+        List<Thread> readers = new ArrayList<>();
+        List<long[]> samples = new ArrayList<>(); // per reader: version, price, version, price, ...
+
+        for (int w = 0; w < WRITERS; w++) {
+            int writer = w;
+            writers.add(startThread("writer-" + w, failure, () -> {
+                start.await();
+                for (int seq = 0; seq < UPDATES_PER_WRITER; seq++) {
+                    stock.updatePrice(Money.ofMicros(encode(writer, seq)));
+                }
+            }));
+        }
+        for (int r = 0; r < READERS; r++) {
+            long[] sample = new long[2 * 100_000];
+            samples.add(sample);
+            readers.add(startThread("reader-" + r, failure, () -> {
+                start.await();
+                readUntilDone(stock, writing, sample);
+            }));
+        }
+
+        start.countDown();
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        writing.set(false);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        if (failure.get() != null) {
+            fail("Worker thread failed", failure.get());
+        }
+
+        int totalUpdates = WRITERS * UPDATES_PER_WRITER;
+        assertEquals(totalUpdates, stock.getPriceSnapshot().getVersion(), "Lost or duplicated updates");
+        assertEquals(totalUpdates, priceByVersion.size());
+        assertEquals(totalUpdates + 1, stock.getPriceHistory().size(), "History lost or duplicated ticks");
+
+        for (long[] sample : samples) {
+            for (int i = 0; i < sample.length && sample[i + 1] != 0; i += 2) {
+                long version = sample[i];
+                if (version > 0) {
+                    long published = priceByVersion.getOrDefault(version, -1L);
+                    assertEquals(published, sample[i + 1], "Snapshot price does not belong to its version " + version);
+                }
+            }
+        }
+
+        long[] lastSeq = new long[WRITERS];
+        Arrays.fill(lastSeq, -1);
+        List<Stock.PricePoint> history = stock.getPriceHistory();
+        for (int i = 1; i < history.size(); i++) {
+            long micros = history.get(i).getPrice().getMicros();
+            assertEquals(priceByVersion.getOrDefault((long) i, -1L).longValue(), micros, "History tick " + i + " does not belong to version " + i);
+            int writer = writerOf(micros);
+            assertTrue(sequenceOf(micros) > lastSeq[writer], "History out of order for writer " + writer);
+            lastSeq[writer] = sequenceOf(micros);
+        }
+    }
+
+    /**
+     * Reads snapshots and the tail of the history until the writers are done.
+     */
+    private static void readUntilDone(Stock stock, AtomicBoolean writing, long[] sample) {
+        long lastVersion = -1;
+        int lastHistorySize = 0;
+        int sampled = 0;
+        while (writing.get()) {
+            Stock.PriceSnapshot snapshot = stock.getPriceSnapshot();
+            long version = snapshot.getVersion();
+            long micros = snapshot.getPrice().getMicros();
+            assertTrue(version >= lastVersion, "Version went backwards: " + lastVersion + " -> " + version);
+            assertNotNull(snapshot.getTimestamp());
+            if (version > 0) {
+                assertValidPrice(micros);
+            }
+            lastVersion = version;
+            if (sampled < sample.length) {
+                sample[sampled++] = version;
+                sample[sampled++] = micros;
+            }
+
+            List<Stock.PricePoint> history = stock.getPriceHistory();
+            int size = history.size();
+            assertTrue(size >= 1 + version, "History behind its snapshot: " + size + " ticks, version " + version);
+            assertTrue(size >= lastHistorySize, "History shrank: " + lastHistorySize + " -> " + size);
+            lastHistorySize = size;
+            for (int i = Math.max(1, size - HISTORY_TAIL); i < size; i++) {
+                Stock.PricePoint point = history.get(i);
+                assertValidPrice(point.getPrice().getMicros());
+                assertTrue(i == 1 || point.getTimestamp().isAfter(history.get(i - 1).getTimestamp()),
+                        "History timestamps not ascending at " + i);
+            }
+        }
+    }
+
+    private static Thread startThread(String name, AtomicReference<Throwable> failure, Task task) {
+        Thread thread = new Thread(() -> {
+            try {
+                task.run();
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            }
+        }, name);
+        thread.start();
+        return thread;
+    }
+
+    private static long encode(int writer, int seq) {
+        return PRICE_BASE + writer * WRITER_STRIDE + seq;
+    }
+
+    private static int writerOf(long micros) {
+        return (int) ((micros - PRICE_BASE) / WRITER_STRIDE);
+    }
+
+    private static long sequenceOf(long micros) {
+        return (micros - PRICE_BASE) % WRITER_STRIDE;
+    }
+
+    private static void assertValidPrice(long micros) {
+        assertTrue(micros >= PRICE_BASE, "Price was never written: " + micros);
+        assertTrue(writerOf(micros) < WRITERS && sequenceOf(micros) < UPDATES_PER_WRITER,
+                "Price was never written: " + micros);
+    }
+
+    @FunctionalInterface
+    private interface Task {
+        void run() throws Exception;
+    }
+}
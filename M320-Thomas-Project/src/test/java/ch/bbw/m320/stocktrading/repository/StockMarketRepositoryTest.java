@@ -0,0 +1,70 @@
+package ch.bbw.m320.stocktrading.repository;
+
+import ch.bbw.m320.stocktrading.model.Money;
+import ch.bbw.m320.stocktrading.model.Stock;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests that the stock group commit only reports ticks as saved once they are on disk.
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+class StockMarketRepositoryTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    @Timeout(value = 30, unit = TimeUnit.SECONDS)
+    void savesTicksAcrossRestart() {
+        StockMarketRepository repository = new StockMarketRepository(directory);
+        Stock stock = new Stock("SMRA", "Restart Inc.", Money.of("10"));
+        stock.updatePrice(Money.of("11"));
+        stock.updatePrice(Money.of("12"));
+        repository.save(Map.of("SMRA", stock));
+        repository.flush();
+        repository.shutdown();
+
+        StockMarketRepository reopened = new StockMarketRepository(directory);
+        Stock loaded = reopened.load().get("SMRA");
+        reopened.shutdown();
+        assertEquals(3, loaded.getPriceHistory().size());
+        assertEquals(Money.of("12").getMicros(), loaded.getCurrentPrice().getMicros());
+    }
+
+    @Test
+    @Timeout(value = 30, unit = TimeUnit.SECONDS)
+    void reportsTicksThatCannotBeWrittenAndRetriesThem() throws IOException {
+        StockMarketRepository repository = new StockMarketRepository(directory);
+        Stock stock = new Stock("SMRB", "Retry Inc.", Money.of("10"));
+        stock.updatePrice(Money.of("11"));
+
+        Path tickFile = directory.resolve("ticks").resolve("SMRB" + TickArchive.FILE_EXTENSION);
+        Files.createDirectories(tickFile); // the tick file cannot be opened
+        repository.save(Map.of("SMRB", stock));
+        assertThrows(UncheckedIOException.class, repository::flush, "Unwritten ticks reported as durable");
+
+        Files.delete(tickFile);
+        stock.updatePrice(Money.of("12"));
+        repository.save(Map.of("SMRB", stock));
+        repository.flush(); // waits for the retry, which also writes the ticks of the failed batch
+        repository.shutdown();
+
+        StockMarketRepository reopened = new StockMarketRepository(directory);
+        Stock loaded = reopened.load().get("SMRB");
+        reopened.shutdown();
+        assertEquals(3, loaded.getPriceHistory().size(), "Ticks of the failed commit were lost");
+        assertEquals(Money.of("12").getMicros(), loaded.getCurrentPrice().getMicros());
+    }
+}
@@ -0,0 +1,155 @@
+package ch.bbw.m320.stocktrading.repository;
+
+import ch.bbw.m320.stocktrading.model.Money;
+import ch.bbw.m320.stocktrading.model.PriceHistory;
+import ch.bbw.m320.stocktrading.model.Stock;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests that {@link StockSnapshotStore} reads back what it wrote, rejects snapshots whose
+ * checksums do not match and falls back to the previous snapshot then.
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+class StockSnapshotStoreTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void roundTripsStocksOverSeveralChunks() throws IOException {
+        List<Stock> stocks = stocks(StockSnapshotStore.CHUNK_SIZE * 2 + 3, "1.5");
+        StockSnapshotStore store = new StockSnapshotStore(directory);
+        store.write(stocks);
+
+        List<StockSnapshotStore.Entry> entries = new StockSnapshotStore(directory).readNewest();
+        assertEquals(stocks.size(), entries.size());
+        for (int i = 0; i < stocks.size(); i++) {
+            Stock.PriceSnapshot price = stocks.get(i).getPriceSnapshot();
+            StockSnapshotStore.Entry entry = entries.get(i);
+            assertEquals(stocks.get(i).getSymbol(), entry.getSymbol());
+            assertEquals(stocks.get(i).getName(), entry.getName());
+            assertEquals(price.getPrice().getMicros(), entry.getPriceMicros());
+            assertEquals(PriceHistory.toEpochNanos(price.getTimestamp()), entry.getPriceEpochNanos());
+        }
+    }
+
+    @Test
+    void returnsNullWithoutSnapshot() throws IOException {
+        assertNull(new StockSnapshotStore(directory.resolve("missing")).readNewest());
+    }
+
+    @Test
+    void keepsOnlyTheNewestSnapshots() throws IOException {
+        StockSnapshotStore store = new StockSnapshotStore(directory);
+        for (int i = 1; i <= 4; i++) {
+            store.write(stocks(3, Integer.toString(i)));
+        }
+        Files.writeString(directory.resolve("snapshot-0000000000000000009.snap.tmp"), "torn");
+        store.write(stocks(3, "5"));
+
+        assertEquals(StockSnapshotStore.SNAPSHOTS_KEPT, snapshotFiles().size());
+        try (Stream<Path> files = Files.list(directory)) {
+            assertTrue(files.noneMatch(file -> file.toString().endsWith(".tmp")), "Temporary file left behind");
+        }
+        assertEquals(Money.of("5").getMicros(), new StockSnapshotStore(directory).readNewest().get(0).getPriceMicros());
+    }
+
+    @Test
+    void continuesTheSequenceOfAnEarlierRun() throws IOException {
+        new StockSnapshotStore(directory).write(stocks(1, "1"));
+        new StockSnapshotStore(directory).write(stocks(1, "2"));
+
+        List<Path> files = snapshotFiles();
+        assertEquals(2, files.size());
+        assertEquals(Money.of("2").getMicros(), new StockSnapshotStore(directory).readNewest().get(0).getPriceMicros());
+    }
+
+    @Test
+    void fallsBackWhenAChunkChecksumDoesNotMatch() throws IOException {
+        writePreviousAndNewest();
+        corruptNewest(content -> content[content.length - 1] ^= 0x01);
+        assertFallsBackToPrevious();
+    }
+
+    @Test
+    void fallsBackWhenTheHeaderChecksumDoesNotMatch() throws IOException {
+        writePreviousAndNewest();
+        corruptNewest(content -> content[27] ^= 0x01); // stock count
+        assertFallsBackToPrevious();
+    }
+
+    @Test
+    void fallsBackWhenTheNewestSnapshotIsCutOff() throws IOException {
+        writePreviousAndNewest();
+        Path newest = snapshotFiles().get(snapshotFiles().size() - 1);
+        byte[] content = Files.readAllBytes(newest);
+        Files.write(newest, Arrays.copyOf(content, content.length - 5));
+        assertFallsBackToPrevious();
+
+        Files.write(newest, Arrays.copyOf(content, 10));
+        assertFallsBackToPrevious();
+    }
+
+    @Test
+    void returnsNullWhenNoSnapshotIsValid() throws IOException {
+        new StockSnapshotStore(directory).write(stocks(3, "1"));
+        corruptNewest(content -> content[content.length - 1] ^= 0x01);
+        assertNull(new StockSnapshotStore(directory).readNewest());
+    }
+
+    private void writePreviousAndNewest() throws IOException {
+        StockSnapshotStore store = new StockSnapshotStore(directory);
+        store.write(stocks(StockSnapshotStore.CHUNK_SIZE + 1, "1"));
+        store.write(stocks(StockSnapshotStore.CHUNK_SIZE + 1, "2"));
+    }
+
+    private void assertFallsBackToPrevious() throws IOException {
+        List<StockSnapshotStore.Entry> entries = new StockSnapshotStore(directory).readNewest();
+        assertNotNull(entries, "Previous snapshot not used");
+        assertEquals(StockSnapshotStore.CHUNK_SIZE + 1, entries.size());
+        for (StockSnapshotStore.Entry entry : entries) {
+            assertEquals(Money.of("1").getMicros(), entry.getPriceMicros(), "Corrupt snapshot was loaded");
+        }
+    }
+
+    private void corruptNewest(Corruption corruption) throws IOException {
+        List<Path> files = snapshotFiles();
+        Path newest = files.get(files.size() - 1);
+        byte[] content = Files.readAllBytes(newest);
+        corruption.apply(content);
+        Files.write(newest, content);
+    }
+
+    /**
+     * Lists the snapshot files, oldest first.
+     */
+    private List<Path> snapshotFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".snap")).sorted().toList();
+        }
+    }
+
+    private static List<Stock> stocks(int count, String price) {
+        List<Stock> stocks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            stocks.add(new Stock("SSS" + i, "Snapshot Stock Nr. " + i + " äöü", Money.of(price)));
+        }
+        return stocks;
+    }
+
+    private interface Corruption {
+        void apply(byte[] content);
+    }
+}
@@ -0,0 +1,180 @@
+package ch.bbw.m320.stocktrading.repository;
+
+import ch.bbw.m320.stocktrading.model.BuyTransaction;
+import ch.bbw.m320.stocktrading.model.Money;
+import ch.bbw.m320.stocktrading.model.SellTransaction;
+import ch.bbw.m320.stocktrading.model.Transaction;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the binary record format of {@link TransactionCodec}: round trips of every ID kind,
+ * the symbol table across runs and the rejection of damaged segments.
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+class TransactionCodecTest {
+    private static final LocalDateTime TIME = LocalDateTime.of(2024, 3, 1, 12, 30, 15, 123_000_000);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void roundTripsEveryIdKind() throws IOException {
+        List<Transaction> written = List.of(
+                new BuyTransaction("1234567890123", "TCA", 5, Money.of("12.345678"), TIME),
+                new SellTransaction("0f8fad5b-d9cb-469f-a165-70867728950e", "TCB", 1, Money.of("0.000001"), TIME),
+                new BuyTransaction("legacy-42", "TCA", 7, Money.of("99"), null),
+                new SellTransaction("007", "TCC", 2, Money.of("3"), TIME),
+                new BuyTransaction(null, "TCB", 3, Money.of("4"), TIME));
+
+        List<Transaction> read = decodeAll(new TransactionCodec(symbolFile()), encode(new TransactionCodec(symbolFile()), written));
+
+        assertEquals(written.size(), read.size());
+        for (int i = 0; i < written.size(); i++) {
+            assertSameTransaction(written.get(i), read.get(i));
+        }
+    }
+
+    @Test
+    void numericIdsTakeAFixedSize() throws IOException {
+        byte[] segment = encode(new TransactionCodec(symbolFile()),
+                List.of(new BuyTransaction("1", "TCA", 1, Money.of("1"), TIME)));
+        assertEquals(TransactionCodec.HEADER_LENGTH + 33, segment.length);
+    }
+
+    @Test
+    void keepsSymbolNumbersAcrossRuns() throws IOException {
+        byte[] first = encode(new TransactionCodec(symbolFile()),
+                List.of(new BuyTransaction("1", "TCX", 1, Money.of("1"), TIME)));
+
+        // A later run appends to the table instead of reusing the number of TCX
+        TransactionCodec later = new TransactionCodec(symbolFile());
+        byte[] second = encode(later, List.of(new SellTransaction("2", "TCY", 1, Money.of("1"), TIME),
+                new SellTransaction("3", "TCX", 1, Money.of("1"), TIME)));
+        assertEquals(List.of("TCX", "TCY"), Files.readAllLines(symbolFile()));
+
+        TransactionCodec reader = new TransactionCodec(symbolFile());
+        assertEquals("TCX", decodeAll(reader, first).get(0).getStockSymbol());
+        List<Transaction> read = decodeAll(reader, second);
+        assertEquals("TCY", read.get(0).getStockSymbol());
+        assertEquals("TCX", read.get(1).getStockSymbol());
+    }
+
+    @Test
+    void cutsOffATornSymbol() throws IOException {
+        encode(new TransactionCodec(symbolFile()), List.of(new BuyTransaction("1", "TCA", 1, Money.of("1"), TIME)));
+        Files.write(symbolFile(), "TC".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        byte[] segment = encode(new TransactionCodec(symbolFile()),
+                List.of(new BuyTransaction("2", "TCB", 1, Money.of("1"), TIME)));
+
+        assertEquals(List.of("TCA", "TCB"), Files.readAllLines(symbolFile()));
+        assertEquals("TCB", decodeAll(new TransactionCodec(symbolFile()), segment).get(0).getStockSymbol());
+    }
+
+    @Test
+    void reportsACutOffRecordAsEndOfFile() throws IOException {
+        byte[] segment = encode(new TransactionCodec(symbolFile()),
+                List.of(new BuyTransaction("1", "TCA", 1, Money.of("1"), TIME),
+                        new BuyTransaction("2", "TCA", 2, Money.of("2"), TIME)));
+        TransactionCodec reader = new TransactionCodec(symbolFile());
+
+        for (int cut = segment.length - 1; cut > TransactionCodec.HEADER_LENGTH + 33; cut--) {
+            ByteBuffer in = ByteBuffer.wrap(Arrays.copyOf(segment, cut));
+            TransactionCodec.readHeader(in);
+            assertEquals("1", reader.decode(in).getTransactionId());
+            assertThrows(EOFException.class, () -> reader.decode(in), "Cut at " + cut);
+        }
+        assertThrows(EOFException.class, () -> TransactionCodec.readHeader(ByteBuffer.wrap(new byte[] {'T', 'X'})));
+    }
+
+    @Test
+    void rejectsForeignOrNewerSegments() throws IOException {
+        byte[] segment = encode(new TransactionCodec(symbolFile()),
+                List.of(new BuyTransaction("1", "TCA", 1, Money.of("1"), TIME)));
+
+        byte[] foreign = segment.clone();
+        foreign[0] = '{';
+        assertThrows(IOException.class, () -> decodeAll(new TransactionCodec(symbolFile()), foreign));
+
+        byte[] newer = segment.clone();
+        newer[3] = TransactionCodec.VERSION + 1;
+        IOException e = assertThrows(IOException.class, () -> decodeAll(new TransactionCodec(symbolFile()), newer));
+        assertTrue(e.getMessage().contains("version"));
+    }
+
+    @Test
+    void rejectsDamagedRecords() throws IOException {
+        byte[] segment = encode(new TransactionCodec(symbolFile()),
+                List.of(new BuyTransaction("1", "TCA", 1, Money.of("1"), TIME)));
+        int tag = TransactionCodec.HEADER_LENGTH;
+        int symbol = tag + 1 + Long.BYTES;
+        int quantity = symbol + Integer.BYTES;
+
+        byte[] unknownType = segment.clone();
+        unknownType[tag] = 0x0F;
+        assertThrows(IOException.class, () -> decodeAll(new TransactionCodec(symbolFile()), unknownType));
+
+        byte[] unknownIdKind = segment.clone();
+        unknownIdKind[tag] = (byte) 0x71;
+        assertThrows(IOException.class, () -> decodeAll(new TransactionCodec(symbolFile()), unknownIdKind));
+
+        byte[] unknownSymbol = segment.clone();
+        ByteBuffer.wrap(unknownSymbol).putInt(symbol, 99);
+        assertThrows(IOException.class, () -> decodeAll(new TransactionCodec(symbolFile()), unknownSymbol));
+
+        byte[] negativeQuantity = segment.clone();
+        ByteBuffer.wrap(negativeQuantity).putInt(quantity, -1);
+        IOException e = assertThrows(IOException.class,
+                () -> decodeAll(new TransactionCodec(symbolFile()), negativeQuantity));
+        assertFalse(e instanceof EOFException, "Invalid record reported as a torn tail");
+    }
+
+    private Path symbolFile() {
+        return directory.resolve("transactions.symbols");
+    }
+
+    private static byte[] encode(TransactionCodec codec, List<Transaction> transactions) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        TransactionCodec.writeHeader(out);
+        for (Transaction transaction : transactions) {
+            codec.encode(transaction, out);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static List<Transaction> decodeAll(TransactionCodec codec, byte[] segment) throws IOException {
+        List<Transaction> records = new ArrayList<>();
+        codec.decodeAll(segment, records);
+        return records;
+    }
+
+    private static void assertSameTransaction(Transaction expected, Transaction actual) {
+        assertEquals(expected.getTransactionId(), actual.getTransactionId());
+        assertEquals(expected.getType(), actual.getType());
+        assertEquals(expected.getStockSymbol(), actual.getStockSymbol());
+        assertEquals(expected.getQuantity(), actual.getQuantity());
+        assertEquals(expected.getPricePerShare().getMicros(), actual.getPricePerShare().getMicros());
+        assertEquals(expected.getTimestamp(), actual.getTimestamp());
+    }
+}
@@ -0,0 +1,89 @@
+package ch.bbw.m320.stocktrading.repository;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests writing, reading and validating the {@link UserIndex} of a users.json snapshot.
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+class UserIndexTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void findsEveryEntryAfterReading() throws IOException {
+        Path snapshot = writeSnapshot("[...]");
+        Path indexFile = directory.resolve("users.idx");
+        UserIndex.Builder builder = new UserIndex.Builder();
+        for (int i = 0; i < 3000; i++) { // more than the initial capacity of the builder
+            builder.add(UserIndex.hash("user" + i), i * 100L, 100);
+        }
+        builder.add(UserIndex.hash("user7"), 999_999L, 42); // a second candidate for the same hash
+        builder.build().write(indexFile, snapshot);
+
+        UserIndex index = UserIndex.read(indexFile, snapshot);
+        assertNotNull(index);
+        assertEquals(3001, index.size());
+        for (int i = 0; i < 3000; i += 7) {
+            int slot = index.find(UserIndex.hash("user" + i));
+            assertTrue(slot >= 0, "Entry not found: user" + i);
+            assertEquals(UserIndex.hash("user" + i), index.hashAt(slot));
+        }
+
+        int first = index.find(UserIndex.hash("user7"));
+        long[] candidates = {index.offsetAt(first), index.offsetAt(first + 1)};
+        Arrays.sort(candidates);
+        assertArrayEquals(new long[] {700L, 999_999L}, candidates);
+        assertEquals(-1, index.find(UserIndex.hash("nobody")));
+    }
+
+    @Test
+    void ignoresIndexOfAnotherSnapshot() throws IOException {
+        Path snapshot = writeSnapshot("[1]");
+        Path indexFile = directory.resolve("users.idx");
+        UserIndex.Builder builder = new UserIndex.Builder();
+        builder.add(UserIndex.hash("alice"), 1, 2);
+        builder.build().write(indexFile, snapshot);
+
+        Files.writeString(snapshot, "[1, 2]"); // replaced by a newer snapshot
+        assertNull(UserIndex.read(indexFile, snapshot));
+        assertNull(UserIndex.read(directory.resolve("missing.idx"), snapshot));
+    }
+
+    @Test
+    void rejectsCorruptIndex() throws IOException {
+        Path snapshot = writeSnapshot("[1]");
+        Path indexFile = directory.resolve("users.idx");
+        UserIndex.Builder builder = new UserIndex.Builder();
+        builder.add(UserIndex.hash("alice"), 1, 2);
+        builder.add(UserIndex.hash("bob"), 3, 4);
+        builder.build().write(indexFile, snapshot);
+        byte[] valid = Files.readAllBytes(indexFile);
+
+        byte[] flipped = valid.clone();
+        flipped[flipped.length - 10] ^= 0x01; // inside the last entry
+        Files.write(indexFile, flipped);
+        IOException checksum = assertThrows(IOException.class, () -> UserIndex.read(indexFile, snapshot));
+        assertTrue(checksum.getMessage().contains("checksum"), checksum.getMessage());
+
+        Files.write(indexFile, Arrays.copyOf(valid, valid.length - 6), StandardOpenOption.TRUNCATE_EXISTING);
+        assertThrows(IOException.class, () -> UserIndex.read(indexFile, snapshot));
+    }
+
+    private Path writeSnapshot(String content) throws IOException {
+        Path snapshot = directory.resolve("users.json");
+        Files.writeString(snapshot, content);
+        return snapshot;
+    }
+}
@@ -0,0 +1,124 @@
+package ch.bbw.m320.stocktrading.repository;
+
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests how {@link UserJournal} replays its records and repairs a torn last line.
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+class UserJournalTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void replaysRecordsInOrder() throws IOException {
+        Path file = directory.resolve("users.journal");
+        try (UserJournal journal = new UserJournal(file)) {
+            for (int i = 0; i < 3; i++) {
+                journal.append(record(i));
+            }
+            journal.sync();
+            assertEquals(3, journal.getRecordCount());
+        }
+
+        assertEquals(List.of(0, 1, 2), replaySequences(new UserJournal(file)));
+    }
+
+    @Test
+    void cutsOffTornRecordAndAppendsOnFreshLine() throws IOException {
+        Path file = directory.resolve("users.journal");
+        Files.writeString(file, record(0) + "\n" + record(1) + "\n{\"op\":\"BAL", StandardCharsets.UTF_8);
+
+        UserJournal journal = new UserJournal(file);
+        assertEquals(List.of(0, 1), replaySequences(journal));
+        assertTrue(Files.readString(file).endsWith(record(1) + "\n"), "Torn record not cut off");
+
+        journal.append(record(2));
+        journal.sync();
+        journal.close();
+        assertEquals(List.of(0, 1, 2), replaySequences(new UserJournal(file)));
+    }
+
+    @Test
+    void keepsCompleteUnterminatedRecord() throws IOException {
+        Path file = directory.resolve("users.journal");
+        Files.writeString(file, record(0) + "\n" + record(1), StandardCharsets.UTF_8);
+
+        UserJournal journal = new UserJournal(file);
+        assertEquals(List.of(0, 1), replaySequences(journal));
+        assertTrue(Files.readString(file).endsWith("\n"), "Complete record not terminated");
+
+        journal.append(record(2));
+        journal.close();
+        assertEquals(List.of(0, 1, 2), replaySequences(new UserJournal(file)));
+    }
+
+    @Test
+    void terminatesFragmentLeftByFailedWriteBeforeAppending() throws IOException {
+        Path file = directory.resolve("users.journal");
+        UserJournal journal = new UserJournal(file);
+        journal.append(record(0));
+        journal.close();
+        Files.writeString(file, "{\"op\":", StandardOpenOption.APPEND); // written by a failed append
+
+        journal.append(record(1)); // reopens the file without replaying it first
+        journal.close();
+        assertEquals(List.of(0, 1), replaySequences(new UserJournal(file)));
+    }
+
+    @Test
+    void discardDropsBufferedRecords() throws IOException {
+        Path file = directory.resolve("users.journal");
+        UserJournal journal = new UserJournal(file);
+        journal.append(record(0));
+        journal.sync();
+        journal.append(record(1)); // only buffered
+        journal.discard();
+
+        assertEquals(List.of(0), replaySequences(new UserJournal(file)));
+        journal.append(record(2));
+        journal.close();
+        assertEquals(List.of(0, 2), replaySequences(new UserJournal(file)));
+    }
+
+    @Test
+    void truncateRemovesAllRecords() throws IOException {
+        Path file = directory.resolve("users.journal");
+        UserJournal journal = new UserJournal(file);
+        journal.append(record(0));
+        journal.truncate();
+
+        assertFalse(Files.exists(file));
+        assertEquals(0, journal.getRecordCount());
+        assertEquals(List.of(), replaySequences(journal));
+    }
+
+    private static JsonObject record(int sequence) {
+        JsonObject record = new JsonObject();
+        record.addProperty("op", "BALANCE");
+        record.addProperty("userId", "user-1");
+        record.addProperty("sequence", sequence);
+        return record;
+    }
+
+    private static List<Integer> replaySequences(UserJournal journal) throws IOException {
+        List<Integer> sequences = new ArrayList<>();
+        int replayed = journal.replay(record -> sequences.add(record.get("sequence").getAsInt()));
+        assertEquals(sequences.size(), replayed);
+        return sequences;
+    }
+}
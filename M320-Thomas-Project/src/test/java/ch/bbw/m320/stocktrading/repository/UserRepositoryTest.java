@@ -0,0 +1,174 @@
+package ch.bbw.m320.stocktrading.repository;
+
+import ch.bbw.m320.stocktrading.model.Money;
+import ch.bbw.m320.stocktrading.model.User;
+import ch.bbw.m320.stocktrading.model.UserLocks;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the journal, compaction and lazy loading of {@link UserRepository}
+ * against a temporary data directory.
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+class UserRepositoryTest {
+    private static final int CACHE_SIZE = 2;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    @Timeout(value = 30, unit = TimeUnit.SECONDS)
+    void replaysJournalAfterCrash() {
+        UserRepository repository = new UserRepository(directory, true, UserRepository.LOAD_ALL);
+        User alice = new User("alice", Money.of("100"));
+        alice.getPortfolio().addStock("URTA", 3);
+        repository.saveDurably(alice);
+        alice.withdraw(Money.of("40"));
+        repository.saveDurably(alice);
+        // No shutdown: the changes are only in the journal
+
+        User loaded = new UserRepository(directory, true, UserRepository.LOAD_ALL)
+                .findByUsername("alice").orElseThrow();
+        assertEquals(alice.getUserId(), loaded.getUserId());
+        assertEquals(Money.of("60").getMicros(), loaded.getBalance().getMicros());
+        assertEquals(3, loaded.getPortfolio().getQuantity("URTA"));
+    }
+
+    @Test
+    @Timeout(value = 30, unit = TimeUnit.SECONDS)
+    void shutdownFoldsJournalIntoSnapshot() throws IOException {
+        UserRepository repository = new UserRepository(directory, true, CACHE_SIZE);
+        for (int i = 0; i < 5; i++) {
+            repository.saveDurably(new User("user" + i, Money.of(Integer.toString(100 + i))));
+        }
+        assertTrue(Files.size(directory.resolve("users.journal")) > 0);
+        repository.shutdown();
+
+        assertFalse(Files.exists(directory.resolve("users.journal")), "Journal not truncated");
+        assertTrue(Files.exists(directory.resolve("users.idx")), "Index not written");
+        UserRepository reopened = new UserRepository(directory, true, CACHE_SIZE);
+        for (int i = 0; i < 5; i++) {
+            User user = reopened.findByUsername("USER" + i).orElseThrow();
+            assertEquals(Money.of(Integer.toString(100 + i)).getMicros(), user.getBalance().getMicros());
+        }
+        assertFalse(reopened.existsByUsername("user5"));
+        reopened.shutdown();
+    }
+
+    @Test
+    @Timeout(value = 30, unit = TimeUnit.SECONDS)
+    void rebuildsCorruptIndex() throws IOException {
+        UserRepository repository = new UserRepository(directory, true, CACHE_SIZE);
+        repository.saveDurably(new User("alice", Money.of("100")));
+        repository.shutdown();
+        Path indexFile = directory.resolve("users.idx");
+        byte[] corrupt = Files.readAllBytes(indexFile);
+        corrupt[corrupt.length - 1] ^= 0x01;
+        Files.write(indexFile, corrupt);
+
+        UserRepository reopened = new UserRepository(directory, true, CACHE_SIZE);
+        assertTrue(reopened.existsByUsername("alice"));
+        assertEquals(Money.of("100").getMicros(), reopened.findByUsername("alice").orElseThrow().getBalance().getMicros());
+        reopened.shutdown();
+    }
+
+    @Test
+    @Timeout(value = 30, unit = TimeUnit.SECONDS)
+    void reloadsEvictedUsersWithTheirChanges() {
+        UserRepository repository = new UserRepository(directory, true, CACHE_SIZE);
+        for (int i = 0; i < 6; i++) {
+            repository.saveDurably(new User("user" + i, Money.of("100")));
+        }
+        repository.shutdown();
+
+        UserRepository lazy = new UserRepository(directory, true, CACHE_SIZE);
+        User held = lazy.findByUsername("user0").orElseThrow();
+        held.deposit(Money.of("5"));
+        lazy.save(held); // not written yet when it is evicted below
+
+        User changed = lazy.findByUsername("user1").orElseThrow();
+        changed.getPortfolio().addStock("URTB", 7);
+        lazy.save(changed);
+        changed = null; // only the repository can bring it back now
+
+        for (int i = 2; i < 6; i++) {
+            assertTrue(lazy.findByUsername("user" + i).isPresent());
+        }
+        System.gc(); // may collect user1, which is then read from the snapshot and its journal records
+
+        assertSame(held, lazy.findByUsername("user0").orElseThrow(), "Second copy of a user still in use");
+        User reloaded = lazy.findByUsername("user1").orElseThrow();
+        assertEquals(7, reloaded.getPortfolio().getQuantity("URTB"), "Change lost on eviction");
+
+        List<String> seen = new ArrayList<>();
+        lazy.forEachUser(user -> seen.add(user.getUsername()));
+        assertEquals(6, seen.size());
+        lazy.shutdown();
+
+        UserRepository reopened = new UserRepository(directory, true, CACHE_SIZE);
+        assertEquals(Money.of("105").getMicros(), reopened.findByUsername("user0").orElseThrow().getBalance().getMicros());
+        assertEquals(7, reopened.findByUsername("user1").orElseThrow().getPortfolio().getQuantity("URTB"));
+        reopened.shutdown();
+    }
+
+    @Test
+    @Timeout(value = 30, unit = TimeUnit.SECONDS)
+    void evictionDoesNotWaitForAUserInATrade() throws InterruptedException {
+        UserRepository repository = new UserRepository(directory, true, 1);
+        User trader = new User("trader", Money.of("100"));
+        repository.saveDurably(trader);
+        Lock traderLock = UserLocks.lockFor(trader);
+
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch othersSaved = new CountDownLatch(1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread trade = new Thread(() -> {
+            traderLock.lock(); // like TradingService: change and save under the user's lock
+            try {
+                trader.withdraw(Money.of("30"));
+                locked.countDown();
+                othersSaved.await();
+                repository.save(trader);
+            } catch (Throwable e) {
+                failure.set(e);
+            } finally {
+                traderLock.unlock();
+            }
+        }, "trade");
+        trade.start();
+        locked.await();
+
+        // Each save evicts the eldest user, the trader first, while its trade holds the lock
+        for (int i = 0; i < 3; i++) {
+            User other;
+            do {
+                other = new User("other" + i, Money.of("10"));
+            } while (UserLocks.lockFor(other) == traderLock); // a shared stripe would wait for the trade
+            repository.save(other);
+        }
+        othersSaved.countDown();
+        trade.join();
+        assertNull(failure.get());
+        repository.shutdown();
+
+        UserRepository reopened = new UserRepository(directory, true, 1);
+        assertEquals(Money.of("70").getMicros(), reopened.findByUsername("trader").orElseThrow().getBalance().getMicros());
+        reopened.shutdown();
+    }
+}
@@ -0,0 +1,98 @@
+package ch.bbw.m320.stocktrading.repository;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests coalescing, group commit and the retry of failed commits in {@link WriteBehindQueue}.
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+class WriteBehindQueueTest {
+    private static final int BATCH_SIZE = 100;
+    private static final long DELAY_MILLIS = 10;          // also the first retry delay
+    private static final long LONG_DELAY_MILLIS = 60_000; // only a flush commits
+
+    private final List<Map<String, String>> committed = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean failing = new AtomicBoolean();
+
+    @Test
+    @Timeout(value = 10, unit = TimeUnit.SECONDS)
+    void coalescesChangesPerKey() {
+        WriteBehindQueue<String, String> queue = newQueue(LONG_DELAY_MILLIS);
+        queue.enqueue("a", "1");
+        queue.enqueue("b", "2");
+        queue.enqueue("a", "3");
+        queue.flush();
+        queue.shutdown();
+
+        assertEquals(List.of(Map.of("a", "1,3", "b", "2")), committed);
+    }
+
+    @Test
+    @Timeout(value = 10, unit = TimeUnit.SECONDS)
+    void reportsFailedCommitAndRetriesIt() {
+        WriteBehindQueue<String, String> queue = newQueue(DELAY_MILLIS);
+        failing.set(true);
+        long ticket = queue.enqueue("a", "1");
+
+        UncheckedIOException error = assertThrows(UncheckedIOException.class, () -> queue.awaitCommitted(ticket));
+        assertTrue(error.getMessage().contains("disk full"), error.getMessage());
+        assertTrue(committed.isEmpty());
+
+        // A newer change is merged after the failed one, not in place of it
+        long newerTicket = queue.enqueue("a", "2");
+        failing.set(false);
+        queue.awaitCommitted(newerTicket);
+        queue.awaitCommitted(ticket);
+        queue.shutdown();
+
+        assertEquals(List.of(Map.of("a", "1,2")), committed);
+    }
+
+    @Test
+    @Timeout(value = 10, unit = TimeUnit.SECONDS)
+    void neverReportsChangesOfAFailingBatchAsCommitted() {
+        WriteBehindQueue<String, String> queue = newQueue(DELAY_MILLIS);
+        failing.set(true);
+        long ticket = queue.enqueue("a", "1");
+        assertThrows(UncheckedIOException.class, () -> queue.awaitCommitted(ticket));
+        assertThrows(UncheckedIOException.class, queue::flush);
+
+        queue.shutdown(); // gives the changes up after one more failed attempt
+        assertTrue(committed.isEmpty());
+        assertThrows(UncheckedIOException.class, () -> queue.awaitCommitted(ticket));
+    }
+
+    @Test
+    @Timeout(value = 10, unit = TimeUnit.SECONDS)
+    void shutdownCommitsPendingChanges() {
+        WriteBehindQueue<String, String> queue = newQueue(DELAY_MILLIS);
+        queue.enqueue("a", "1");
+        queue.shutdown();
+
+        assertEquals(List.of(Map.of("a", "1")), committed);
+        assertThrows(IllegalStateException.class, () -> queue.enqueue("b", "2"));
+    }
+
+    private WriteBehindQueue<String, String> newQueue(long delayMillis) {
+        return new WriteBehindQueue<>("test-write-behind", BATCH_SIZE, delayMillis,
+                (older, newer) -> older + "," + newer, batch -> {
+                    if (failing.get()) {
+                        throw new IOException("disk full");
+                    }
+                    committed.add(Map.copyOf(batch));
+                });
+    }
+}
@@ -0,0 +1,223 @@
+package ch.bbw.m320.stocktrading.service;
+
+import ch.bbw.m320.stocktrading.exception.InsufficientBalanceException;
+import ch.bbw.m320.stocktrading.exception.InsufficientStockException;
+import ch.bbw.m320.stocktrading.model.Money;
+import ch.bbw.m320.stocktrading.model.Stock;
+import ch.bbw.m320.stocktrading.model.StockMarket;
+import ch.bbw.m320.stocktrading.model.SymbolRegistry;
+import ch.bbw.m320.stocktrading.model.Transaction;
+import ch.bbw.m320.stocktrading.model.User;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static ch.bbw.m320.stocktrading.model.Transaction.TransactionType.BUY;
+import static ch.bbw.m320.stocktrading.model.Transaction.TransactionType.SELL;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests price-time priority, partial fills, cancellation and settlement of the {@link MatchingEngine}.
+ * Every test lists its own stock, so the tests do not share order books or prices.
+ *
+ * @author Thomas
+ * @version 1.0
+ */
+class MatchingEngineTest {
+    private static final AtomicInteger NEXT_SYMBOL = new AtomicInteger();
+
+    private final MatchingEngine engine = new MatchingEngine(new TradingService());
+
+    @Test
+    void fillsBestPriceFirstThenOldestOrder() throws Exception {
+        String symbol = listStock("10");
+        User expensive = seller(symbol, 5);
+        User first = seller(symbol, 5);
+        User second = seller(symbol, 5);
+        LimitOrder expensiveAsk = engine.submitLimitOrder(expensive, symbol, SELL, 5, Money.of("11"));
+        LimitOrder firstAsk = engine.submitLimitOrder(first, symbol, SELL, 5, Money.of("10"));
+        LimitOrder secondAsk = engine.submitLimitOrder(second, symbol, SELL, 5, Money.of("10"));
+
+        User buyer = new User("buyer", Money.of("1000"));
+        LimitOrder bid = engine.submitLimitOrder(buyer, symbol, BUY, 8, Money.of("12"));
+
+        assertTrue(bid.isFilled());
+        assertTrue(firstAsk.isFilled(), "Older order at the best price not filled first");
+        assertEquals(3, secondAsk.getFilledQuantity());
+        assertEquals(0, expensiveAsk.getFilledQuantity(), "Worse price filled before the best one");
+
+        // Fills execute at the resting price; the buyer gets the rest of its reservation back
+        assertEquals(Money.of("920").getMicros(), buyer.getBalance().getMicros());
+        assertEquals(0, buyer.getReservedBalance().getMicros());
+        assertEquals(8, buyer.getPortfolio().getQuantity(symbol));
+        assertEquals(Money.of("50").getMicros(), first.getBalance().getMicros());
+        assertEquals(Money.of("30").getMicros(), second.getBalance().getMicros());
+        assertEquals(Money.of("10").getMicros(), StockMarket.getInstance().getStock(symbol).getCurrentPrice().getMicros());
+
+        OrderBook book = engine.getOrderBook(symbol);
+        assertEquals(Money.of("10").getMicros(), book.getBestAsk().longValue());
+        assertEquals(2, book.getDepth(SELL, Money.of("10").getMicros()));
+        assertNull(book.getBestBid());
+    }
+
+    @Test
+    void restsUnfilledRemainder() throws Exception {
+        String symbol = listStock("10");
+        User buyer = new User("buyer", Money.of("100"));
+        LimitOrder bid = engine.submitLimitOrder(buyer, symbol, BUY, 10, Money.of("10"));
+        assertEquals(0, bid.getFilledQuantity());
+        assertEquals(0, buyer.getBalance().getMicros(), "Limit price x quantity not reserved");
+
+        User seller = seller(symbol, 4);
+        LimitOrder ask = engine.submitLimitOrder(seller, symbol, SELL, 4, Money.of("9"));
+
+        assertTrue(ask.isFilled());
+        assertEquals(4, bid.getFilledQuantity());
+        assertEquals(6, bid.getRemainingQuantity());
+        assertEquals(Money.of("40").getMicros(), seller.getBalance().getMicros(), "Sell order not filled at the bid");
+        assertEquals(Money.of("60").getMicros(), buyer.getReservedBalance().getMicros());
+        assertEquals(6, engine.getOrderBook(symbol).getDepth(BUY, Money.of("10").getMicros()));
+    }
+
+    @Test
+    void cancelReleasesWhatIsStillReserved() throws Exception {
+        String symbol = listStock("10");
+        User buyer = new User("buyer", Money.of("100"));
+        LimitOrder bid = engine.submitLimitOrder(buyer, symbol, BUY, 10, Money.of("10"));
+        engine.submitLimitOrder(seller(symbol, 4), symbol, SELL, 4, Money.of("10"));
+
+        assertTrue(engine.cancelOrder(bid));
+        assertTrue(bid.isCancelled());
+        assertEquals(Money.of("60").getMicros(), buyer.getBalance().getMicros());
+        assertEquals(0, buyer.getReservedBalance().getMicros());
+        assertFalse(engine.cancelOrder(bid), "Cancelled twice");
+        assertEquals(Money.of("60").getMicros(), buyer.getBalance().getMicros());
+
+        User seller = seller(symbol, 5);
+        LimitOrder ask = engine.submitLimitOrder(seller, symbol, SELL, 5, Money.of("20"));
+        assertEquals(0, seller.getPortfolio().getQuantity(symbol), "Shares of a resting sell order not reserved");
+        assertTrue(engine.cancelOrder(ask));
+        assertEquals(5, seller.getPortfolio().getQuantity(symbol));
+        assertEquals(0, seller.getPortfolio().getReservedQuantity(SymbolRegistry.getInstance().find(symbol)));
+        assertNull(engine.getOrderBook(symbol).getBestAsk());
+    }
+
+    @Test
+    void rejectsOrdersThatCannotBeCovered() throws Exception {
+        String symbol = listStock("10");
+        User buyer = new User("buyer", Money.of("50"));
+        assertThrows(InsufficientBalanceException.class,
+                () -> engine.submitLimitOrder(buyer, symbol, BUY, 6, Money.of("10")));
+        assertEquals(Money.of("50").getMicros(), buyer.getBalance().getMicros());
+
+        User seller = seller(symbol, 2);
+        assertThrows(InsufficientStockException.class,
+                () -> engine.submitLimitOrder(seller, symbol, SELL, 3, Money.of("10")));
+        assertEquals(2, seller.getPortfolio().getQuantity(symbol));
+        assertNull(engine.getOrderBook(symbol).getBestAsk());
+    }
+
+    @Test
+    @Timeout(value = 60, unit = TimeUnit.SECONDS)
+    void concurrentTradingNeverOverdrawsOrCreatesMoneyOrShares() throws Exception {
+        String symbol = listStock("10");
+        int traders = 8;
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < traders; i++) {
+            User user = new User("trader" + i, Money.of("1000"));
+            user.getPortfolio().addStock(symbol, 100);
+            users.add(user);
+        }
+        long cashBefore = totalCash(users);
+        int sharesBefore = totalShares(users, symbol);
+
+        ConcurrentLinkedQueue<LimitOrder> orders = new ConcurrentLinkedQueue<>();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < traders; t++) {
+            User user = users.get(t);
+            Random random = new Random(t);
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < 2_000; i++) {
+                        Transaction.TransactionType side = random.nextBoolean() ? BUY : SELL;
+                        Money limit = Money.ofMicros(Money.of("9").getMicros() + random.nextInt(3_000_000));
+                        try {
+                            orders.add(engine.submitLimitOrder(user, symbol, side, 1 + random.nextInt(20), limit));
+                        } catch (InsufficientBalanceException | InsufficientStockException e) {
+                            // expected once a trader's cash or shares are tied up
+                        }
+                        LimitOrder oldest = random.nextInt(4) == 0 ? orders.poll() : null;
+                        if (oldest != null) {
+                            engine.cancelOrder(oldest);
+                        }
+                        assertFalse(user.getBalance().isNegative(), "Balance overdrawn");
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }, "trader-" + t);
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            fail("Trader failed", failure.get());
+        }
+
+        for (LimitOrder order : orders) {
+            engine.cancelOrder(order);
+        }
+        int symbolId = SymbolRegistry.getInstance().find(symbol);
+        for (User user : users) {
+            assertEquals(0, user.getReservedBalance().getMicros(), "Funds left reserved for " + user.getUsername());
+            assertEquals(0, user.getPortfolio().getReservedQuantity(symbolId), "Shares left reserved");
+            assertFalse(user.getBalance().isNegative());
+        }
+        assertEquals(cashBefore, totalCash(users), "Cash created or destroyed");
+        assertEquals(sharesBefore, totalShares(users, symbol), "Shares created or destroyed");
+        assertNull(engine.getOrderBook(symbol).getBestBid());
+        assertNull(engine.getOrderBook(symbol).getBestAsk());
+    }
+
+    private static String listStock(String price) {
+        String symbol = "MET" + NEXT_SYMBOL.incrementAndGet();
+        StockMarket.getInstance().addStock(new Stock(symbol, "Matching Test " + symbol, Money.of(price)));
+        return symbol;
+    }
+
+    private static User seller(String symbol, int shares) {
+        User seller = new User("seller", Money.ZERO);
+        seller.getPortfolio().addStock(symbol, shares);
+        return seller;
+    }
+
+    private static long totalCash(List<User> users) {
+        long total = 0;
+        for (User user : users) {
+            total += user.getBalanceIncludingReserved().getMicros();
+        }
+        return total;
+    }
+
+    private static int totalShares(List<User> users, String symbol) {
+        int total = 0;
+        for (User user : users) {
+            total += user.getPortfolio().getHoldingsIncludingReserved().getOrDefault(symbol, 0);
+        }
+        return total;
+    }
+}